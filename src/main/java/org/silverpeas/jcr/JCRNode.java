@@ -0,0 +1,614 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr;
+
+import org.apache.jackrabbit.commons.iterator.NodeIteratorAdapter;
+
+import javax.jcr.Binary;
+import javax.jcr.Item;
+import javax.jcr.ItemVisitor;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.lock.Lock;
+import javax.jcr.nodetype.NodeDefinition;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.version.Version;
+import javax.jcr.version.VersionHistory;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Calendar;
+import java.util.Iterator;
+
+/**
+ * A node of a sharded JCR. It decorates the node got from the session with the repository in
+ * which the node is actually stored (either a shard or the default repository) so that the node
+ * leads back to the {@link JCRSession} instance: {@link #getSession()} returns the
+ * {@link JCRSession} and the nodes got from this one are also decorated. Hence, the operations
+ * performed with the session of a node are routed to the right repository. The properties of the
+ * node aren't decorated: their session is the one with the repository in which they are stored.
+ * @author mmoquillon
+ */
+class JCRNode implements Node {
+
+  private final JCRSession session;
+  private final Node node;
+
+  /**
+   * Decorates the specified node got from the session with one of the repositories of the JCR.
+   * @param session the session with the whole JCR.
+   * @param node the node to decorate.
+   */
+  JCRNode(final JCRSession session, final Node node) {
+    this.session = session;
+    this.node = node;
+  }
+
+  /**
+   * Gets the node decorated by this one, id est the node as seen by the session with the
+   * repository in which it is stored.
+   * @return the decorated node.
+   */
+  Node getDelegate() {
+    return node;
+  }
+
+  /**
+   * Gets the node decorated by the specified one if any.
+   * @param node a node.
+   * @return either the node decorated by the specified one or the specified node itself if it
+   * isn't decorated.
+   */
+  static Node unwrap(final Node node) {
+    return node instanceof JCRNode ? ((JCRNode) node).getDelegate() : node;
+  }
+
+  /**
+   * Gets the session with the whole JCR.
+   * @return the {@link JCRSession} from which this node was got.
+   */
+  JCRSession getJCRSession() {
+    return session;
+  }
+
+  @Override
+  public Node addNode(final String relPath) throws RepositoryException {
+    return session.wrap(node.addNode(relPath));
+  }
+
+  @Override
+  public Node addNode(final String relPath, final String primaryNodeTypeName)
+      throws RepositoryException {
+    return session.wrap(node.addNode(relPath, primaryNodeTypeName));
+  }
+
+  @Override
+  public void orderBefore(final String srcChildRelPath, final String destChildRelPath)
+      throws RepositoryException {
+    node.orderBefore(srcChildRelPath, destChildRelPath);
+  }
+
+  @Override
+  public Property setProperty(final String name, final Value value) throws RepositoryException {
+    return node.setProperty(name, value);
+  }
+
+  @Override
+  public Property setProperty(final String name, final Value value, final int type)
+      throws RepositoryException {
+    return node.setProperty(name, value, type);
+  }
+
+  @Override
+  public Property setProperty(final String name, final Value[] values)
+      throws RepositoryException {
+    return node.setProperty(name, values);
+  }
+
+  @Override
+  public Property setProperty(final String name, final Value[] values, final int type)
+      throws RepositoryException {
+    return node.setProperty(name, values, type);
+  }
+
+  @Override
+  public Property setProperty(final String name, final String[] values)
+      throws RepositoryException {
+    return node.setProperty(name, values);
+  }
+
+  @Override
+  public Property setProperty(final String name, final String[] values, final int type)
+      throws RepositoryException {
+    return node.setProperty(name, values, type);
+  }
+
+  @Override
+  public Property setProperty(final String name, final String value) throws RepositoryException {
+    return node.setProperty(name, value);
+  }
+
+  @Override
+  public Property setProperty(final String name, final String value, final int type)
+      throws RepositoryException {
+    return node.setProperty(name, value, type);
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public Property setProperty(final String name, final InputStream value)
+      throws RepositoryException {
+    return node.setProperty(name, value);
+  }
+
+  @Override
+  public Property setProperty(final String name, final Binary value) throws RepositoryException {
+    return node.setProperty(name, value);
+  }
+
+  @Override
+  public Property setProperty(final String name, final boolean value) throws RepositoryException {
+    return node.setProperty(name, value);
+  }
+
+  @Override
+  public Property setProperty(final String name, final double value) throws RepositoryException {
+    return node.setProperty(name, value);
+  }
+
+  @Override
+  public Property setProperty(final String name, final BigDecimal value)
+      throws RepositoryException {
+    return node.setProperty(name, value);
+  }
+
+  @Override
+  public Property setProperty(final String name, final long value) throws RepositoryException {
+    return node.setProperty(name, value);
+  }
+
+  @Override
+  public Property setProperty(final String name, final Calendar value)
+      throws RepositoryException {
+    return node.setProperty(name, value);
+  }
+
+  @Override
+  public Property setProperty(final String name, final Node value) throws RepositoryException {
+    return node.setProperty(name, unwrap(value));
+  }
+
+  @Override
+  public Node getNode(final String relPath) throws RepositoryException {
+    return session.wrap(node.getNode(relPath));
+  }
+
+  @Override
+  public NodeIterator getNodes() throws RepositoryException {
+    return wrap(node.getNodes());
+  }
+
+  @Override
+  public NodeIterator getNodes(final String namePattern) throws RepositoryException {
+    return wrap(node.getNodes(namePattern));
+  }
+
+  @Override
+  public NodeIterator getNodes(final String[] nameGlobs) throws RepositoryException {
+    return wrap(node.getNodes(nameGlobs));
+  }
+
+  @Override
+  public Property getProperty(final String relPath) throws RepositoryException {
+    return node.getProperty(relPath);
+  }
+
+  @Override
+  public PropertyIterator getProperties() throws RepositoryException {
+    return node.getProperties();
+  }
+
+  @Override
+  public PropertyIterator getProperties(final String namePattern) throws RepositoryException {
+    return node.getProperties(namePattern);
+  }
+
+  @Override
+  public PropertyIterator getProperties(final String[] nameGlobs) throws RepositoryException {
+    return node.getProperties(nameGlobs);
+  }
+
+  @Override
+  public Item getPrimaryItem() throws RepositoryException {
+    return session.wrap(node.getPrimaryItem());
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public String getUUID() throws RepositoryException {
+    return node.getUUID();
+  }
+
+  @Override
+  public String getIdentifier() throws RepositoryException {
+    return node.getIdentifier();
+  }
+
+  @Override
+  public int getIndex() throws RepositoryException {
+    return node.getIndex();
+  }
+
+  @Override
+  public PropertyIterator getReferences() throws RepositoryException {
+    return node.getReferences();
+  }
+
+  @Override
+  public PropertyIterator getReferences(final String name) throws RepositoryException {
+    return node.getReferences(name);
+  }
+
+  @Override
+  public PropertyIterator getWeakReferences() throws RepositoryException {
+    return node.getWeakReferences();
+  }
+
+  @Override
+  public PropertyIterator getWeakReferences(final String name) throws RepositoryException {
+    return node.getWeakReferences(name);
+  }
+
+  @Override
+  public boolean hasNode(final String relPath) throws RepositoryException {
+    return node.hasNode(relPath);
+  }
+
+  @Override
+  public boolean hasProperty(final String relPath) throws RepositoryException {
+    return node.hasProperty(relPath);
+  }
+
+  @Override
+  public boolean hasNodes() throws RepositoryException {
+    return node.hasNodes();
+  }
+
+  @Override
+  public boolean hasProperties() throws RepositoryException {
+    return node.hasProperties();
+  }
+
+  @Override
+  public NodeType getPrimaryNodeType() throws RepositoryException {
+    return node.getPrimaryNodeType();
+  }
+
+  @Override
+  public NodeType[] getMixinNodeTypes() throws RepositoryException {
+    return node.getMixinNodeTypes();
+  }
+
+  @Override
+  public boolean isNodeType(final String nodeTypeName) throws RepositoryException {
+    return node.isNodeType(nodeTypeName);
+  }
+
+  @Override
+  public void setPrimaryType(final String nodeTypeName) throws RepositoryException {
+    node.setPrimaryType(nodeTypeName);
+  }
+
+  @Override
+  public void addMixin(final String mixinName) throws RepositoryException {
+    node.addMixin(mixinName);
+  }
+
+  @Override
+  public void removeMixin(final String mixinName) throws RepositoryException {
+    node.removeMixin(mixinName);
+  }
+
+  @Override
+  public boolean canAddMixin(final String mixinName) throws RepositoryException {
+    return node.canAddMixin(mixinName);
+  }
+
+  @Override
+  public NodeDefinition getDefinition() throws RepositoryException {
+    return node.getDefinition();
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public Version checkin() throws RepositoryException {
+    return node.checkin();
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public void checkout() throws RepositoryException {
+    node.checkout();
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public void doneMerge(final Version version) throws RepositoryException {
+    node.doneMerge(version);
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public void cancelMerge(final Version version) throws RepositoryException {
+    node.cancelMerge(version);
+  }
+
+  @Override
+  public void update(final String srcWorkspace) throws RepositoryException {
+    node.update(srcWorkspace);
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public NodeIterator merge(final String srcWorkspace, final boolean bestEffort)
+      throws RepositoryException {
+    return wrap(node.merge(srcWorkspace, bestEffort));
+  }
+
+  @Override
+  public String getCorrespondingNodePath(final String workspaceName)
+      throws RepositoryException {
+    return node.getCorrespondingNodePath(workspaceName);
+  }
+
+  @Override
+  public NodeIterator getSharedSet() throws RepositoryException {
+    return wrap(node.getSharedSet());
+  }
+
+  @Override
+  public void removeSharedSet() throws RepositoryException {
+    node.removeSharedSet();
+  }
+
+  @Override
+  public void removeShare() throws RepositoryException {
+    node.removeShare();
+  }
+
+  @Override
+  public boolean isCheckedOut() throws RepositoryException {
+    return node.isCheckedOut();
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public void restore(final String versionName, final boolean removeExisting)
+      throws RepositoryException {
+    node.restore(versionName, removeExisting);
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public void restore(final Version version, final boolean removeExisting)
+      throws RepositoryException {
+    node.restore(version, removeExisting);
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public void restore(final Version version, final String relPath, final boolean removeExisting)
+      throws RepositoryException {
+    node.restore(version, relPath, removeExisting);
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public void restoreByLabel(final String versionLabel, final boolean removeExisting)
+      throws RepositoryException {
+    node.restoreByLabel(versionLabel, removeExisting);
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public VersionHistory getVersionHistory() throws RepositoryException {
+    return node.getVersionHistory();
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public Version getBaseVersion() throws RepositoryException {
+    return node.getBaseVersion();
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public Lock lock(final boolean isDeep, final boolean isSessionScoped)
+      throws RepositoryException {
+    return node.lock(isDeep, isSessionScoped);
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public Lock getLock() throws RepositoryException {
+    return node.getLock();
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public void unlock() throws RepositoryException {
+    node.unlock();
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public boolean holdsLock() throws RepositoryException {
+    return node.holdsLock();
+  }
+
+  @Override
+  public boolean isLocked() throws RepositoryException {
+    return node.isLocked();
+  }
+
+  @Override
+  public void followLifecycleTransition(final String transition) throws RepositoryException {
+    node.followLifecycleTransition(transition);
+  }
+
+  @Override
+  public String[] getAllowedLifecycleTransistions() throws RepositoryException {
+    return node.getAllowedLifecycleTransistions();
+  }
+
+  @Override
+  public String getPath() throws RepositoryException {
+    return node.getPath();
+  }
+
+  @Override
+  public String getName() throws RepositoryException {
+    return node.getName();
+  }
+
+  /**
+   * Gets the ancestor of this node at the specified depth. The root node is the one of the
+   * {@link JCRSession} whatever the repository in which this node is stored.
+   * @param depth the depth of the ancestor to get.
+   * @return the ancestor of this node.
+   * @throws RepositoryException if an error occurs.
+   */
+  @Override
+  public Item getAncestor(final int depth) throws RepositoryException {
+    return depth == 0 ? session.getRootNode() : session.wrap(node.getAncestor(depth));
+  }
+
+  /**
+   * Gets the parent of this node. The parent of a top-level node is the root node of the
+   * {@link JCRSession} whatever the repository in which this node is stored.
+   * @return the parent node.
+   * @throws RepositoryException if an error occurs.
+   */
+  @Override
+  public Node getParent() throws RepositoryException {
+    return node.getDepth() == 1 ? session.getRootNode() : session.wrap(node.getParent());
+  }
+
+  @Override
+  public int getDepth() throws RepositoryException {
+    return node.getDepth();
+  }
+
+  /**
+   * Gets the session through which this node was got.
+   * @return the {@link JCRSession} instance.
+   */
+  @Override
+  public Session getSession() {
+    return session;
+  }
+
+  @Override
+  public boolean isNode() {
+    return true;
+  }
+
+  @Override
+  public boolean isNew() {
+    return node.isNew();
+  }
+
+  @Override
+  public boolean isModified() {
+    return node.isModified();
+  }
+
+  @Override
+  public boolean isSame(final Item otherItem) throws RepositoryException {
+    return otherItem instanceof Node ? node.isSame(unwrap((Node) otherItem)) :
+        node.isSame(otherItem);
+  }
+
+  @Override
+  public void accept(final ItemVisitor visitor) throws RepositoryException {
+    visitor.visit(this);
+  }
+
+  @SuppressWarnings("deprecation")
+  @Override
+  public void save() throws RepositoryException {
+    node.save();
+  }
+
+  @Override
+  public void refresh(final boolean keepChanges) throws RepositoryException {
+    node.refresh(keepChanges);
+  }
+
+  @Override
+  public void remove() throws RepositoryException {
+    node.remove();
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    return node.equals(((JCRNode) o).node);
+  }
+
+  @Override
+  public int hashCode() {
+    return node.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return node.toString();
+  }
+
+  private NodeIterator wrap(final NodeIterator nodes) {
+    Iterator<Node> iterator = new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return nodes.hasNext();
+      }
+
+      @Override
+      public Node next() {
+        return session.wrap(nodes.nextNode());
+      }
+    };
+    return new NodeIteratorAdapter(iterator, nodes.getSize());
+  }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr;
+
+import org.apache.jackrabbit.commons.iterator.NodeIteratorAdapter;
+import org.apache.jackrabbit.commons.iterator.RowIteratorAdapter;
+import org.apache.jackrabbit.commons.query.qom.OperandEvaluator;
+import org.apache.jackrabbit.commons.query.sql2.Parser;
+import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.util.logging.SilverLogger;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+import javax.jcr.query.qom.Ordering;
+import javax.jcr.query.qom.QueryObjectModelConstants;
+import javax.jcr.query.qom.QueryObjectModelFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The query manager of a sharded JCR. A query is performed on each repository of the JCR, the
+ * default one first and then the shards, and their results are merged:
+ * <ul>
+ *   <li>the results of a JCR-SQL2 query are merge-sorted on the orderings of the query, so that
+ *   the ordering is honored across the repositories,</li>
+ *   <li>the results of a query without ordering or in another language are concatenated in the
+ *   order of the repositories. As the ordering of a query in another language cannot be known,
+ *   it is then honored repository by repository only and a warning is logged.</li>
+ * </ul>
+ * The limit and the offset of a query apply to the merged results. The queries built with the
+ * query object model are performed on the default repository only.
+ * @author mmoquillon
+ */
+class JCRQueryManager implements QueryManager {
+
+  private final JCRSession session;
+  private final QueryManager queryManager;
+
+  /**
+   * Constructs a query manager of the whole JCR.
+   * @param session the session with the whole JCR.
+   * @param queryManager the query manager of the default repository.
+   */
+  JCRQueryManager(final JCRSession session, final QueryManager queryManager) {
+    this.session = session;
+    this.queryManager = queryManager;
+  }
+
+  @Override
+  public Query createQuery(final String statement, final String language)
+      throws RepositoryException {
+    List<Query> queries = new ArrayList<>();
+    for (Session repositorySession : session.getAllSessions()) {
+      queries.add(repositorySession.getWorkspace()
+          .getQueryManager()
+          .createQuery(statement, language));
+    }
+    return new JCRQuery(session, queries, getOrderings(statement, language));
+  }
+
+  @Override
+  public QueryObjectModelFactory getQOMFactory() {
+    return queryManager.getQOMFactory();
+  }
+
+  @Override
+  public Query getQuery(final Node node) throws RepositoryException {
+    Query query = session.route(node.getPath())
+        .getWorkspace()
+        .getQueryManager()
+        .getQuery(JCRNode.unwrap(node));
+    return createQuery(query.getStatement(), query.getLanguage());
+  }
+
+  @Override
+  public String[] getSupportedQueryLanguages() throws RepositoryException {
+    return queryManager.getSupportedQueryLanguages();
+  }
+
+  private Ordering[] getOrderings(final String statement, final String language)
+      throws RepositoryException {
+    if (Query.JCR_SQL2.equals(language)) {
+      try {
+        return new Parser(getQOMFactory(), session.getValueFactory())
+            .createQueryObjectModel(statement)
+            .getOrderings();
+      } catch (InvalidQueryException e) {
+        // the statement uses an extension of JCR-SQL2 specific to Oak
+        SilverLogger.getLogger(this).silent(e);
+      }
+    }
+    if (statement.toLowerCase(Locale.ROOT).contains("order by")) {
+      SilverLogger.getLogger(this)
+          .warn("The ordering of the query {0} is honored repository by repository only",
+              statement);
+    }
+    return new Ordering[0];
+  }
+
+  /**
+   * A query performed on all the repositories of the JCR.
+   */
+  private static class JCRQuery implements Query {
+
+    private final JCRSession session;
+    private final List<Query> queries;
+    private final Ordering[] orderings;
+    private final Map<String, Value> variables = new HashMap<>();
+    private long limit = -1;
+    private long offset = 0;
+
+    private JCRQuery(final JCRSession session, final List<Query> queries,
+        final Ordering[] orderings) {
+      this.session = session;
+      this.queries = queries;
+      this.orderings = orderings;
+    }
+
+    @Override
+    public QueryResult execute() throws RepositoryException {
+      List<QueryResult> results = new ArrayList<>(queries.size());
+      for (Query query : queries) {
+        if (limit >= 0) {
+          // the first results of a repository can be skipped only once all are merged: the page
+          // of the whole JCR is among the offset + limit first results of each repository
+          query.setLimit(offset + limit);
+        }
+        results.add(query.execute());
+      }
+      RowComparator comparator = orderings.length == 0 ? null :
+          new RowComparator(orderings, new OperandEvaluator(session.getValueFactory(), variables));
+      return new JCRQueryResult(session, results, comparator, offset, limit);
+    }
+
+    @Override
+    public void setLimit(final long limit) {
+      this.limit = limit;
+    }
+
+    @Override
+    public void setOffset(final long offset) {
+      this.offset = offset;
+    }
+
+    @Override
+    public String getStatement() {
+      return queries.get(0).getStatement();
+    }
+
+    @Override
+    public String getLanguage() {
+      return queries.get(0).getLanguage();
+    }
+
+    @Override
+    public String getStoredQueryPath() throws RepositoryException {
+      return queries.get(0).getStoredQueryPath();
+    }
+
+    @Override
+    public Node storeAsNode(final String absPath) throws RepositoryException {
+      return session.wrap(queries.get(0).storeAsNode(absPath));
+    }
+
+    @Override
+    public void bindValue(final String varName, final Value value) throws RepositoryException {
+      for (Query query : queries) {
+        query.bindValue(varName, value);
+      }
+      variables.put(varName, value);
+    }
+
+    @Override
+    public String[] getBindVariableNames() throws RepositoryException {
+      return queries.get(0).getBindVariableNames();
+    }
+  }
+
+  /**
+   * The merged results of a query performed on all the repositories of the JCR. Without
+   * comparator, the results are concatenated in the order of the repositories.
+   */
+  private static class JCRQueryResult implements QueryResult {
+
+    private final JCRSession session;
+    private final List<QueryResult> results;
+    private final RowComparator comparator;
+    private final long offset;
+    private final long limit;
+
+    private JCRQueryResult(final JCRSession session, final List<QueryResult> results,
+        final RowComparator comparator, final long offset, final long limit) {
+      this.session = session;
+      this.results = results;
+      this.comparator = comparator;
+      this.offset = offset;
+      this.limit = limit;
+    }
+
+    @Override
+    public String[] getColumnNames() throws RepositoryException {
+      return results.get(0).getColumnNames();
+    }
+
+    @Override
+    public RowIterator getRows() throws RepositoryException {
+      List<Iterator<?>> rows = new ArrayList<>(results.size());
+      for (QueryResult result : results) {
+        rows.add(result.getRows());
+      }
+      return new RowIteratorAdapter(page(merge(rows), r -> new JCRRow(session, (Row) r)));
+    }
+
+    @Override
+    public NodeIterator getNodes() throws RepositoryException {
+      if (comparator != null) {
+        // the nodes are sorted through the rows of which they are the single selected node
+        List<Iterator<?>> rows = new ArrayList<>(results.size());
+        for (QueryResult result : results) {
+          rows.add(result.getRows());
+        }
+        return new NodeIteratorAdapter(page(merge(rows), r -> session.wrap(getNode((Row) r))));
+      }
+      List<Iterator<?>> nodes = new ArrayList<>(results.size());
+      for (QueryResult result : results) {
+        nodes.add(result.getNodes());
+      }
+      return new NodeIteratorAdapter(page(concat(nodes), n -> session.wrap((Node) n)));
+    }
+
+    @Override
+    public String[] getSelectorNames() throws RepositoryException {
+      return results.get(0).getSelectorNames();
+    }
+
+    private Iterator<?> merge(final List<Iterator<?>> rows) {
+      return comparator == null ? concat(rows) : new MergeSortIterator(rows, comparator);
+    }
+
+    private static Iterator<?> concat(final List<Iterator<?>> iterators) {
+      return iterators.stream()
+          .flatMap(i -> StreamSupport.stream(
+              Spliterators.spliteratorUnknownSize(i, Spliterator.ORDERED), false))
+          .iterator();
+    }
+
+    private <T> Iterator<T> page(final Iterator<?> iterator, final Function<Object, T> wrapper) {
+      Stream<T> all = StreamSupport.stream(
+              Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+          .skip(offset)
+          .map(wrapper);
+      return (limit >= 0 ? all.limit(limit) : all).iterator();
+    }
+
+    private static Node getNode(final Row row) {
+      try {
+        return row.getNode();
+      } catch (RepositoryException e) {
+        throw new SilverpeasRuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * An iterator merging the sorted rows of several repositories into rows sorted across the
+   * repositories. The rows that are equal according to the orderings of the query are iterated
+   * in the order of the repositories.
+   */
+  private static class MergeSortIterator implements Iterator<Row> {
+
+    private final PriorityQueue<SortedRows> heads;
+
+    private MergeSortIterator(final List<Iterator<?>> rows, final RowComparator comparator) {
+      heads = new PriorityQueue<>(rows.size(), (r1, r2) -> {
+        int comparison = comparator.compare(r1.keys, r2.keys);
+        return comparison != 0 ? comparison : Integer.compare(r1.repository, r2.repository);
+      });
+      for (int i = 0; i < rows.size(); i++) {
+        SortedRows sortedRows = new SortedRows(i, rows.get(i), comparator);
+        if (sortedRows.next()) {
+          heads.add(sortedRows);
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !heads.isEmpty();
+    }
+
+    @Override
+    public Row next() {
+      SortedRows head = heads.poll();
+      if (head == null) {
+        throw new NoSuchElementException();
+      }
+      Row row = head.row;
+      if (head.next()) {
+        heads.add(head);
+      }
+      return row;
+    }
+  }
+
+  /**
+   * The sorted rows of one repository with the sort keys of the current row.
+   */
+  private static class SortedRows {
+
+    private final int repository;
+    private final Iterator<?> rows;
+    private final RowComparator comparator;
+    private Row row;
+    private Value[][] keys;
+
+    private SortedRows(final int repository, final Iterator<?> rows,
+        final RowComparator comparator) {
+      this.repository = repository;
+      this.rows = rows;
+      this.comparator = comparator;
+    }
+
+    private boolean next() {
+      if (!rows.hasNext()) {
+        return false;
+      }
+      row = (Row) rows.next();
+      keys = comparator.getKeys(row);
+      return true;
+    }
+  }
+
+  /**
+   * Comparator of the sort keys of the rows according to the orderings of a query.
+   */
+  private static class RowComparator {
+
+    private final Ordering[] orderings;
+    private final OperandEvaluator evaluator;
+
+    private RowComparator(final Ordering[] orderings, final OperandEvaluator evaluator) {
+      this.orderings = orderings;
+      this.evaluator = evaluator;
+    }
+
+    private Value[][] getKeys(final Row row) {
+      try {
+        Value[][] keys = new Value[orderings.length][];
+        for (int i = 0; i < orderings.length; i++) {
+          keys[i] = evaluator.getValues(orderings[i].getOperand(), row);
+        }
+        return keys;
+      } catch (RepositoryException e) {
+        throw new SilverpeasRuntimeException(e);
+      }
+    }
+
+    private int compare(final Value[][] keys1, final Value[][] keys2) {
+      try {
+        for (int i = 0; i < orderings.length; i++) {
+          int comparison = compare(keys1[i], keys2[i]);
+          if (comparison != 0) {
+            return QueryObjectModelConstants.JCR_ORDER_DESCENDING.equals(
+                orderings[i].getOrder()) ? -comparison : comparison;
+          }
+        }
+        return 0;
+      } catch (RepositoryException e) {
+        throw new SilverpeasRuntimeException(e);
+      }
+    }
+
+    /**
+     * Compares the values of a sort key. As in Oak, the absence of value is lower than any value
+     * and multiple values are compared by their first value.
+     */
+    private static int compare(final Value[] values1, final Value[] values2)
+        throws RepositoryException {
+      if (values1.length == 0 || values2.length == 0) {
+        return Boolean.compare(values1.length > 0, values2.length > 0);
+      }
+      Value value1 = values1[0];
+      Value value2 = values2[0];
+      if (isNumber(value1) && isNumber(value2)) {
+        return value1.getDecimal().compareTo(value2.getDecimal());
+      }
+      if (value1.getType() == PropertyType.DATE && value2.getType() == PropertyType.DATE) {
+        return value1.getDate().compareTo(value2.getDate());
+      }
+      if (value1.getType() == PropertyType.BOOLEAN && value2.getType() == PropertyType.BOOLEAN) {
+        return Boolean.compare(value1.getBoolean(), value2.getBoolean());
+      }
+      return value1.getString().compareTo(value2.getString());
+    }
+
+    private static boolean isNumber(final Value value) {
+      return value.getType() == PropertyType.LONG || value.getType() == PropertyType.DOUBLE ||
+          value.getType() == PropertyType.DECIMAL;
+    }
+  }
+
+  /**
+   * A row of the results of a query whose the nodes lead back to the {@link JCRSession}.
+   */
+  private static class JCRRow implements Row {
+
+    private final JCRSession session;
+    private final Row row;
+
+    private JCRRow(final JCRSession session, final Row row) {
+      this.session = session;
+      this.row = row;
+    }
+
+    @Override
+    public Value[] getValues() throws RepositoryException {
+      return row.getValues();
+    }
+
+    @Override
+    public Value getValue(final String columnName) throws RepositoryException {
+      return row.getValue(columnName);
+    }
+
+    @Override
+    public Node getNode() throws RepositoryException {
+      return session.wrap(row.getNode());
+    }
+
+    @Override
+    public Node getNode(final String selectorName) throws RepositoryException {
+      return session.wrap(row.getNode(selectorName));
+    }
+
+    @Override
+    public String getPath() throws RepositoryException {
+      return row.getPath();
+    }
+
+    @Override
+    public String getPath(final String selectorName) throws RepositoryException {
+      return row.getPath(selectorName);
+    }
+
+    @Override
+    public double getScore() throws RepositoryException {
+      return row.getScore();
+    }
+
+    @Override
+    public double getScore(final String selectorName) throws RepositoryException {
+      return row.getScore(selectorName);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+/**
+ * The root node of a sharded JCR. It decorates the root node of the default repository by
+ * routing to the right repository the access to the top-level nodes: in Silverpeas, the content
+ * of a component instance is located under a top-level node named after the instance identifier,
+ * and so adding, getting or checking the existence of the node of a component instance from the
+ * root node is done into the shard in which the content of the instance is stored. The other
+ * operations, like the listing of the children, are performed on the root node of the default
+ * repository.
+ * @author mmoquillon
+ */
+class JCRRootNode extends JCRNode {
+
+  /**
+   * Decorates the specified root node of the default repository.
+   * @param session the session with the whole JCR.
+   * @param root the root node of the default repository.
+   */
+  JCRRootNode(final JCRSession session, final Node root) {
+    super(session, root);
+  }
+
+  @Override
+  public Node addNode(final String relPath) throws RepositoryException {
+    return getJCRSession().wrap(getRootNodeFor(relPath).addNode(relPath));
+  }
+
+  @Override
+  public Node addNode(final String relPath, final String primaryNodeTypeName)
+      throws RepositoryException {
+    return getJCRSession().wrap(getRootNodeFor(relPath).addNode(relPath, primaryNodeTypeName));
+  }
+
+  @Override
+  public Node getNode(final String relPath) throws RepositoryException {
+    return getJCRSession().wrap(getRootNodeFor(relPath).getNode(relPath));
+  }
+
+  @Override
+  public boolean hasNode(final String relPath) throws RepositoryException {
+    return getRootNodeFor(relPath).hasNode(relPath);
+  }
+
+  @Override
+  public Node getParent() throws RepositoryException {
+    return getDelegate().getParent();
+  }
+
+  private Node getRootNodeFor(final String relPath) throws RepositoryException {
+    return getJCRSession().getRootNodeFor("/" + relPath);
+  }
+}
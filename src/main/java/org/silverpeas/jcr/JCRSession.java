@@ -42,6 +42,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.AccessControlException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -53,6 +57,17 @@ import java.util.Optional;
  * thread, meaning that any further login attempts along one single thread will return the same
  * session; in the case a login attempt is performed by another user in the same thread, an
  * {@link IllegalStateException} exception is thrown.
+ * <p>
+ * When the JCR is sharded, the session routes transparently the operations on the content at a
+ * given path to the shard in which this content is stored, opening on demand a session with the
+ * shard for the same user. The content that isn't routed to any shard is accessed through the
+ * default repository. The root node routes the top-level nodes, id est the nodes of the component
+ * instances, to their repository and the queries are performed on all the repositories. The
+ * nodes got from this session lead back to it: their session is this one and not the one with the
+ * repository in which they are stored. The root node and the workspace of the repository of a
+ * given component instance are provided by {@link #getRootNode(String)} and
+ * {@link #getWorkspace(String)}. The changes are saved repository by repository: a save spanning
+ * several shards isn't atomic.
  * @author mmoquillon
  */
 public class JCRSession implements Session, Closeable {
@@ -60,6 +75,9 @@ public class JCRSession implements Session, Closeable {
   private static final String SESSION_KEY_CACHE = JCRSession.class.getSimpleName() + "#SESSION";
 
   private final Session session;
+  private final Credentials credentials;
+  private final Map<String, Session> shardSessions = new LinkedHashMap<>();
+  private RepositoryProvider provider;
   private int opened = 1;
 
   /**
@@ -92,7 +110,7 @@ public class JCRSession implements Session, Closeable {
       }
     } else {
       //noinspection resource
-      session = new JCRSession(login.proceed(credentials));
+      session = new JCRSession(login.proceed(credentials), credentials);
     }
     return session.open();
   }
@@ -181,12 +199,15 @@ public class JCRSession implements Session, Closeable {
    * opened, then an {@link IllegalStateException} is thrown. The created session isn't yet opened:
    * yoy have to call specifically {@link JCRSession#open()} for doing.
    * @param session the new non-reentrant session with the JCR.
+   * @param credentials the credentials with which the session was opened. They are used to open
+   * the sessions with the shards of the JCR.
    */
-  private JCRSession(final Session session) {
+  private JCRSession(final Session session, final Credentials credentials) {
     getCurrent().ifPresent(s -> {
       throw new IllegalStateException("A session is already opened!");
     });
     this.session = session;
+    this.credentials = credentials;
   }
 
   @Override
@@ -213,14 +234,52 @@ public class JCRSession implements Session, Closeable {
     return session.getAttribute(name);
   }
 
+  /**
+   * Gets the workspace of the JCR. When the JCR is sharded, the queries performed with the
+   * returned workspace are performed on all the repositories of the JCR whereas the other
+   * managers are those of the default repository (see {@link #getWorkspace(String)}).
+   * @return the workspace of the JCR.
+   */
   @Override
   public Workspace getWorkspace() {
-    return session.getWorkspace();
+    Workspace workspace = session.getWorkspace();
+    return isSharded() ? new JCRWorkspace(this, workspace) : workspace;
+  }
+
+  /**
+   * Gets the workspace of the repository in which is stored the content of the specified
+   * component instance. The queries on the content of the instance must be performed with this
+   * workspace.
+   * @param instanceId the identifier of a component instance.
+   * @return the workspace of either the shard of the instance or the default repository.
+   * @throws RepositoryException if the session with the shard cannot be opened.
+   */
+  public Workspace getWorkspace(final String instanceId) throws RepositoryException {
+    return getSessionForInstance(instanceId).getWorkspace();
   }
 
+  /**
+   * Gets the root node of the JCR. When the JCR is sharded, the top-level nodes added or got from
+   * the returned root node are routed to the repository in which is stored the content of the
+   * component instance they are named after.
+   * @return the root node of the JCR.
+   * @throws RepositoryException if an error occurs.
+   */
   @Override
   public Node getRootNode() throws RepositoryException {
-    return session.getRootNode();
+    Node root = session.getRootNode();
+    return isSharded() ? new JCRRootNode(this, root) : root;
+  }
+
+  /**
+   * Gets the root node of the repository in which is stored the content of the specified
+   * component instance. The root node of the content of the instance must be created from it.
+   * @param instanceId the identifier of a component instance.
+   * @return the root node of either the shard of the instance or the default repository.
+   * @throws RepositoryException if the session with the shard cannot be opened.
+   */
+  public Node getRootNode(final String instanceId) throws RepositoryException {
+    return wrap(getSessionForInstance(instanceId).getRootNode());
   }
 
   @Override
@@ -231,72 +290,114 @@ public class JCRSession implements Session, Closeable {
 
   @Override
   public Node getNodeByUUID(final String uuid) throws RepositoryException {
-    return session.getNodeByIdentifier(uuid);
+    return getNodeByIdentifier(uuid);
   }
 
+  /**
+   * Gets the node with the specified identifier. As the identifier doesn't say in which
+   * repository the node is stored, the node is looked for first in the default repository, then
+   * in the shards with which a session is already opened and finally in the other shards. A
+   * session is opened with each of these other shards just for the lookup: it is kept only if the
+   * node is found in the shard.
+   * @param id the identifier of a node.
+   * @return the node with the specified identifier.
+   * @throws ItemNotFoundException if no node exists with the specified identifier.
+   * @throws RepositoryException if an error occurs.
+   */
   @Override
   public Node getNodeByIdentifier(final String id)
       throws RepositoryException {
-    return session.getNodeByIdentifier(id);
+    try {
+      return wrap(session.getNodeByIdentifier(id));
+    } catch (ItemNotFoundException e) {
+      for (Session shardSession : shardSessions.values()) {
+        Node node = findNodeByIdentifier(shardSession, id);
+        if (node != null) {
+          return wrap(node);
+        }
+      }
+      for (Map.Entry<String, SilverpeasRepository> shard : getProvider().getShards().entrySet()) {
+        if (!shardSessions.containsKey(shard.getKey())) {
+          Session shardSession = shard.getValue().loginDirectly(credentials);
+          Node node = findNodeByIdentifier(shardSession, id);
+          if (node != null) {
+            shardSessions.put(shard.getKey(), shardSession);
+            return wrap(node);
+          }
+          shardSession.logout();
+        }
+      }
+      throw e;
+    }
   }
 
   @Override
   public Item getItem(final String absPath) throws RepositoryException {
-    return session.getItem(absPath);
+    return wrap(route(absPath).getItem(absPath));
   }
 
   @Override
   public Node getNode(final String absPath) throws RepositoryException {
-    return session.getNode(absPath);
+    return wrap(route(absPath).getNode(absPath));
   }
 
   @Override
   public Property getProperty(final String absPath)
       throws RepositoryException {
-    return session.getProperty(absPath);
+    return route(absPath).getProperty(absPath);
   }
 
   @Override
   public boolean itemExists(final String absPath) throws RepositoryException {
-    return session.itemExists(absPath);
+    return route(absPath).itemExists(absPath);
   }
 
   @Override
   public boolean nodeExists(final String absPath) throws RepositoryException {
-    return session.nodeExists(absPath);
+    return route(absPath).nodeExists(absPath);
   }
 
   @Override
   public boolean propertyExists(final String absPath) throws RepositoryException {
-    return session.propertyExists(absPath);
+    return route(absPath).propertyExists(absPath);
   }
 
   @Override
   public void move(final String srcAbsPath, final String destAbsPath)
       throws RepositoryException {
-    session.move(srcAbsPath, destAbsPath);
+    route(srcAbsPath, destAbsPath).move(srcAbsPath, destAbsPath);
   }
 
   @Override
   public void removeItem(final String absPath)
       throws RepositoryException {
-    session.removeItem(absPath);
+    route(absPath).removeItem(absPath);
   }
 
   @Override
   public void save()
       throws RepositoryException {
     session.save();
+    for (Session shardSession : shardSessions.values()) {
+      shardSession.save();
+    }
   }
 
   @Override
   public void refresh(final boolean keepChanges) throws RepositoryException {
     session.refresh(keepChanges);
+    for (Session shardSession : shardSessions.values()) {
+      shardSession.refresh(keepChanges);
+    }
   }
 
   @Override
   public boolean hasPendingChanges() throws RepositoryException {
-    return session.hasPendingChanges();
+    boolean pendingChanges = session.hasPendingChanges();
+    for (Session shardSession : shardSessions.values()) {
+      pendingChanges |= shardSession.hasPendingChanges();
+    }
+    return pendingChanges;
   }
 
   @Override
@@ -308,13 +409,13 @@ public class JCRSession implements Session, Closeable {
   @Override
   public boolean hasPermission(final String absPath, final String actions)
       throws RepositoryException {
-    return session.hasPermission(absPath, actions);
+    return route(absPath).hasPermission(absPath, actions);
   }
 
   @Override
   public void checkPermission(final String absPath, final String actions)
       throws AccessControlException, RepositoryException {
-    session.checkPermission(absPath, actions);
+    route(absPath).checkPermission(absPath, actions);
   }
 
   @Override
@@ -326,41 +427,41 @@ public class JCRSession implements Session, Closeable {
   @Override
   public ContentHandler getImportContentHandler(final String parentAbsPath, final int uuidBehavior)
       throws RepositoryException {
-    return session.getImportContentHandler(parentAbsPath, uuidBehavior);
+    return route(parentAbsPath).getImportContentHandler(parentAbsPath, uuidBehavior);
   }
 
   @Override
   public void importXML(final String parentAbsPath, final InputStream in, final int uuidBehavior)
       throws IOException, RepositoryException {
-    session.importXML(parentAbsPath, in, uuidBehavior);
+    route(parentAbsPath).importXML(parentAbsPath, in, uuidBehavior);
   }
 
   @Override
   public void exportSystemView(final String absPath, final ContentHandler contentHandler,
       final boolean skipBinary, final boolean noRecurse)
       throws SAXException, RepositoryException {
-    session.exportSystemView(absPath, contentHandler, skipBinary, noRecurse);
+    route(absPath).exportSystemView(absPath, contentHandler, skipBinary, noRecurse);
   }
 
   @Override
   public void exportSystemView(final String absPath, final OutputStream out,
       final boolean skipBinary, final boolean noRecurse)
       throws IOException, RepositoryException {
-    session.exportSystemView(absPath, out, skipBinary, noRecurse);
+    route(absPath).exportSystemView(absPath, out, skipBinary, noRecurse);
   }
 
   @Override
   public void exportDocumentView(final String absPath, final ContentHandler contentHandler,
       final boolean skipBinary, final boolean noRecurse)
       throws SAXException, RepositoryException {
-    session.exportDocumentView(absPath, contentHandler, skipBinary, noRecurse);
+    route(absPath).exportDocumentView(absPath, contentHandler, skipBinary, noRecurse);
   }
 
   @Override
   public void exportDocumentView(final String absPath, final OutputStream out,
       final boolean skipBinary, final boolean noRecurse)
       throws IOException, RepositoryException {
-    session.exportDocumentView(absPath, out, skipBinary, noRecurse);
+    route(absPath).exportDocumentView(absPath, out, skipBinary, noRecurse);
   }
 
   @Override
@@ -391,6 +492,8 @@ public class JCRSession implements Session, Closeable {
     if (opened <= 1) {
       SimpleCache cache = CacheServiceProvider.getThreadCacheService().getCache();
       cache.remove(SESSION_KEY_CACHE);
+      shardSessions.values().forEach(Session::logout);
+      shardSessions.clear();
       session.logout();
     } else {
       opened--;
@@ -447,6 +550,118 @@ public class JCRSession implements Session, Closeable {
     logout();
   }
 
+  /**
+   * Gets all the sessions with the repositories of the JCR: the session with the default
+   * repository followed by the sessions with each of the shards. The sessions with the shards are
+   * opened if not already done.
+   * @return a list of sessions, the first one being the session with the default repository.
+   * @throws RepositoryException if a session with a shard cannot be opened.
+   */
+  List<Session> getAllSessions() throws RepositoryException {
+    List<Session> sessions = new ArrayList<>();
+    sessions.add(session);
+    for (String shard : getProvider().getShards().keySet()) {
+      sessions.add(getSessionForShard(shard));
+    }
+    return sessions;
+  }
+
+  /**
+   * Gets the root node of the repository in which is stored the content at the specified path.
+   * @param absPath an absolute path in the JCR.
+   * @return the root node of either a shard or the default repository.
+   * @throws RepositoryException if the session with the shard cannot be opened.
+   */
+  Node getRootNodeFor(final String absPath) throws RepositoryException {
+    return route(absPath).getRootNode();
+  }
+
+  /**
+   * Decorates the specified node got from the session with one of the repositories of the JCR so
+   * that it leads back to this session. The node is decorated only when the JCR is sharded.
+   * @param node a node got from the session with one of the repositories of the JCR.
+   * @return the decorated node or the node itself if the JCR isn't sharded.
+   */
+  Node wrap(final Node node) {
+    return node == null || node instanceof JCRNode || !isSharded() ? node :
+        new JCRNode(this, node);
+  }
+
+  /**
+   * Decorates the specified item if it is a node.
+   * @param item an item got from the session with one of the repositories of the JCR.
+   * @return the decorated node or the item itself if it isn't a node.
+   * @see #wrap(Node)
+   */
+  Item wrap(final Item item) {
+    return item != null && item.isNode() ? wrap((Node) item) : item;
+  }
+
+  /**
+   * Gets the session with the repository in which is stored the content at the specified path.
+   * @param absPath an absolute path in the JCR.
+   * @return the session with either a shard or the default repository.
+   * @throws RepositoryException if the session with the shard cannot be opened.
+   */
+  Session route(final String absPath) throws RepositoryException {
+    RepositoryRouter router = getProvider().getRouter();
+    return router.isEmpty() ? session : getSessionForShard(router.routePath(absPath));
+  }
+
+  /**
+   * Gets the session with the repository in which is stored the content at both the specified
+   * source path and destination path.
+   * @param srcAbsPath an absolute path in the JCR.
+   * @param destAbsPath another absolute path in the JCR.
+   * @return the session with either a shard or the default repository.
+   * @throws RepositoryException if the two paths are routed to two different repositories or if
+   * the session with the shard cannot be opened.
+   */
+  Session route(final String srcAbsPath, final String destAbsPath) throws RepositoryException {
+    Session srcSession = route(srcAbsPath);
+    if (srcSession != route(destAbsPath)) {
+      throw new RepositoryException("Cannot transfer " + srcAbsPath + " to " + destAbsPath +
+          ": they are stored in two different repositories");
+    }
+    return srcSession;
+  }
+
+  private boolean isSharded() {
+    return !getProvider().getRouter().isEmpty();
+  }
+
+  private static Node findNodeByIdentifier(final Session session, final String id)
+      throws RepositoryException {
+    try {
+      return session.getNodeByIdentifier(id);
+    } catch (ItemNotFoundException e) {
+      return null;
+    }
+  }
+
+  private Session getSessionForInstance(final String instanceId) throws RepositoryException {
+    return getSessionForShard(getProvider().getRouter().routeInstance(instanceId));
+  }
+
+  private Session getSessionForShard(final String shard) throws RepositoryException {
+    if (shard == null) {
+      return session;
+    }
+    Session shardSession = shardSessions.get(shard);
+    if (shardSession == null) {
+      shardSession = getProvider().getShards().get(shard).loginDirectly(credentials);
+      shardSessions.put(shard, shardSession);
+    }
+    return shardSession;
+  }
+
+  private RepositoryProvider getProvider() {
+    if (provider == null) {
+      provider = RepositoryProvider.get();
+    }
+    return provider;
+  }
+
   /**
    * Opens this session. If the session has been already opened, increment its counter of opening.
    */
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr;
+
+import org.xml.sax.ContentHandler;
+
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.lock.LockManager;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.observation.ObservationManager;
+import javax.jcr.query.QueryManager;
+import javax.jcr.version.Version;
+import javax.jcr.version.VersionManager;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The workspace of a sharded JCR. It decorates the workspace of the default repository by
+ * routing to the right repository the operations on the content at a given path and by querying
+ * all the repositories of the JCR (see {@link JCRQueryManager}). The managers of locks, of
+ * versions, of node types, of namespaces and of observation are those of the default repository;
+ * the ones of the repository in which is stored the content of a given component instance are
+ * provided by {@link JCRSession#getWorkspace(String)}.
+ * @author mmoquillon
+ */
+class JCRWorkspace implements Workspace {
+
+  private final JCRSession session;
+  private final Workspace workspace;
+
+  /**
+   * Decorates the specified workspace of the default repository.
+   * @param session the session with the whole JCR.
+   * @param workspace the workspace of the default repository.
+   */
+  JCRWorkspace(final JCRSession session, final Workspace workspace) {
+    this.session = session;
+    this.workspace = workspace;
+  }
+
+  @Override
+  public Session getSession() {
+    return session;
+  }
+
+  @Override
+  public String getName() {
+    return workspace.getName();
+  }
+
+  @Override
+  public void copy(final String srcAbsPath, final String destAbsPath)
+      throws RepositoryException {
+    session.route(srcAbsPath, destAbsPath).getWorkspace().copy(srcAbsPath, destAbsPath);
+  }
+
+  @Override
+  public void copy(final String srcWorkspace, final String srcAbsPath, final String destAbsPath)
+      throws RepositoryException {
+    session.route(srcAbsPath, destAbsPath)
+        .getWorkspace()
+        .copy(srcWorkspace, srcAbsPath, destAbsPath);
+  }
+
+  @Override
+  public void clone(final String srcWorkspace, final String srcAbsPath, final String destAbsPath,
+      final boolean removeExisting) throws RepositoryException {
+    session.route(srcAbsPath, destAbsPath)
+        .getWorkspace()
+        .clone(srcWorkspace, srcAbsPath, destAbsPath, removeExisting);
+  }
+
+  @Override
+  public void move(final String srcAbsPath, final String destAbsPath)
+      throws RepositoryException {
+    session.route(srcAbsPath, destAbsPath).getWorkspace().move(srcAbsPath, destAbsPath);
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public void restore(final Version[] versions, final boolean removeExisting)
+      throws RepositoryException {
+    workspace.restore(versions, removeExisting);
+  }
+
+  @Override
+  public LockManager getLockManager() throws RepositoryException {
+    return workspace.getLockManager();
+  }
+
+  /**
+   * Gets a query manager whose the queries are performed on all the repositories of the JCR.
+   * @return a {@link JCRQueryManager} instance.
+   * @throws RepositoryException if an error occurs.
+   */
+  @Override
+  public QueryManager getQueryManager() throws RepositoryException {
+    return new JCRQueryManager(session, workspace.getQueryManager());
+  }
+
+  @Override
+  public NamespaceRegistry getNamespaceRegistry() throws RepositoryException {
+    return workspace.getNamespaceRegistry();
+  }
+
+  @Override
+  public NodeTypeManager getNodeTypeManager() throws RepositoryException {
+    return workspace.getNodeTypeManager();
+  }
+
+  @Override
+  public ObservationManager getObservationManager() throws RepositoryException {
+    return workspace.getObservationManager();
+  }
+
+  @Override
+  public VersionManager getVersionManager() throws RepositoryException {
+    return workspace.getVersionManager();
+  }
+
+  @Override
+  public String[] getAccessibleWorkspaceNames() throws RepositoryException {
+    return workspace.getAccessibleWorkspaceNames();
+  }
+
+  @Override
+  public ContentHandler getImportContentHandler(final String parentAbsPath,
+      final int uuidBehavior) throws RepositoryException {
+    return session.route(parentAbsPath)
+        .getWorkspace()
+        .getImportContentHandler(parentAbsPath, uuidBehavior);
+  }
+
+  @Override
+  public void importXML(final String parentAbsPath, final InputStream in, final int uuidBehavior)
+      throws IOException, RepositoryException {
+    session.route(parentAbsPath)
+        .getWorkspace()
+        .importXML(parentAbsPath, in, uuidBehavior);
+  }
+
+  @Override
+  public void createWorkspace(final String name) throws RepositoryException {
+    workspace.createWorkspace(name);
+  }
+
+  @Override
+  public void createWorkspace(final String name, final String srcWorkspace)
+      throws RepositoryException {
+    workspace.createWorkspace(name, srcWorkspace);
+  }
+
+  @Override
+  public void deleteWorkspace(final String name) throws RepositoryException {
+    workspace.deleteWorkspace(name);
+  }
+}
@@ -35,10 +35,15 @@ import javax.enterprise.inject.Produces;
 import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.RepositoryFactory;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 /**
@@ -50,6 +55,15 @@ import java.util.function.Function;
  * by passing some parameters the factory implementation has to understand and to satisfy in order
  * to create the corresponding {@link javax.jcr.Repository}. The parameters and defined in a
  * {@link RepositorySettings} instance.
+ * <p>
+ * The JCR can be sharded: besides the default repository, some additional repositories, each of
+ * them with its own storage, can be opened. The content of some component instances is then
+ * routed to them, spreading the writes, the caches and the storage of the whole content over
+ * several repositories.
+ * <p>
+ * At the shutdown, the repositories are drained before being closed: no more session can be opened
+ * and the sessions in progress, like a WebDAV save or an import, are waited for, up to a given
+ * timeout, so that their changes are committed before the storage is closed.
  * @author mmoquillon
  */
 @Provider
@@ -57,6 +71,10 @@ public class RepositoryProvider {
 
   private SilverpeasRepository repository;
 
+  private final Map<String, SilverpeasRepository> shards = new LinkedHashMap<>();
+
+  private RepositoryRouter router = new RepositoryRouter();
+
   private SilverpeasRepositoryFactory factory;
 
   /**
@@ -70,9 +88,32 @@ public class RepositoryProvider {
   @PostConstruct
   private void openRepository() {
     RepositorySettings settings = new RepositorySettings();
+    factory = ServiceLoader.load(RepositoryFactory.class).stream()
+        .map(ServiceLoader.Provider::get)
+        .filter(SilverpeasRepositoryFactory.class::isInstance)
+        .map(SilverpeasRepositoryFactory.class::cast)
+        .findFirst()
+        .orElseThrow(() -> new SilverpeasRuntimeException("No JCR backend found!"));
+
+    SilverLogger.getLogger(this).info("Open connection to the JCR");
+    repository = openRepository(settings.getJCRHomeDirectory(),
+        settings.getJCRConfigurationFile());
+
+    RepositoryRouter shardRouter = new RepositoryRouter();
+    for (String shard : settings.getShards()) {
+      SilverLogger.getLogger(this).info("Open connection to the JCR shard " + shard);
+      shards.put(shard, openRepository(settings.getShardHomeDirectory(shard),
+          settings.getShardConfigurationFile(shard)));
+      shardRouter.routeInstances(shard, settings.getShardInstances(shard))
+          .routePaths(shard, settings.getShardPaths(shard));
+    }
+    router = shardRouter;
+  }
+
+  private SilverpeasRepository openRepository(final String jcrHomePath, final String confPath) {
     Map<String, String> parameters = new HashMap<>();
-    parameters.put(RepositorySettings.JCR_HOME, settings.getJCRHomeDirectory());
-    parameters.put(RepositorySettings.JCR_CONF, settings.getJCRConfigurationFile());
+    parameters.put(RepositorySettings.JCR_HOME, jcrHomePath);
+    parameters.put(RepositorySettings.JCR_CONF, confPath);
 
     Function<RepositoryFactory, Repository> repositoryGetter = f -> {
       try {
@@ -81,28 +122,90 @@ public class RepositoryProvider {
         throw new SilverpeasRuntimeException(e);
       }
     };
-    factory = ServiceLoader.load(RepositoryFactory.class).stream()
-        .map(ServiceLoader.Provider::get)
-        .filter(SilverpeasRepositoryFactory.class::isInstance)
-        .map(SilverpeasRepositoryFactory.class::cast)
-        .findFirst()
-        .orElseThrow(() -> new SilverpeasRuntimeException("No JCR backend found!"));
-
     Repository jcr = Optional.ofNullable(repositoryGetter.apply(factory))
         .orElseThrow(() -> new SilverpeasRuntimeException("No JCR backend found!"));
-
-    SilverLogger.getLogger(this).info("Open connection to the JCR");
-    repository = SilverpeasRepository.wrap(jcr);
+    return SilverpeasRepository.wrap(jcr);
   }
 
   @PreDestroy
   private void closeRepository() {
+    drainSessions(new RepositorySettings().getShutdownDrainTimeout());
+    shards.forEach((shard, shardRepository) -> {
+      SilverLogger.getLogger(this).info("Close connection to the JCR shard " + shard);
+      factory.closeRepository(shardRepository);
+    });
+    shards.clear();
     SilverLogger.getLogger(this).info("Close connection to the JCR");
     factory.closeRepository(repository);
   }
 
+  /**
+   * Drains the sessions opened with the repositories of the JCR. The logins are first stopped on
+   * all the repositories, the default one as well as the shards, as a session can span several of
+   * them, and then the opened sessions are waited for, at most for the specified timeout.
+   * @param timeout the maximum time to wait in seconds.
+   */
+  private void drainSessions(final long timeout) {
+    List<SilverpeasRepository> repositories = new ArrayList<>(shards.values());
+    repositories.add(repository);
+    repositories.forEach(SilverpeasRepository::stopLogins);
+    long start = System.currentTimeMillis();
+    long deadline = start + TimeUnit.SECONDS.toMillis(timeout);
+    SilverLogger logger = SilverLogger.getLogger(this);
+    int openedSessions = 0;
+    try {
+      for (SilverpeasRepository r : repositories) {
+        long left = Math.max(0, deadline - System.currentTimeMillis());
+        openedSessions += r.awaitSessionsClosing(left);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.warn("Draining of the JCR sessions interrupted");
+      return;
+    }
+    if (openedSessions > 0) {
+      logger.warn("{0} JCR sessions still opened after {1} s: they are aborted by the shutdown",
+          openedSessions, timeout);
+    } else {
+      logger.info("JCR sessions drained in {0} ms", System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * Gets the default repository of the JCR. When the JCR is sharded, the sessions opened with
+   * this repository route transparently the access to the content of the component instances to
+   * the shard in which it is stored.
+   * @return the default {@link SilverpeasRepository}.
+   */
   @Produces
   public SilverpeasRepository getRepository() {
     return repository;
   }
+
+  /**
+   * Gets the repository in which is stored the content of the specified component instance. It
+   * is either a shard of the JCR or the default repository.
+   * @param instanceId the identifier of a component instance.
+   * @return the {@link SilverpeasRepository} storing the content of the component instance.
+   */
+  public SilverpeasRepository getRepository(final String instanceId) {
+    String shard = router.routeInstance(instanceId);
+    return shard == null ? repository : shards.get(shard);
+  }
+
+  /**
+   * Gets the router of the content of the component instances to the shards of the JCR.
+   * @return a {@link RepositoryRouter} instance.
+   */
+  RepositoryRouter getRouter() {
+    return router;
+  }
+
+  /**
+   * Gets the shards of the JCR, indexed by their name.
+   * @return an unmodifiable map of the shard repositories.
+   */
+  Map<String, SilverpeasRepository> getShards() {
+    return Collections.unmodifiableMap(shards);
+  }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Router of the content of the component instances to the shards of the JCR. In Silverpeas, the
+ * content of a component instance is located under a root node named after the instance
+ * identifier. A component instance is routed to a shard either by its identifier, or by a prefix
+ * of identifiers (ended with a star), or by the path prefix of its content. The content that
+ * isn't routed to any shard is stored into the default repository.
+ * @author mmoquillon
+ */
+class RepositoryRouter {
+
+  private static final char WILDCARD = '*';
+
+  private final Map<String, String> instances = new HashMap<>();
+  private final List<Map.Entry<String, String>> instancePrefixes = new ArrayList<>();
+  private final List<Map.Entry<String, String>> paths = new ArrayList<>();
+
+  /**
+   * Adds a route to the specified shard for the given component instances.
+   * @param shard the name of a shard.
+   * @param instanceIds the identifiers of component instances. An identifier ended with a star
+   * is a prefix of identifiers.
+   * @return itself.
+   * @throws IllegalArgumentException if a component instance is already routed to a shard.
+   */
+  RepositoryRouter routeInstances(final String shard, final List<String> instanceIds) {
+    for (String instanceId : instanceIds) {
+      if (instanceId.charAt(instanceId.length() - 1) == WILDCARD) {
+        addRoute(instancePrefixes, instanceId.substring(0, instanceId.length() - 1), shard);
+      } else if (instances.putIfAbsent(instanceId, shard) != null) {
+        throw new IllegalArgumentException(
+            "The component instance " + instanceId + " is already routed to a shard");
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Adds a route to the specified shard for the content under the given paths.
+   * @param shard the name of a shard.
+   * @param absPaths absolute paths in the JCR.
+   * @return itself.
+   * @throws IllegalArgumentException if a path isn't absolute or if it is already routed to a
+   * shard.
+   */
+  RepositoryRouter routePaths(final String shard, final List<String> absPaths) {
+    for (String absPath : absPaths) {
+      if (!absPath.startsWith("/") || absPath.length() == 1) {
+        throw new IllegalArgumentException("Invalid path to route to a shard: " + absPath);
+      }
+      addRoute(paths, absPath.endsWith("/") ? absPath.substring(0, absPath.length() - 1) :
+          absPath, shard);
+    }
+    return this;
+  }
+
+  /**
+   * Is there any route to a shard?
+   * @return true if some content is routed to a shard, false if all the content is stored into
+   * the default repository.
+   */
+  boolean isEmpty() {
+    return instances.isEmpty() && instancePrefixes.isEmpty() && paths.isEmpty();
+  }
+
+  /**
+   * Gets the shard to which the specified component instance is routed.
+   * @param instanceId the identifier of a component instance.
+   * @return the name of the shard or null if the instance is stored into the default repository.
+   */
+  String routeInstance(final String instanceId) {
+    String shard = instances.get(instanceId);
+    if (shard == null) {
+      shard = instancePrefixes.stream()
+          .filter(e -> instanceId.startsWith(e.getKey()))
+          .map(Map.Entry::getValue)
+          .findFirst()
+          .orElse(null);
+    }
+    return shard;
+  }
+
+  /**
+   * Gets the shard to which the content at the specified path is routed. The path is first routed
+   * by the longest matching path prefix and, if none, by the component instance whose the
+   * identifier is the name of the first node in the path.
+   * @param absPath an absolute path in the JCR.
+   * @return the name of the shard or null if the content is stored into the default repository.
+   */
+  String routePath(final String absPath) {
+    if (isEmpty() || absPath == null || !absPath.startsWith("/")) {
+      return null;
+    }
+    for (Map.Entry<String, String> route : paths) {
+      String prefix = route.getKey();
+      if (absPath.startsWith(prefix) &&
+          (absPath.length() == prefix.length() || absPath.charAt(prefix.length()) == '/')) {
+        return route.getValue();
+      }
+    }
+    int end = absPath.indexOf('/', 1);
+    String rootName = end < 0 ? absPath.substring(1) : absPath.substring(1, end);
+    return rootName.isEmpty() ? null : routeInstance(rootName);
+  }
+
+  private static void addRoute(final List<Map.Entry<String, String>> routes, final String key,
+      final String shard) {
+    if (routes.stream().anyMatch(e -> e.getKey().equals(key))) {
+      throw new IllegalArgumentException(key + " is already routed to a shard");
+    }
+    routes.add(Map.entry(key, shard));
+    // the longest prefixes first so that the most specific route wins
+    routes.sort(Comparator.comparing((Map.Entry<String, String> e) -> e.getKey().length())
+        .reversed());
+  }
+}
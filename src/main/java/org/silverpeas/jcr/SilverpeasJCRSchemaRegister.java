@@ -29,6 +29,7 @@ import org.silverpeas.core.annotation.Service;
 import org.silverpeas.core.initialization.Initialization;
 import org.silverpeas.core.util.logging.SilverLogger;
 
+import javax.jcr.Session;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
@@ -38,7 +39,8 @@ import java.util.Objects;
  * An initialization service aiming to register the Silverpeas specific schema into the JCR to
  * be used by Silverpeas. The schema is registered only the first time the repository is spawned; it
  * is no more initialized if it already exists in the underlying JCR. The JCR schema for Silverpeas
- * is defined in the file silverpeas-jcr.cnd in the classpath of this library.
+ * is defined in the file silverpeas-jcr.cnd in the classpath of this library. When the JCR is
+ * sharded, the schema is registered into each of its repositories.
  * @author mmoquillon
  */
 @Service
@@ -48,13 +50,17 @@ public class SilverpeasJCRSchemaRegister implements Initialization {
 
   @Override
   public void init() throws Exception {
-    InputStream schema = getClass().getResourceAsStream(SILVERPEAS_JCR_SCHEMA);
-    Objects.requireNonNull(schema, "No file " + SILVERPEAS_JCR_SCHEMA + " found in the classpath!");
-
-    try (InputStreamReader reader = new InputStreamReader(schema, StandardCharsets.UTF_8);
-         JCRSession session = JCRSession.openSystemSession()) {
+    try (JCRSession session = JCRSession.openSystemSession()) {
       SilverLogger.getLogger(this).info("Silverpeas specific JCR schema registering...");
-      CndImporter.registerNodeTypes(reader, session);
+      // the schema is registered into the default repository and into each shard of the JCR
+      for (Session repositorySession : session.getAllSessions()) {
+        InputStream schema = getClass().getResourceAsStream(SILVERPEAS_JCR_SCHEMA);
+        Objects.requireNonNull(schema,
+            "No file " + SILVERPEAS_JCR_SCHEMA + " found in the classpath!");
+        try (InputStreamReader reader = new InputStreamReader(schema, StandardCharsets.UTF_8)) {
+          CndImporter.registerNodeTypes(reader, repositorySession);
+        }
+      }
     }
   }
 }
@@ -28,7 +28,10 @@ import javax.jcr.Credentials;
 import javax.jcr.GuestCredentials;
 import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 import javax.jcr.Value;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Implementation of the {@link Repository} in Silverpeas. The {@link SilverpeasRepository} objects
@@ -47,11 +50,19 @@ import javax.jcr.Value;
  * to check a session is already opened. In this case, this session is just returned, otherwise a
  * true login is performed driving to the creation and the opening of a new session to the workspace
  * of the repository (in Silverpeas, there is only one workspace).
+ * <p>
+ * The sessions opened with the repository are tracked in order to drain them at the shutdown: once
+ * the logins stopped, no more session can be opened and the shutdown waits for the opened sessions
+ * to be closed, so that the changes being saved aren't lost.
  * @author mmoquillon
  */
 public class SilverpeasRepository implements Repository {
 
+  private static final long DRAIN_POLLING_INTERVAL = 100;
+
   private final Repository repository;
+  private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+  private volatile boolean loginsStopped = false;
 
   /**
    * Wraps the specified repository to enrich it with a reentrant session mechanism.
@@ -106,23 +117,76 @@ public class SilverpeasRepository implements Repository {
   @Override
   public JCRSession login(final Credentials credentials, final String workspaceName)
       throws RepositoryException {
-    return JCRSession.open(credentials, c -> repository.login(c, workspaceName));
+    return JCRSession.open(credentials, tracked(c -> repository.login(c, workspaceName)));
   }
 
   @Override
   public JCRSession login(final Credentials credentials) throws RepositoryException {
-    return JCRSession.open(credentials, repository::login);
+    return JCRSession.open(credentials, tracked(repository::login));
   }
 
   @Override
   public JCRSession login(final String workspaceName)
       throws RepositoryException {
-    return JCRSession.open(new GuestCredentials(), c -> repository.login(workspaceName));
+    return JCRSession.open(new GuestCredentials(), tracked(c -> repository.login(workspaceName)));
   }
 
   @Override
   public JCRSession login() throws RepositoryException {
-    return JCRSession.open(new GuestCredentials(), c -> repository.login());
+    return JCRSession.open(new GuestCredentials(), tracked(c -> repository.login()));
+  }
+
+  /**
+   * Opens a new, non-reentrant, session with the wrapped repository. This is for a
+   * {@link JCRSession} to open a session with a shard of the JCR to which the content of a
+   * component instance is routed.
+   * @param credentials the credentials of the user.
+   * @return the session opened with the wrapped repository.
+   * @throws RepositoryException if the login fails.
+   */
+  Session loginDirectly(final Credentials credentials) throws RepositoryException {
+    return credentials instanceof GuestCredentials ? repository.login() :
+        repository.login(credentials);
+  }
+
+  /**
+   * Stops the opening of new sessions with this repository. Any further login fails whereas the
+   * sessions already opened are still usable until they are closed. The sessions opened with a
+   * shard of the JCR on behalf of an opened session aren't concerned.
+   */
+  void stopLogins() {
+    loginsStopped = true;
+  }
+
+  /**
+   * Waits for the sessions opened with this repository to be closed, at most for the specified
+   * time. The logins should be stopped before.
+   * @param timeout the maximum time to wait in milliseconds.
+   * @return the number of sessions still opened once the waiting ended, 0 if all the sessions are
+   * closed.
+   * @throws InterruptedException if the current thread is interrupted while waiting.
+   */
+  int awaitSessionsClosing(final long timeout) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    sessions.removeIf(s -> !s.isLive());
+    while (!sessions.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(DRAIN_POLLING_INTERVAL);
+      sessions.removeIf(s -> !s.isLive());
+    }
+    return sessions.size();
+  }
+
+  private JCRSession.JCRLogin tracked(final JCRSession.JCRLogin login) {
+    return credentials -> {
+      if (loginsStopped) {
+        throw new RepositoryException("The repository is shutting down: no more session can be " +
+            "opened");
+      }
+      Session session = login.proceed(credentials);
+      sessions.removeIf(s -> !s.isLive());
+      sessions.add(session);
+      return session;
+    };
   }
 
   /**
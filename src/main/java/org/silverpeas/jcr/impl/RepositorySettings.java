@@ -28,6 +28,11 @@ import org.silverpeas.core.SilverpeasRuntimeException;
 import org.silverpeas.core.util.StringUtil;
 import org.silverpeas.core.util.lang.SystemWrapper;
 
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
 /**
  * The parameters the different {@link javax.jcr.RepositoryFactory} have to understand and satisfy
  * when creating a {@link javax.jcr.Repository} object through which Silverpeas access the JCR.
@@ -48,6 +53,29 @@ public class RepositorySettings {
    */
   public static final String JCR_CONF = "jcr.conf";
 
+  /**
+   * The names of the shards of the JCR. A shard is an additional repository, with its own storage,
+   * into which is routed the content of some component instances. Each shard is configured by the
+   * properties prefixed by {@link #JCR_SHARD} and suffixed by its name.
+   */
+  public static final String JCR_SHARDS = "jcr.shards";
+
+  /**
+   * The prefix of the properties of a shard of the JCR: {@code jcr.shard.NAME.home} for the
+   * absolute path of its home directory, {@code jcr.shard.NAME.conf} for the absolute path of its
+   * configuration file, {@code jcr.shard.NAME.instances} for the identifiers of the component
+   * instances routed to it and {@code jcr.shard.NAME.paths} for the path prefixes routed to it.
+   */
+  public static final String JCR_SHARD = "jcr.shard.";
+
+  /**
+   * The maximum time in seconds to wait, at the shutdown, for the sessions opened with the JCR
+   * to be closed before closing the repositories.
+   */
+  public static final String JCR_SHUTDOWN_DRAIN_TIMEOUT = "jcr.shutdown.drainTimeout";
+
+  private static final long DEFAULT_SHUTDOWN_DRAIN_TIMEOUT = 30;
+
   /**
    * Gets the absolute path of the JCR home directory. The JCR home directory is the location in
    * which is defined the repository to use in Silverpeas. It should be defined in the system
@@ -79,4 +107,85 @@ public class RepositorySettings {
     }
     return jcrConf;
   }
+
+  /**
+   * Gets the names of the shards of the JCR. By default, there is no shard and all the content is
+   * stored into the single repository defined by the JCR home directory and the JCR configuration
+   * file.
+   * @return a list of shard names.
+   */
+  public List<String> getShards() {
+    return getList(JCR_SHARDS);
+  }
+
+  /**
+   * Gets the absolute path of the home directory of the specified shard. By default, the home
+   * directory of a shard is located in the {@code shards} directory of the JCR home directory but
+   * it can be located elsewhere, for example on another disk.
+   * @param shard the name of a shard.
+   * @return the absolute path of the shard home directory.
+   */
+  public String getShardHomeDirectory(final String shard) {
+    String shardHomePath = SystemWrapper.get().getProperty(JCR_SHARD + shard + ".home");
+    if (StringUtil.isNotDefined(shardHomePath)) {
+      shardHomePath = Path.of(getJCRHomeDirectory(), "shards", shard).toString();
+    }
+    return shardHomePath;
+  }
+
+  /**
+   * Gets the absolute path of the configuration file of the specified shard. By default, a shard
+   * is configured by the JCR configuration file; the relative storage paths in it are then
+   * resolved against the shard home directory.
+   * @param shard the name of a shard.
+   * @return the absolute path of the shard configuration file.
+   */
+  public String getShardConfigurationFile(final String shard) {
+    String shardConf = SystemWrapper.get().getProperty(JCR_SHARD + shard + ".conf");
+    return StringUtil.isNotDefined(shardConf) ? getJCRConfigurationFile() : shardConf;
+  }
+
+  /**
+   * Gets the identifiers of the component instances whose the content is routed to the specified
+   * shard. An identifier ending with a star is a prefix matching several instances, for example
+   * {@code gallery*} for all the instances of the gallery application.
+   * @param shard the name of a shard.
+   * @return a list of component instance identifiers.
+   */
+  public List<String> getShardInstances(final String shard) {
+    return getList(JCR_SHARD + shard + ".instances");
+  }
+
+  /**
+   * Gets the path prefixes in the JCR whose the content is routed to the specified shard.
+   * @param shard the name of a shard.
+   * @return a list of absolute paths in the JCR.
+   */
+  public List<String> getShardPaths(final String shard) {
+    return getList(JCR_SHARD + shard + ".paths");
+  }
+
+  /**
+   * Gets the maximum time to wait, at the shutdown, for the sessions opened with the JCR to be
+   * closed. Once the shutdown started, no more session can be opened and the repositories are
+   * closed as soon as all the opened sessions are closed or, at the latest, once this timeout is
+   * elapsed. By default, the timeout is of 30 seconds; 0 means no waiting.
+   * @return the timeout in seconds.
+   */
+  public long getShutdownDrainTimeout() {
+    String timeout = SystemWrapper.get().getProperty(JCR_SHUTDOWN_DRAIN_TIMEOUT);
+    return StringUtil.isDefined(timeout) ? Long.parseLong(timeout.trim()) :
+        DEFAULT_SHUTDOWN_DRAIN_TIMEOUT;
+  }
+
+  private List<String> getList(final String property) {
+    String value = SystemWrapper.get().getProperty(property);
+    if (StringUtil.isNotDefined(value)) {
+      return List.of();
+    }
+    return Arrays.stream(value.split(","))
+        .map(String::trim)
+        .filter(StringUtil::isDefined)
+        .collect(Collectors.toList());
+  }
 }
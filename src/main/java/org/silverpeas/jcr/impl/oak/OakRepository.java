@@ -28,12 +28,15 @@ import org.apache.jackrabbit.api.JackrabbitRepository;
 import org.apache.jackrabbit.oak.Oak;
 import org.apache.jackrabbit.oak.jcr.Jcr;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.silverpeas.core.util.logging.SilverLogger;
 import org.silverpeas.jcr.SilverpeasRepository;
 import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
 import org.silverpeas.jcr.impl.oak.factories.NodeStoreFactory;
 import org.silverpeas.jcr.impl.oak.security.SilverpeasSecurityProvider;
 
 import javax.jcr.Repository;
+import java.io.Closeable;
+import java.io.IOException;
 
 /**
  * <p>
@@ -86,6 +89,8 @@ public class OakRepository extends SilverpeasRepository {
 
     private final NodeStoreFactory factory;
     private NodeStore nodeStore;
+    private NodeStore repositoryStore;
+    private Closeable configurationWatch;
 
     private OakRepositoryConnection(final NodeStoreFactory nodeStoreFactory) {
       this.factory = nodeStoreFactory;
@@ -101,8 +106,12 @@ public class OakRepository extends SilverpeasRepository {
     OakRepository connect(final String jcrHomePath, final OakRepositoryConfiguration conf) {
       nodeStore = factory.create(jcrHomePath, conf);
       if (nodeStore != null) {
-        Repository jcr = new Jcr(new Oak(nodeStore))
+        repositoryStore = factory.instrument(nodeStore, jcrHomePath, conf);
+        configurationWatch = factory.watch(nodeStore, jcrHomePath, conf);
+        Repository jcr = new Jcr(new Oak(repositoryStore))
             .with(new SilverpeasSecurityProvider())
+            .with(factory.getRepositoryInitializer(conf))
+            .with(factory.getCommitHook(conf))
             .with("silverpeas")
             .createRepository();
         return new OakRepository(this, jcr);
@@ -111,10 +120,25 @@ public class OakRepository extends SilverpeasRepository {
     }
 
     /**
-     * Disconnects the repository related by this connection.
+     * Disconnects the repository related by this connection. The watching of the configuration
+     * is stopped first.
      */
     void disconnect() {
+      close(configurationWatch);
+      if (repositoryStore != nodeStore && repositoryStore instanceof Closeable) {
+        close((Closeable) repositoryStore);
+      }
       factory.dispose(nodeStore);
     }
+
+    private void close(final Closeable closeable) {
+      if (closeable != null) {
+        try {
+          closeable.close();
+        } catch (IOException e) {
+          SilverLogger.getLogger(this).error(e.getMessage(), e);
+        }
+      }
+    }
   }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.configuration;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * <p>
+ * Configuration parameters of a composite storage. A composite storage combines a writable default
+ * storage, either a segment or a document one, with some read-only segment storages, each of them
+ * mounted at some given path prefixes in the content tree. All the content that isn't located
+ * under a mounted path is stored in the default storage.
+ * </p>
+ * <p>
+ * The read-only mounts are dedicated to the archiving of the content of the component instances
+ * that are closed and that aren't modified anymore. Once moved into an archive mount, such a
+ * content is still accessible but it doesn't weigh anymore on the maintenance of the default
+ * storage (compaction, backup, garbage collection, caches, ...). The parameters of the default
+ * storage are the ones of the segment or of the document storage.
+ * </p>
+ * @author mmoquillon
+ */
+public class CompositeNodeStoreConfiguration extends NodeStoreConfiguration {
+
+  /**
+   * Default values of the different composite node storage configuration parameters. Parameters
+   * that aren't set in the configuration file are automatically valued with these defaults values
+   * below.
+   */
+  public static class DefaultValues {
+    public static final String DEFAULT_STORAGE = StorageType.SEGMENT_NODE_STORE.getValue();
+    public static final List<String> MOUNTS = List.of();
+    public static final String MOUNTS_PATH = "mounts";
+    public static final List<String> MOUNTED_PATHS = List.of();
+
+    private DefaultValues() {
+    }
+  }
+
+  CompositeNodeStoreConfiguration(final Properties props) {
+    super(props);
+  }
+
+  /**
+   * Gets the type of the writable default storage of the composite storage. Only a segment or a
+   * document storage can be used as default storage. By default, this is a segment storage.
+   * @return the type of the default storage.
+   */
+  public StorageType getDefaultStorageType() {
+    String value = getString("composite.default", DefaultValues.DEFAULT_STORAGE);
+    StorageType type = StorageType.fromValue(value);
+    if (type != StorageType.SEGMENT_NODE_STORE && type != StorageType.DOCUMENT_NODE_STORE) {
+      throw new IllegalArgumentException("Invalid default storage of a composite storage: " +
+          value);
+    }
+    return type;
+  }
+
+  /**
+   * Gets the names of the read-only archive mounts of the composite storage. By default, there is
+   * no mount.
+   * @return a list of mount names.
+   */
+  public List<String> getMounts() {
+    return getList("composite.mounts", DefaultValues.MOUNTS);
+  }
+
+  /**
+   * Gets the path of the segment storage of the specified archive mount. If the path is relative,
+   * it is relative to the home directory of the JCR. By default, the segment storage of a mount is
+   * located in the directory named after the mount, in the {@code mounts} directory of the JCR
+   * home.
+   * @param mount the name of an archive mount.
+   * @return the path of the segment storage of the mount.
+   */
+  public String getMountStoragePath(final String mount) {
+    return getString("composite.mount." + mount + ".repository",
+        DefaultValues.MOUNTS_PATH + "/" + mount);
+  }
+
+  /**
+   * Gets the path prefixes in the content tree mounted by the specified archive mount. The content
+   * under these paths is then read from the mount. The paths of the content moved into the mount
+   * are recorded by the mount itself, so they don't need to be set here. By default, no paths
+   * are explicitly mounted.
+   * @param mount the name of an archive mount.
+   * @return a list of paths in the repository.
+   */
+  public List<String> getMountedPaths(final String mount) {
+    return getList("composite.mount." + mount + ".paths", DefaultValues.MOUNTED_PATHS);
+  }
+}
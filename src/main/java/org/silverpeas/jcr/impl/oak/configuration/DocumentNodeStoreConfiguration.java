@@ -24,8 +24,12 @@
 
 package org.silverpeas.jcr.impl.oak.configuration;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -41,7 +45,7 @@ import java.util.Properties;
  *   <li>MongoDocumentStore: stores documents in a MongoDB.</li>
  *   <li>RDBDocumentStore: stores documents in a relational data base.</li>
  *   <li>MemoryDocumentStore: keeps documents in memory. This implementation should only be used
- *   for testing purposes and it isn't addressed here.</li>
+ *   for testing or benchmarking purposes.</li>
  * </ul>
  * <h3>The MongoDocumentStore</h1>
  * <p>
@@ -101,11 +105,45 @@ public class DocumentNodeStoreConfiguration extends NodeStoreConfiguration {
     public static final int PREV_DOC_CACHE_PERCENTAGE = 4;
     public static final int CHILDREN_CACHE_PERCENTAGE = 15;
     public static final int DIFF_CACHE_PERCENTAGE = 30;
+    public static final boolean ADAPTIVE_CACHE_DISTRIBUTION = false;
+    public static final long CACHE_DISTRIBUTION_INTERVAL = 60;
+    public static final int CACHE_DISTRIBUTION_STEP = 2;
+    public static final int CACHE_DISTRIBUTION_MIN_PERCENTAGE = 50;
+    public static final int CACHE_DISTRIBUTION_MAX_PERCENTAGE = 300;
     public static final int CACHE_SEGMENT_COUNT = 16;
     public static final int CACHE_STACK_MOVE_DISTANCE = 16;
     public static final int UPDATE_COUNT_THRESHOLD = 100000;
     public static final String LEASE_CHECK_MODE = "STRICT";
     public static final String STORE_TYPE = DocumentStoreType.MONGO.name();
+    public static final long BLOB_GC_INTERVAL = 86400;
+    public static final long BLOB_GC_MAX_AGE = 86400;
+    public static final String RDB_DATASOURCE = "";
+    public static final String RDB_URL = "";
+    public static final String RDB_USER = "";
+    public static final String RDB_PASSWORD = "";
+    public static final int RDB_POOL_SIZE = 20;
+    public static final String RDB_TABLE_PREFIX = "";
+    public static final int RDB_BATCH_SIZE = 64;
+    public static final int RDB_BLOB_BLOCK_SIZE = 2 * 1024 * 1024;
+    public static final long MEMORY_LATENCY = 0;
+    public static final int CLUSTER_ID = 0;
+    public static final int LEASE_DURATION = 120;
+    public static final int ASYNC_DELAY = 1000;
+    public static final boolean RECOVER_STALE_CLUSTER_ID = true;
+    public static final String READ_PREFERENCE = "primary";
+    public static final List<String> STALE_READ_SUBTREES = List.of();
+    public static final int CHILDREN_PREFETCH_SIZE = 100;
+    public static final boolean THROTTLING = true;
+    public static final long THROTTLING_MAX_PROPAGATION_LAG = 10000;
+    public static final long THROTTLING_MAX_REPLICATION_LAG = 10;
+    public static final int THROTTLING_BULK_THRESHOLD = 50;
+    public static final long THROTTLING_MAX_DELAY = 1000;
+    public static final Map<String, List<String>> BUNDLING_PATTERNS = Map.of(
+        "slv:simpleDocument", List.of("*/*/jcr:content"),
+        "slv:simpleAttachment", List.of("*/jcr:content"),
+        "slv:documentAttachment", List.of("jcr:content"),
+        "slv:i18nAttachment", List.of("jcr:content"),
+        "nt:file", List.of("jcr:content"));
 
     private DefaultValues() {
 
@@ -134,10 +172,11 @@ public class DocumentNodeStoreConfiguration extends NodeStoreConfiguration {
   }
 
   /**
-   * Cache size in MB. This is distributed among various caches used in DocumentNodeStore.
+   * Cache size in MB. This is distributed among various caches used in DocumentNodeStore. It can
+   * be given as a percentage of the maximum size of the heap.
    */
   public int getCacheSize() {
-    return getInteger("document.cache", DefaultValues.CACHE_SIZE);
+    return getHeapSize("document.cache", DefaultValues.CACHE_SIZE);
   }
 
   /**
@@ -149,6 +188,111 @@ public class DocumentNodeStoreConfiguration extends NodeStoreConfiguration {
     return getInteger("document.maxReplicationLagInSecs", DefaultValues.MAX_REPLICATION_LAG);
   }
 
+  /**
+   * The read preference of the MongoDB replica set: primary, primaryPreferred, secondary,
+   * secondaryPreferred or nearest. With a read preference other than primary, the reads of old
+   * revisions and the reads of the documents not modified since the maximum replication lag are
+   * routed to the secondaries, with a staleness bounded by this lag when it is at least 90
+   * seconds. The fresh reads and the writes are always performed on the primary. This parameter
+   * is ignored if the read preference is already set in the MongoDB URI. By default, primary.
+   */
+  public String getReadPreference() {
+    return getString("document.readPreference", DefaultValues.READ_PREFERENCE);
+  }
+
+  /**
+   * List of paths defining the subtrees whose the content is tolerant of staleness up to the
+   * maximum replication lag. With a read preference other than primary, all the reads of the
+   * documents in these subtrees are routed to the secondaries. By default, none.
+   */
+  public List<String> getStaleReadSubtrees() {
+    return getList("document.staleReadSubtrees", DefaultValues.STALE_READ_SUBTREES);
+  }
+
+  /**
+   * Size of the pages of child documents to prefetch in bulk from MongoDB when the children of a
+   * node are iterated. The prefetched documents fill the document cache from which the child
+   * nodes are then read. 0 disables the prefetching. By default, 100.
+   */
+  public int getChildrenPrefetchSize() {
+    return getInteger("document.childrenPrefetchSize", DefaultValues.CHILDREN_PREFETCH_SIZE);
+  }
+
+  /**
+   * Whether the bulk writes into MongoDB have to be throttled when the other cluster nodes or the
+   * secondaries of the replica set lag too far behind the changes done by this cluster node, as
+   * it can be the case with mass imports. A bulk commit is delayed before taking its revision so
+   * that the interactive commits, which aren't throttled, aren't stalled behind it. By default,
+   * true.
+   */
+  public boolean isThrottlingEnabled() {
+    return getBoolean("document.throttling", DefaultValues.THROTTLING);
+  }
+
+  /**
+   * Maximum lag in milliseconds of the propagation of the changes done by this cluster node to
+   * the other cluster nodes, that is to say the age of the oldest change not yet made visible to
+   * them by the background operations. The bulk writes start to be throttled from the half of
+   * this lag. By default, 10 seconds.
+   */
+  public long getThrottlingMaxPropagationLag() {
+    return getLong("document.throttling.maxPropagationLagInMillis",
+        DefaultValues.THROTTLING_MAX_PROPAGATION_LAG);
+  }
+
+  /**
+   * Maximum replication lag in seconds of the secondaries of the MongoDB replica set. The bulk
+   * writes start to be throttled from the half of this lag. By default, 10 seconds.
+   */
+  public long getThrottlingMaxReplicationLag() {
+    return getLong("document.throttling.maxReplicationLagInSecs",
+        DefaultValues.THROTTLING_MAX_REPLICATION_LAG);
+  }
+
+  /**
+   * Number of nodes added, removed or changed at once from which a commit is considered as a bulk
+   * one and then can be throttled. By default, 50.
+   */
+  public int getThrottlingBulkThreshold() {
+    return getInteger("document.throttling.bulkThreshold",
+        DefaultValues.THROTTLING_BULK_THRESHOLD);
+  }
+
+  /**
+   * Maximum delay in milliseconds applied to a bulk write when the lags reach their maximum. By
+   * default, 1 second.
+   */
+  public long getThrottlingMaxDelay() {
+    return getLong("document.throttling.maxDelayInMillis", DefaultValues.THROTTLING_MAX_DELAY);
+  }
+
+  /**
+   * The bundling patterns per node type. The nodes matching the patterns relative to a node of the
+   * given type are stored with it in the same document, so that they are all read at once. Each
+   * rule is of the form {@code node type=pattern|pattern} and the rules are separated by a comma.
+   * A pattern is a relative path whose each element is either a name, {@code *} for any child or
+   * {@code **} for any descendant. The bundling applies only to the nodes created after its
+   * setting. By default, the patterns derived from the node types of Silverpeas: an attachment
+   * with its file and its content is stored in one document.
+   */
+  public Map<String, List<String>> getBundlingPatterns() {
+    List<String> rules = getList("document.bundling", List.of());
+    if (rules.isEmpty()) {
+      return DefaultValues.BUNDLING_PATTERNS;
+    }
+    Map<String, List<String>> patterns = new LinkedHashMap<>();
+    for (String rule : rules) {
+      String[] typeAndPatterns = rule.split("=");
+      if (typeAndPatterns.length != 2) {
+        throw new IllegalArgumentException("Invalid bundling rule: " + rule);
+      }
+      patterns.put(typeAndPatterns[0].trim(), Arrays.stream(typeAndPatterns[1].split("\\|"))
+          .map(String::trim)
+          .collect(Collectors.toList()));
+    }
+    return patterns;
+  }
+
   /**
    * Oak uses MVCC model to store the data. So each update to a node results in new version getting
    * created. This duration controls how much old revision data should be kept. For example if a
@@ -171,10 +315,11 @@ public class DocumentNodeStoreConfiguration extends NodeStoreConfiguration {
   /**
    * DocumentNodeStore when running with Mongo will use MongoBlobStore by default unless a custom
    * BlobStore is configured. In such scenario the size of in memory cache in MB for the frequently
-   * used blobs can be configured via blobCacheSize.
+   * used blobs can be configured via blobCacheSize, either in MB or as a percentage of the maximum
+   * size of the heap.
    */
   public int getBlobCacheSize() {
-    return getInteger("document.blobCacheSize", DefaultValues.BLOB_CACHE_SIZE);
+    return getHeapSize("document.blobCacheSize", DefaultValues.BLOB_CACHE_SIZE);
   }
 
   /**
@@ -212,6 +357,54 @@ public class DocumentNodeStoreConfiguration extends NodeStoreConfiguration {
     return getInteger("document.diffCachePercentage", DefaultValues.DIFF_CACHE_PERCENTAGE);
   }
 
+  /**
+   * Whether the distribution of the cache among the various caches used in DocumentNodeStore is
+   * adapted to the workload. The distribution given by the cache percentages is then only the
+   * starting point: the hits, misses and evictions of each cache are periodically sampled and
+   * some capacity is moved from the cache making the less use of its memory to the cache
+   * evicting the most needed entries. By default, false.
+   */
+  public boolean isCacheDistributionAdaptive() {
+    return getBoolean("document.adaptiveCacheDistribution",
+        DefaultValues.ADAPTIVE_CACHE_DISTRIBUTION);
+  }
+
+  /**
+   * Interval in seconds between two adaptations of the distribution of the cache. By default,
+   * 60 seconds.
+   */
+  public long getAdaptiveCacheDistributionInterval() {
+    return getLong("document.adaptiveCacheDistribution.intervalInSecs",
+        DefaultValues.CACHE_DISTRIBUTION_INTERVAL);
+  }
+
+  /**
+   * Percentage of the cache size moved from a cache to another one at each adaptation of the
+   * distribution of the cache. By default, 2%.
+   */
+  public int getAdaptiveCacheDistributionStep() {
+    return getInteger("document.adaptiveCacheDistribution.step",
+        DefaultValues.CACHE_DISTRIBUTION_STEP);
+  }
+
+  /**
+   * Percentage of its initial size under which a cache isn't shrunk by the adaptation of the
+   * distribution of the cache. By default, 50%.
+   */
+  public int getAdaptiveCacheDistributionMinPercentage() {
+    return getInteger("document.adaptiveCacheDistribution.minPercentage",
+        DefaultValues.CACHE_DISTRIBUTION_MIN_PERCENTAGE);
+  }
+
+  /**
+   * Percentage of its initial size above which a cache isn't grown by the adaptation of the
+   * distribution of the cache. By default, 300%.
+   */
+  public int getAdaptiveCacheDistributionMaxPercentage() {
+    return getInteger("document.adaptiveCacheDistribution.maxPercentage",
+        DefaultValues.CACHE_DISTRIBUTION_MAX_PERCENTAGE);
+  }
+
   /**
    * The number of segments in the LIRS cache.
    */
@@ -245,13 +438,151 @@ public class DocumentNodeStoreConfiguration extends NodeStoreConfiguration {
   }
 
   /**
-   * "MONGO" for MongoDocumentStore, “RDB” for RDBDocumentStore. Latter will require a configured
-   * Sling DataSource called oak.
+   * "MONGO" for MongoDocumentStore, “RDB” for RDBDocumentStore, "MEMORY" for MemoryDocumentStore.
+   * The RDBDocumentStore will require either the JNDI name of a datasource or the JDBC URL of the
+   * relational database. The document storages using the MemoryDocumentStore with the same
+   * database name in the same JVM share the same documents, as the nodes of a cluster.
    */
   public DocumentStoreType getDocumentStoreType() {
     return DocumentStoreType.valueOf(getString("document.storeType", DefaultValues.STORE_TYPE));
   }
 
+  /**
+   * Interval in seconds between two runs of the garbage collection of the binaries in the blob
+   * store. The garbage collector removes the binaries that aren't anymore referenced by any
+   * documents (those of deleted attachments or of purged versions for example). A value of 0 or
+   * below disables it. By default, 24 hours.
+   */
+  public long getBlobGCInterval() {
+    return getLong("document.blobGCIntervalInSecs", DefaultValues.BLOB_GC_INTERVAL);
+  }
+
+  /**
+   * Binaries younger than blobGCMaxAge, in seconds, aren't garbage collected. This is a safeguard
+   * for the binaries that are being uploaded and that aren't yet referenced by a committed
+   * document. By default, 24 hours.
+   */
+  public long getBlobGCMaxAge() {
+    return getLong("document.blobGCMaxAgeInSecs", DefaultValues.BLOB_GC_MAX_AGE);
+  }
+
+  /**
+   * JNDI name of the datasource to use with the RDBDocumentStore. The datasource is then managed,
+   * and pooled, by the application server. If not set, the connections to the relational database
+   * are taken from a pool of connections created from the JDBC URL. Not set by default.
+   */
+  public String getRDBDataSource() {
+    return getString("document.rdb.datasource", DefaultValues.RDB_DATASOURCE);
+  }
+
+  /**
+   * JDBC URL of the relational database to use with the RDBDocumentStore when no datasource is
+   * set. The JDBC driver has to be in the classpath. For testing purpose, an embedded H2 database
+   * can be used, e.g. {@code jdbc:h2:file:/var/lib/silverpeas/oak}.
+   */
+  public String getRDBUrl() {
+    return getString("document.rdb.url", DefaultValues.RDB_URL);
+  }
+
+  /**
+   * User with which the connections to the relational database are opened.
+   */
+  public String getRDBUser() {
+    return getString("document.rdb.user", DefaultValues.RDB_USER);
+  }
+
+  /**
+   * Password of the user with which the connections to the relational database are opened.
+   */
+  public String getRDBPassword() {
+    return getString("document.rdb.password", DefaultValues.RDB_PASSWORD);
+  }
+
+  /**
+   * Maximum number of connections in the pool of connections to the relational database opened
+   * from the JDBC URL. By default, 20.
+   */
+  public int getRDBPoolSize() {
+    return getInteger("document.rdb.poolSize", DefaultValues.RDB_POOL_SIZE);
+  }
+
+  /**
+   * Prefix of the tables in which the RDBDocumentStore stores the documents and the binaries. It
+   * allows several repositories to share the same database. No prefix by default.
+   */
+  public String getRDBTablePrefix() {
+    return getString("document.rdb.tablePrefix", DefaultValues.RDB_TABLE_PREFIX);
+  }
+
+  /**
+   * Maximum number of documents read or written in a single statement by the RDBDocumentStore.
+   * This parameter is global to the JVM: it is taken into account only when the RDBDocumentStore
+   * is set up for the first time; a warning is logged for any other storage configured with
+   * another batch size. By default, 64.
+   */
+  public int getRDBBatchSize() {
+    return getInteger("document.rdb.batchSize", DefaultValues.RDB_BATCH_SIZE);
+  }
+
+  /**
+   * Size in bytes of the blocks in which the binaries are split to be stored in the relational
+   * database. By default, 2MB.
+   */
+  public int getRDBBlobBlockSize() {
+    return getInteger("document.rdb.blobBlockSize", DefaultValues.RDB_BLOB_BLOCK_SIZE);
+  }
+
+  /**
+   * Latency in microseconds added to each access to the MemoryDocumentStore in order to simulate
+   * the response time of a remote database. No latency by default.
+   */
+  public long getMemoryLatency() {
+    return getLong("document.memory.latencyInMicros", DefaultValues.MEMORY_LATENCY);
+  }
+
+  /**
+   * Identifier of this node in the cluster of document storages sharing the same database. Each
+   * node must have its own identifier, greater than 0. With 0, the default, an identifier is
+   * automatically picked up by Oak: after a crash, the node may then have to wait for the lease of
+   * its previous identifier to expire before being able to get it again.
+   */
+  public int getClusterId() {
+    return getInteger("document.clusterId", DefaultValues.CLUSTER_ID);
+  }
+
+  /**
+   * Duration in seconds of the lease of a cluster node on its identifier. A node that didn't renew
+   * its lease within this duration is considered as crashed: its identifier is recovered by the
+   * other nodes. It must be greater than 30 seconds, that is the interval at which the lease is
+   * renewed plus the margin below which the lease is considered as failed. This parameter is
+   * global to the JVM: it is taken into account only when the first document storage is set up;
+   * a warning is logged for any other storage configured with another duration. By default, 120
+   * seconds.
+   */
+  public int getLeaseDuration() {
+    return getInteger("document.leaseDurationInSecs", DefaultValues.LEASE_DURATION);
+  }
+
+  /**
+   * Delay in milliseconds between two runs of the background operations: the changes of the other
+   * cluster nodes are read and the changes of this node are made visible to them at this interval.
+   * By default, 1 second.
+   */
+  public int getAsyncDelay() {
+    return getInteger("document.asyncDelayInMillis", DefaultValues.ASYNC_DELAY);
+  }
+
+  /**
+   * Whether the identifier set explicitly to this cluster node has to be recovered at startup
+   * when it is still marked as in use by a previous instance of this node that has crashed. If so,
+   * once checked the lease of the previous instance isn't renewed anymore, the lease is ended
+   * and the identifier is recovered at once instead of waiting for the lease to expire. The
+   * recovery is supported with MongoDB and with a relational database only. By default, true.
+   */
+  public boolean isStaleClusterIdRecovered() {
+    return getBoolean("document.recoverStaleClusterId", DefaultValues.RECOVER_STALE_CLUSTER_ID);
+  }
+
   DocumentNodeStoreConfiguration(Properties props) {
     super(props);
   }
@@ -267,7 +598,11 @@ public class DocumentNodeStoreConfiguration extends NodeStoreConfiguration {
     /**
      * The datasource is a relational database.
      */
-    RDB;
+    RDB,
+    /**
+     * The datasource is in memory. For testing or benchmarking purpose only.
+     */
+    MEMORY;
 
     @Override
     public String toString() {
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.configuration;
+
+import java.util.Properties;
+
+/**
+ * <p>
+ * Configuration parameters of a memory storage. A memory storage is for testing or demonstration
+ * purpose only: its content is lost once the application is down.
+ * </p>
+ * <p>
+ * In order to avoid to populate the repository at each start, a memory storage can be initialized
+ * from a snapshot of the content of a previous memory storage. A snapshot is a segment storage
+ * whose the content is loaded on demand, so the memory storage is ready in a few milliseconds
+ * whatever the size of the snapshot. The snapshot is written either on demand through JMX or when
+ * the memory storage is disposed.
+ * </p>
+ * @author mmoquillon
+ */
+public class MemoryNodeStoreConfiguration extends NodeStoreConfiguration {
+
+  /**
+   * Default values of the different memory node storage configuration parameters. Parameters that
+   * aren't set in the configuration file are automatically valued with these defaults values
+   * below.
+   */
+  public static class DefaultValues {
+    public static final String SNAPSHOT_PATH = "";
+    public static final boolean SNAPSHOT_SAVE_ON_DISPOSE = false;
+
+    private DefaultValues() {
+    }
+  }
+
+  MemoryNodeStoreConfiguration(final Properties props) {
+    super(props);
+  }
+
+  /**
+   * Gets the path on the filesystem of the snapshot from which the memory storage is initialized
+   * and into which its content is saved. If the snapshot doesn't exist, the memory storage starts
+   * empty. The path can be either absolute or relative to the JCR home directory. By default, no
+   * snapshot is used.
+   * @return the path of the snapshot or an empty string if no snapshot is used.
+   */
+  public String getSnapshotPath() {
+    return getString("memory.snapshot", DefaultValues.SNAPSHOT_PATH);
+  }
+
+  /**
+   * Is the content of the memory storage saved into its snapshot when the storage is disposed?
+   * This is a way to build once the snapshot with the content expected by some tests. The previous
+   * snapshot is then replaced. By default, the snapshot isn't saved at the disposal of the storage.
+   * @return true if the snapshot is saved at the disposal of the storage, false otherwise.
+   */
+  public boolean isSnapshotSavedOnDispose() {
+    return getBoolean("memory.snapshot.saveOnDispose", DefaultValues.SNAPSHOT_SAVE_ON_DISPOSE);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.configuration;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.OperatingSystemMXBean;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Resolver of the size of a memory area, like a cache, given either as an absolute value in MB or
+ * as a percentage of the memory that can be allocated by the JVM for such an area. A percentage,
+ * suffixed by {@code %}, allows the same configuration to fit nodes with different amounts of
+ * memory: the size is then computed from the maximum size of the heap for an area in the heap, or
+ * from the memory left by the heap to the JVM for an off-heap area. In the latter case, this memory
+ * is the one of the host or of the container, if any, less the maximum size of the heap, and it is
+ * bounded by the maximum amount of direct memory the JVM can allocate. A size given as a
+ * percentage is kept between a floor of {@link #MIN_SIZE} MB and a ceiling of
+ * {@link #MAX_PERCENTAGE}% of the memory so that a cache is neither useless on a small node nor
+ * starving the application on a large one. A size given in MB is taken as is.
+ * @author mmoquillon
+ */
+final class MemorySize {
+
+  static final int MIN_SIZE = 16;
+  static final int MAX_PERCENTAGE = 50;
+
+  private static final long MB = 1024L * 1024L;
+
+  private MemorySize() {
+  }
+
+  /**
+   * Resolves the size in MB of an area in the heap.
+   * @param value the size, either in MB or as a percentage of the maximum size of the heap.
+   * @return the size in MB.
+   */
+  static int inHeap(final String value) {
+    return resolve(value, getMaxHeapMemory());
+  }
+
+  /**
+   * Resolves the size in MB of an area out of the heap.
+   * @param value the size, either in MB or as a percentage of the memory left by the heap.
+   * @return the size in MB.
+   */
+  static int offHeap(final String value) {
+    return resolve(value, getMaxOffHeapMemory());
+  }
+
+  /**
+   * Gets the maximum amount of memory in bytes the heap can use.
+   * @return the maximum size of the heap in bytes.
+   */
+  static long getMaxHeapMemory() {
+    return Runtime.getRuntime().maxMemory();
+  }
+
+  /**
+   * Gets the maximum amount of memory in bytes an off-heap area can use, that is the memory of the
+   * host, or of the container, not reserved to the heap and that can be allocated as direct
+   * memory by the JVM.
+   * @return the maximum size of the off-heap memory in bytes.
+   */
+  static long getMaxOffHeapMemory() {
+    long maxDirectMemory = getMaxDirectMemory();
+    java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof OperatingSystemMXBean) {
+      // the total memory is the one of the container when the JVM runs in a container
+      @SuppressWarnings("deprecation")
+      long totalMemory = ((OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+      return Math.max(0, Math.min(maxDirectMemory, totalMemory - getMaxHeapMemory()));
+    }
+    return maxDirectMemory;
+  }
+
+  private static long getMaxDirectMemory() {
+    try {
+      HotSpotDiagnosticMXBean hotSpot =
+          ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+      long maxDirectMemory = hotSpot == null ? 0 :
+          Long.parseLong(hotSpot.getVMOption("MaxDirectMemorySize").getValue());
+      // without any explicit limit, the JVM can allocate as much direct memory as the heap
+      return maxDirectMemory > 0 ? maxDirectMemory : getMaxHeapMemory();
+    } catch (IllegalArgumentException e) {
+      return getMaxHeapMemory();
+    }
+  }
+
+  private static int resolve(final String value, final long memory) {
+    String size = value.trim();
+    if (!size.endsWith("%")) {
+      return Integer.parseInt(size);
+    }
+    double percentage = Double.parseDouble(size.substring(0, size.length() - 1).trim());
+    if (percentage <= 0 || percentage > 100) {
+      throw new IllegalArgumentException(
+          "The percentage of memory must be in ]0, 100]: " + value);
+    }
+    long resolved = (long) (memory * Math.min(percentage, MAX_PERCENTAGE) / 100 / MB);
+    return (int) Math.max(MIN_SIZE, resolved);
+  }
+}
@@ -81,12 +81,44 @@ public abstract class NodeStoreConfiguration {
     return Long.parseLong(value);
   }
 
+  /**
+   * Gets the size in MB of an area in the heap, like a cache. The size can be given either in MB
+   * or as a percentage of the maximum size of the heap (for example {@code 10%}).
+   * @param name the name of the parameter.
+   * @param defaultValue the default size in MB.
+   * @return the size in MB.
+   * @see MemorySize
+   */
+  protected int getHeapSize(String name, int defaultValue) {
+    String value = properties.getProperty(name);
+    if (StringUtil.isNotDefined(value)) {
+      return defaultValue;
+    }
+    return MemorySize.inHeap(value);
+  }
+
+  /**
+   * Gets the size in MB of an area out of the heap, like an off-heap cache. The size can be given
+   * either in MB or as a percentage of the memory left by the heap to the JVM (for example
+   * {@code 25%}).
+   * @param name the name of the parameter.
+   * @param defaultValue the default size in MB.
+   * @return the size in MB.
+   * @see MemorySize
+   */
+  protected int getOffHeapSize(String name, int defaultValue) {
+    String value = properties.getProperty(name);
+    if (StringUtil.isNotDefined(value)) {
+      return defaultValue;
+    }
+    return MemorySize.offHeap(value);
+  }
+
   protected String getString(String name, String defaultValue) {
     return properties.getProperty(name, defaultValue);
   }
 
-  protected List<String> getList(@SuppressWarnings("SameParameterValue") String name,
-      @SuppressWarnings("SameParameterValue") List<String> defaultValue) {
+  protected List<String> getList(String name, List<String> defaultValue) {
     String value = properties.getProperty(name);
     if (StringUtil.isNotDefined(value)) {
       return defaultValue;
@@ -24,6 +24,8 @@
 
 package org.silverpeas.jcr.impl.oak.configuration;
 
+import org.silverpeas.core.util.StringUtil;
+
 import javax.annotation.Nonnull;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -32,6 +34,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * <p>
@@ -62,12 +66,37 @@ import java.util.Properties;
  */
 public class OakRepositoryConfiguration {
 
+  /**
+   * Default values of the configuration parameters common to all the types of storage.
+   * Parameters that aren't set in the configuration file are automatically valued with these
+   * defaults values below.
+   */
+  public static class DefaultValues {
+    public static final boolean NODE_STORE_INSTRUMENTATION = false;
+    public static final int CONFIGURATION_WATCH_INTERVAL = 0;
+
+    private DefaultValues() {
+    }
+  }
+
+  private final String location;
+
+  private final Properties properties;
+
   private final StorageType storage;
 
+  private final int configurationWatchInterval;
+
+  private final boolean nodeStoreInstrumented;
+
+  private final MemoryNodeStoreConfiguration memoryNodeStore;
+
   private final SegmentNodeStoreConfiguration segmentNodeStore;
 
   private final DocumentNodeStoreConfiguration documentNodeStore;
 
+  private final CompositeNodeStoreConfiguration compositeNodeStore;
+
   /**
    * Loads the configuration file located at the specified absolute path.
    * @param path the absolute path of the properties file to load.
@@ -80,15 +109,63 @@ public class OakRepositoryConfiguration {
     try (InputStream input = openConfigFileAt(path)) {
       Properties properties = new Properties();
       properties.load(input);
-      return new OakRepositoryConfiguration(properties);
+      return new OakRepositoryConfiguration(path, properties);
     }
   }
 
-  private OakRepositoryConfiguration(@Nonnull Properties props) {
+  private OakRepositoryConfiguration(final String location, @Nonnull Properties props) {
     Objects.requireNonNull(props, "The configuration of the Oak repository shouldn't be null");
+    this.location = location;
+    this.properties = props;
     this.storage = StorageType.fromValue(props.getProperty("storage"));
+    String instrumentation = props.getProperty("storage.instrumentation");
+    this.nodeStoreInstrumented = StringUtil.isDefined(instrumentation) ?
+        StringUtil.getBooleanValue(instrumentation) : DefaultValues.NODE_STORE_INSTRUMENTATION;
+    String watchInterval = props.getProperty("storage.configuration.watchIntervalInSecs");
+    this.configurationWatchInterval = StringUtil.isDefined(watchInterval) ?
+        Integer.parseInt(watchInterval) : DefaultValues.CONFIGURATION_WATCH_INTERVAL;
+    this.memoryNodeStore = new MemoryNodeStoreConfiguration(props);
     this.segmentNodeStore = new SegmentNodeStoreConfiguration(props);
     this.documentNodeStore = new DocumentNodeStoreConfiguration(props);
+    this.compositeNodeStore = new CompositeNodeStoreConfiguration(props);
+  }
+
+  /**
+   * Gets the location from which this configuration has been loaded. It is the path passed to the
+   * {@link #load(String)} method.
+   * @return the location of the configuration file.
+   */
+  public String getLocation() {
+    return location;
+  }
+
+  /**
+   * Gets the names of the parameters whose the value differs between this configuration and the
+   * specified one. A parameter set in only one of the two configurations is also taken as a
+   * changed one.
+   * @param other another configuration, usually the same configuration file loaded again.
+   * @return a set, ordered by name, of the parameters that have changed. The set is empty if both
+   * the configurations are the same.
+   */
+  public Set<String> getChangedParameters(final OakRepositoryConfiguration other) {
+    Set<String> names = new TreeSet<>(properties.stringPropertyNames());
+    names.addAll(other.properties.stringPropertyNames());
+    names.removeIf(name -> Objects.equals(normalize(properties.getProperty(name)),
+        normalize(other.properties.getProperty(name))));
+    return names;
+  }
+
+  /**
+   * Gets the interval in seconds at which the configuration file is checked for changes. When the
+   * file is modified, it is loaded again and the parameters that can be changed at runtime are
+   * applied without restarting the repository; the others are only reported as requiring a
+   * restart. The configuration can also be reloaded on demand through JMX. By default, the
+   * interval is 0, meaning the file isn't watched.
+   * @return the interval in seconds between two checks of the configuration file, 0 to disable
+   * the watching.
+   */
+  public int getConfigurationWatchInterval() {
+    return configurationWatchInterval;
   }
 
   /**
@@ -99,6 +176,25 @@ public class OakRepositoryConfiguration {
     return storage;
   }
 
+  /**
+   * Is the node storage instrumented? If true, the latency and the rate of the merges, the
+   * rebases, the blob writes and reads, and the checkpoint operations are recorded and exposed
+   * through JMX, whatever the type of the storage. By default, the storage isn't instrumented.
+   * @return true if the operations on the node storage are recorded, false otherwise.
+   */
+  public boolean isNodeStoreInstrumented() {
+    return nodeStoreInstrumented;
+  }
+
+  /**
+   * Gets the configuration to create a repository with a Memory Node Store as backend.
+   * @return a {@link MemoryNodeStoreConfiguration} instance with the properties to initialize the
+   * {@link javax.jcr.Repository} instance.
+   */
+  public MemoryNodeStoreConfiguration getMemoryNodeStoreConfiguration() {
+    return memoryNodeStore;
+  }
+
   /**
    * Gets the configuration to create a repository with a Segment Node Store as backend.
    * @return a {@link SegmentNodeStoreConfiguration} instance with the properties to initialize the
@@ -117,6 +213,21 @@ public class OakRepositoryConfiguration {
     return documentNodeStore;
   }
 
+  /**
+   * Gets the configuration to create a repository with a Composite Node Store as backend. The
+   * default storage of the composite one is configured by either the segment or the document
+   * storage configuration.
+   * @return a {@link CompositeNodeStoreConfiguration} instance with the properties to initialize
+   * the {@link javax.jcr.Repository} instance.
+   */
+  public CompositeNodeStoreConfiguration getCompositeNodeStoreConfiguration() {
+    return compositeNodeStore;
+  }
+
+  private static String normalize(final String value) {
+    return StringUtil.isDefined(value) ? value.trim() : null;
+  }
+
   private static InputStream openConfigFileAt(final String path) throws IOException {
     if (path.startsWith("classpath:")) {
       return openInClassPath(path.substring(10));
@@ -29,6 +29,7 @@ import org.apache.jackrabbit.oak.segment.SegmentCache;
 import org.apache.jackrabbit.oak.segment.compaction.SegmentGCOptions;
 import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
 
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -99,6 +100,33 @@ public class SegmentNodeStoreConfiguration extends NodeStoreConfiguration {
         SegmentGCOptions.DISABLE_ESTIMATION_DEFAULT;
     public static final int COMPACTION_MEMORY_THRESHOLD = SegmentGCOptions.MEMORY_THRESHOLD_DEFAULT;
     public static final long COMPACTION_PROGRESS_LOG = SegmentGCOptions.GC_PROGRESS_LOG_DEFAULT;
+    public static final String BLOB_STORE_PATH = "";
+    public static final long BLOB_GC_INTERVAL = 86400;
+    public static final long BLOB_GC_MAX_AGE = 86400;
+    public static final int OFF_HEAP_CACHE_SIZE = 0;
+    public static final String OFF_HEAP_CACHE_POLICY = CacheAdmissionPolicy.LRU.name();
+    public static final String MEMORY_MAPPING = MemoryMappingMode.AUTO.name();
+    public static final int WARM_UP_SIZE = 0;
+    public static final List<String> WARM_UP_SUBTREES = List.of();
+    public static final String BACKUP_PATH = "";
+    public static final long BACKUP_INTERVAL = 86400;
+    public static final int BACKUP_RETENTION = 7;
+    public static final String STANDBY_MODE = StandbyMode.OFF.name();
+    public static final String STANDBY_HOST = "127.0.0.1";
+    public static final int STANDBY_PORT = 8023;
+    public static final boolean STANDBY_SECURE = false;
+    public static final List<String> STANDBY_ALLOWED_CLIENTS = List.of();
+    public static final long STANDBY_INTERVAL = 5;
+    public static final int STANDBY_BANDWIDTH = 0;
+    public static final int STANDBY_READ_TIMEOUT = 60000;
+    public static final String SPLIT_BASE_PATH = "";
+    public static final boolean READ_ONLY = false;
+    public static final long READ_ONLY_REFRESH_INTERVAL = 0;
+    public static final boolean GROUP_COMMIT = false;
+    public static final int GROUP_COMMIT_MAX_BATCH_SIZE = 64;
+    public static final long GROUP_COMMIT_MAX_WAIT = 0;
+    public static final String DURABILITY = DurabilityPolicy.PERIODIC.name();
+    public static final long DURABILITY_FLUSH_INTERVAL = 0;
 
     private DefaultValues() {
     }
@@ -134,28 +162,31 @@ public class SegmentNodeStoreConfiguration extends NodeStoreConfiguration {
   /**
    * Gets the maximum size of the segment cache in MB. The segment cache keeps a subset of the
    * segments in memory and avoids performing I/O operations when those segments are used.
+   * The size can be given as a percentage of the maximum size of the heap.
    * @return the maximum size of the segment cache in MB
    */
   public int getSegmentCacheSize() {
-    return getInteger("segment.cache.size", DefaultValues.SEGMENT_CACHE_SIZE);
+    return getHeapSize("segment.cache.size", DefaultValues.SEGMENT_CACHE_SIZE);
   }
 
   /**
    * Gets the maximum size of the strings cache in MB. The string cache keeps a subset of the string
    * records in memory and avoids performing I/O operations when those strings are used.
+   * The size can be given as a percentage of the maximum size of the heap.
    * @return the maximum size of the strings cache in MB
    */
   public int getStringCacheSize() {
-    return getInteger("segment.string.cache.size", DefaultValues.STRING_CACHE_SIZE);
+    return getHeapSize("segment.string.cache.size", DefaultValues.STRING_CACHE_SIZE);
   }
 
   /**
    * Gets the maximum size of the template cache in MB. The template cache keeps a subset of the
    * template records in memory and avoids performing I/O operations when those templates are used.
+   * The size can be given as a percentage of the maximum size of the heap.
    * @return the maximum size of the template cache in MB
    */
   public int getTemplateCacheSize() {
-    return getInteger("segment.template.cache.size", DefaultValues.TEMPLATE_CACHE_SIZE);
+    return getHeapSize("segment.template.cache.size", DefaultValues.TEMPLATE_CACHE_SIZE);
   }
 
   /**
@@ -270,4 +301,380 @@ public class SegmentNodeStoreConfiguration extends NodeStoreConfiguration {
   public long getCompactionProgressLog() {
     return getLong("segment.compaction.progressLog", DefaultValues.COMPACTION_PROGRESS_LOG);
   }
+
+  /**
+   * Gets the path on the filesystem of the directory into which the binaries are stored out of the
+   * segment storage. By default, binaries are stored as records within the TAR files of the segment
+   * storage itself. When this property is set, the binaries are then stored into an external blob
+   * store located at the given path and only references to them are kept in the segments. The path
+   * can be either absolute or relative to the JCR home directory.
+   * @return the path of the directory of the external blob store or an empty string if the
+   * binaries are kept within the segment storage.
+   */
+  public String getBlobStorePath() {
+    return getString("segment.blobstore.path", DefaultValues.BLOB_STORE_PATH);
+  }
+
+  /**
+   * Gets the interval in seconds between two runs of the garbage collection of the binaries in the
+   * external blob store. The garbage collector removes the binaries that aren't anymore referenced
+   * by the segments (those of deleted attachments or of purged versions for example). It is
+   * performed only if an external blob store is used. A value of 0 or below disables it.
+   * @return the interval in seconds between two garbage collections of the blob store.
+   */
+  public long getBlobGCInterval() {
+    return getLong("segment.blobstore.gc.interval", DefaultValues.BLOB_GC_INTERVAL);
+  }
+
+  /**
+   * Gets the minimal age in seconds a binary must have in the external blob store to be eligible
+   * for garbage collection. This is a safeguard for the binaries that are being uploaded and that
+   * aren't yet referenced by a committed node.
+   * @return the minimal age in seconds of the binaries to garbage collect.
+   */
+  public long getBlobGCMaxAge() {
+    return getLong("segment.blobstore.gc.maxAge", DefaultValues.BLOB_GC_MAX_AGE);
+  }
+
+  /**
+   * Gets the maximum size in MB of the off-heap segment cache. The off-heap segment cache is a
+   * second-level cache between the segment cache, in the heap, and the TAR files. It keeps in
+   * direct memory the segments read from the TAR files so that a large working set can be kept in
+   * memory without weighing on the heap and hence on the garbage collection pauses of the JVM.
+   * Be aware the JVM must be allowed to allocate as much direct memory (see the JVM option
+   * {@code -XX:MaxDirectMemorySize}). The size can be given as a percentage of the memory left by
+   * the heap to the JVM. A value of 0 disables this cache.
+   * @return the maximum size of the off-heap segment cache in MB.
+   */
+  public int getOffHeapSegmentCacheSize() {
+    return getOffHeapSize("segment.offheap.cache.size", DefaultValues.OFF_HEAP_CACHE_SIZE);
+  }
+
+  /**
+   * Gets the policy of admission of the segments into the off-heap segment cache once this cache
+   * is full. With the LRU policy, any segment read from the TAR files is put into the cache in
+   * place of the least recently used one. With the LFU policy, a segment read from the TAR files is
+   * put into the cache only if it is more frequently accessed than the least recently used one;
+   * this protects the cache from being flushed by a scan of the repository content.
+   * @return the admission policy of the off-heap segment cache.
+   */
+  public CacheAdmissionPolicy getOffHeapSegmentCachePolicy() {
+    return CacheAdmissionPolicy.valueOf(
+        getString("segment.offheap.cache.policy", DefaultValues.OFF_HEAP_CACHE_POLICY));
+  }
+
+  /**
+   * Gets how the TAR files are accessed. By default, they are memory-mapped on a 64-bit JVM and
+   * read through file channels otherwise ({@link MemoryMappingMode#AUTO}). Memory mapping reduces
+   * the cost of reading the segments but the mapped TAR files count in the virtual memory of the
+   * JVM process.
+   * @return the mode of access of the TAR files.
+   */
+  public MemoryMappingMode getMemoryMapping() {
+    return MemoryMappingMode.valueOf(
+        getString("segment.memoryMapping", DefaultValues.MEMORY_MAPPING));
+  }
+
+  /**
+   * Gets the amount of data in MB of the most recent TAR files to read in background at the
+   * opening of the segment storage. This warm-up phase preloads the newest TAR files, that are
+   * likely to hold the most accessed content, into the page cache of the operating system so that
+   * the read latency after a restart quickly approaches the steady state one. A value of 0
+   * disables the preloading of the TAR files.
+   * @return the amount of data to read in MB from the newest TAR files.
+   */
+  public int getWarmUpSize() {
+    return getInteger("segment.warmup.size", DefaultValues.WARM_UP_SIZE);
+  }
+
+  /**
+   * Gets the paths of the subtrees of the repository content to traverse in background at the
+   * opening of the segment storage. This warm-up phase loads the segments holding the content of
+   * these subtrees both in the page cache of the operating system and in the segment cache. By
+   * default, no subtrees are traversed.
+   * @return a list of paths of subtrees in the repository.
+   */
+  public List<String> getWarmUpSubtrees() {
+    return getList("segment.warmup.paths", DefaultValues.WARM_UP_SUBTREES);
+  }
+
+  /**
+   * Gets the path on the filesystem of the directory into which the segment storage is backed up
+   * online. Each backup is saved into its own subdirectory and can be restored on its own by
+   * replacing the segment storage directory with it. Only the TAR files that are new or that have
+   * changed since the previous backup are copied; the others are hard-linked from the previous
+   * backup. The path can be either absolute or relative to the JCR home directory. By default, no
+   * backup is performed.
+   * @return the path of the directory of the backups or an empty string if the online backup is
+   * disabled.
+   */
+  public String getBackupPath() {
+    return getString("segment.backup.path", DefaultValues.BACKUP_PATH);
+  }
+
+  /**
+   * Gets the interval in seconds between two online backups of the segment storage. It is taken
+   * into account only if a backup directory is set. A value of 0 or below disables the periodic
+   * backups; a backup can then be only triggered on demand through JMX.
+   * @return the interval in seconds between two backups.
+   */
+  public long getBackupInterval() {
+    return getLong("segment.backup.interval", DefaultValues.BACKUP_INTERVAL);
+  }
+
+  /**
+   * Gets the number of the most recent backups of the segment storage to keep. The older ones are
+   * deleted after each new backup.
+   * @return the number of backups to keep.
+   */
+  public int getBackupRetention() {
+    return getInteger("segment.backup.retention", DefaultValues.BACKUP_RETENTION);
+  }
+
+  /**
+   * Gets the role of this segment storage in a cold standby topology. A primary segment storage
+   * serves over a socket its new segments to a standby segment storage that follows it in near
+   * real-time. The standby storage is read-only. By default, the segment storage doesn't take part
+   * in a cold standby topology ({@link StandbyMode#OFF}).
+   * @return the role of the segment storage in a cold standby topology.
+   */
+  public StandbyMode getStandbyMode() {
+    return StandbyMode.valueOf(getString("segment.standby.mode", DefaultValues.STANDBY_MODE));
+  }
+
+  /**
+   * Gets the host name or the IP address of the primary segment storage. Used only by a standby
+   * segment storage to connect to the primary one.
+   * @return the host of the primary segment storage.
+   */
+  public String getStandbyPrimaryHost() {
+    return getString("segment.standby.host", DefaultValues.STANDBY_HOST);
+  }
+
+  /**
+   * Gets the TCP port on which the primary segment storage listens to the standby ones.
+   * @return the TCP port of the cold standby synchronization.
+   */
+  public int getStandbyPort() {
+    return getInteger("segment.standby.port", DefaultValues.STANDBY_PORT);
+  }
+
+  /**
+   * Is the synchronization between the primary and the standby segment storages secured with SSL?
+   * It must be the same for both the primary and the standby storages. By default, it isn't.
+   * @return true if the connection between the primary and the standby storages is secured.
+   */
+  public boolean isStandbySecure() {
+    return getBoolean("segment.standby.secure", DefaultValues.STANDBY_SECURE);
+  }
+
+  /**
+   * Gets the IP addresses, IP ranges (for example {@code 192.168.0.1-192.168.0.10}) or the host
+   * names of the standby segment storages allowed to synchronize with the primary one. By default,
+   * any standby storage is allowed.
+   * @return a list of IP addresses, IP ranges or host names.
+   */
+  public List<String> getStandbyAllowedClients() {
+    return getList("segment.standby.allowedClients", DefaultValues.STANDBY_ALLOWED_CLIENTS);
+  }
+
+  /**
+   * Gets the interval in seconds between two synchronizations of a standby segment storage with
+   * the primary one.
+   * @return the interval in seconds between two synchronizations.
+   */
+  public long getStandbySyncInterval() {
+    return getLong("segment.standby.interval", DefaultValues.STANDBY_INTERVAL);
+  }
+
+  /**
+   * Gets the maximum average bandwidth in KB per second a standby segment storage can use to
+   * synchronize with the primary one. A value of 0 or below means no limit.
+   * @return the maximum bandwidth in KB/s of the synchronization.
+   */
+  public int getStandbyBandwidth() {
+    return getInteger("segment.standby.bandwidth", DefaultValues.STANDBY_BANDWIDTH);
+  }
+
+  /**
+   * Gets the timeout in milliseconds of the requests sent by a standby segment storage to the
+   * primary one.
+   * @return the timeout in milliseconds of the synchronization requests.
+   */
+  public int getStandbyReadTimeout() {
+    return getInteger("segment.standby.readTimeout", DefaultValues.STANDBY_READ_TIMEOUT);
+  }
+
+  /**
+   * Gets the path on the filesystem of the read-only base of a split segment storage. In a split
+   * storage, the segments are read from the base storage and from the segment storage itself
+   * whereas all the changes are written only into the latter, that is then a writable overlay over
+   * the base. The base must be a segment storage that isn't modified anymore, like an online
+   * backup or a filesystem snapshot of the production storage, and it can be shared by several
+   * split storages. The path can be either absolute or relative to the JCR home directory. By
+   * default, the segment storage isn't split.
+   * @return the path of the base segment storage or an empty string if the storage isn't split.
+   */
+  public String getSplitBasePath() {
+    return getString("segment.split.base", DefaultValues.SPLIT_BASE_PATH);
+  }
+
+  /**
+   * Is the segment storage opened in read-only mode? In this mode, the storage isn't locked and
+   * then it can be opened by a secondary process, like a reporting or an export one, whereas it is
+   * yet used by the primary Silverpeas instance. The content is read as it was at the last refresh
+   * of the storage and any attempt to modify it fails. By default, the storage is opened in
+   * read-write mode.
+   * @return true if the segment storage is opened in read-only mode, false otherwise.
+   */
+  public boolean isReadOnly() {
+    return getBoolean("segment.readOnly", DefaultValues.READ_ONLY);
+  }
+
+  /**
+   * Gets the interval in seconds at which a segment storage opened in read-only mode is refreshed
+   * in order to follow the changes committed by the primary process. If 0 or negative, the
+   * storage is refreshed only on demand through JMX. By default, the storage is refreshed only on
+   * demand.
+   * @return the interval in seconds between two refreshes of the read-only storage.
+   */
+  public long getReadOnlyRefreshInterval() {
+    return getLong("segment.readOnly.refreshInterval", DefaultValues.READ_ONLY_REFRESH_INTERVAL);
+  }
+
+  /**
+   * Are the concurrent merges coalesced into a single commit? In this mode, the merges arriving
+   * within a short window are applied one after the other, each with its own commit hooks, onto
+   * the head state of the storage and then committed as a single new head state. Each caller gets
+   * either the merged state or its own failure, as with serialized merges, but the cost of the
+   * commit is shared by all the merges of the group. The observers of the storage see then a
+   * group of merges as a single change whose commit information is a synthetic one: the session
+   * identifier, the user data and the commit context of each merge are lost and the user is kept
+   * only if all the merges of the group are done by the same user. Hence the JCR events of such a
+   * change are reported as coming from an unknown session, without user data, and the event
+   * listeners relying on them, like those ignoring the changes of their own session, can then
+   * misbehave. The grouping should be enabled only when no such event listener is registered.
+   * A warning is logged at the opening of the storage when the grouping is enabled. By default,
+   * the merges aren't grouped.
+   * @return true if the concurrent merges are grouped into a single commit, false otherwise.
+   */
+  public boolean isGroupCommit() {
+    return getBoolean("segment.groupCommit", DefaultValues.GROUP_COMMIT);
+  }
+
+  /**
+   * Gets the maximum number of merges grouped into a single commit. By default, 64.
+   * @return the maximum size of a group of merges.
+   */
+  public int getGroupCommitMaxBatchSize() {
+    return getInteger("segment.groupCommit.maxBatchSize",
+        DefaultValues.GROUP_COMMIT_MAX_BATCH_SIZE);
+  }
+
+  /**
+   * Gets the maximum time in milliseconds to wait for other merges once a first merge is pending
+   * before committing the group. Whatever this wait, the merges arriving while a group is being
+   * committed are grouped together. A wait is worth only with bursts of writes as it delays the
+   * merges. By default, there is no wait.
+   * @return the maximum wait in milliseconds of a merge for other ones.
+   */
+  public long getGroupCommitMaxWait() {
+    return getLong("segment.groupCommit.maxWait", DefaultValues.GROUP_COMMIT_MAX_WAIT);
+  }
+
+  /**
+   * Gets the policy of durability of the changes committed into the segment storage. A change is
+   * durable once the segments and the journal entry referring it are flushed and synced on the
+   * disk. With the {@link DurabilityPolicy#PERIODIC} policy, the changes are flushed periodically
+   * in background: this is the most efficient policy for bulk imports but the changes of the last
+   * seconds can be lost on a crash. With the {@link DurabilityPolicy#COMMIT} policy, the changes
+   * are flushed before the end of each merge, the concurrent merges sharing the same flush. If
+   * such a flush fails, the merge doesn't fail as its changes are already applied and visible:
+   * the failure is logged and exposed through JMX, and the changes are flushed again by the next
+   * flush, be it the one of the next merge or a background one. Whatever the policy, a flush can
+   * be requested through JMX, typically at the end of a bulk job.
+   * By default, the changes are flushed periodically ({@link DurabilityPolicy#PERIODIC}).
+   * @return the durability policy of the changes.
+   */
+  public DurabilityPolicy getDurabilityPolicy() {
+    return DurabilityPolicy.valueOf(getString("segment.durability", DefaultValues.DURABILITY));
+  }
+
+  /**
+   * Gets the interval in milliseconds at which the changes are flushed in background in addition
+   * to the flush performed by Oak every 5 seconds. As the flush of Oak can't be disabled, only an
+   * interval lower than 5 seconds shortens the window of the changes that can be lost on a crash.
+   * If 0 or negative, the changes are flushed in background only by Oak. By default, 0.
+   * @return the interval in milliseconds between two background flushes of the changes.
+   */
+  public long getDurabilityFlushInterval() {
+    return getLong("segment.durability.flushIntervalInMillis",
+        DefaultValues.DURABILITY_FLUSH_INTERVAL);
+  }
+
+  /**
+   * The policy of durability of the changes committed into a segment storage.
+   */
+  public enum DurabilityPolicy {
+    /**
+     * The changes are flushed periodically in background.
+     */
+    PERIODIC,
+    /**
+     * The changes are flushed at each merge.
+     */
+    COMMIT
+  }
+
+  /**
+   * The role of a segment storage in a cold standby topology.
+   */
+  public enum StandbyMode {
+    /**
+     * The segment storage isn't part of a cold standby topology.
+     */
+    OFF,
+    /**
+     * The segment storage is the primary one: it serves its segments to the standby storages.
+     */
+    PRIMARY,
+    /**
+     * The segment storage is a read-only copy of the primary one.
+     */
+    STANDBY
+  }
+
+  /**
+   * The access mode of the TAR files.
+   */
+  public enum MemoryMappingMode {
+    /**
+     * The TAR files are memory-mapped according to the data model of the JVM: on a 64-bit JVM
+     * they are memory-mapped, otherwise they are accessed through file channels.
+     */
+    AUTO,
+    /**
+     * The TAR files are always memory-mapped.
+     */
+    MMAP,
+    /**
+     * The TAR files are always accessed through file channels.
+     */
+    FILE
+  }
+
+  /**
+   * The admission policy of the entries into a cache once it is full.
+   */
+  public enum CacheAdmissionPolicy {
+    /**
+     * Any new entry is admitted in the cache in place of the least recently used one.
+     */
+    LRU,
+    /**
+     * A new entry is admitted in the cache in place of the least recently used one only if it is
+     * more frequently used than this one.
+     */
+    LFU
+  }
 }
@@ -33,7 +33,8 @@ import java.util.Arrays;
 public enum StorageType {
   /**
    * The data are stored in memory and then will be lost once the application is down. This is
-   * useful for tests, and it shouldn't be used in production.
+   * useful for tests, and it shouldn't be used in production. The memory storage can be
+   * initialized from a snapshot of a previous memory storage.
    */
   MEMORY_NODE_STORE("memory"),
   /**
@@ -54,8 +55,9 @@ public enum StorageType {
    */
   DOCUMENT_NODE_STORE("document"),
   /**
-   * The data is stored into several node storages. Those storages can be both a document and a
-   * segment one. For instance, this is not supported by Silverpeas.
+   * The data is stored into several node storages: a writable default storage, either a segment or
+   * a document one, and some read-only segment storages mounted at given paths in the content tree
+   * in order to archive the content that isn't modified anymore.
    */
   COMPOSITE_NODE_STORE("composite");
 
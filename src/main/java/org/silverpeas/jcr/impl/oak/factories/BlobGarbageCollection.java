@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.plugins.blob.MarkSweepGarbageCollector;
+import org.apache.jackrabbit.oak.plugins.blob.OperationsStatsMBean;
+import org.apache.jackrabbit.oak.stats.DefaultStatisticsProvider;
+import org.apache.jackrabbit.oak.stats.StatisticsProvider;
+import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.util.logging.SilverLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodic garbage collection of the binaries in a blob store used by a node storage. The binaries
+ * in the blob store that aren't anymore referenced by the node storage (for example the ones of
+ * deleted attachments or of purged versions) are removed by a mark-and-sweep algorithm performed by
+ * a {@link MarkSweepGarbageCollector} instance.
+ * <p>
+ * The mark phase doesn't traverse the whole content of the repository: the references to the
+ * binaries are collected from the indexes maintained by the node storage itself; for the segment
+ * storage, the index of the binary references kept in each TAR file, and for the document storage,
+ * the documents flagged as having binaries. The sweep phase deletes the unreferenced binaries by
+ * batches and only those older than a given maximum age in order to keep the binaries that are
+ * being uploaded but not yet referenced by a committed node.
+ * <p>
+ * The garbage collection runs in background at a fixed interval, each run starting after the end
+ * of the previous one. At each run, the number of deleted binaries and the reclaimed disk space are
+ * logged. They are computed from the statistics recorded by the collector and they are exposed
+ * through JMX.
+ * @author mmoquillon
+ */
+class BlobGarbageCollection implements BlobGarbageCollectionMBean, Closeable {
+
+  static final String NAME = "Blob Garbage Collection";
+
+  private final MarkSweepGarbageCollector collector;
+  private final ScheduledExecutorService scheduler;
+  private final AtomicLong runs = new AtomicLong(0);
+  private final AtomicLong deletedBlobs = new AtomicLong(0);
+  private final AtomicLong reclaimedBytes = new AtomicLong(0);
+  private ScheduledFuture<?> task;
+
+  /**
+   * Schedules the garbage collection of a blob store with the collector created by the specified
+   * factory at the given interval. The first run is performed once the interval is elapsed.
+   * @param factory the factory of the collector of the garbage in a blob store.
+   * @param interval the interval in seconds between two runs of the garbage collection.
+   * @return the {@link BlobGarbageCollection} instance or null if the factory doesn't create any
+   * collector. It has to be closed once the node storage is disposed.
+   * @throws SilverpeasRuntimeException if the collector cannot be created.
+   */
+  static BlobGarbageCollection schedule(final CollectorFactory factory, final long interval) {
+    BlobGarbageCollection gc = new BlobGarbageCollection(factory);
+    if (gc.collector == null) {
+      gc.close();
+      return null;
+    }
+    gc.reschedule(interval);
+    return gc;
+  }
+
+  /**
+   * Changes the interval of the garbage collection. A run in progress isn't interrupted; the next
+   * run is performed once the new interval is elapsed.
+   * @param interval the interval in seconds between two runs of the garbage collection.
+   */
+  synchronized void reschedule(final long interval) {
+    if (task != null) {
+      task.cancel(false);
+    }
+    task = scheduler.scheduleWithFixedDelay(this::run, interval, interval, TimeUnit.SECONDS);
+  }
+
+  private BlobGarbageCollection(final CollectorFactory factory) {
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "silverpeas-jcr-blob-gc");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      this.collector = factory.create(new DefaultStatisticsProvider(scheduler));
+    } catch (IOException e) {
+      scheduler.shutdownNow();
+      throw new SilverpeasRuntimeException(e);
+    }
+  }
+
+  @Override
+  public long getRunCount() {
+    return runs.get();
+  }
+
+  @Override
+  public long getDeletedBlobCount() {
+    return deletedBlobs.get();
+  }
+
+  @Override
+  public long getReclaimedBytes() {
+    return reclaimedBytes.get();
+  }
+
+  /**
+   * Runs a garbage collection of the blob store. The binaries that are no more referenced by the
+   * node storage are deleted.
+   */
+  void run() {
+    SilverLogger logger = SilverLogger.getLogger(this);
+    OperationsStatsMBean stats = collector.getOperationStats();
+    long deletedCountBefore = stats.numDeleted();
+    long deletedSizeBefore = stats.sizeDeleted();
+    try {
+      runs.incrementAndGet();
+      collector.collectGarbage(false);
+      long deletedCount = stats.numDeleted() - deletedCountBefore;
+      long deletedSize = stats.sizeDeleted() - deletedSizeBefore;
+      deletedBlobs.addAndGet(deletedCount);
+      reclaimedBytes.addAndGet(deletedSize);
+      logger.info("Blob garbage collection done in {0} ms: {1} binaries deleted, {2} bytes " +
+              "reclaimed ({3} bytes reclaimed since startup)", stats.duration(), deletedCount,
+          deletedSize, reclaimedBytes.get());
+    } catch (Exception e) {
+      logger.error("Blob garbage collection failed: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Stops the garbage collection. A run in progress is let to complete for at most one minute
+   * before being interrupted.
+   */
+  @Override
+  public void close() {
+    scheduler.shutdown();
+    try {
+      if (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+        scheduler.shutdownNow();
+        SilverLogger.getLogger(this).warn("The blob garbage collection isn't yet terminated");
+      }
+    } catch (InterruptedException e) {
+      scheduler.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Factory of the collector of the garbage in a blob store. The statistics of the garbage
+   * collection are recorded with the given provider.
+   */
+  @FunctionalInterface
+  interface CollectorFactory {
+
+    /**
+     * Creates the collector of the garbage in a blob store.
+     * @param statistics the provider of the statistics to record.
+     * @return the collector or null if the blob store cannot be garbage collected.
+     * @throws IOException if the collector cannot be created.
+     */
+    MarkSweepGarbageCollector create(final StatisticsProvider statistics) throws IOException;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+/**
+ * Management interface of the periodic garbage collection of the binaries in a blob store. It
+ * allows the sysadmins to see how much disk space is reclaimed by the garbage collection.
+ * @author mmoquillon
+ */
+public interface BlobGarbageCollectionMBean {
+
+  String TYPE = "BlobGarbageCollection";
+
+  /**
+   * Gets the number of garbage collections performed since the opening of the node storage,
+   * whatever their outcome.
+   * @return the number of runs of the garbage collection.
+   */
+  long getRunCount();
+
+  /**
+   * Gets the number of binaries deleted by the garbage collection since the opening of the node
+   * storage.
+   * @return the number of deleted binaries.
+   */
+  long getDeletedBlobCount();
+
+  /**
+   * Gets the total size in bytes of the disk space reclaimed by the garbage collection since the
+   * opening of the node storage.
+   * @return the amount of bytes reclaimed so far.
+   */
+  long getReclaimedBytes();
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.Document;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.NodeDocument;
+import org.apache.jackrabbit.oak.plugins.document.Path;
+import org.apache.jackrabbit.oak.plugins.document.util.Utils;
+
+import java.util.List;
+
+/**
+ * Prefetcher of child documents. When the children of a node are iterated, Oak reads each child
+ * document missing in the cache one at a time. The prefetcher detects such an iteration from the
+ * successive cache misses on the children of a same node: on the second miss, the next page of
+ * child documents is fetched in bulk with a single query, which fills the document cache. The
+ * following children are then read from the cache, and so on for the next pages.
+ * <p>
+ * The prefetcher has to be invoked by the document store before reading a document.
+ * @author mmoquillon
+ */
+class ChildDocumentPrefetcher {
+
+  private static final int MAX_TRACKED_PARENTS = 1000;
+
+  private final DocumentStore store;
+  private final int pageSize;
+  private final Cache<String, String> lastMisses =
+      CacheBuilder.newBuilder().maximumSize(MAX_TRACKED_PARENTS).build();
+
+  /**
+   * Constructs a new prefetcher of child documents for the specified document store.
+   * @param store the document store from which the child documents are read.
+   * @param pageSize the number of child documents to prefetch at once. 0 disables the prefetching.
+   */
+  ChildDocumentPrefetcher(final DocumentStore store, final int pageSize) {
+    this.store = store;
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Prefetches the next page of siblings of the specified document if it is missing in the cache
+   * and if it follows a previous cache miss on a sibling.
+   * @param collection the collection of the document.
+   * @param key the identifier of the document.
+   * @param <T> the type of the document.
+   */
+  <T extends Document> void prefetch(final Collection<T> collection, final String key) {
+    if (pageSize <= 0 || collection != Collection.NODES || !isFromPath(key) ||
+        store.getIfCached(collection, key) != null) {
+      return;
+    }
+    Path parent = Path.fromString(Utils.getPathFromId(key)).getParent();
+    if (parent == null) {
+      return;
+    }
+    String parentId = Utils.getIdFromPath(parent);
+    String previousMiss = lastMisses.getIfPresent(parentId);
+    lastMisses.put(parentId, key);
+    if (previousMiss == null || previousMiss.compareTo(key) >= 0) {
+      return;
+    }
+    List<NodeDocument> page =
+        store.query(Collection.NODES, previousMiss, Utils.getKeyUpperLimit(parent), pageSize);
+    if (!page.isEmpty()) {
+      // the next miss on a sibling, just after this page, will prefetch the following page
+      lastMisses.put(parentId, page.get(page.size() - 1).getId());
+    }
+  }
+
+  private static boolean isFromPath(final String key) {
+    int index = key.indexOf(':');
+    return index > 0 && key.startsWith("/", index + 1) && !Utils.isIdFromLongPath(key);
+  }
+}
@@ -24,26 +24,179 @@
 
 package org.silverpeas.jcr.impl.oak.factories;
 
+import org.apache.jackrabbit.oak.composite.CompositeNodeStore;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.lifecycle.RepositoryInitializer;
+import org.apache.jackrabbit.oak.spi.mount.MountInfoProvider;
+import org.apache.jackrabbit.oak.spi.mount.Mounts;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
-import org.silverpeas.core.NotSupportedException;
+import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.util.logging.SilverLogger;
+import org.silverpeas.jcr.impl.oak.configuration.CompositeNodeStoreConfiguration;
 import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+import org.silverpeas.jcr.impl.oak.configuration.StorageType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Factory of a CompositeNodeStore instance. This is to combine both document and segment storage.
- * See the
+ * Factory of a CompositeNodeStore instance. The composite storage is made up of a writable default
+ * storage, either a segment or a document one, and of some read-only segment storages, each of
+ * them mounted at given path prefixes in the content tree. See the
  * <a href="https://jackrabbit.apache.org/oak/docs/nodestore/compositens.html">documentation</a>
- * for more explanation about this storage. For instance, it isn't not supported by Silverpeas.
+ * for more explanation about this storage.
+ * <p>
+ * The read-only mounts are archives into which the content of the component instances that
+ * aren't modified anymore is moved with the {@link CompositeStoreArchiver} tool. The paths of the
+ * content moved into an archive mount are recorded by the mount itself; they are mounted in
+ * addition to the paths explicitly set in the configuration. A mount without any path is ignored.
+ * The content under a mounted path is read from the archive and any change of it is rejected.
  * @author mmoquillon
  */
 public class CompositeNodeStoreFactory implements NodeStoreFactory {
 
+  /**
+   * Hidden property of the root node of an archive mount in which are recorded the paths of the
+   * content moved into the mount.
+   */
+  static final String MOUNTED_PATHS = ":mountedPaths";
+
+  private NodeStoreFactory defaultFactory;
+  private NodeStore defaultStore;
+  private NodeStore compositeStore;
+  private final List<ReadOnlyFileStore> archives = new ArrayList<>();
+
+  /**
+   * Creates a {@link CompositeNodeStore} instance combining the default storage and the archive
+   * mounts defined in the specified configuration. The default storage is opened by the factory
+   * of its type whereas the archive mounts are opened as read-only segment storages.
+   * @param jcrHomePath the absolute path of the home directory of the JCR.
+   * @param conf the JCR configuration with the parameters required to either create and initialize
+   * or to open the node storage.
+   * @return a {@link CompositeNodeStore} instance.
+   * @see NodeStoreFactory#create(String, OakRepositoryConfiguration)
+   */
   @Override
   public NodeStore create(final String jcrHomePath, final OakRepositoryConfiguration conf) {
-    throw new NotSupportedException("The composite node storage isn't yet supported!");
+    if (conf.getStorageType() != StorageType.COMPOSITE_NODE_STORE) {
+      return null;
+    }
+    CompositeNodeStoreConfiguration parameters = conf.getCompositeNodeStoreConfiguration();
+    defaultFactory = getDefaultStorageFactory(conf);
+    defaultStore = defaultFactory.create(jcrHomePath, conf);
+    try {
+      Map<String, NodeStore> mounts = new LinkedHashMap<>();
+      Mounts.Builder mountInfo = Mounts.newBuilder();
+      for (String mount : parameters.getMounts()) {
+        Path mountPath = getMountStoragePath(jcrHomePath, parameters, mount);
+        if (!Files.isDirectory(mountPath)) {
+          SilverLogger.getLogger(this).info("No archive at {0} for the mount {1}", mountPath, mount);
+          continue;
+        }
+        ReadOnlyFileStore archive = FileStoreBuilder.fileStoreBuilder(mountPath.toFile())
+            .buildReadOnly();
+        archives.add(archive);
+        NodeStore mountStore = SegmentNodeStoreBuilders.builder(archive).build();
+        Set<String> paths = new LinkedHashSet<>(parameters.getMountedPaths(mount));
+        paths.addAll(getArchivedPaths(mountStore));
+        if (paths.isEmpty()) {
+          SilverLogger.getLogger(this).info("No paths mounted by the mount {0}", mount);
+          continue;
+        }
+        mountInfo.readOnlyMount(mount, paths.toArray(new String[0]));
+        mounts.put(mount, mountStore);
+      }
+      MountInfoProvider mountInfoProvider = mountInfo.build();
+      CompositeNodeStore.Builder builder =
+          new CompositeNodeStore.Builder(mountInfoProvider, defaultStore);
+      mounts.forEach(builder::addMount);
+      compositeStore = builder.build();
+      return compositeStore;
+    } catch (InvalidFileStoreVersionException | IOException | RuntimeException e) {
+      closeArchives();
+      defaultFactory.dispose(defaultStore);
+      throw new SilverpeasRuntimeException(e);
+    }
+  }
+
+  @Override
+  public RepositoryInitializer getRepositoryInitializer(final OakRepositoryConfiguration conf) {
+    return getDefaultStorageFactory(conf).getRepositoryInitializer(conf);
+  }
+
+  @Override
+  public CommitHook getCommitHook(final OakRepositoryConfiguration conf) {
+    return defaultFactory != null ? defaultFactory.getCommitHook(conf) : EmptyHook.INSTANCE;
   }
 
+  /**
+   * Disposes the specified {@link CompositeNodeStore}. The archive mounts are closed and the
+   * default storage is disposed by the factory of its type.
+   * @param store the {@link NodeStore} instance to dispose.
+   * @see NodeStoreFactory#dispose(NodeStore)
+   */
   @Override
   public void dispose(final NodeStore store) {
-    throw new NotSupportedException("The composite node storage isn't yet supported!");
+    if (store == null || store != compositeStore) {
+      throw new IllegalArgumentException(
+          "The specified store isn't a CompositeNodeStore managed by this factory");
+    }
+    closeArchives();
+    defaultFactory.dispose(defaultStore);
+    compositeStore = null;
+    defaultStore = null;
+  }
+
+  /**
+   * Gets the paths of the content moved into the specified archive mount.
+   * @param mountStore the node store of an archive mount.
+   * @return a list of paths in the repository.
+   */
+  static List<String> getArchivedPaths(final NodeStore mountStore) {
+    List<String> paths = new ArrayList<>();
+    mountStore.getRoot().getStrings(MOUNTED_PATHS).forEach(paths::add);
+    return paths;
+  }
+
+  /**
+   * Gets the path of the segment storage of the specified archive mount.
+   * @param jcrHomePath the absolute path of the home directory of the JCR.
+   * @param parameters the parameters of the composite storage.
+   * @param mount the name of the archive mount.
+   * @return the absolute path of the segment storage of the mount.
+   */
+  static Path getMountStoragePath(final String jcrHomePath,
+      final CompositeNodeStoreConfiguration parameters, final String mount) {
+    Path mountPath = Path.of(parameters.getMountStoragePath(mount));
+    return mountPath.isAbsolute() ? mountPath : Path.of(jcrHomePath).resolve(mountPath);
+  }
+
+  /**
+   * Gets the factory of the default storage of the composite storage defined in the specified
+   * configuration.
+   * @param conf the JCR configuration.
+   * @return the factory of either the segment or the document storage.
+   */
+  static NodeStoreFactory getDefaultStorageFactory(final OakRepositoryConfiguration conf) {
+    StorageType type = conf.getCompositeNodeStoreConfiguration().getDefaultStorageType();
+    return type == StorageType.DOCUMENT_NODE_STORE ? new DocumentNodeStoreFactory() :
+        new SegmentNodeStoreFactory();
+  }
+
+  private void closeArchives() {
+    archives.forEach(ReadOnlyFileStore::close);
+    archives.clear();
   }
 }
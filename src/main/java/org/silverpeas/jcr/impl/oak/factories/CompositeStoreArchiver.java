@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders;
+import org.apache.jackrabbit.oak.segment.file.FileStore;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.util.logging.SilverLogger;
+import org.silverpeas.jcr.impl.oak.configuration.CompositeNodeStoreConfiguration;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+import org.silverpeas.jcr.impl.oak.configuration.StorageType;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tool to move the content of a component instance that isn't modified anymore from the default
+ * storage of a composite storage into one of its read-only archive mounts. The content is copied
+ * at the same path into the segment storage of the mount, with its binaries, and the path is
+ * recorded by the mount so that it is mounted at the next opening of the composite storage. Then
+ * the content is removed from the default storage.
+ * <p>
+ * As the archive mounts are read-only once the composite storage opened, the tool has to be run
+ * while the repository is stopped. The content is moved without running the commit hooks: the
+ * index entries in the default storage are then kept and they still refer the archived content,
+ * which remains at the same paths through the mount.
+ * <p>
+ * The tool can be run from the command line with as arguments the path of the JCR home
+ * directory, the path of the JCR configuration file, the name of the archive mount and the
+ * paths of the content to archive.
+ * @author mmoquillon
+ */
+public class CompositeStoreArchiver {
+
+  private final String jcrHomePath;
+  private final OakRepositoryConfiguration conf;
+
+  /**
+   * Moves the content at the paths passed as arguments into an archive mount.
+   * @param args the path of the JCR home directory, the path of the JCR configuration file, the
+   * name of the archive mount and then the paths of the content to archive.
+   * @throws IOException if the configuration file cannot be read.
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 4) {
+      throw new IllegalArgumentException(
+          "Expected arguments: JCR_HOME CONFIGURATION_FILE MOUNT PATH [PATH...]");
+    }
+    OakRepositoryConfiguration conf = OakRepositoryConfiguration.load(args[1]);
+    new CompositeStoreArchiver(args[0], conf).archive(args[2],
+        Arrays.asList(args).subList(3, args.length));
+  }
+
+  /**
+   * Constructs a new archiver for the composite storage of the specified repository.
+   * @param jcrHomePath the absolute path of the home directory of the JCR.
+   * @param conf the JCR configuration. It must define a composite storage.
+   */
+  public CompositeStoreArchiver(final String jcrHomePath, final OakRepositoryConfiguration conf) {
+    if (conf.getStorageType() != StorageType.COMPOSITE_NODE_STORE) {
+      throw new IllegalArgumentException("The repository doesn't use a composite storage");
+    }
+    this.jcrHomePath = jcrHomePath;
+    this.conf = conf;
+  }
+
+  /**
+   * Moves the content at the specified paths into the given archive mount. The paths are
+   * typically the ones of the root nodes of some component instances.
+   * @param mount the name of an archive mount of the composite storage.
+   * @param paths the absolute paths of the content to move.
+   * @throws IllegalArgumentException if the mount isn't defined, if a path is invalid, if a path
+   * is already archived or if there is no content at a path.
+   */
+  public void archive(final String mount, final List<String> paths) {
+    CompositeNodeStoreConfiguration parameters = conf.getCompositeNodeStoreConfiguration();
+    if (!parameters.getMounts().contains(mount)) {
+      throw new IllegalArgumentException("No such archive mount: " + mount);
+    }
+    NodeStoreFactory defaultFactory = CompositeNodeStoreFactory.getDefaultStorageFactory(conf);
+    NodeStore defaultStore = defaultFactory.create(jcrHomePath, conf);
+    try (FileStore archive = FileStoreBuilder.fileStoreBuilder(
+        CompositeNodeStoreFactory.getMountStoragePath(jcrHomePath, parameters, mount).toFile())
+        .build()) {
+      SegmentNodeStore archiveStore = SegmentNodeStoreBuilders.builder(archive).build();
+      for (String path : paths) {
+        move(path, defaultStore, archiveStore);
+        archive.flush();
+        SilverLogger.getLogger(this).info("Content at {0} moved into the archive mount {1}", path,
+            mount);
+      }
+    } catch (InvalidFileStoreVersionException | IOException | CommitFailedException e) {
+      throw new SilverpeasRuntimeException(e);
+    } finally {
+      defaultFactory.dispose(defaultStore);
+    }
+  }
+
+  private void move(final String path, final NodeStore defaultStore,
+      final SegmentNodeStore archiveStore) throws CommitFailedException {
+    if (!PathUtils.isAbsolute(path) || PathUtils.denotesRoot(path)) {
+      throw new IllegalArgumentException("Invalid path to archive: " + path);
+    }
+    List<String> archivedPaths = CompositeNodeStoreFactory.getArchivedPaths(archiveStore);
+    if (archivedPaths.stream().anyMatch(p -> p.equals(path) || PathUtils.isAncestor(p, path) ||
+        PathUtils.isAncestor(path, p))) {
+      throw new IllegalArgumentException("The content at " + path + " is already archived");
+    }
+    NodeState content = getNode(defaultStore.getRoot(), path);
+    if (!content.exists()) {
+      throw new IllegalArgumentException("No content at " + path);
+    }
+
+    // first the content is copied into the archive and the path is recorded in the same commit
+    NodeBuilder archiveRoot = archiveStore.getRoot().builder();
+    getBuilder(archiveRoot, PathUtils.getParentPath(path))
+        .setChildNode(PathUtils.getName(path), content);
+    archivedPaths.add(path);
+    archiveRoot.setProperty(CompositeNodeStoreFactory.MOUNTED_PATHS, archivedPaths, Type.STRINGS);
+    archiveStore.merge(archiveRoot, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+    // then it is removed from the default storage
+    NodeBuilder defaultRoot = defaultStore.getRoot().builder();
+    getBuilder(defaultRoot, path).remove();
+    defaultStore.merge(defaultRoot, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+  }
+
+  private static NodeState getNode(final NodeState root, final String path) {
+    NodeState node = root;
+    for (String name : PathUtils.elements(path)) {
+      node = node.getChildNode(name);
+    }
+    return node;
+  }
+
+  private static NodeBuilder getBuilder(final NodeBuilder root, final String path) {
+    NodeBuilder builder = root;
+    for (String name : PathUtils.elements(path)) {
+      builder = builder.child(name);
+    }
+    return builder;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.silverpeas.core.util.logging.SilverLogger;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.text.MessageFormat;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Reload at runtime of the configuration of the repository. When the configuration file is
+ * loaded again, the parameters whose the value has changed are compared with the ones the
+ * {@link NodeStoreFactory} can apply live to the node storage it has created: those are applied
+ * at once, the other ones are only reported as requiring a restart. The parameters changed since
+ * the startup and waiting for a restart are exposed through JMX.
+ * </p>
+ * <p>
+ * The configuration is reloaded on demand through JMX and, if enabled, when the configuration
+ * file is modified. The modification is detected by checking the last modification time of the
+ * file at a fixed interval; a configuration loaded from the classpath isn't watched.
+ * </p>
+ * @author mmoquillon
+ */
+class ConfigurationReload implements ConfigurationReloadMBean, Closeable {
+
+  static final String NAME = "Repository Configuration";
+
+  private final NodeStoreFactory factory;
+  private final NodeStore store;
+  private final OakRepositoryConfiguration initialConf;
+  private final AtomicLong reloads = new AtomicLong(0);
+  private OakRepositoryConfiguration currentConf;
+  private volatile Set<String> pendingRestart = Set.of();
+  private FileTime lastModified;
+  private ScheduledExecutorService scheduler;
+  private JmxRegistration registration;
+
+  /**
+   * Starts to watch the configuration of the specified node store.
+   * @param factory the factory that has created the node store.
+   * @param store the node store to reconfigure.
+   * @param jcrHomePath the path of the home directory of the repository using the node store.
+   * @param conf the configuration with which the node store has been created.
+   * @return the {@link ConfigurationReload} instance. Closing it stops the watching.
+   */
+  static ConfigurationReload start(final NodeStoreFactory factory, final NodeStore store,
+      final String jcrHomePath, final OakRepositoryConfiguration conf) {
+    ConfigurationReload reload = new ConfigurationReload(factory, store, conf);
+    int interval = conf.getConfigurationWatchInterval();
+    if (interval > 0) {
+      Path file = getConfigurationFile(conf);
+      if (file == null) {
+        SilverLogger.getLogger(reload).warn("The configuration {0} isn't a file: it isn't watched",
+            conf.getLocation());
+      } else {
+        reload.watch(file, interval);
+      }
+    }
+    reload.registration = JmxRegistration.register(reload, TYPE, NAME, jcrHomePath);
+    return reload;
+  }
+
+  private ConfigurationReload(final NodeStoreFactory factory, final NodeStore store,
+      final OakRepositoryConfiguration conf) {
+    this.factory = factory;
+    this.store = store;
+    this.initialConf = conf;
+    this.currentConf = conf;
+  }
+
+  private static Path getConfigurationFile(final OakRepositoryConfiguration conf) {
+    String location = conf.getLocation();
+    if (location == null || location.startsWith("classpath:")) {
+      return null;
+    }
+    Path file = Path.of(location);
+    return Files.isRegularFile(file) ? file : null;
+  }
+
+  private void watch(final Path file, final int interval) {
+    try {
+      lastModified = Files.getLastModifiedTime(file);
+    } catch (IOException e) {
+      SilverLogger.getLogger(this).silent(e);
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "silverpeas-jcr-configuration-watch");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(() -> check(file), interval, interval, TimeUnit.SECONDS);
+  }
+
+  private void check(final Path file) {
+    try {
+      FileTime modified = Files.getLastModifiedTime(file);
+      if (!modified.equals(lastModified)) {
+        lastModified = modified;
+        reload();
+      }
+    } catch (Exception e) {
+      SilverLogger.getLogger(this)
+          .error("Reload of the repository configuration failed: " + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public synchronized String reload() throws IOException {
+    OakRepositoryConfiguration newConf =
+        OakRepositoryConfiguration.load(currentConf.getLocation());
+    Set<String> changed = currentConf.getChangedParameters(newConf);
+    if (changed.isEmpty()) {
+      return "No parameter changed";
+    }
+    Set<String> tunables = factory.reconfigure(store, newConf);
+    currentConf = newConf;
+    reloads.incrementAndGet();
+
+    Set<String> applied = new TreeSet<>(changed);
+    applied.retainAll(tunables);
+    Set<String> requiringRestart = new TreeSet<>(changed);
+    requiringRestart.removeAll(tunables);
+    Set<String> pending = initialConf.getChangedParameters(newConf);
+    pending.removeAll(tunables);
+    pendingRestart = pending;
+
+    SilverLogger logger = SilverLogger.getLogger(this);
+    if (!applied.isEmpty()) {
+      logger.info("Repository configuration reloaded: parameters {0} applied", applied);
+    }
+    if (!requiringRestart.isEmpty()) {
+      logger.warn("Repository configuration reloaded: parameters {0} require a restart to be " +
+          "taken into account", requiringRestart);
+    }
+    return MessageFormat.format("Parameters applied: {0}, parameters requiring a restart: {1}",
+        applied, requiringRestart);
+  }
+
+  @Override
+  public long getReloadCount() {
+    return reloads.get();
+  }
+
+  @Override
+  public String[] getPendingRestartParameters() {
+    return pendingRestart.toArray(new String[0]);
+  }
+
+  @Override
+  public void close() {
+    if (registration != null) {
+      registration.close();
+    }
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+}
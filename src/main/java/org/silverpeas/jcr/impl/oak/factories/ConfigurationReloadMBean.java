@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import java.io.IOException;
+
+/**
+ * Management interface of the configuration of the repository. It allows the sysadmins to reload
+ * the configuration file without restarting Silverpeas and to know what changes are yet waiting
+ * for a restart to be taken into account.
+ * @author mmoquillon
+ */
+public interface ConfigurationReloadMBean {
+
+  String TYPE = "RepositoryConfiguration";
+
+  /**
+   * Loads again the configuration file of the repository. The changed parameters that can be
+   * tuned at runtime are applied at once to the node storage; the other ones are reported as
+   * requiring a restart.
+   * @return a report of the changed parameters.
+   * @throws IOException if the configuration file cannot be read.
+   */
+  String reload() throws IOException;
+
+  /**
+   * Gets the number of reloads of the configuration that changed at least one parameter, whether
+   * they were triggered by a change of the file or on demand.
+   * @return the number of effective reloads.
+   */
+  long getReloadCount();
+
+  /**
+   * Gets the parameters changed in the configuration file since the startup and that require a
+   * restart to be taken into account.
+   * @return the names of the parameters waiting for a restart.
+   */
+  String[] getPendingRestartParameters();
+}
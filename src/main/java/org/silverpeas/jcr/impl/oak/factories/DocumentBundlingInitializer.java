@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.document.bundlor.BundlingConfigHandler;
+import org.apache.jackrabbit.oak.plugins.document.bundlor.DocumentBundlor;
+import org.apache.jackrabbit.oak.spi.lifecycle.RepositoryInitializer;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.jackrabbit.JcrConstants.JCR_PRIMARYTYPE;
+import static org.apache.jackrabbit.JcrConstants.JCR_SYSTEM;
+import static org.apache.jackrabbit.oak.spi.nodetype.NodeTypeConstants.NT_OAK_UNSTRUCTURED;
+
+/**
+ * Initializer of the bundling of nodes in a document storage. The bundling patterns per node type
+ * are set in the bundling configuration of Oak, at {@link BundlingConfigHandler#CONFIG_PATH}, from
+ * which the document storage is watching them. The nodes of a given type are then stored with their
+ * descendants matching the patterns into a single document, so that they are all read in one
+ * round trip with the database.
+ * <p>
+ * The patterns are set at each start of the repository so that any change of them in the
+ * configuration is taken into account. Nevertheless, such a change applies only to the nodes
+ * created after it.
+ * @author mmoquillon
+ */
+class DocumentBundlingInitializer implements RepositoryInitializer {
+
+  private final Map<String, List<String>> patterns;
+
+  /**
+   * Constructs a new initializer of the bundling of nodes.
+   * @param patterns the bundling patterns per node type.
+   */
+  DocumentBundlingInitializer(final Map<String, List<String>> patterns) {
+    this.patterns = patterns;
+  }
+
+  @Override
+  public void initialize(final NodeBuilder builder) {
+    if (!builder.hasChildNode(JCR_SYSTEM)) {
+      return;
+    }
+    NodeBuilder documentStore =
+        unstructured(builder.getChildNode(JCR_SYSTEM), BundlingConfigHandler.DOCUMENT_NODE_STORE);
+    NodeBuilder bundlor = unstructured(documentStore, BundlingConfigHandler.BUNDLOR);
+    patterns.forEach((type, typePatterns) ->
+        bundlor.child(type).setProperty(DocumentBundlor.PROP_PATTERN, typePatterns, Type.STRINGS));
+  }
+
+  private static NodeBuilder unstructured(final NodeBuilder parent, final String name) {
+    NodeBuilder child = parent.child(name);
+    if (!child.hasProperty(JCR_PRIMARYTYPE)) {
+      child.setProperty(JCR_PRIMARYTYPE, NT_OAK_UNSTRUCTURED, Type.NAME);
+    }
+    return child;
+  }
+}
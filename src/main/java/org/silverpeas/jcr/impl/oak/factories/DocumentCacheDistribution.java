@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import org.apache.jackrabbit.oak.cache.CacheLIRS;
+import org.apache.jackrabbit.oak.cache.CacheValue;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeState;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStoreBuilder;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.LocalDiffCache;
+import org.apache.jackrabbit.oak.plugins.document.NamePathRev;
+import org.apache.jackrabbit.oak.plugins.document.NodeDocument;
+import org.apache.jackrabbit.oak.plugins.document.PathRev;
+import org.apache.jackrabbit.oak.plugins.document.mongo.MongoDocumentNodeStoreBuilder;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.CacheType;
+import org.apache.jackrabbit.oak.plugins.document.rdb.RDBDocumentNodeStoreBuilder;
+import org.apache.jackrabbit.oak.plugins.document.util.RevisionsKey;
+import org.apache.jackrabbit.oak.plugins.document.util.StringValue;
+import org.silverpeas.core.util.logging.SilverLogger;
+
+import java.io.Closeable;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * Adaptive distribution of the memory cache of a document storage among the various caches used
+ * by the {@link DocumentNodeStore}: the caches of the node states, of the children of the nodes,
+ * of the diffs between revisions, of the documents and of the previous documents. The builders of
+ * the document storage provided by this object keep track of these caches when building them; the
+ * distribution set by the cache percentages is then the starting point.
+ * </p>
+ * <p>
+ * Once started, the hits, misses and evictions of each cache are sampled at a fixed interval.
+ * When a cache evicts entries whereas they are requested again, it gets a step of capacity from
+ * the cache with the fewest hits per byte of capacity, if the misses of the former exceed the
+ * hits the latter would lose with this capacity. The size of each cache is kept within some
+ * bounds relative to its initial size and the total size of the caches is unchanged. Each move of
+ * capacity is logged with the hit ratio of all the caches over the last interval.
+ * </p>
+ * <p>
+ * The adaptation can be stopped or started again with other parameters at any time. Whatever
+ * the adaptation, the total size of the caches can also be changed at runtime; each cache is then
+ * resized proportionally.
+ * </p>
+ * <p>
+ * Only the caches implemented by {@link CacheLIRS}, the default implementation in Oak, can be
+ * resized; the other ones are left as is.
+ * </p>
+ * @author mmoquillon
+ */
+class DocumentCacheDistribution implements Closeable {
+
+  private static final long MB = 1024L * 1024L;
+
+  private final List<ManagedCache> caches = new CopyOnWriteArrayList<>();
+  private ScheduledExecutorService scheduler;
+  private ScheduledFuture<?> task;
+  private int stepPercentage;
+  private int minPercentage;
+  private int maxPercentage;
+  private long step;
+
+  /**
+   * Creates a new builder of a document storage backed by MongoDB whose caches are tracked by
+   * this distribution.
+   * @return a {@link MongoDocumentNodeStoreBuilder} instance.
+   */
+  MongoDocumentNodeStoreBuilder newMongoBuilder() {
+    return new MongoBuilder();
+  }
+
+  /**
+   * Creates a new builder of a document storage backed by a relational database whose caches are
+   * tracked by this distribution.
+   * @return a {@link RDBDocumentNodeStoreBuilder} instance.
+   */
+  RDBDocumentNodeStoreBuilder newRDBBuilder() {
+    return new RDBBuilder();
+  }
+
+  /**
+   * Creates a new builder of a document storage whose caches are tracked by this distribution.
+   * @return a {@link DocumentNodeStoreBuilder} instance.
+   */
+  DocumentNodeStoreBuilder<?> newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Is there any cache tracked by this distribution? Only the caches that can be resized are
+   * tracked.
+   * @return true if at least one cache of the document storage is tracked, false otherwise.
+   */
+  boolean hasCaches() {
+    return !caches.isEmpty();
+  }
+
+  /**
+   * Starts to adapt the distribution of the memory among the caches tracked so far. If the
+   * adaptation is already started, it is restarted with the new parameters; the bounds of the
+   * caches are computed again from their initial size.
+   * @param interval the interval in seconds between two adaptations of the distribution.
+   * @param stepPercentage the percentage of the total size of the caches moved at once.
+   * @param minPercentage the percentage of its initial size under which a cache isn't shrunk.
+   * @param maxPercentage the percentage of its initial size above which a cache isn't grown.
+   */
+  synchronized void start(final long interval, final int stepPercentage, final int minPercentage,
+      final int maxPercentage) {
+    this.stepPercentage = stepPercentage;
+    this.minPercentage = minPercentage;
+    this.maxPercentage = maxPercentage;
+    computeBounds();
+    SilverLogger.getLogger(this).info("Adaptive distribution of the document storage cache " +
+            "among the caches {0} by steps of {1} MB",
+        caches.stream().map(c -> c.name).collect(Collectors.toList()), toMB(step));
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "silverpeas-jcr-cache-distribution");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    if (task != null) {
+      task.cancel(false);
+    }
+    task = scheduler.scheduleWithFixedDelay(this::adapt, interval, interval, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stops to adapt the distribution of the memory among the caches. The caches keep their
+   * current size.
+   */
+  synchronized void stop() {
+    if (task != null) {
+      task.cancel(false);
+      task = null;
+    }
+    step = 0;
+  }
+
+  /**
+   * Resizes all the caches tracked by this distribution by the specified factor. The current
+   * distribution of the memory among the caches is kept and, if the adaptation is started, their
+   * bounds are changed accordingly.
+   * @param factor the factor by which the size of each cache is multiplied.
+   */
+  synchronized void resize(final double factor) {
+    if (factor <= 0 || factor == 1.0) {
+      return;
+    }
+    for (ManagedCache cache : caches) {
+      cache.initialSize = Math.round(cache.initialSize * factor);
+      cache.cache.setMaxMemory(Math.max(1, Math.round(cache.cache.getMaxMemory() * factor)));
+    }
+    if (task != null) {
+      computeBounds();
+    }
+    SilverLogger.getLogger(this).info("Document storage caches resized to {0} MB",
+        toMB(caches.stream().mapToLong(c -> c.cache.getMaxMemory()).sum()));
+  }
+
+  private void computeBounds() {
+    long total = 0;
+    for (ManagedCache cache : caches) {
+      cache.minSize = cache.initialSize * minPercentage / 100;
+      cache.maxSize = cache.initialSize * maxPercentage / 100;
+      total += cache.initialSize;
+    }
+    step = total * stepPercentage / 100;
+  }
+
+  /**
+   * Adapts the distribution of the memory among the caches from their statistics since the last
+   * adaptation. At most one step of capacity is moved from a cache to another one.
+   */
+  synchronized void adapt() {
+    if (step <= 0) {
+      return;
+    }
+    List<Sample> samples = caches.stream().map(ManagedCache::sample).collect(Collectors.toList());
+    Sample receiver = samples.stream()
+        .filter(s -> s.evictions > 0 && s.misses > 0 && s.cache.canGrow(step))
+        .max(Comparator.comparingLong(s -> s.misses))
+        .orElse(null);
+    if (receiver == null) {
+      return;
+    }
+    Sample donor = samples.stream()
+        .filter(s -> s != receiver && s.cache.canShrink(step))
+        .min(Comparator.comparingDouble(Sample::getHitsPerByte))
+        .orElse(null);
+    if (donor == null) {
+      return;
+    }
+    // the hits lost by the donor with the step of capacity, supposing them evenly spread
+    double lostHits = donor.getHitsPerByte() * step;
+    if (receiver.misses <= lostHits) {
+      return;
+    }
+    donor.cache.resize(-step);
+    receiver.cache.resize(step);
+    long hits = samples.stream().mapToLong(s -> s.hits).sum();
+    long requests = hits + samples.stream().mapToLong(s -> s.misses).sum();
+    SilverLogger.getLogger(this).info("Document storage cache distribution: {0} MB moved from " +
+            "the {1} cache ({2} hits, now {3} MB) to the {4} cache ({5} misses, {6} evictions, " +
+            "now {7} MB), hit ratio of the caches: {8}%", toMB(step), donor.cache.name, donor.hits,
+        toMB(donor.cache.cache.getMaxMemory()), receiver.cache.name, receiver.misses,
+        receiver.evictions, toMB(receiver.cache.cache.getMaxMemory()),
+        requests == 0 ? 0 : hits * 100 / requests);
+  }
+
+  private static double toMB(final long bytes) {
+    return (double) bytes / MB;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /**
+   * Tracks the specified cache built by one of the builders of this distribution. It is the single
+   * entry point of the builders: each of them overrides the building of the caches only to pass
+   * the built cache to this method. The {@link DocumentNodeStore} exposes its node and children
+   * caches but only the statistics of its diff and document caches; the caches have then to be
+   * caught when they are built.
+   * @param type the type of the cache.
+   * @param cache the cache built by a builder.
+   * @return the specified cache.
+   */
+  private <K, V> Cache<K, V> track(final CacheType type, final Cache<K, V> cache) {
+    if (cache instanceof CacheLIRS) {
+      caches.add(new ManagedCache(type.name().toLowerCase(), (CacheLIRS<?, ?>) cache));
+    }
+    return cache;
+  }
+
+  private static class ManagedCache {
+    private final String name;
+    private final CacheLIRS<?, ?> cache;
+    private long initialSize;
+    private long minSize;
+    private long maxSize;
+    private CacheStats lastStats;
+
+    private ManagedCache(final String name, final CacheLIRS<?, ?> cache) {
+      this.name = name;
+      this.cache = cache;
+      this.initialSize = cache.getMaxMemory();
+      this.lastStats = cache.stats();
+    }
+
+    private Sample sample() {
+      CacheStats stats = cache.stats();
+      CacheStats delta = stats.minus(lastStats);
+      lastStats = stats;
+      return new Sample(this, delta.hitCount(), delta.missCount(), delta.evictionCount());
+    }
+
+    private boolean canGrow(final long size) {
+      return cache.getMaxMemory() + size <= maxSize;
+    }
+
+    private boolean canShrink(final long size) {
+      return cache.getMaxMemory() - size >= minSize;
+    }
+
+    private void resize(final long size) {
+      cache.setMaxMemory(cache.getMaxMemory() + size);
+    }
+  }
+
+  private static class Sample {
+    private final ManagedCache cache;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    private Sample(final ManagedCache cache, final long hits, final long misses,
+        final long evictions) {
+      this.cache = cache;
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+    }
+
+    private double getHitsPerByte() {
+      return (double) hits / cache.cache.getMaxMemory();
+    }
+  }
+
+  private class Builder extends DocumentNodeStoreBuilder<Builder> {
+
+    @Override
+    public Cache<PathRev, DocumentNodeState> buildNodeCache(final DocumentNodeStore store) {
+      return track(CacheType.NODE, super.buildNodeCache(store));
+    }
+
+    @Override
+    public Cache<NamePathRev, DocumentNodeState.Children> buildChildrenCache(
+        final DocumentNodeStore store) {
+      return track(CacheType.CHILDREN, super.buildChildrenCache(store));
+    }
+
+    @Override
+    public Cache<CacheValue, StringValue> buildMemoryDiffCache() {
+      return track(CacheType.DIFF, super.buildMemoryDiffCache());
+    }
+
+    @Override
+    public Cache<RevisionsKey, LocalDiffCache.Diff> buildLocalDiffCache() {
+      return track(CacheType.LOCAL_DIFF, super.buildLocalDiffCache());
+    }
+
+    @Override
+    public Cache<CacheValue, NodeDocument> buildDocumentCache(final DocumentStore store) {
+      return track(CacheType.DOCUMENT, super.buildDocumentCache(store));
+    }
+
+    @Override
+    public Cache<StringValue, NodeDocument> buildPrevDocumentsCache(final DocumentStore store) {
+      return track(CacheType.PREV_DOCUMENT, super.buildPrevDocumentsCache(store));
+    }
+  }
+
+  private class MongoBuilder extends MongoDocumentNodeStoreBuilder {
+
+    @Override
+    public Cache<PathRev, DocumentNodeState> buildNodeCache(final DocumentNodeStore store) {
+      return track(CacheType.NODE, super.buildNodeCache(store));
+    }
+
+    @Override
+    public Cache<NamePathRev, DocumentNodeState.Children> buildChildrenCache(
+        final DocumentNodeStore store) {
+      return track(CacheType.CHILDREN, super.buildChildrenCache(store));
+    }
+
+    @Override
+    public Cache<CacheValue, StringValue> buildMemoryDiffCache() {
+      return track(CacheType.DIFF, super.buildMemoryDiffCache());
+    }
+
+    @Override
+    public Cache<RevisionsKey, LocalDiffCache.Diff> buildLocalDiffCache() {
+      return track(CacheType.LOCAL_DIFF, super.buildLocalDiffCache());
+    }
+
+    @Override
+    public Cache<CacheValue, NodeDocument> buildDocumentCache(final DocumentStore store) {
+      return track(CacheType.DOCUMENT, super.buildDocumentCache(store));
+    }
+
+    @Override
+    public Cache<StringValue, NodeDocument> buildPrevDocumentsCache(final DocumentStore store) {
+      return track(CacheType.PREV_DOCUMENT, super.buildPrevDocumentsCache(store));
+    }
+  }
+
+  private class RDBBuilder extends RDBDocumentNodeStoreBuilder {
+
+    @Override
+    public Cache<PathRev, DocumentNodeState> buildNodeCache(final DocumentNodeStore store) {
+      return track(CacheType.NODE, super.buildNodeCache(store));
+    }
+
+    @Override
+    public Cache<NamePathRev, DocumentNodeState.Children> buildChildrenCache(
+        final DocumentNodeStore store) {
+      return track(CacheType.CHILDREN, super.buildChildrenCache(store));
+    }
+
+    @Override
+    public Cache<CacheValue, StringValue> buildMemoryDiffCache() {
+      return track(CacheType.DIFF, super.buildMemoryDiffCache());
+    }
+
+    @Override
+    public Cache<RevisionsKey, LocalDiffCache.Diff> buildLocalDiffCache() {
+      return track(CacheType.LOCAL_DIFF, super.buildLocalDiffCache());
+    }
+
+    @Override
+    public Cache<CacheValue, NodeDocument> buildDocumentCache(final DocumentStore store) {
+      return track(CacheType.DOCUMENT, super.buildDocumentCache(store));
+    }
+
+    @Override
+    public Cache<StringValue, NodeDocument> buildPrevDocumentsCache(final DocumentStore store) {
+      return track(CacheType.PREV_DOCUMENT, super.buildPrevDocumentsCache(store));
+    }
+  }
+}
@@ -27,43 +27,131 @@ package org.silverpeas.jcr.impl.oak.factories;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.ReadPreference;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.jackrabbit.oak.plugins.document.ClusterNodeInfo;
+import org.apache.jackrabbit.oak.plugins.document.Collection;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStoreBuilder;
 import org.apache.jackrabbit.oak.plugins.document.LeaseCheckMode;
+import org.apache.jackrabbit.oak.plugins.document.NodeDocument;
 import org.apache.jackrabbit.oak.plugins.document.Path;
+import org.apache.jackrabbit.oak.plugins.document.Revision;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
 import org.apache.jackrabbit.oak.plugins.document.mongo.MongoDocumentNodeStoreBuilder;
+import org.apache.jackrabbit.oak.plugins.document.rdb.RDBBlobStore;
+import org.apache.jackrabbit.oak.plugins.document.rdb.RDBDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.rdb.RDBOptions;
+import org.apache.jackrabbit.oak.plugins.document.util.MongoConnection;
+import org.apache.jackrabbit.oak.plugins.document.util.Utils;
+import org.apache.jackrabbit.oak.spi.blob.MemoryBlobStore;
+import org.apache.jackrabbit.oak.spi.cluster.ClusterRepositoryInfo;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.lifecycle.RepositoryInitializer;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
-import org.silverpeas.core.NotSupportedException;
+import org.apache.jackrabbit.oak.spi.whiteboard.DefaultWhiteboard;
+import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.util.StringUtil;
+import org.silverpeas.core.util.logging.SilverLogger;
 import org.silverpeas.jcr.impl.oak.configuration.DocumentNodeStoreConfiguration;
 import org.silverpeas.jcr.impl.oak.configuration.DocumentNodeStoreConfiguration.DocumentStoreType;
 import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
 import org.silverpeas.jcr.impl.oak.configuration.StorageType;
 
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
  * Factory of a {@link org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore} instance. This
- * is for the document storage in Oak. Currently, only the MongoDB as document-based database is
- * supported.
+ * is for the document storage in Oak. The documents can be stored either in a MongoDB database or
+ * in a relational database. In the latter case, the binaries are also stored in the relational
+ * database and the connections to the database are taken either from a datasource managed by the
+ * application server or from a pool of connections opened with the JDBC URL of the database.
+ * <p>
+ * With MongoDB, the reads of old revisions and of the subtrees tolerant of staleness can be routed
+ * to the secondaries of the replica set, according to the configured read preference, in order to
+ * spare the primary for the writes and the fresh reads. Conversely, the bulk writes are throttled
+ * when the secondaries or the other cluster nodes lag too far behind the changes.
+ * <p>
+ * In order to reduce the number of round trips with the database, the nodes of an attachment are
+ * bundled together into a single document according to the bundling patterns set in the
+ * configuration. With MongoDB, the child documents of a node are also prefetched by page when its
+ * children are iterated.
+ * <p>
+ * For testing and benchmarking purpose, the documents can also be kept in memory, optionally with
+ * a simulated latency. Several document storages can share the same in-memory documents in order to
+ * simulate a cluster of document storages.
+ * <p>
+ * Whatever the type of the datasource, several document storages can share the same database as
+ * nodes of a cluster. Each of them should then be configured with its own cluster node
+ * identifier so that a node restarted after a crash can take again its identifier without
+ * waiting for the lease of its previous instance to expire.
+ * <p>
+ * The size of the memory cache and its adaptive distribution, the thresholds of the throttling of
+ * the bulk writes and the interval of the garbage collection of the binaries can be changed at
+ * runtime, without reopening the storage.
  * @author mmoquillon
  */
 public class DocumentNodeStoreFactory implements NodeStoreFactory {
 
+  private static final String RDB_BATCH_SIZE_PROPERTY =
+      RDBDocumentStore.class.getName() + ".CHUNKSIZE";
+  private static final String LEASE_DURATION_PROPERTY = "oak.documentMK.leaseDurationSeconds";
+  // a cluster node renews its lease at this interval and fails once the remaining lease time
+  // gets lower than the failure margin
+  private static final int MIN_LEASE_DURATION =
+      (ClusterNodeInfo.DEFAULT_LEASE_UPDATE_INTERVAL_MILLIS +
+          ClusterNodeInfo.DEFAULT_LEASE_FAILURE_MARGIN_MILLIS) / 1000;
+  private static final String CACHE_SIZE = "document.cache";
+  private static final List<String> CACHE_DISTRIBUTION_PARAMETERS =
+      List.of("document.adaptiveCacheDistribution",
+          "document.adaptiveCacheDistribution.intervalInSecs",
+          "document.adaptiveCacheDistribution.step",
+          "document.adaptiveCacheDistribution.minPercentage",
+          "document.adaptiveCacheDistribution.maxPercentage");
+  private static final List<String> THROTTLING_PARAMETERS =
+      List.of("document.throttling.maxPropagationLagInMillis",
+          "document.throttling.maxReplicationLagInSecs", "document.throttling.bulkThreshold",
+          "document.throttling.maxDelayInMillis");
+  private static final String BLOB_GC_INTERVAL = "document.blobGCIntervalInSecs";
+
   private final Map<DocumentStoreType, Function<DocumentNodeStoreConfiguration, DocumentNodeStore>>
       nodeStoreBuilders = Map.of(
       DocumentStoreType.MONGO, this::createMongoNodeStore,
-      DocumentStoreType.RDB, c -> {
-        throw new NotSupportedException(
-            "The relational database backend isn't currently supported as document-based " +
-                "datasource");
-      }
+      DocumentStoreType.RDB, this::createRDBNodeStore,
+      DocumentStoreType.MEMORY, this::createMemoryNodeStore
   );
 
+  /**
+   * The in-memory storages shared by the document storages in the JVM, per database name.
+   */
+  private static final Map<String, MemoryStorage> memoryStorages = new HashMap<>();
+
+  private BlobGarbageCollection blobGC;
+  private BasicDataSource dataSource;
+  private DocumentCacheDistribution cacheDistribution;
+  private int cacheSize;
+  private WriteThrottler throttler;
+  private final List<Closeable> resources = new ArrayList<>();
+
   @Override
   public NodeStore create(final String jcrHomePath, final OakRepositoryConfiguration conf) {
     if (conf.getStorageType() != StorageType.DOCUMENT_NODE_STORE &&
@@ -72,44 +160,371 @@ public class DocumentNodeStoreFactory implements NodeStoreFactory {
     }
 
     DocumentNodeStoreConfiguration docNodeConf = conf.getDocumentNodeStoreConfiguration();
-    return nodeStoreBuilders.getOrDefault(docNodeConf.getDocumentStoreType(), c -> null)
-        .apply(docNodeConf);
+    if (docNodeConf.getLeaseDuration() <= MIN_LEASE_DURATION) {
+      throw new IllegalArgumentException("The lease duration must be greater than " +
+          MIN_LEASE_DURATION + " seconds: " + docNodeConf.getLeaseDuration());
+    }
+    DocumentNodeStore store =
+        nodeStoreBuilders.getOrDefault(docNodeConf.getDocumentStoreType(), c -> null)
+            .apply(docNodeConf);
+    if (store != null && docNodeConf.getBlobGCInterval() > 0) {
+      scheduleBlobGC(store, docNodeConf);
+    }
+    return store;
+  }
+
+  @Override
+  public RepositoryInitializer getRepositoryInitializer(final OakRepositoryConfiguration conf) {
+    return new DocumentBundlingInitializer(
+        conf.getDocumentNodeStoreConfiguration().getBundlingPatterns());
+  }
+
+  /**
+   * Gets the hook throttling the bulk commits into the document storage created by this factory
+   * if the throttling is enabled for it. The commits are throttled before taking their revision
+   * so that the other commits aren't stalled behind a throttled one.
+   * @param conf the JCR configuration with the parameters of the document storage.
+   * @return either the hook throttling the bulk commits or a hook doing nothing.
+   * @see NodeStoreFactory#getCommitHook(OakRepositoryConfiguration)
+   */
+  @Override
+  public CommitHook getCommitHook(final OakRepositoryConfiguration conf) {
+    return throttler != null ? new WriteThrottlingHook(throttler) : EmptyHook.INSTANCE;
+  }
+
+  /**
+   * Reconfigures live the specified document storage with the size of the memory cache and the
+   * parameters of its adaptive distribution, with the thresholds of the throttling of the bulk
+   * writes and with the interval of the garbage collection of the binaries. Each of them is
+   * applied only if the related service runs on the storage.
+   * @param store the {@link NodeStore} instance created by this factory.
+   * @param conf the JCR configuration with the new parameters of the document storage.
+   * @return the names of the parameters applied live to the storage.
+   * @see NodeStoreFactory#reconfigure(NodeStore, OakRepositoryConfiguration)
+   */
+  @Override
+  public Set<String> reconfigure(final NodeStore store, final OakRepositoryConfiguration conf) {
+    if (!(store instanceof DocumentNodeStore) || cacheDistribution == null) {
+      return Set.of();
+    }
+    DocumentNodeStoreConfiguration docNodeConf = conf.getDocumentNodeStoreConfiguration();
+    Set<String> applied = new HashSet<>();
+    if (cacheDistribution.hasCaches()) {
+      int newCacheSize = docNodeConf.getCacheSize();
+      cacheDistribution.resize((double) newCacheSize / cacheSize);
+      cacheSize = newCacheSize;
+      if (docNodeConf.isCacheDistributionAdaptive()) {
+        startCacheDistribution(docNodeConf);
+      } else {
+        cacheDistribution.stop();
+      }
+      applied.add(CACHE_SIZE);
+      applied.addAll(CACHE_DISTRIBUTION_PARAMETERS);
+    }
+    if (throttler != null) {
+      throttler.reconfigure(docNodeConf.getThrottlingMaxPropagationLag(),
+          docNodeConf.getThrottlingMaxReplicationLag(), docNodeConf.getThrottlingBulkThreshold(),
+          docNodeConf.getThrottlingMaxDelay());
+      applied.addAll(THROTTLING_PARAMETERS);
+    }
+    if (blobGC != null && docNodeConf.getBlobGCInterval() > 0) {
+      blobGC.reschedule(docNodeConf.getBlobGCInterval());
+      applied.add(BLOB_GC_INTERVAL);
+    }
+    return applied;
   }
 
   @Override
   public void dispose(final NodeStore store) {
     if (store instanceof DocumentNodeStore) {
+      if (blobGC != null) {
+        blobGC.close();
+        blobGC = null;
+      }
+      resources.forEach(r -> {
+        try {
+          r.close();
+        } catch (IOException e) {
+          SilverLogger.getLogger(this).silent(e);
+        }
+      });
+      resources.clear();
+      cacheDistribution = null;
+      throttler = null;
       ((DocumentNodeStore) store).dispose();
+      if (dataSource != null) {
+        try {
+          dataSource.close();
+        } catch (SQLException e) {
+          SilverLogger.getLogger(this).error(e.getMessage(), e);
+        }
+        dataSource = null;
+      }
     } else {
       throw new IllegalArgumentException("The specified store isn't a DocumentNodeStore");
     }
   }
 
   private DocumentNodeStore createMongoNodeStore(final DocumentNodeStoreConfiguration conf) {
-    DocumentNodeStoreBuilder<?> builder =
-        MongoDocumentNodeStoreBuilder.newMongoDocumentNodeStoreBuilder()
-            // we use here a Guava executor (as it is by default by the builder). Perhaps we
-            // should use an executor from our own org.silverpeas.core.thread.ManagedThreadPool
-            // technical bean in which the threads pool of the underlying JEE server is used.
-            .setExecutor(MoreExecutors.newDirectExecutorService())
-            .setMongoDB(conf.getUri(), conf.getDBName(), conf.getBlobCacheSize())
-            .setSocketKeepAlive(conf.getSocketKeepAlive())
-            .memoryCacheSize(conf.getCacheSize())
-            .memoryCacheDistribution(
-                conf.getNodeCachePercentage(),
-                conf.getPrevDocCachePercentage(),
-                conf.getChildrenCachePercentage(),
-                conf.getDiffCachePercentage())
-            .setCacheSegmentCount(conf.getCacheSegmentCount())
-            .setCacheStackMoveDistance(conf.getCacheStackMoveDistance())
-            .setMaxReplicationLag(conf.getMaxReplicationLag(), TimeUnit.SECONDS)
-            .setJournalGCMaxAge(conf.getJournalGCMaxAge())
-            .setRevisionGCMaxAge(conf.getVersionGCMaxAge())
-            .setLeaseCheckMode(LeaseCheckMode.valueOf(conf.getLeaseCheckMode()))
-            .setNodeCachePathPredicate(createCachePredicate(conf))
-            .setUpdateLimit(conf.getUpdateNbLimit());
-
-    return builder.build();
+    String uri = withReadPreference(conf.getUri(), conf);
+    DocumentCacheDistribution caches = new DocumentCacheDistribution();
+    MongoDocumentNodeStoreBuilder builder = caches.newMongoBuilder();
+    DocumentStoreReadStats readStats =
+        new DocumentStoreReadStats(builder.getDocumentStoreStatsCollector());
+    builder.setDocumentStoreStatsCollector(readStats)
+        .setSocketKeepAlive(conf.getSocketKeepAlive())
+        .setMaxReplicationLag(conf.getMaxReplicationLag(), TimeUnit.SECONDS);
+
+    setUp(builder, conf);
+    // the document store is created once the builder set up as it reads its parameters
+    MongoClient client =
+        new MongoConnection(uri, MongoConnection.getDefaultBuilder()).getMongoClient();
+    WriteThrottler throttler = conf.isThrottlingEnabled() ?
+        new WriteThrottler(conf.getThrottlingMaxPropagationLag(),
+            conf.getThrottlingMaxReplicationLag(), conf.getThrottlingBulkThreshold(),
+            conf.getThrottlingMaxDelay()) : null;
+    SilverLogger.getLogger(this).info("Document storage blob cache: {0} MB",
+        conf.getBlobCacheSize());
+    builder.setMongoDB(client, conf.getDBName(), conf.getBlobCacheSize());
+    builder.setDocumentStore(new SilverpeasMongoDocumentStore(client,
+        client.getDatabase(conf.getDBName()), builder, conf.getStaleReadSubtrees(),
+        conf.getChildrenPrefetchSize()));
+    DocumentNodeStore store = build(builder, caches, conf,
+        StaleClusterIdRecovery.inMongoDB(client.getDatabase(conf.getDBName())));
+    resources.add(
+        JmxRegistration.register(readStats, DocumentStoreReadStatsMBean.TYPE, conf.getDBName()));
+    if (throttler != null) {
+      throttler.start(() -> propagationLag(store), () -> replicationLag(client));
+      this.throttler = throttler;
+      resources.add(throttler);
+      resources.add(
+          JmxRegistration.register(throttler, WriteThrottlerMBean.TYPE, conf.getDBName()));
+    }
+    return store;
+  }
+
+  /**
+   * Computes the lag in milliseconds of the propagation of the changes of the specified cluster
+   * node to the other ones: it is the time elapsed between the last change and the last one
+   * persisted by the background operations into the root document.
+   */
+  private static long propagationLag(final DocumentNodeStore store) {
+    Revision head = store.getHeadRevision().getRevision(store.getClusterId());
+    NodeDocument root =
+        store.getDocumentStore().find(Collection.NODES, Utils.getIdFromPath(Path.ROOT), 0);
+    Revision persisted = root == null ? null : root.getLastRev().get(store.getClusterId());
+    if (head == null || persisted == null) {
+      return 0;
+    }
+    return Math.max(0, head.getTimestamp() - persisted.getTimestamp());
+  }
+
+  /**
+   * Computes the replication lag in seconds of the secondaries of the MongoDB replica set. For a
+   * standalone MongoDB server, there is no replication lag.
+   */
+  private static long replicationLag(final MongoClient client) {
+    try {
+      org.bson.Document status = client.getDatabase("admin")
+          .runCommand(new org.bson.Document("replSetGetStatus", 1));
+      List<org.bson.Document> members = status.getList("members", org.bson.Document.class);
+      long primary = members.stream()
+          .filter(m -> "PRIMARY".equals(m.getString("stateStr")))
+          .mapToLong(m -> m.getDate("optimeDate").getTime())
+          .findFirst()
+          .orElse(0);
+      return members.stream()
+          .filter(m -> "SECONDARY".equals(m.getString("stateStr")))
+          .mapToLong(m -> (primary - m.getDate("optimeDate").getTime()) / 1000)
+          .max()
+          .orElse(0);
+    } catch (MongoException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Sets the read preference to the specified MongoDB URI if it doesn't already define one. The
+   * staleness of the reads from the secondaries is then bounded by the maximum replication lag.
+   */
+  private String withReadPreference(final String uri, final DocumentNodeStoreConfiguration conf) {
+    ReadPreference readPreference = ReadPreference.valueOf(conf.getReadPreference());
+    if (uri.contains("readPreference=") || readPreference.equals(ReadPreference.primary())) {
+      return uri;
+    }
+    String separator;
+    if (uri.indexOf('?') >= 0) {
+      separator = "&";
+    } else if (uri.indexOf('/', uri.indexOf("://") + 3) >= 0) {
+      separator = "?";
+    } else {
+      separator = "/?";
+    }
+    String options = "readPreference=" + readPreference.getName();
+    // MongoDB requires a maximum staleness of at least 90 seconds
+    if (conf.getMaxReplicationLag() >= 90) {
+      options += "&maxStalenessSeconds=" + conf.getMaxReplicationLag();
+    }
+    return uri + separator + options;
+  }
+
+  private DocumentNodeStore createRDBNodeStore(final DocumentNodeStoreConfiguration conf) {
+    // the batch size is read once by the RDBDocumentStore at class loading
+    setJvmWideProperty(RDB_BATCH_SIZE_PROPERTY, "document.rdb.batchSize",
+        conf.getRDBBatchSize());
+    DataSource ds = getRDBDataSource(conf);
+    RDBOptions options = new RDBOptions().tablePrefix(conf.getRDBTablePrefix());
+    RDBBlobStore blobStore = new RDBBlobStore(ds, options);
+    blobStore.setBlockSize(conf.getRDBBlobBlockSize());
+    DocumentCacheDistribution caches = new DocumentCacheDistribution();
+    DocumentNodeStoreBuilder<?> builder = caches.newRDBBuilder()
+        .setRDBConnection(ds, options)
+        .setBlobStore(blobStore);
+
+    setUp(builder, conf);
+    return build(builder, caches, conf, StaleClusterIdRecovery.inRDB(ds,
+        conf.getRDBTablePrefix(), builder.getDocumentStore()));
+  }
+
+  private DocumentNodeStore createMemoryNodeStore(final DocumentNodeStoreConfiguration conf) {
+    MemoryStorage storage;
+    synchronized (memoryStorages) {
+      storage = memoryStorages.computeIfAbsent(conf.getDBName(), n -> new MemoryStorage());
+      storage.users++;
+    }
+    DocumentStore documentStore =
+        new LatencyDocumentStoreWrapper(storage.documents, conf.getMemoryLatency(),
+            () -> releaseMemoryStorage(conf.getDBName()));
+    DocumentCacheDistribution caches = new DocumentCacheDistribution();
+    DocumentNodeStoreBuilder<?> builder = caches.newBuilder()
+        .setDocumentStore(documentStore)
+        .setBlobStore(storage.blobs);
+
+    setUp(builder, conf);
+    // the in-memory documents don't survive a crash: there is no stale cluster node id
+    return build(builder, caches, conf, null);
+  }
+
+  private static void releaseMemoryStorage(final String name) {
+    synchronized (memoryStorages) {
+      MemoryStorage storage = memoryStorages.get(name);
+      if (storage != null && --storage.users == 0) {
+        memoryStorages.remove(name);
+        storage.documents.dispose();
+      }
+    }
+  }
+
+  /**
+   * Sets up the specified builder with the configuration parameters common to all the types of
+   * document-based datasource.
+   */
+  private void setUp(final DocumentNodeStoreBuilder<?> builder,
+      final DocumentNodeStoreConfiguration conf) {
+    // the lease duration is read once by Oak at the first document storage set up in the JVM
+    setJvmWideProperty(LEASE_DURATION_PROPERTY, "document.leaseDurationInSecs",
+        conf.getLeaseDuration());
+    if (conf.getClusterId() > 0) {
+      builder.setClusterId(conf.getClusterId());
+    }
+    SilverLogger.getLogger(this).info("Document storage cache: {0} MB", conf.getCacheSize());
+    builder
+        .setAsyncDelay(conf.getAsyncDelay())
+        // we use here a Guava executor (as it is by default by the builder). Perhaps we
+        // should use an executor from our own org.silverpeas.core.thread.ManagedThreadPool
+        // technical bean in which the threads pool of the underlying JEE server is used.
+        .setExecutor(MoreExecutors.newDirectExecutorService())
+        .memoryCacheSize(conf.getCacheSize() * 1024L * 1024L)
+        .memoryCacheDistribution(
+            conf.getNodeCachePercentage(),
+            conf.getPrevDocCachePercentage(),
+            conf.getChildrenCachePercentage(),
+            conf.getDiffCachePercentage())
+        .setCacheSegmentCount(conf.getCacheSegmentCount())
+        .setCacheStackMoveDistance(conf.getCacheStackMoveDistance())
+        .setJournalGCMaxAge(conf.getJournalGCMaxAge())
+        .setRevisionGCMaxAge(conf.getVersionGCMaxAge())
+        .setLeaseCheckMode(LeaseCheckMode.valueOf(conf.getLeaseCheckMode()))
+        .setNodeCachePathPredicate(createCachePredicate(conf))
+        .setUpdateLimit(conf.getUpdateNbLimit());
+  }
+
+  /**
+   * Sets the specified system property read only once in the JVM by Oak. The first value set wins
+   * for all the storages in the JVM; so, a warning is logged if the value configured for this
+   * storage differs from the one already in effect.
+   */
+  private void setJvmWideProperty(final String property, final String parameter,
+      final int value) {
+    Object current = System.getProperties().putIfAbsent(property, String.valueOf(value));
+    if (current != null && !current.equals(String.valueOf(value))) {
+      SilverLogger.getLogger(this).warn("The parameter {0} is global to the JVM: the value {1} " +
+          "configured for the storage is ignored in favor of the value {2} already in effect",
+          parameter, String.valueOf(value), current);
+    }
+  }
+
+  /**
+   * Builds the document node store with the specified builder once set up. If a cluster node
+   * identifier is explicitly set, it is first recovered from a crashed previous instance of this
+   * node if asked and if the leases can be ended in the backend of the store. Once built, the
+   * distribution of the memory among its caches is adapted to the workload if asked.
+   */
+  private DocumentNodeStore build(final DocumentNodeStoreBuilder<?> builder,
+      final DocumentCacheDistribution caches, final DocumentNodeStoreConfiguration conf,
+      final StaleClusterIdRecovery.LeaseTermination leaseTermination) {
+    if (conf.getClusterId() > 0 && conf.isStaleClusterIdRecovered() && leaseTermination != null) {
+      new StaleClusterIdRecovery(builder.getDocumentStore(), leaseTermination)
+          .recover(conf.getClusterId());
+    }
+    DocumentNodeStore store = builder.build();
+    cacheDistribution = caches;
+    cacheSize = conf.getCacheSize();
+    resources.add(caches);
+    if (conf.isCacheDistributionAdaptive()) {
+      startCacheDistribution(conf);
+    }
+    return store;
+  }
+
+  private void startCacheDistribution(final DocumentNodeStoreConfiguration conf) {
+    cacheDistribution.start(conf.getAdaptiveCacheDistributionInterval(),
+        conf.getAdaptiveCacheDistributionStep(),
+        conf.getAdaptiveCacheDistributionMinPercentage(),
+        conf.getAdaptiveCacheDistributionMaxPercentage());
+  }
+
+  private DataSource getRDBDataSource(final DocumentNodeStoreConfiguration conf) {
+    if (StringUtil.isDefined(conf.getRDBDataSource())) {
+      try {
+        return InitialContext.doLookup(conf.getRDBDataSource());
+      } catch (NamingException e) {
+        throw new SilverpeasRuntimeException(e);
+      }
+    }
+    if (StringUtil.isNotDefined(conf.getRDBUrl())) {
+      throw new IllegalArgumentException(
+          "Either the datasource or the JDBC URL of the relational database must be set");
+    }
+    dataSource = new BasicDataSource();
+    dataSource.setUrl(conf.getRDBUrl());
+    dataSource.setUsername(conf.getRDBUser());
+    dataSource.setPassword(conf.getRDBPassword());
+    dataSource.setMaxTotal(conf.getRDBPoolSize());
+    dataSource.setMaxIdle(conf.getRDBPoolSize());
+    return dataSource;
+  }
+
+  private void scheduleBlobGC(final DocumentNodeStore store,
+      final DocumentNodeStoreConfiguration conf) {
+    String repositoryId = ClusterRepositoryInfo.getOrCreateId(store);
+    blobGC = BlobGarbageCollection.schedule(
+        statistics -> store.createBlobGarbageCollector(conf.getBlobGCMaxAge(), repositoryId,
+            new DefaultWhiteboard(), statistics), conf.getBlobGCInterval());
+    if (blobGC != null) {
+      resources.add(JmxRegistration.register(blobGC, BlobGarbageCollectionMBean.TYPE,
+          conf.getDBName()));
+    }
   }
 
   @SuppressWarnings("Guava")
@@ -130,4 +545,14 @@ public class DocumentNodeStoreFactory implements NodeStoreFactory {
 
     return p -> p != null && subtreePaths.stream().anyMatch(subtree -> subtree.isAncestorOf(p));
   }
+
+  /**
+   * An in-memory storage of documents and of binaries. It is shared by all the document storages
+   * using it.
+   */
+  private static class MemoryStorage {
+    private final MemoryDocumentStore documents = new MemoryDocumentStore();
+    private final MemoryBlobStore blobs = new MemoryBlobStore();
+    private int users = 0;
+  }
 }
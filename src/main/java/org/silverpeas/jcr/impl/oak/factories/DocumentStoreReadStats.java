@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.Document;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStoreStatsCollector;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collector of the statistics about the routing of the reads in a MongoDB replica set. It counts
+ * the reads Oak allowed to go to the secondaries and those it forced to the primary, and then
+ * forwards all the statistics to the collector of Oak it decorates. Oak reports only whether a
+ * read was allowed to be performed on a secondary, not the member of the replica set that actually
+ * served it: the latter depends on the read preference and on the availability of the
+ * secondaries.
+ * @author mmoquillon
+ */
+class DocumentStoreReadStats implements DocumentStoreStatsCollector, DocumentStoreReadStatsMBean {
+
+  private final DocumentStoreStatsCollector delegate;
+  private final LongAdder primaryForcedReads = new LongAdder();
+  private final LongAdder secondaryEligibleReads = new LongAdder();
+
+  /**
+   * Constructs a new collector of the read routing statistics decorating the specified one.
+   * @param delegate the collector of the document store statistics of Oak.
+   */
+  DocumentStoreReadStats(final DocumentStoreStatsCollector delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public long getPrimaryForcedReadCount() {
+    return primaryForcedReads.sum();
+  }
+
+  @Override
+  public long getSecondaryEligibleReadCount() {
+    return secondaryEligibleReads.sum();
+  }
+
+  @Override
+  public double getSecondaryEligibleReadPercentage() {
+    long eligible = secondaryEligibleReads.sum();
+    long total = primaryForcedReads.sum() + eligible;
+    return total == 0 ? 0.0 : eligible * 100.0 / total;
+  }
+
+  private void countRead(final boolean isSlaveOk) {
+    if (isSlaveOk) {
+      secondaryEligibleReads.increment();
+    } else {
+      primaryForcedReads.increment();
+    }
+  }
+
+  @Override
+  public void doneFindCached(final Collection<? extends Document> collection, final String key) {
+    delegate.doneFindCached(collection, key);
+  }
+
+  @Override
+  public void doneFindUncached(final long timeTakenNanos,
+      final Collection<? extends Document> collection, final String key, final boolean docFound,
+      final boolean isSlaveOk) {
+    countRead(isSlaveOk);
+    delegate.doneFindUncached(timeTakenNanos, collection, key, docFound, isSlaveOk);
+  }
+
+  @Override
+  public void doneQuery(final long timeTakenNanos, final Collection<? extends Document> collection,
+      final String fromKey, final String toKey, final boolean indexedProperty,
+      final int resultSize, final long lockTime, final boolean isSlaveOk) {
+    countRead(isSlaveOk);
+    delegate.doneQuery(timeTakenNanos, collection, fromKey, toKey, indexedProperty, resultSize,
+        lockTime, isSlaveOk);
+  }
+
+  @Override
+  public void doneCreate(final long timeTakenNanos,
+      final Collection<? extends Document> collection, final List<String> ids,
+      final boolean insertSuccess) {
+    delegate.doneCreate(timeTakenNanos, collection, ids, insertSuccess);
+  }
+
+  @Override
+  public void doneCreateOrUpdate(final long timeTakenNanos,
+      final Collection<? extends Document> collection, final List<String> ids) {
+    delegate.doneCreateOrUpdate(timeTakenNanos, collection, ids);
+  }
+
+  @Override
+  public void doneFindAndModify(final long timeTakenNanos,
+      final Collection<? extends Document> collection, final String key, final boolean newEntry,
+      final boolean success, final int retryCount) {
+    delegate.doneFindAndModify(timeTakenNanos, collection, key, newEntry, success, retryCount);
+  }
+
+  @Override
+  public void doneRemove(final long timeTakenNanos,
+      final Collection<? extends Document> collection, final int removeCount) {
+    delegate.doneRemove(timeTakenNanos, collection, removeCount);
+  }
+
+  @Override
+  public void donePrefetch(final long timeTakenNanos,
+      final Collection<? extends Document> collection, final List<String> ids) {
+    delegate.donePrefetch(timeTakenNanos, collection, ids);
+  }
+}
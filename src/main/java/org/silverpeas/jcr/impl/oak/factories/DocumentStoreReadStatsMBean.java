@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+/**
+ * Management interface of the statistics about the routing of the reads in a MongoDB replica set.
+ * It allows the sysadmins to see how many reads are eligible for the secondaries. A read is
+ * eligible for the secondaries when Oak allows it to be performed on a secondary; the member of
+ * the replica set that actually serves it depends then on the read preference set in the MongoDB
+ * URI and on the availability of the secondaries: with the primaryPreferred read preference, for
+ * example, an eligible read is served by the primary as long as it is available. The reads not
+ * eligible for the secondaries are forced to the primary.
+ * @author mmoquillon
+ */
+public interface DocumentStoreReadStatsMBean {
+
+  String TYPE = "DocumentStoreReadStats";
+
+  /**
+   * Gets the number of reads of documents, not served by the cache, forced to the primary, as
+   * they require the latest state of the documents.
+   * @return the number of reads forced to the primary.
+   */
+  long getPrimaryForcedReadCount();
+
+  /**
+   * Gets the number of reads of documents, not served by the cache, eligible for the secondaries.
+   * Such a read is performed on a secondary or on the primary according to the read preference.
+   * @return the number of reads eligible for the secondaries.
+   */
+  long getSecondaryEligibleReadCount();
+
+  /**
+   * Gets the percentage of the reads, not served by the cache, eligible for the secondaries. It is
+   * the upper bound of the share of the reads actually served by the secondaries.
+   * @return the percentage of the reads eligible for the secondaries.
+   */
+  double getSecondaryEligibleReadPercentage();
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observable;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.Clusterable;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.apache.jackrabbit.oak.spi.state.PrefetchNodeStore;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Decorator of a {@link NodeStore} recording the latency and the rate of the operations performed
+ * on it: the merges, with the number of failures and of conflicts among them, the rebases, the
+ * writing and the fetching of blobs, and the operations on the checkpoints. The statistics are
+ * exposed through JMX. The reading of the root state isn't recorded as it is invoked at each
+ * access to the content and as it is served from memory by all the storages.
+ * </p>
+ * <p>
+ * The recording costs a few hundred of nanoseconds per operation, which is negligible compared to
+ * the cost of the operations themselves. Oak checks whether the node store is {@link Clusterable}
+ * or {@link PrefetchNodeStore} to enable some features; the decorator implements then these
+ * interfaces when the decorated store implements them.
+ * </p>
+ * @author mmoquillon
+ */
+class InstrumentedNodeStore implements NodeStore, Observable, InstrumentedNodeStoreMBean,
+    Closeable {
+
+  static final String NAME = "Node Store Statistics";
+
+  private final NodeStore store;
+  private final Timer merges = new Timer();
+  private final Counter mergeFailures = new Counter();
+  private final Counter mergeConflicts = new Counter();
+  private final Timer rebases = new Timer();
+  private final Timer blobCreations = new Timer();
+  private final Meter blobBytes = new Meter();
+  private final Timer blobFetches = new Timer();
+  private final Timer checkpointOperations = new Timer();
+  private JmxRegistration registration;
+
+  /**
+   * Decorates the specified node store with the recording of the operations performed on it. The
+   * statistics are exposed through JMX until the returned store is closed.
+   * @param store the node store to instrument.
+   * @param jcrHomePath the path of the home directory of the repository using the node store.
+   * @return the instrumented node store.
+   */
+  static InstrumentedNodeStore decorate(final NodeStore store, final String jcrHomePath) {
+    InstrumentedNodeStore instrumented;
+    if (store instanceof Clusterable && store instanceof PrefetchNodeStore) {
+      instrumented = new ClusterableNodeStore(store);
+    } else if (store instanceof PrefetchNodeStore) {
+      instrumented = new PrefetchingNodeStore(store);
+    } else {
+      instrumented = new InstrumentedNodeStore(store);
+    }
+    instrumented.registration = JmxRegistration.register(instrumented, TYPE, NAME, jcrHomePath);
+    return instrumented;
+  }
+
+  private InstrumentedNodeStore(final NodeStore store) {
+    this.store = store;
+  }
+
+  /**
+   * Gets the node store decorated by this one.
+   * @return the instrumented node store.
+   */
+  NodeStore getDelegate() {
+    return store;
+  }
+
+  @Override
+  public void close() {
+    if (registration != null) {
+      registration.close();
+    }
+  }
+
+  @Override
+  public Closeable addObserver(final Observer observer) {
+    if (store instanceof Observable) {
+      return ((Observable) store).addObserver(observer);
+    }
+    return () -> {
+    };
+  }
+
+  @Override
+  @Nonnull
+  public NodeState getRoot() {
+    return store.getRoot();
+  }
+
+  @Override
+  @Nonnull
+  public NodeState merge(@Nonnull final NodeBuilder builder, @Nonnull final CommitHook commitHook,
+      @Nonnull final CommitInfo info) throws CommitFailedException {
+    long start = System.nanoTime();
+    try {
+      return store.merge(builder, commitHook, info);
+    } catch (CommitFailedException e) {
+      mergeFailures.inc();
+      if (e.isOfType(CommitFailedException.MERGE) || e.isOfType(CommitFailedException.STATE)) {
+        mergeConflicts.inc();
+      }
+      throw e;
+    } finally {
+      merges.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  @Nonnull
+  public NodeState rebase(@Nonnull final NodeBuilder builder) {
+    long start = System.nanoTime();
+    try {
+      return store.rebase(builder);
+    } finally {
+      rebases.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public NodeState reset(@Nonnull final NodeBuilder builder) {
+    return store.reset(builder);
+  }
+
+  @Override
+  @Nonnull
+  public Blob createBlob(final InputStream inputStream) throws IOException {
+    long start = System.nanoTime();
+    try {
+      return store.createBlob(new CountingInputStream(inputStream));
+    } finally {
+      blobCreations.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public Blob getBlob(@Nonnull final String reference) {
+    long start = System.nanoTime();
+    try {
+      return store.getBlob(reference);
+    } finally {
+      blobFetches.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  @Nonnull
+  public String checkpoint(final long lifetime, @Nonnull final Map<String, String> properties) {
+    long start = System.nanoTime();
+    try {
+      return store.checkpoint(lifetime, properties);
+    } finally {
+      checkpointOperations.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  @Nonnull
+  public String checkpoint(final long lifetime) {
+    long start = System.nanoTime();
+    try {
+      return store.checkpoint(lifetime);
+    } finally {
+      checkpointOperations.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  @Nonnull
+  public Map<String, String> checkpointInfo(@Nonnull final String checkpoint) {
+    return store.checkpointInfo(checkpoint);
+  }
+
+  @Override
+  @Nonnull
+  public Iterable<String> checkpoints() {
+    return store.checkpoints();
+  }
+
+  @Override
+  public NodeState retrieve(@Nonnull final String checkpoint) {
+    long start = System.nanoTime();
+    try {
+      return store.retrieve(checkpoint);
+    } finally {
+      checkpointOperations.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public boolean release(@Nonnull final String checkpoint) {
+    long start = System.nanoTime();
+    try {
+      return store.release(checkpoint);
+    } finally {
+      checkpointOperations.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public long getMergeCount() {
+    return merges.getCount();
+  }
+
+  @Override
+  public long getMergeFailureCount() {
+    return mergeFailures.getCount();
+  }
+
+  @Override
+  public long getMergeConflictCount() {
+    return mergeConflicts.getCount();
+  }
+
+  @Override
+  public double getMergeRate() {
+    return merges.getOneMinuteRate();
+  }
+
+  @Override
+  public double getMergeMeanLatency() {
+    return toMillis(merges.getSnapshot().getMean());
+  }
+
+  @Override
+  public double getMerge99thPercentileLatency() {
+    return toMillis(merges.getSnapshot().get99thPercentile());
+  }
+
+  @Override
+  public long getRebaseCount() {
+    return rebases.getCount();
+  }
+
+  @Override
+  public double getRebaseMeanLatency() {
+    return toMillis(rebases.getSnapshot().getMean());
+  }
+
+  @Override
+  public double getRebase99thPercentileLatency() {
+    return toMillis(rebases.getSnapshot().get99thPercentile());
+  }
+
+  @Override
+  public long getBlobCreationCount() {
+    return blobCreations.getCount();
+  }
+
+  @Override
+  public double getBlobCreationMeanLatency() {
+    return toMillis(blobCreations.getSnapshot().getMean());
+  }
+
+  @Override
+  public double getBlobCreation99thPercentileLatency() {
+    return toMillis(blobCreations.getSnapshot().get99thPercentile());
+  }
+
+  @Override
+  public long getBlobBytesWritten() {
+    return blobBytes.getCount();
+  }
+
+  @Override
+  public double getBlobWriteThroughput() {
+    return blobBytes.getOneMinuteRate();
+  }
+
+  @Override
+  public long getBlobFetchCount() {
+    return blobFetches.getCount();
+  }
+
+  @Override
+  public double getBlobFetchMeanLatency() {
+    return toMillis(blobFetches.getSnapshot().getMean());
+  }
+
+  @Override
+  public long getCheckpointOperationCount() {
+    return checkpointOperations.getCount();
+  }
+
+  @Override
+  public double getCheckpointOperationMeanLatency() {
+    return toMillis(checkpointOperations.getSnapshot().getMean());
+  }
+
+  @Override
+  public double getCheckpointOperation99thPercentileLatency() {
+    return toMillis(checkpointOperations.getSnapshot().get99thPercentile());
+  }
+
+  private static double toMillis(final double nanos) {
+    return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * Counter of the bytes read from the stream of a blob to write into the node storage.
+   */
+  private class CountingInputStream extends FilterInputStream {
+
+    private CountingInputStream(final InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        blobBytes.mark();
+      }
+      return b;
+    }
+
+    @Override
+    public int read(@Nonnull final byte[] b, final int off, final int len) throws IOException {
+      int count = super.read(b, off, len);
+      if (count > 0) {
+        blobBytes.mark(count);
+      }
+      return count;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      long count = super.skip(n);
+      if (count > 0) {
+        blobBytes.mark(count);
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Instrumented node store decorating a store able to prefetch the nodes matched by a query.
+   */
+  private static class PrefetchingNodeStore extends InstrumentedNodeStore
+      implements PrefetchNodeStore {
+
+    private PrefetchingNodeStore(final NodeStore store) {
+      super(store);
+    }
+
+    @Override
+    public void prefetch(final Collection<String> paths, final NodeState rootState) {
+      ((PrefetchNodeStore) getDelegate()).prefetch(paths, rootState);
+    }
+  }
+
+  /**
+   * Instrumented node store decorating a store shared by several instances of the application
+   * within a cluster, like the document storage.
+   */
+  private static class ClusterableNodeStore extends PrefetchingNodeStore implements Clusterable {
+
+    private ClusterableNodeStore(final NodeStore store) {
+      super(store);
+    }
+
+    @Override
+    @Nonnull
+    public String getInstanceId() {
+      return ((Clusterable) getDelegate()).getInstanceId();
+    }
+
+    @Override
+    public String getVisibilityToken() {
+      return ((Clusterable) getDelegate()).getVisibilityToken();
+    }
+
+    @Override
+    public boolean isVisible(@Nonnull final String visibilityToken, final long maxWaitMillis)
+        throws InterruptedException {
+      return ((Clusterable) getDelegate()).isVisible(visibilityToken, maxWaitMillis);
+    }
+  }
+}
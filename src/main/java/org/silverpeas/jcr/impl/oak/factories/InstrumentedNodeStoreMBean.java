@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+/**
+ * Management interface of the statistics about the operations performed on a node storage. It
+ * allows the sysadmins to see whether a slowness of the JCR comes from the commits, the rebases,
+ * the blobs or the checkpoints. The rates are computed over the last minute and the latencies,
+ * in milliseconds, are computed from a sample of the operations biased towards the last five
+ * minutes.
+ * @author mmoquillon
+ */
+public interface InstrumentedNodeStoreMBean {
+
+  String TYPE = "NodeStoreStats";
+
+  /**
+   * Gets the number of merges of changes into the node storage, whatever their outcome.
+   * @return the number of merges.
+   */
+  long getMergeCount();
+
+  /**
+   * Gets the number of merges that failed, conflicts included.
+   * @return the number of failed merges.
+   */
+  long getMergeFailureCount();
+
+  /**
+   * Gets the number of merges that failed because of a conflict with concurrent changes.
+   * @return the number of conflicting merges.
+   */
+  long getMergeConflictCount();
+
+  /**
+   * Gets the number of merges per second.
+   * @return the rate of the merges.
+   */
+  double getMergeRate();
+
+  /**
+   * Gets the mean latency of the merges.
+   * @return the mean latency in milliseconds.
+   */
+  double getMergeMeanLatency();
+
+  /**
+   * Gets the latency under which are performed 99% of the merges.
+   * @return the 99th percentile of the latency in milliseconds.
+   */
+  double getMerge99thPercentileLatency();
+
+  /**
+   * Gets the number of rebases of changes onto the head state of the node storage.
+   * @return the number of rebases.
+   */
+  long getRebaseCount();
+
+  /**
+   * Gets the mean latency of the rebases.
+   * @return the mean latency in milliseconds.
+   */
+  double getRebaseMeanLatency();
+
+  /**
+   * Gets the latency under which are performed 99% of the rebases.
+   * @return the 99th percentile of the latency in milliseconds.
+   */
+  double getRebase99thPercentileLatency();
+
+  /**
+   * Gets the number of blobs written into the node storage.
+   * @return the number of created blobs.
+   */
+  long getBlobCreationCount();
+
+  /**
+   * Gets the mean latency of the writing of a blob.
+   * @return the mean latency in milliseconds.
+   */
+  double getBlobCreationMeanLatency();
+
+  /**
+   * Gets the latency under which are written 99% of the blobs.
+   * @return the 99th percentile of the latency in milliseconds.
+   */
+  double getBlobCreation99thPercentileLatency();
+
+  /**
+   * Gets the amount of bytes written as blobs into the node storage.
+   * @return the number of written bytes.
+   */
+  long getBlobBytesWritten();
+
+  /**
+   * Gets the number of bytes written per second as blobs into the node storage.
+   * @return the throughput of the blob writing.
+   */
+  double getBlobWriteThroughput();
+
+  /**
+   * Gets the number of blobs fetched by their reference.
+   * @return the number of fetched blobs.
+   */
+  long getBlobFetchCount();
+
+  /**
+   * Gets the mean latency of the fetching of a blob by its reference.
+   * @return the mean latency in milliseconds.
+   */
+  double getBlobFetchMeanLatency();
+
+  /**
+   * Gets the number of operations on the checkpoints: creation, retrieval and release.
+   * @return the number of checkpoint operations.
+   */
+  long getCheckpointOperationCount();
+
+  /**
+   * Gets the mean latency of the operations on the checkpoints.
+   * @return the mean latency in milliseconds.
+   */
+  double getCheckpointOperationMeanLatency();
+
+  /**
+   * Gets the latency under which are performed 99% of the operations on the checkpoints.
+   * @return the 99th percentile of the latency in milliseconds.
+   */
+  double getCheckpointOperation99thPercentileLatency();
+}
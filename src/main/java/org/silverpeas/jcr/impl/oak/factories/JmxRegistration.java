@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.silverpeas.core.util.logging.SilverLogger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+
+/**
+ * Registration of a management bean in the platform MBean server in order to expose to the
+ * sysadmins some metrics or some operations on the node storage. The bean is registered in the
+ * same domain as the management beans of Oak itself. As several repositories can be opened in the
+ * same JVM (the shards of the JCR), the beans of a repository are qualified by the home directory
+ * of the repository. A bean is never registered in place of another one: if a bean is already
+ * registered with the same name, the registration is refused. The registration is closed by
+ * unregistering the bean.
+ * @author mmoquillon
+ */
+class JmxRegistration implements Closeable {
+
+  private static final String DOMAIN = "org.apache.jackrabbit.oak";
+
+  private final ObjectName objectName;
+
+  /**
+   * Registers the specified management bean with the given type and name. If the registration
+   * fails, the failure is logged and the returned registration is a no-op one.
+   * @param mbean the management bean to register.
+   * @param type the type of the bean.
+   * @param name the name of the bean. It has to be unique among the beans of the same type.
+   * @return the registration of the bean.
+   */
+  static JmxRegistration register(final Object mbean, final String type, final String name) {
+    return register(mbean, DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+  }
+
+  /**
+   * Registers the specified management bean of the given repository with the given type and
+   * name. If the registration fails, the failure is logged and the returned registration is a
+   * no-op one.
+   * @param mbean the management bean to register.
+   * @param type the type of the bean.
+   * @param name the name of the bean.
+   * @param repository the absolute path of the home directory of the repository to which the
+   * bean is related.
+   * @return the registration of the bean.
+   */
+  static JmxRegistration register(final Object mbean, final String type, final String name,
+      final String repository) {
+    return register(mbean, getObjectName(type, name, repository));
+  }
+
+  /**
+   * Gets the name of the management bean of the given repository with the specified type and
+   * name.
+   * @param type the type of the bean.
+   * @param name the name of the bean.
+   * @param repository the absolute path of the home directory of the repository.
+   * @return the object name of the bean in the platform MBean server.
+   */
+  static String getObjectName(final String type, final String name, final String repository) {
+    return DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name) + ",repository=" +
+        ObjectName.quote(Path.of(repository).toAbsolutePath().normalize().toString());
+  }
+
+  private static JmxRegistration register(final Object mbean, final String name) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      ObjectName objectName = new ObjectName(name);
+      server.registerMBean(mbean, objectName);
+      return new JmxRegistration(objectName);
+    } catch (InstanceAlreadyExistsException e) {
+      SilverLogger.getLogger(JmxRegistration.class)
+          .warn("A management bean is already registered as " + name + ": this one isn't");
+      return new JmxRegistration(null);
+    } catch (JMException e) {
+      SilverLogger.getLogger(JmxRegistration.class)
+          .warn("Cannot register the management bean " + name + ": " + e.getMessage());
+      return new JmxRegistration(null);
+    }
+  }
+
+  private JmxRegistration(final ObjectName objectName) {
+    this.objectName = objectName;
+  }
+
+  @Override
+  public void close() {
+    if (objectName == null) {
+      return;
+    }
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    } catch (JMException e) {
+      SilverLogger.getLogger(this).silent(e);
+    }
+  }
+}
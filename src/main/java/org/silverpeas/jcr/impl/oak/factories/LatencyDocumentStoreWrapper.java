@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.cache.CacheStats;
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.Document;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStoreException;
+import org.apache.jackrabbit.oak.plugins.document.Throttler;
+import org.apache.jackrabbit.oak.plugins.document.UpdateOp;
+import org.apache.jackrabbit.oak.plugins.document.cache.CacheInvalidationStats;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A wrapper of a {@link DocumentStore} simulating the latency of a remote database: each call
+ * that reaches the wrapped store, that is to say each call other than a cache access, is delayed
+ * by a given amount of time. It is dedicated to wrap an in-memory document store in order to
+ * benchmark or to test the document storage with realistic response times without any database.
+ * <p>
+ * As an in-memory document store can be shared by several document storages (for example to
+ * simulate a cluster of document storages), its disposing is delegated to the given disposal
+ * action instead of being directly performed.
+ * @author mmoquillon
+ */
+class LatencyDocumentStoreWrapper implements DocumentStore {
+
+  private final DocumentStore store;
+  private final long latency;
+  private final Runnable disposal;
+
+  /**
+   * Wraps the specified document store.
+   * @param store the document store to wrap.
+   * @param latencyInMicros the latency in microseconds to add to each call of the store. 0 for
+   * none.
+   * @param disposal the action to perform when this store is disposed.
+   */
+  LatencyDocumentStoreWrapper(final DocumentStore store, final long latencyInMicros,
+      final Runnable disposal) {
+    this.store = store;
+    this.latency = TimeUnit.MICROSECONDS.toNanos(latencyInMicros);
+    this.disposal = disposal;
+  }
+
+  private void delay() {
+    if (latency > 0) {
+      long deadline = System.nanoTime() + latency;
+      long remaining = latency;
+      while (remaining > 0) {
+        LockSupport.parkNanos(remaining);
+        remaining = deadline - System.nanoTime();
+      }
+    }
+  }
+
+  @Override
+  public <T extends Document> T find(final Collection<T> collection, final String key) {
+    delay();
+    return store.find(collection, key);
+  }
+
+  @Override
+  public <T extends Document> T find(final Collection<T> collection, final String key,
+      final int maxCacheAge) {
+    delay();
+    return store.find(collection, key, maxCacheAge);
+  }
+
+  @Override
+  public <T extends Document> List<T> query(final Collection<T> collection, final String fromKey,
+      final String toKey, final int limit) {
+    delay();
+    return store.query(collection, fromKey, toKey, limit);
+  }
+
+  @Override
+  public <T extends Document> List<T> query(final Collection<T> collection, final String fromKey,
+      final String toKey, final String indexedProperty, final long startValue, final int limit) {
+    delay();
+    return store.query(collection, fromKey, toKey, indexedProperty, startValue, limit);
+  }
+
+  @Override
+  public <T extends Document> void remove(final Collection<T> collection, final String key) {
+    delay();
+    store.remove(collection, key);
+  }
+
+  @Override
+  public <T extends Document> void remove(final Collection<T> collection,
+      final List<String> keys) {
+    delay();
+    store.remove(collection, keys);
+  }
+
+  @Override
+  public <T extends Document> int remove(final Collection<T> collection,
+      final Map<String, Long> toRemove) {
+    delay();
+    return store.remove(collection, toRemove);
+  }
+
+  @Override
+  public <T extends Document> int remove(final Collection<T> collection,
+      final String indexedProperty, final long startValue, final long endValue)
+      throws DocumentStoreException {
+    delay();
+    return store.remove(collection, indexedProperty, startValue, endValue);
+  }
+
+  @Override
+  public <T extends Document> boolean create(final Collection<T> collection,
+      final List<UpdateOp> updateOps) {
+    delay();
+    return store.create(collection, updateOps);
+  }
+
+  @Override
+  public <T extends Document> T createOrUpdate(final Collection<T> collection,
+      final UpdateOp update) {
+    delay();
+    return store.createOrUpdate(collection, update);
+  }
+
+  @Override
+  public <T extends Document> List<T> createOrUpdate(final Collection<T> collection,
+      final List<UpdateOp> updateOps) {
+    delay();
+    return store.createOrUpdate(collection, updateOps);
+  }
+
+  @Override
+  public <T extends Document> T findAndUpdate(final Collection<T> collection,
+      final UpdateOp update) {
+    delay();
+    return store.findAndUpdate(collection, update);
+  }
+
+  @Override
+  public <T extends Document> void prefetch(final Collection<T> collection,
+      final Iterable<String> keys) {
+    delay();
+    store.prefetch(collection, keys);
+  }
+
+  @Override
+  public CacheInvalidationStats invalidateCache() {
+    return store.invalidateCache();
+  }
+
+  @Override
+  public CacheInvalidationStats invalidateCache(final Iterable<String> keys) {
+    return store.invalidateCache(keys);
+  }
+
+  @Override
+  public <T extends Document> void invalidateCache(final Collection<T> collection,
+      final String key) {
+    store.invalidateCache(collection, key);
+  }
+
+  @Override
+  public void dispose() {
+    disposal.run();
+  }
+
+  @Override
+  public <T extends Document> T getIfCached(final Collection<T> collection, final String key) {
+    return store.getIfCached(collection, key);
+  }
+
+  @Override
+  public void setReadWriteMode(final String readWriteMode) {
+    store.setReadWriteMode(readWriteMode);
+  }
+
+  @Override
+  public Iterable<CacheStats> getCacheStats() {
+    return store.getCacheStats();
+  }
+
+  @Override
+  public Map<String, String> getMetadata() {
+    return store.getMetadata();
+  }
+
+  @Override
+  public Map<String, String> getStats() {
+    return store.getStats();
+  }
+
+  @Override
+  public long determineServerTimeDifferenceMillis() {
+    return store.determineServerTimeDifferenceMillis();
+  }
+
+  @Override
+  public int getNodeNameLimit() {
+    return store.getNodeNameLimit();
+  }
+
+  @Override
+  public Throttler throttler() {
+    return store.throttler();
+  }
+}
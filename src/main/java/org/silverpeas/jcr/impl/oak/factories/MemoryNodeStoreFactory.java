@@ -26,22 +26,55 @@ package org.silverpeas.jcr.impl.oak.factories;
 
 import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.silverpeas.core.util.StringUtil;
+import org.silverpeas.jcr.impl.oak.configuration.MemoryNodeStoreConfiguration;
 import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
 
+import java.nio.file.Path;
+
 /**
  * Factory of a {@link MemoryNodeStore} instance. This is for the memory storage in Oak for testing
  * purpose.
+ * <p>
+ * The memory storage can be initialized from a snapshot of a previous memory storage in order to
+ * start with an already populated repository. The snapshot can be saved either on demand through
+ * JMX or at the disposal of the storage.
  * @author mmoquillon
  */
 public class MemoryNodeStoreFactory implements NodeStoreFactory {
 
+  private MemoryStoreSnapshot snapshot;
+  private JmxRegistration registration;
+  private boolean saveOnDispose;
+
   @Override
   public NodeStore create(final String jcrHomePath, final OakRepositoryConfiguration conf) {
-    return new MemoryNodeStore();
+    MemoryNodeStoreConfiguration parameters = conf.getMemoryNodeStoreConfiguration();
+    if (StringUtil.isNotDefined(parameters.getSnapshotPath())) {
+      return new MemoryNodeStore();
+    }
+    Path snapshotPath = Path.of(parameters.getSnapshotPath());
+    snapshot = MemoryStoreSnapshot.load(
+        snapshotPath.isAbsolute() ? snapshotPath : Path.of(jcrHomePath).resolve(snapshotPath));
+    saveOnDispose = parameters.isSnapshotSavedOnDispose();
+    registration = JmxRegistration.register(snapshot, MemoryStoreSnapshotMBean.TYPE,
+        "Memory Store Snapshot", jcrHomePath);
+    return snapshot.getNodeStore();
   }
 
   @Override
   public void dispose(final NodeStore store) {
-    // nothing to do here
+    if (snapshot == null || snapshot.getNodeStore() != store) {
+      return;
+    }
+    registration.close();
+    try {
+      if (saveOnDispose) {
+        snapshot.save();
+      }
+    } finally {
+      snapshot.close();
+      snapshot = null;
+    }
   }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders;
+import org.apache.jackrabbit.oak.segment.file.FileStore;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.util.logging.SilverLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Snapshot of the content of a memory storage. A snapshot is a segment storage into which the
+ * content of the memory storage is saved and from which a new memory storage can be initialized.
+ * <p>
+ * The snapshot isn't copied into memory at the initialization of the memory storage: it is opened
+ * in read-only mode and its nodes are loaded on demand, only once read. The changes are then kept
+ * in memory over the content of the snapshot, that is never modified. So, a memory storage is
+ * ready in a few milliseconds whatever the size of its snapshot. The snapshot is then closed with
+ * the memory storage.
+ * <p>
+ * Saving the memory storage writes its whole content into a new snapshot that replaces the
+ * previous one. As the previous snapshot can be yet read by the memory storage, it is kept aside
+ * up to the closing of the memory storage.
+ * @author mmoquillon
+ */
+class MemoryStoreSnapshot implements MemoryStoreSnapshotMBean, Closeable {
+
+  private static final String JOURNAL = "journal.log";
+  private static final String IN_PROGRESS_SUFFIX = ".inprogress";
+  private static final String REPLACED_SUFFIX = ".replaced";
+
+  private final Path snapshot;
+  private final MemoryNodeStore store;
+  private final ReadOnlyFileStore snapshotStore;
+  private Path snapshotStorePath;
+
+  /**
+   * Initializes a new memory storage from the snapshot located in the specified directory. If
+   * there is no snapshot in this directory, the memory storage is empty.
+   * @param snapshot the path of the directory of the snapshot.
+   * @return the snapshot of the initialized memory storage.
+   * @throws SilverpeasRuntimeException if the snapshot cannot be read.
+   */
+  static MemoryStoreSnapshot load(final Path snapshot) {
+    if (!Files.exists(snapshot.resolve(JOURNAL))) {
+      return new MemoryStoreSnapshot(snapshot, new MemoryNodeStore(), null);
+    }
+    try {
+      ReadOnlyFileStore fs = FileStoreBuilder.fileStoreBuilder(snapshot.toFile()).buildReadOnly();
+      SegmentNodeStore sns = SegmentNodeStoreBuilders.builder(fs).build();
+      return new MemoryStoreSnapshot(snapshot, new MemoryNodeStore(sns.getRoot()), fs);
+    } catch (InvalidFileStoreVersionException | IOException e) {
+      throw new SilverpeasRuntimeException(e);
+    }
+  }
+
+  private MemoryStoreSnapshot(final Path snapshot, final MemoryNodeStore store,
+      final ReadOnlyFileStore snapshotStore) {
+    this.snapshot = snapshot;
+    this.store = store;
+    this.snapshotStore = snapshotStore;
+    this.snapshotStorePath = snapshot;
+  }
+
+  /**
+   * Gets the memory storage initialized from this snapshot.
+   * @return the memory storage.
+   */
+  MemoryNodeStore getNodeStore() {
+    return store;
+  }
+
+  @Override
+  public String saveSnapshot() {
+    return save().toString();
+  }
+
+  /**
+   * Saves the content of the memory storage into a new snapshot that replaces the previous one.
+   * @return the path of the directory of the snapshot.
+   * @throws SilverpeasRuntimeException if the snapshot cannot be written.
+   */
+  synchronized Path save() {
+    long start = System.currentTimeMillis();
+    Path inProgress = snapshot.resolveSibling(snapshot.getFileName() + IN_PROGRESS_SUFFIX);
+    try {
+      deleteDirectory(inProgress);
+      write(store.getRoot(), inProgress);
+      if (snapshotStore != null && snapshotStorePath.equals(snapshot)) {
+        Path replaced = snapshot.resolveSibling(snapshot.getFileName() + REPLACED_SUFFIX);
+        deleteDirectory(replaced);
+        Files.move(snapshot, replaced, StandardCopyOption.ATOMIC_MOVE);
+        snapshotStorePath = replaced;
+      } else {
+        deleteDirectory(snapshot);
+      }
+      Files.move(inProgress, snapshot, StandardCopyOption.ATOMIC_MOVE);
+      SilverLogger.getLogger(this)
+          .info("Memory storage saved into {0} in {1} ms", snapshot,
+              System.currentTimeMillis() - start);
+      return snapshot;
+    } catch (IOException | InvalidFileStoreVersionException | CommitFailedException e) {
+      throw new SilverpeasRuntimeException(e);
+    }
+  }
+
+  private static void write(final NodeState root, final Path target)
+      throws IOException, InvalidFileStoreVersionException, CommitFailedException {
+    Files.createDirectories(target);
+    FileStore fs = FileStoreBuilder.fileStoreBuilder(target.toFile()).build();
+    try {
+      // the nodes read from the previous snapshot belong to another storage: they are then
+      // fully rewritten into the new one
+      SegmentNodeStore sns = SegmentNodeStoreBuilders.builder(fs).build();
+      NodeBuilder builder = sns.getRoot().builder();
+      for (PropertyState property : root.getProperties()) {
+        builder.setProperty(property);
+      }
+      for (ChildNodeEntry child : root.getChildNodeEntries()) {
+        builder.setChildNode(child.getName(), child.getNodeState());
+      }
+      sns.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    } finally {
+      fs.close();
+    }
+  }
+
+  private static void deleteDirectory(final Path directory) throws IOException {
+    if (Files.exists(directory)) {
+      try (Stream<Path> files = Files.walk(directory)) {
+        for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+          Files.delete(file);
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (snapshotStore == null) {
+      return;
+    }
+    snapshotStore.close();
+    if (!snapshotStorePath.equals(snapshot)) {
+      try {
+        deleteDirectory(snapshotStorePath);
+      } catch (IOException e) {
+        SilverLogger.getLogger(this).warn("Cannot delete the replaced snapshot " +
+            snapshotStorePath + ": " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+/**
+ * Management interface of the snapshot of a memory storage. It allows to save on demand the
+ * content of the memory storage, for example once a test or a demonstration repository is
+ * populated.
+ * @author mmoquillon
+ */
+public interface MemoryStoreSnapshotMBean {
+
+  String TYPE = "MemoryStoreSnapshot";
+
+  /**
+   * Saves the content of the memory storage into its snapshot. The previous snapshot is replaced.
+   * @return the path of the directory of the snapshot.
+   */
+  String saveSnapshot();
+}
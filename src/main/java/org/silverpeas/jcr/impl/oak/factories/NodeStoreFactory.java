@@ -24,9 +24,15 @@
 
 package org.silverpeas.jcr.impl.oak.factories;
 
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.lifecycle.RepositoryInitializer;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
 import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
 
+import java.io.Closeable;
+import java.util.Set;
+
 /**
  * A factory of a {@link NodeStore} objects. The concrete type of the node store is defined by the
  * repository configuration brought by a {@link OakRepositoryConfiguration} instance. A
@@ -48,6 +54,84 @@ public interface NodeStoreFactory {
    */
   NodeStore create(final String jcrHomePath, final OakRepositoryConfiguration conf);
 
+  /**
+   * Gets the initializer of the content of the repository specific to the type of node storage
+   * this factory is in charge of. The initializer is applied once the initial content of the
+   * repository set up. By default, there is no such specific initialization.
+   * @param conf the JCR configuration with the parameters of the node storage.
+   * @return a {@link RepositoryInitializer} instance.
+   */
+  default RepositoryInitializer getRepositoryInitializer(final OakRepositoryConfiguration conf) {
+    return RepositoryInitializer.DEFAULT;
+  }
+
+  /**
+   * Gets the hook to run on each commit into the {@link NodeStore} instance created by this
+   * factory, before the changes are persisted by the store. It is asked once the store created.
+   * By default, there is no such specific hook.
+   * @param conf the JCR configuration with the parameters of the node storage.
+   * @return a {@link CommitHook} instance.
+   */
+  default CommitHook getCommitHook(final OakRepositoryConfiguration conf) {
+    return EmptyHook.INSTANCE;
+  }
+
+  /**
+   * Instruments the specified {@link NodeStore} instance created by this factory in order to
+   * record the latency and the rate of the operations performed on it, the statistics being
+   * exposed through JMX. The instrumentation is done only if it is enabled in the configuration,
+   * otherwise the specified store is returned as such. The returned store is the one to use as
+   * backend by the repository but it is the store created by this factory that has to be
+   * disposed. If the returned store is {@link java.io.Closeable}, it has to be closed before the
+   * disposal of the store created by this factory.
+   * @param store the {@link NodeStore} instance created by this factory.
+   * @param jcrHomePath the path of the home directory of the JCR for which the store has been
+   * created.
+   * @param conf the JCR configuration with the parameters of the node storage.
+   * @return either the instrumented {@link NodeStore} or the specified one if the instrumentation
+   * isn't enabled.
+   */
+  default NodeStore instrument(final NodeStore store, final String jcrHomePath,
+      final OakRepositoryConfiguration conf) {
+    if (!conf.isNodeStoreInstrumented()) {
+      return store;
+    }
+    return InstrumentedNodeStore.decorate(store, jcrHomePath);
+  }
+
+  /**
+   * Reconfigures live the specified {@link NodeStore} instance created by this factory with the
+   * parameters of the given configuration that can be changed at runtime. The other parameters
+   * are left as is: they are taken into account only when the store is created again, id est at
+   * the next restart. By default, no parameter can be changed at runtime.
+   * @param store the {@link NodeStore} instance created by this factory.
+   * @param conf the JCR configuration with the new parameters of the node storage.
+   * @return the names of the configuration parameters applied to the store, whether their value
+   * has changed or not.
+   */
+  default Set<String> reconfigure(final NodeStore store, final OakRepositoryConfiguration conf) {
+    return Set.of();
+  }
+
+  /**
+   * Watches the configuration file from which the specified configuration has been loaded in
+   * order to reconfigure live the specified {@link NodeStore} instance created by this factory
+   * when the file changes. The configuration can also be reloaded on demand through JMX. The
+   * watching is done only if enabled in the configuration but the reloading through JMX is always
+   * available.
+   * @param store the {@link NodeStore} instance created by this factory.
+   * @param jcrHomePath the path of the home directory of the JCR for which the store has been
+   * created.
+   * @param conf the JCR configuration with which the store has been created.
+   * @return a {@link Closeable} object to close before the disposal of the store in order to stop
+   * the watching.
+   * @see #reconfigure(NodeStore, OakRepositoryConfiguration)
+   */
+  default Closeable watch(final NodeStore store, final String jcrHomePath,
+      final OakRepositoryConfiguration conf) {
+    return ConfigurationReload.start(this, store, jcrHomePath, conf);
+  }
+
   /**
    * Disposes the specified {@link NodeStore} instance. The access to the related storage is then
    * closed. It is very important to close the storage at the application shutdown otherwise the
@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.ApplyDiff;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.util.logging.SilverLogger;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+import org.silverpeas.jcr.impl.oak.configuration.StorageType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.StreamSupport;
+
+/**
+ * Tool to migrate the content of a repository from a segment storage to a document storage, or
+ * the reverse. The migration is performed in several passes in order to minimize the downtime:
+ * <ol>
+ *   <li>a checkpoint of the source storage is taken and its content at this checkpoint is copied
+ *   into the target storage, whereas the repository is yet in use,</li>
+ *   <li>as many catch-up passes as required copy the changes done in the source storage since the
+ *   checkpoint of the previous pass, each of them taking a new checkpoint,</li>
+ *   <li>once the repository is stopped, a last catch-up pass copies the last changes and
+ *   completes the migration.</li>
+ * </ol>
+ * The content is split by the top-level nodes, that are mainly the root nodes of the component
+ * instances, and each subtree is copied by a different thread with commits in batches of nodes.
+ * The checkpoint of the last pass is recorded in the target storage. The progress of each pass is
+ * logged.
+ * <p>
+ * The binaries are copied by reference when both the storages share the same blob store;
+ * otherwise they are copied into the target storage. The commit hooks aren't run: the index
+ * content is copied as is, except the asynchronous indexes that are rebuilt as their checkpoints
+ * don't exist in the target storage.
+ * <p>
+ * A segment storage used by a running Silverpeas can be opened only in read-only mode
+ * ({@code segment.readOnly}): its head revisions are then used as checkpoints and they must be
+ * kept by pausing the compaction of the storage up to the end of the migration. A document
+ * storage used by a running Silverpeas has to be opened with another cluster node identifier.
+ * <p>
+ * The tool can be run from the command line with as arguments the path of the JCR home
+ * directory, the path of the JCR configuration file of the source storage, the path of the JCR
+ * configuration file of the target storage, the pass to perform ({@code copy}, {@code catchup} or
+ * {@code complete}) and, optionally, the number of threads.
+ * @author mmoquillon
+ */
+public class NodeStoreMigrator {
+
+  /**
+   * Name of the property of the root node of the target storage recording the checkpoint of the
+   * source storage at which the last pass of the migration was performed.
+   */
+  static final String MIGRATION_CHECKPOINT = ":migrationCheckpoint";
+
+  private static final long CHECKPOINT_LIFETIME = TimeUnit.DAYS.toMillis(30);
+  private static final int BATCH_SIZE = 1000;
+  private static final long PROGRESS_LOG_INTERVAL = 100000;
+
+  private final String jcrHomePath;
+  private final OakRepositoryConfiguration sourceConf;
+  private final OakRepositoryConfiguration targetConf;
+  private final int threads;
+
+  /**
+   * Performs a pass of the migration.
+   * @param args the path of the JCR home directory, the path of the configuration file of the
+   * source storage, the path of the configuration file of the target storage, the pass to perform
+   * and optionally the number of threads.
+   * @throws IOException if a configuration file cannot be read.
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 4) {
+      throw new IllegalArgumentException("Expected arguments: JCR_HOME SOURCE_CONFIGURATION_FILE " +
+          "TARGET_CONFIGURATION_FILE copy|catchup|complete [THREADS]");
+    }
+    int threads =
+        args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+    NodeStoreMigrator migrator = new NodeStoreMigrator(args[0],
+        OakRepositoryConfiguration.load(args[1]), OakRepositoryConfiguration.load(args[2]),
+        threads);
+    switch (args[3]) {
+      case "copy":
+        migrator.copy();
+        break;
+      case "catchup":
+        migrator.catchUp();
+        break;
+      case "complete":
+        migrator.complete();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown migration pass: " + args[3]);
+    }
+  }
+
+  /**
+   * Constructs a new migrator of the content of a repository between the two specified storages.
+   * @param jcrHomePath the absolute path of the home directory of the JCR.
+   * @param sourceConf the JCR configuration of the source storage. It must define either a segment
+   * or a document storage.
+   * @param targetConf the JCR configuration of the target storage. It must define either a segment
+   * or a document storage.
+   * @param threads the number of threads copying the content.
+   */
+  public NodeStoreMigrator(final String jcrHomePath, final OakRepositoryConfiguration sourceConf,
+      final OakRepositoryConfiguration targetConf, final int threads) {
+    getFactory(sourceConf);
+    getFactory(targetConf);
+    if (threads <= 0) {
+      throw new IllegalArgumentException("The number of threads must be positive");
+    }
+    this.jcrHomePath = jcrHomePath;
+    this.sourceConf = sourceConf;
+    this.targetConf = targetConf;
+    this.threads = threads;
+  }
+
+  /**
+   * Copies the content of the source storage at a new checkpoint into the target storage. The
+   * target storage must be empty.
+   * @return the checkpoint of the source storage at which the content was copied.
+   * @throws SilverpeasRuntimeException if the copy fails.
+   */
+  public String copy() {
+    return migrate((source, target) -> {
+      // the hidden nodes can be created by the storage itself at its opening
+      NodeState targetRoot = target.getRoot();
+      if (targetRoot.hasProperty(MIGRATION_CHECKPOINT) ||
+          StreamSupport.stream(targetRoot.getChildNodeNames().spliterator(), false)
+              .anyMatch(n -> !n.startsWith(":"))) {
+        throw new SilverpeasRuntimeException("The target storage isn't empty");
+      }
+      String checkpoint = checkpoint(source);
+      NodeState after = retrieve(source, checkpoint);
+      Progress progress = new Progress("copy");
+      runInParallel(after, after, name -> {
+        Batch batch = new Batch(target, progress);
+        copy(after.getChildNode(name), "/" + name, batch);
+        batch.commit();
+      }, progress);
+      commitRoot(target, after, checkpoint);
+      progress.done();
+      return checkpoint;
+    });
+  }
+
+  /**
+   * Copies into the target storage the changes done in the source storage since the checkpoint of
+   * the previous pass. A new checkpoint is taken and the previous one is released.
+   * @return the checkpoint of the source storage up to which the changes were copied.
+   * @throws SilverpeasRuntimeException if there is no previous pass or if its checkpoint doesn't
+   * exist anymore.
+   */
+  public String catchUp() {
+    return migrate(this::catchUp);
+  }
+
+  /**
+   * Copies into the target storage the last changes done in the source storage and completes the
+   * migration: the checkpoint of the last pass is released and it isn't anymore recorded in the
+   * target storage. The source storage must not be modified anymore.
+   * @throws SilverpeasRuntimeException if there is no previous pass or if its checkpoint doesn't
+   * exist anymore.
+   */
+  public void complete() {
+    migrate((source, target) -> {
+      String checkpoint = catchUp(source, target);
+      NodeBuilder root = target.getRoot().builder();
+      root.removeProperty(MIGRATION_CHECKPOINT);
+      target.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+      source.release(checkpoint);
+      SilverLogger.getLogger(this).info("Migration completed");
+      return checkpoint;
+    });
+  }
+
+  private String catchUp(final NodeStore source, final NodeStore target)
+      throws CommitFailedException {
+    String previous = target.getRoot().getString(MIGRATION_CHECKPOINT);
+    if (previous == null) {
+      throw new SilverpeasRuntimeException("No previous migration pass in the target storage");
+    }
+    NodeState before = retrieve(source, previous);
+    String checkpoint = checkpoint(source);
+    NodeState after = retrieve(source, checkpoint);
+    Progress progress = new Progress("catch-up");
+    runInParallel(after, before, name -> {
+      NodeBuilder root = target.getRoot().builder();
+      NodeState child = after.getChildNode(name);
+      if (child.exists()) {
+        child.compareAgainstBaseState(before.getChildNode(name), new ApplyDiff(root.child(name)));
+      } else {
+        root.getChildNode(name).remove();
+      }
+      target.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    }, progress);
+    commitRoot(target, after, checkpoint);
+    source.release(previous);
+    progress.done();
+    return checkpoint;
+  }
+
+  private String migrate(final Pass pass) {
+    NodeStoreFactory sourceFactory = getFactory(sourceConf);
+    NodeStoreFactory targetFactory = getFactory(targetConf);
+    NodeStore source = sourceFactory.create(jcrHomePath, sourceConf);
+    try {
+      NodeStore target = targetFactory.create(jcrHomePath, targetConf);
+      try {
+        return pass.run(source, target);
+      } finally {
+        targetFactory.dispose(target);
+      }
+    } catch (CommitFailedException e) {
+      throw new SilverpeasRuntimeException(e);
+    } finally {
+      sourceFactory.dispose(source);
+    }
+  }
+
+  private static NodeStoreFactory getFactory(final OakRepositoryConfiguration conf) {
+    StorageType type = conf.getStorageType();
+    if (type == StorageType.SEGMENT_NODE_STORE) {
+      return new SegmentNodeStoreFactory();
+    } else if (type == StorageType.DOCUMENT_NODE_STORE) {
+      return new DocumentNodeStoreFactory();
+    }
+    throw new IllegalArgumentException("Only a segment or a document storage can be migrated");
+  }
+
+  private String checkpoint(final NodeStore source) {
+    return source.checkpoint(CHECKPOINT_LIFETIME,
+        Map.of("creator", NodeStoreMigrator.class.getSimpleName()));
+  }
+
+  private NodeState retrieve(final NodeStore source, final String checkpoint) {
+    NodeState state = source.retrieve(checkpoint);
+    if (state == null) {
+      throw new SilverpeasRuntimeException(
+          "The checkpoint " + checkpoint + " doesn't exist anymore in the source storage");
+    }
+    return state;
+  }
+
+  private void runInParallel(final NodeState after, final NodeState before, final Task task,
+      final Progress progress) {
+    // only the subtrees that differ are handled
+    Set<String> names = new LinkedHashSet<>();
+    after.getChildNodeNames().forEach(names::add);
+    before.getChildNodeNames().forEach(names::add);
+    if (before != after) {
+      names.removeIf(n -> after.getChildNode(n).equals(before.getChildNode(n)));
+    }
+    progress.start(names.size());
+    AtomicInteger counter = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "silverpeas-jcr-migration-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<?>> subtrees = new ArrayList<>(names.size());
+      for (String name : names) {
+        subtrees.add(executor.submit(() -> {
+          task.run(name);
+          progress.subtreeDone(name);
+          return null;
+        }));
+      }
+      for (Future<?> subtree : subtrees) {
+        subtree.get();
+      }
+    } catch (ExecutionException e) {
+      throw new SilverpeasRuntimeException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SilverpeasRuntimeException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void copy(final NodeState node, final String path, final Batch batch)
+      throws CommitFailedException {
+    NodeBuilder builder = batch.getBuilder(path);
+    for (PropertyState property : node.getProperties()) {
+      builder.setProperty(property);
+    }
+    batch.nodeCopied();
+    for (ChildNodeEntry child : node.getChildNodeEntries()) {
+      copy(child.getNodeState(), PathUtils.concat(path, child.getName()), batch);
+    }
+  }
+
+  private static void commitRoot(final NodeStore target, final NodeState after,
+      final String checkpoint) throws CommitFailedException {
+    NodeBuilder root = target.getRoot().builder();
+    for (PropertyState property : root.getProperties()) {
+      if (!after.hasProperty(property.getName())) {
+        root.removeProperty(property.getName());
+      }
+    }
+    for (PropertyState property : after.getProperties()) {
+      root.setProperty(property);
+    }
+    root.setProperty(MIGRATION_CHECKPOINT, checkpoint);
+    target.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+  }
+
+  @FunctionalInterface
+  private interface Pass {
+    String run(NodeStore source, NodeStore target) throws CommitFailedException;
+  }
+
+  @FunctionalInterface
+  private interface Task {
+    void run(String name) throws CommitFailedException;
+  }
+
+  /**
+   * The copy of a subtree into the target storage with commits in batches of nodes. The builder
+   * of a node is got from the root one at each node because the builders are reset at each commit.
+   */
+  private static class Batch {
+    private final NodeStore target;
+    private final Progress progress;
+    private NodeBuilder root;
+    private int size = 0;
+
+    private Batch(final NodeStore target, final Progress progress) {
+      this.target = target;
+      this.progress = progress;
+      this.root = target.getRoot().builder();
+    }
+
+    private NodeBuilder getBuilder(final String path) {
+      NodeBuilder builder = root;
+      for (String name : PathUtils.elements(path)) {
+        builder = builder.child(name);
+      }
+      return builder;
+    }
+
+    private void nodeCopied() throws CommitFailedException {
+      size++;
+      if (size >= BATCH_SIZE) {
+        commit();
+      }
+    }
+
+    private void commit() throws CommitFailedException {
+      target.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+      root = target.getRoot().builder();
+      progress.nodesCopied(size);
+      size = 0;
+    }
+  }
+
+  /**
+   * The progress of a pass of the migration, logged periodically.
+   */
+  private static class Progress {
+    private final String pass;
+    private final long start = System.currentTimeMillis();
+    private final AtomicLong nodes = new AtomicLong();
+    private final AtomicInteger subtreesDone = new AtomicInteger();
+    private int subtrees;
+
+    private Progress(final String pass) {
+      this.pass = pass;
+    }
+
+    private void start(final int subtrees) {
+      this.subtrees = subtrees;
+      SilverLogger.getLogger(this).info("Migration {0}: {1} subtrees to migrate", pass, subtrees);
+    }
+
+    private void nodesCopied(final int count) {
+      long total = nodes.addAndGet(count);
+      if (total / PROGRESS_LOG_INTERVAL != (total - count) / PROGRESS_LOG_INTERVAL) {
+        SilverLogger.getLogger(this).info("Migration {0}: {1} nodes copied in {2} s", pass, total,
+            elapsed());
+      }
+    }
+
+    private void subtreeDone(final String name) {
+      SilverLogger.getLogger(this).info("Migration {0}: subtree /{1} done ({2}/{3}) in {4} s",
+          pass, name, subtreesDone.incrementAndGet(), subtrees, elapsed());
+    }
+
+    private void done() {
+      // the nodes are counted only by the copy: the catch-up applies the changes by subtree
+      SilverLogger.getLogger(this).info("Migration {0} done in {1} s: {2} subtrees migrated, {3} " +
+          "nodes copied", pass, elapsed(), subtreesDone.get(), nodes.get());
+    }
+
+    private long elapsed() {
+      return (System.currentTimeMillis() - start) / 1000;
+    }
+  }
+}
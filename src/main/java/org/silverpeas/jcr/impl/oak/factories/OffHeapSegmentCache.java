@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.commons.Buffer;
+import org.apache.jackrabbit.oak.segment.spi.persistence.persistentcache.AbstractPersistentCache;
+import org.apache.jackrabbit.oak.segment.spi.persistence.persistentcache.SegmentCacheStats;
+import org.silverpeas.jcr.impl.oak.configuration.SegmentNodeStoreConfiguration.CacheAdmissionPolicy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A second-level cache of segments in direct memory, that is to say out of the heap of the JVM. It
+ * sits between the segment cache of the {@link org.apache.jackrabbit.oak.segment.file.FileStore},
+ * in the heap, and the readers of the TAR files: the segments that are evicted from the segment
+ * cache and that are again required are then read from this cache instead of from the TAR files.
+ * As the segments are kept out of the heap, the size of this cache has no impact on the garbage
+ * collection pauses of the JVM.
+ * <p>
+ * The reads of the cache take no lock: the segments are kept in a concurrent map and a read only
+ * marks the segment as recently used. The entries are evicted in an approximation of the least
+ * recently used order, the CLOCK algorithm: the segments are walked in their order of admission
+ * and a segment marked as recently used gets a second chance, that is to say it is unmarked and
+ * moved after the others instead of being evicted. Only the admissions and the evictions, done on
+ * the cache misses, are serialized. Once the cache is full, the admission of a new segment
+ * depends on the {@link CacheAdmissionPolicy} set: either any new segment is admitted in place of
+ * the least recently used ones ({@link CacheAdmissionPolicy#LRU}) or it is admitted only if it is
+ * at least as frequently accessed as them ({@link CacheAdmissionPolicy#LFU}). The access
+ * frequencies are estimated with a small count-min sketch whose counters are periodically halved
+ * so that the frequencies reflect the recent accesses.
+ * <p>
+ * The statistics on the hits, misses, loads and evictions of the cache are provided by
+ * {@link #getCacheStats()}.
+ * @author mmoquillon
+ */
+class OffHeapSegmentCache extends AbstractPersistentCache {
+
+  static final String NAME = "Segment Off-Heap Cache";
+
+  private final long maxSize;
+  private final Map<UUID, Entry> segments = new ConcurrentHashMap<>(1024);
+  // the clock of the entries in their order of admission, guarded by its own lock
+  private final Deque<Entry> clock = new ArrayDeque<>(1024);
+  private final FrequencySketch frequencies;
+  private final AtomicLong evictionCount = new AtomicLong(0);
+
+  /**
+   * Constructs a new off-heap segment cache.
+   * @param maxSizeInMB the maximum size of the cache in MB.
+   * @param policy the admission policy of the segments once the cache is full.
+   */
+  OffHeapSegmentCache(final int maxSizeInMB, final CacheAdmissionPolicy policy) {
+    this.maxSize = maxSizeInMB * 1024L * 1024L;
+    // a segment is at most 256KB; the sketch is sized for the maximum number of segments
+    this.frequencies = policy == CacheAdmissionPolicy.LFU ?
+        new FrequencySketch((int) Math.min(maxSize / (256 * 1024L), 1 << 24)) : null;
+    this.segmentCacheStats =
+        new SegmentCacheStats(NAME, () -> maxSize, this::getElementCount, cacheSize::get,
+            evictionCount::get);
+  }
+
+  @Override
+  protected Buffer readSegmentInternal(final long msb, final long lsb) {
+    UUID id = new UUID(msb, lsb);
+    if (frequencies != null) {
+      frequencies.increment(id);
+    }
+    Entry entry = segments.get(id);
+    if (entry == null) {
+      return null;
+    }
+    entry.markAsUsed();
+    return entry.segment.duplicate();
+  }
+
+  @Override
+  public boolean containsSegment(final long msb, final long lsb) {
+    return segments.containsKey(new UUID(msb, lsb));
+  }
+
+  @Override
+  public void writeSegment(final long msb, final long lsb, final Buffer buffer) {
+    int length = buffer.remaining();
+    UUID id = new UUID(msb, lsb);
+    if (length > maxSize || containsSegment(msb, lsb)) {
+      return;
+    }
+    Buffer copy = Buffer.allocateDirect(length);
+    copy.put(buffer.duplicate());
+    copy.flip();
+    synchronized (clock) {
+      if (!segments.containsKey(id) && admit(id, length)) {
+        Entry entry = new Entry(id, copy);
+        segments.put(id, entry);
+        clock.addLast(entry);
+        cacheSize.addAndGet(length);
+      }
+    }
+  }
+
+  @Override
+  public void cleanUp() {
+    synchronized (clock) {
+      while (cacheSize.get() > maxSize && !clock.isEmpty()) {
+        evict(nextVictim());
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    synchronized (clock) {
+      clock.clear();
+      segments.clear();
+      cacheSize.set(0);
+    }
+  }
+
+  private long getElementCount() {
+    return segments.size();
+  }
+
+  /**
+   * Makes room for a new segment of the specified length by evicting the least recently used
+   * segments. With the LFU admission policy, the segment isn't admitted if one of the segments to
+   * evict is more frequently accessed than it; they are then kept at the head of the clock. Must
+   * be invoked with the lock on the clock.
+   */
+  private boolean admit(final UUID id, final int length) {
+    long toFree = cacheSize.get() + length - maxSize;
+    if (toFree <= 0) {
+      return true;
+    }
+    if (frequencies != null) {
+      int frequency = frequencies.frequency(id);
+      List<Entry> victims = new ArrayList<>();
+      long freed = 0;
+      while (freed < toFree && !clock.isEmpty()) {
+        Entry victim = nextVictim();
+        victims.add(victim);
+        freed += victim.segment.limit();
+        if (frequencies.frequency(victim.id) > frequency) {
+          for (int i = victims.size() - 1; i >= 0; i--) {
+            clock.addFirst(victims.get(i));
+          }
+          return false;
+        }
+      }
+      victims.forEach(this::evict);
+    } else {
+      while (cacheSize.get() + length > maxSize && !clock.isEmpty()) {
+        evict(nextVictim());
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Takes from the clock the next segment to evict: the segments recently used met on the way
+   * are unmarked and moved at the tail of the clock. Must be invoked with the lock on the clock
+   * and with a clock not empty.
+   */
+  private Entry nextVictim() {
+    Entry entry = clock.pollFirst();
+    while (entry.used) {
+      entry.used = false;
+      clock.addLast(entry);
+      entry = clock.pollFirst();
+    }
+    return entry;
+  }
+
+  private void evict(final Entry victim) {
+    segments.remove(victim.id);
+    cacheSize.addAndGet(-victim.segment.limit());
+    evictionCount.incrementAndGet();
+  }
+
+  /**
+   * A segment in the cache with its mark of recent use.
+   */
+  private static class Entry {
+    private final UUID id;
+    private final Buffer segment;
+    private volatile boolean used = false;
+
+    private Entry(final UUID id, final Buffer segment) {
+      this.id = id;
+      this.segment = segment;
+    }
+
+    private void markAsUsed() {
+      // the mark is written only if required so that the hot segments are read without any write
+      if (!used) {
+        used = true;
+      }
+    }
+  }
+
+  /**
+   * A count-min sketch estimating the access frequency of the segments with 4-bit counters. Once
+   * the number of accesses reaches a sample size, all the counters are halved in order to age the
+   * frequencies. The counters are updated by the concurrent reads without any synchronization: an
+   * increment lost in a race only makes the estimation a little less accurate, which is harmless
+   * for an estimation.
+   */
+  private static class FrequencySketch {
+
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xb2e1a5d1, 0x6f9a7c43, 0x1d8e4b2f};
+
+    private final byte[] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    FrequencySketch(final int maxEntries) {
+      int size = Integer.highestOneBit(Math.max(maxEntries, 64) * 4 - 1) << 1;
+      this.counters = new byte[size];
+      this.mask = size - 1;
+      this.sampleSize = size * 10;
+    }
+
+    void increment(final UUID id) {
+      int hash = id.hashCode();
+      boolean added = false;
+      for (int seed : SEEDS) {
+        int index = index(hash, seed);
+        if (counters[index] < MAX_COUNT) {
+          counters[index]++;
+          added = true;
+        }
+      }
+      if (added && ++additions >= sampleSize) {
+        for (int i = 0; i < counters.length; i++) {
+          counters[i] = (byte) (counters[i] >>> 1);
+        }
+        additions /= 2;
+      }
+    }
+
+    int frequency(final UUID id) {
+      int hash = id.hashCode();
+      int frequency = MAX_COUNT;
+      for (int seed : SEEDS) {
+        frequency = Math.min(frequency, counters[index(hash, seed)]);
+      }
+      return frequency;
+    }
+
+    private int index(final int hash, final int seed) {
+      int h = (hash ^ seed) * 0x9e3779b9;
+      return (h ^ (h >>> 16)) & mask;
+    }
+  }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryChildNodeEntry;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeBuilder;
+import org.apache.jackrabbit.oak.segment.RecordId;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders;
+import org.apache.jackrabbit.oak.segment.SegmentNotFoundException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.JournalReader;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.tar.TarPersistence;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.state.AbstractNodeState;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.ConflictAnnotatingRebaseDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.util.logging.SilverLogger;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.StreamSupport;
+
+/**
+ * A segment storage opened in read-only mode by a secondary process whereas it is yet used by the
+ * primary Silverpeas instance. Unlike a read-write one, a read-only segment storage isn't locked;
+ * it is then a way to run in another JVM some reporting or export processes on the content without
+ * loading the primary one.
+ * <p>
+ * The content is read as it was at the head revision found in the journal at the opening of the
+ * storage or at its last refresh. As the TAR files written since the opening aren't discovered by
+ * the underlying {@link ReadOnlyFileStore}, the refresh opens a new snapshot of the storage when
+ * a new head revision is found in the journal. The replaced snapshot is kept open until the next
+ * refresh so that the reads yet in progress on it can complete. The primary process writes its
+ * head revision into the journal at each flush of the storage, that is every few seconds.
+ * <p>
+ * The changes can be done on the content only transiently: any attempt to commit them fails with
+ * a {@link CommitFailedException}. As no checkpoint can be created, the head revisions are used
+ * as checkpoints.
+ * @author mmoquillon
+ */
+class ReadOnlySegmentStore implements NodeStore, ReadOnlySegmentStoreMBean, Closeable {
+
+  private static final String ROOT = "root";
+
+  private final Path segmentStore;
+  private final TarPersistence persistence;
+  private final Supplier<FileStoreBuilder> builder;
+  private final Deque<Closeable> services = new ArrayDeque<>();
+  private ScheduledExecutorService scheduler;
+  private volatile Snapshot current;
+  private Snapshot previous;
+
+  /**
+   * Opens in read-only mode the segment storage located in the specified directory.
+   * @param segmentStore the path of the directory of the segment storage.
+   * @param builder a supplier of the builders, all configured in the same way, of the file stores
+   * to open on the segment storage: one file store is opened at each new head revision.
+   * @return the segment storage opened in read-only mode.
+   */
+  static ReadOnlySegmentStore open(final Path segmentStore,
+      final Supplier<FileStoreBuilder> builder) {
+    ReadOnlySegmentStore store = new ReadOnlySegmentStore(segmentStore, builder);
+    store.refresh();
+    return store;
+  }
+
+  private ReadOnlySegmentStore(final Path segmentStore, final Supplier<FileStoreBuilder> builder) {
+    this.segmentStore = segmentStore;
+    this.persistence = new TarPersistence(segmentStore.toFile());
+    this.builder = builder;
+  }
+
+  /**
+   * Schedules a refresh of the segment storage at the specified interval.
+   * @param interval the interval in seconds between two refreshes.
+   * @return itself.
+   */
+  ReadOnlySegmentStore schedule(final long interval) {
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "silverpeas-jcr-segment-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        refresh();
+      } catch (Exception e) {
+        SilverLogger.getLogger(this).error("Segment storage refresh failed: " + e.getMessage(), e);
+      }
+    }, interval, interval, TimeUnit.SECONDS);
+    return this;
+  }
+
+  /**
+   * Attaches to this store a service running on it. The attached services are closed in the
+   * reverse order of their attachment before the store is closed.
+   * @param service a service working on the store.
+   */
+  void attach(final Closeable service) {
+    this.services.push(service);
+  }
+
+  @Override
+  public synchronized boolean refresh() {
+    try {
+      String head = readJournalHead();
+      if (head == null) {
+        throw new SilverpeasRuntimeException(
+            "No segment storage to open in read-only mode at " + segmentStore);
+      }
+      if (current != null && head.equals(current.revision)) {
+        return false;
+      }
+      ReadOnlyFileStore fs = builder.get().buildReadOnly();
+      fs.setRevision(head);
+      Snapshot snapshot = new Snapshot(fs, SegmentNodeStoreBuilders.builder(fs).build(), head);
+      if (previous != null) {
+        previous.fs.close();
+      }
+      previous = current;
+      current = snapshot;
+      return true;
+    } catch (InvalidFileStoreVersionException | IOException e) {
+      throw new SilverpeasRuntimeException(e);
+    }
+  }
+
+  @Override
+  public String getHeadRevision() {
+    return current.revision;
+  }
+
+  private String readJournalHead() throws IOException {
+    if (!persistence.getJournalFile().exists()) {
+      return null;
+    }
+    // the journal is read from its end: the first entry is the last head revision
+    try (JournalReader reader = new JournalReader(persistence.getJournalFile())) {
+      return reader.hasNext() ? reader.next().getRevision() : null;
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+    while (!this.services.isEmpty()) {
+      try {
+        this.services.pop().close();
+      } catch (IOException e) {
+        SilverLogger.getLogger(this).error(e.getMessage(), e);
+      }
+    }
+    if (previous != null) {
+      previous.fs.close();
+    }
+    current.fs.close();
+  }
+
+  @Override
+  @Nonnull
+  public NodeState getRoot() {
+    return new ReadOnlyNodeState(current.sns.getRoot());
+  }
+
+  @Override
+  @Nonnull
+  public NodeState merge(
+      @Nonnull final NodeBuilder builder,
+      @Nonnull final CommitHook commitHook,
+      @Nonnull final CommitInfo info) throws CommitFailedException {
+    if (!builder.getNodeState().equals(builder.getBaseState())) {
+      throw new CommitFailedException(CommitFailedException.UNSUPPORTED, 1,
+          "The segment storage is opened in read-only mode");
+    }
+    return reset(builder);
+  }
+
+  @Override
+  @Nonnull
+  public NodeState rebase(@Nonnull final NodeBuilder builder) {
+    NodeState head = builder.getNodeState();
+    NodeState base = builder.getBaseState();
+    NodeState root = reset(builder);
+    head.compareAgainstBaseState(base, new ConflictAnnotatingRebaseDiff(builder));
+    return root;
+  }
+
+  @Override
+  public NodeState reset(@Nonnull final NodeBuilder builder) {
+    if (!(builder instanceof MemoryNodeBuilder)) {
+      throw new IllegalArgumentException(
+          "The builder wasn't acquired from the read-only segment storage");
+    }
+    NodeState root = getRoot();
+    ((MemoryNodeBuilder) builder).reset(root);
+    return root;
+  }
+
+  @Override
+  @Nonnull
+  public Blob createBlob(final InputStream stream) {
+    throw new UnsupportedOperationException("The segment storage is opened in read-only mode");
+  }
+
+  @Override
+  public Blob getBlob(@Nonnull final String reference) {
+    return current.sns.getBlob(reference);
+  }
+
+  /**
+   * No checkpoint can be created in a read-only storage. Instead, the identifier of the head
+   * revision at which the content is currently read is returned: the content at this revision can
+   * then be retrieved later as for a checkpoint, as long as the revision isn't removed by a cleanup
+   * of the storage. A revision cannot be released.
+   * @param lifetime not used.
+   * @param properties not used.
+   * @return the current head revision.
+   */
+  @Override
+  @Nonnull
+  public String checkpoint(final long lifetime, @Nonnull final Map<String, String> properties) {
+    return current.revision;
+  }
+
+  @Override
+  @Nonnull
+  public String checkpoint(final long lifetime) {
+    return current.revision;
+  }
+
+  @Override
+  @Nonnull
+  public Map<String, String> checkpointInfo(@Nonnull final String checkpoint) {
+    return isRevision(checkpoint) ? Map.of() : current.sns.checkpointInfo(checkpoint);
+  }
+
+  @Override
+  @Nonnull
+  public Iterable<String> checkpoints() {
+    return current.sns.checkpoints();
+  }
+
+  @Override
+  public NodeState retrieve(@Nonnull final String checkpoint) {
+    NodeState state;
+    if (isRevision(checkpoint)) {
+      try {
+        ReadOnlyFileStore fs = current.fs;
+        state = fs.getReader()
+            .readNode(RecordId.fromString(fs.getSegmentIdProvider(), checkpoint))
+            .getChildNode(ROOT);
+      } catch (SegmentNotFoundException e) {
+        return null;
+      }
+    } else {
+      state = current.sns.retrieve(checkpoint);
+    }
+    return state == null ? null : new ReadOnlyNodeState(state);
+  }
+
+  @Override
+  public boolean release(@Nonnull final String checkpoint) {
+    return isRevision(checkpoint);
+  }
+
+  private static boolean isRevision(final String checkpoint) {
+    // a revision is the identifier of a record: the segment identifier and the record offset
+    return checkpoint.indexOf(':') > 0;
+  }
+
+  /**
+   * A node state of the read-only segment storage. The builders of a segment node state write
+   * their changes into the segments of the store and then they cannot be modified when the store
+   * is opened in read-only mode, even transiently as Oak does at the initialization of the
+   * repository. This node state provides builders whose the changes are kept in memory only, to
+   * be rejected at commit.
+   */
+  private static class ReadOnlyNodeState extends AbstractNodeState {
+    private final NodeState state;
+
+    private ReadOnlyNodeState(final NodeState state) {
+      this.state = state;
+    }
+
+    @Override
+    public boolean exists() {
+      return state.exists();
+    }
+
+    @Override
+    @Nonnull
+    public Iterable<? extends PropertyState> getProperties() {
+      return state.getProperties();
+    }
+
+    @Override
+    public boolean hasProperty(@Nonnull final String name) {
+      return state.hasProperty(name);
+    }
+
+    @Override
+    public PropertyState getProperty(@Nonnull final String name) {
+      return state.getProperty(name);
+    }
+
+    @Override
+    public long getPropertyCount() {
+      return state.getPropertyCount();
+    }
+
+    @Override
+    public boolean hasChildNode(@Nonnull final String name) {
+      return state.hasChildNode(name);
+    }
+
+    @Override
+    @Nonnull
+    public NodeState getChildNode(@Nonnull final String name) {
+      return new ReadOnlyNodeState(state.getChildNode(name));
+    }
+
+    @Override
+    public long getChildNodeCount(final long max) {
+      return state.getChildNodeCount(max);
+    }
+
+    @Override
+    public Iterable<String> getChildNodeNames() {
+      return state.getChildNodeNames();
+    }
+
+    @Override
+    @Nonnull
+    public Iterable<? extends ChildNodeEntry> getChildNodeEntries() {
+      return () -> StreamSupport.stream(state.getChildNodeEntries().spliterator(), false)
+          .map(e -> (ChildNodeEntry) new MemoryChildNodeEntry(e.getName(),
+              new ReadOnlyNodeState(e.getNodeState())))
+          .iterator();
+    }
+
+    @Override
+    public boolean compareAgainstBaseState(final NodeState base, final NodeStateDiff diff) {
+      NodeState other = base instanceof ReadOnlyNodeState ? ((ReadOnlyNodeState) base).state : base;
+      return state.compareAgainstBaseState(other, diff);
+    }
+
+    @Override
+    @Nonnull
+    public NodeBuilder builder() {
+      return new MemoryNodeBuilder(this);
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+      if (object instanceof ReadOnlyNodeState) {
+        return state.equals(((ReadOnlyNodeState) object).state);
+      }
+      return super.equals(object);
+    }
+
+    @Override
+    public int hashCode() {
+      return super.hashCode();
+    }
+  }
+
+  /**
+   * A snapshot of the segment storage at a given head revision.
+   */
+  private static class Snapshot {
+    private final ReadOnlyFileStore fs;
+    private final SegmentNodeStore sns;
+    private final String revision;
+
+    private Snapshot(final ReadOnlyFileStore fs, final SegmentNodeStore sns,
+        final String revision) {
+      this.fs = fs;
+      this.sns = sns;
+      this.revision = revision;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+/**
+ * Management interface of a segment storage opened in read-only mode by a secondary process. It
+ * allows the sysadmins to refresh on demand the storage in order to see the last changes
+ * committed by the primary process.
+ * @author mmoquillon
+ */
+public interface ReadOnlySegmentStoreMBean {
+
+  String TYPE = "SegmentStoreReadOnly";
+
+  /**
+   * Refreshes the read-only segment storage with the last head revision committed by the primary
+   * process.
+   * @return true if a new head revision was found and loaded, false if the storage was yet up to
+   * date.
+   */
+  boolean refresh();
+
+  /**
+   * Gets the head revision at which the content of the segment storage is currently read.
+   * @return the identifier of the current head revision.
+   */
+  String getHeadRevision();
+}
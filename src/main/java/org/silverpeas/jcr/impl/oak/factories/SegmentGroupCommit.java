@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeBuilder;
+import org.apache.jackrabbit.oak.segment.SegmentNodeState;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.ApplyDiff;
+import org.apache.jackrabbit.oak.spi.state.ConflictAnnotatingRebaseDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Grouping of the concurrent merges into a segment storage. The merges into a segment storage are
+ * serialized: each of them waits for the commit lock, rebases its changes onto the head state,
+ * runs its commit hooks, writes the new head state and then notifies the observers. Under
+ * concurrent writes, the threads queue then behind each other.
+ * </p>
+ * <p>
+ * With the grouping, the merges are queued and a single worker takes them by groups: a group is
+ * made up of the merges queued while the previous group was committed plus those arriving within
+ * a short window, up to a maximum size. The window is open only when the previous group had more
+ * than one merge, so a lone merge isn't delayed. Each merge of the group is rebased onto the state
+ * resulting from the previous ones and its commit hooks are run as with a serialized merge, so a
+ * merge conflicting with a previous one of the group fails alone. The resulting state is then
+ * committed once into the storage and all the callers get it. A group of a single merge is
+ * committed as such.
+ * </p>
+ * <p>
+ * As a group is committed at once, the observers of the storage see it as a single change, whose
+ * commit information refers to the user of the merges only if they are all done by the same user.
+ * The session identifier, the user data and the commit context of each merge aren't passed to the
+ * observers: the commit information of the group is a synthetic one with an unknown session.
+ * </p>
+ * @author mmoquillon
+ */
+class SegmentGroupCommit implements SegmentGroupCommitMBean, Closeable {
+
+  static final String NAME = "Segment Store Group Commit";
+
+  private final NodeStore store;
+  private volatile int maxBatchSize;
+  private volatile long maxWait;
+  private final BlockingQueue<PendingMerge> queue = new LinkedBlockingQueue<>();
+  private final AtomicLong groups = new AtomicLong(0);
+  private final AtomicLong merges = new AtomicLong(0);
+  private volatile boolean closed = false;
+  private Thread worker;
+
+  /**
+   * Starts the grouping of the merges into the specified segment storage.
+   * @param store the node store opened on the segment storage.
+   * @param maxBatchSize the maximum number of merges in a group.
+   * @param maxWait the maximum time in milliseconds to wait for other merges once a first one is
+   * pending.
+   * @return the {@link SegmentGroupCommit} instance. Closing it stops the grouping.
+   */
+  static SegmentGroupCommit start(final NodeStore store, final int maxBatchSize,
+      final long maxWait) {
+    SegmentGroupCommit groupCommit =
+        new SegmentGroupCommit(store, Math.max(1, maxBatchSize), Math.max(0, maxWait));
+    groupCommit.worker = new Thread(groupCommit::run, "silverpeas-jcr-segment-group-commit");
+    groupCommit.worker.setDaemon(true);
+    groupCommit.worker.start();
+    return groupCommit;
+  }
+
+  private SegmentGroupCommit(final NodeStore store, final int maxBatchSize, final long maxWait) {
+    this.store = store;
+    this.maxBatchSize = maxBatchSize;
+    this.maxWait = TimeUnit.MILLISECONDS.toNanos(maxWait);
+  }
+
+  /**
+   * Changes the size and the window of the groups of merges. The change is taken into account
+   * from the next group.
+   * @param maxBatchSize the maximum number of merges in a group.
+   * @param maxWait the maximum time in milliseconds to wait for other merges once a first one is
+   * pending.
+   */
+  void reconfigure(final int maxBatchSize, final long maxWait) {
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+    this.maxWait = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWait));
+  }
+
+  /**
+   * Merges the changes of the specified builder into the segment storage within the next group
+   * of merges. The caller is blocked until the group is committed. Once merged, the builder is
+   * reset to the merged state.
+   * @param builder the builder with the changes to merge.
+   * @param commitHook the hook to apply on the changes.
+   * @param info the information about the commit.
+   * @return the merged state.
+   * @throws CommitFailedException if the merge failed.
+   */
+  NodeState merge(final NodeBuilder builder, final CommitHook commitHook, final CommitInfo info)
+      throws CommitFailedException {
+    if (!(builder instanceof MemoryNodeBuilder)) {
+      throw new IllegalArgumentException("The builder wasn't acquired from a segment storage");
+    }
+    // the changes are written by the caller itself, out of the serialized part of the merge
+    PendingMerge merge =
+        new PendingMerge(builder, builder.getBaseState(), builder.getNodeState(), commitHook, info);
+    queue.add(merge);
+    if (closed && queue.remove(merge)) {
+      merge.fail(storageClosed());
+    }
+    NodeState merged = merge.await();
+    ((MemoryNodeBuilder) builder).reset(merged);
+    return merged;
+  }
+
+  @Override
+  public long getGroupCount() {
+    return groups.get();
+  }
+
+  @Override
+  public long getMergeCount() {
+    return merges.get();
+  }
+
+  @Override
+  public double getAverageGroupSize() {
+    long count = groups.get();
+    return count == 0 ? 0.0 : (double) merges.get() / count;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    worker.interrupt();
+    try {
+      worker.join(10000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    List<PendingMerge> group = new ArrayList<>(maxBatchSize);
+    int previousGroupSize = 1;
+    try {
+      while (!closed) {
+        PendingMerge first = queue.take();
+        int batchSize = maxBatchSize;
+        group.add(first);
+        queue.drainTo(group, batchSize - group.size());
+        if (previousGroupSize > 1) {
+          long deadline = first.queuedAt + maxWait;
+          long wait = deadline - System.nanoTime();
+          while (group.size() < batchSize && wait > 0) {
+            PendingMerge next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            if (next != null) {
+              group.add(next);
+              queue.drainTo(group, batchSize - group.size());
+            }
+            wait = deadline - System.nanoTime();
+          }
+        }
+        commit(group);
+        previousGroupSize = group.size();
+        group.clear();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      queue.drainTo(group);
+      group.forEach(m -> m.fail(storageClosed()));
+    }
+  }
+
+  private void commit(final List<PendingMerge> group) {
+    groups.incrementAndGet();
+    merges.addAndGet(group.size());
+    if (group.size() == 1) {
+      PendingMerge merge = group.get(0);
+      try {
+        merge.done(store.merge(merge.builder, merge.hook, merge.info));
+      } catch (CommitFailedException | RuntimeException e) {
+        merge.fail(e);
+      }
+      return;
+    }
+
+    NodeState head = store.getRoot();
+    NodeState current = head;
+    List<PendingMerge> applied = new ArrayList<>(group.size());
+    for (PendingMerge merge : group) {
+      try {
+        current = write(current, merge.rebaseAndApplyHook(current));
+        applied.add(merge);
+      } catch (CommitFailedException | RuntimeException e) {
+        merge.fail(e);
+      }
+    }
+    if (applied.isEmpty()) {
+      return;
+    }
+    try {
+      NodeBuilder groupBuilder = head.builder();
+      current.compareAgainstBaseState(head, new ApplyDiff(groupBuilder));
+      NodeState merged = store.merge(groupBuilder, EmptyHook.INSTANCE, groupInfo(applied));
+      applied.forEach(m -> m.done(merged));
+    } catch (CommitFailedException | RuntimeException e) {
+      applied.forEach(m -> m.fail(e));
+    }
+  }
+
+  /**
+   * Writes into the segment storage the specified state resulting from the merge of some changes
+   * onto the given one. As with a serialized merge, the written state is then diffed at the
+   * segment level by the commit hooks of the next merge.
+   * @param base a state of the segment storage.
+   * @param state the state to write, resulting from some changes onto the base state.
+   * @return the written state.
+   */
+  private static NodeState write(final NodeState base, final NodeState state) {
+    // the builder of a segment node state writes its state when it is got
+    MemoryNodeBuilder builder = (MemoryNodeBuilder) base.builder();
+    builder.reset(state);
+    return builder.getNodeState();
+  }
+
+  private static CommitInfo groupInfo(final List<PendingMerge> group) {
+    if (group.size() == 1) {
+      return group.get(0).info;
+    }
+    String userId = group.get(0).info.getUserId();
+    boolean sameUser = group.stream().allMatch(m -> Objects.equals(userId, m.info.getUserId()));
+    return new CommitInfo(CommitInfo.OAK_UNKNOWN, sameUser ? userId : null);
+  }
+
+  private static CommitFailedException storageClosed() {
+    return new CommitFailedException(CommitFailedException.OAK, 1,
+        "The segment storage is closed");
+  }
+
+  /**
+   * A merge waiting for its group to be committed.
+   */
+  private static class PendingMerge {
+
+    private final NodeBuilder builder;
+    private final NodeState base;
+    private final NodeState changes;
+    private final CommitHook hook;
+    private final CommitInfo info;
+    private final long queuedAt = System.nanoTime();
+    private final CompletableFuture<NodeState> result = new CompletableFuture<>();
+
+    private PendingMerge(final NodeBuilder builder, final NodeState base, final NodeState changes,
+        final CommitHook hook, final CommitInfo info) {
+      this.builder = builder;
+      this.base = base;
+      this.changes = changes;
+      this.hook = hook;
+      this.info = info;
+    }
+
+    /**
+     * Rebases the changes of this merge onto the specified state and applies on them the commit
+     * hook of the merge.
+     * @param head the state onto which the changes are rebased.
+     * @return the state resulting of the merge.
+     * @throws CommitFailedException if the commit hook rejects the changes.
+     */
+    private NodeState rebaseAndApplyHook(final NodeState head) throws CommitFailedException {
+      NodeState rebased = changes;
+      if (!SegmentNodeState.fastEquals(base, head)) {
+        // rebased in memory as the result of the merge is written afterwards
+        NodeBuilder rebasing = new MemoryNodeBuilder(head);
+        changes.compareAgainstBaseState(base, new ConflictAnnotatingRebaseDiff(rebasing));
+        rebased = rebasing.getNodeState();
+      }
+      return hook.processCommit(head, rebased, info);
+    }
+
+    private void done(final NodeState merged) {
+      result.complete(merged);
+    }
+
+    private void fail(final Exception e) {
+      result.completeExceptionally(e);
+    }
+
+    private NodeState await() throws CommitFailedException {
+      boolean interrupted = false;
+      try {
+        while (true) {
+          try {
+            return result.get();
+          } catch (InterruptedException e) {
+            // the merge can be yet committed with its group: the outcome has to be awaited
+            interrupted = true;
+          }
+        }
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof CommitFailedException) {
+          throw (CommitFailedException) cause;
+        }
+        throw (RuntimeException) cause;
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+}
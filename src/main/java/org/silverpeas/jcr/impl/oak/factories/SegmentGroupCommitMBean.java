@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+/**
+ * Management interface of the grouping of the concurrent merges into a segment storage. It allows
+ * the sysadmins to see how much the merges are coalesced under the current load.
+ * @author mmoquillon
+ */
+public interface SegmentGroupCommitMBean {
+
+  String TYPE = "SegmentStoreGroupCommit";
+
+  /**
+   * Gets the number of commits performed by the grouping of the merges.
+   * @return the number of group commits.
+   */
+  long getGroupCount();
+
+  /**
+   * Gets the number of merges performed, whatever their outcome.
+   * @return the number of merges.
+   */
+  long getMergeCount();
+
+  /**
+   * Gets the average number of merges coalesced into a single commit.
+   * @return the average size of a group of merges.
+   */
+  double getAverageGroupSize();
+}
@@ -26,12 +26,25 @@ package org.silverpeas.jcr.impl.oak.factories;
 
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.jmx.CacheStatsMBean;
+import org.apache.jackrabbit.core.data.DataStoreException;
+import org.apache.jackrabbit.oak.plugins.blob.MarkSweepGarbageCollector;
+import org.apache.jackrabbit.oak.plugins.blob.datastore.DataStoreBlobStore;
+import org.apache.jackrabbit.oak.plugins.blob.datastore.OakFileDataStore;
+import org.apache.jackrabbit.oak.plugins.blob.datastore.SharedDataStoreUtils.SharedStoreRecordType;
+import org.apache.jackrabbit.oak.segment.SegmentBlobReferenceRetriever;
 import org.apache.jackrabbit.oak.segment.SegmentNodeStore;
 import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders;
 import org.apache.jackrabbit.oak.segment.compaction.SegmentGCOptions;
 import org.apache.jackrabbit.oak.segment.file.FileStore;
 import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
 import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.tar.TarPersistence;
+import org.apache.jackrabbit.oak.segment.spi.persistence.SegmentNodeStorePersistence;
+import org.apache.jackrabbit.oak.segment.spi.persistence.persistentcache.CachingPersistence;
+import org.apache.jackrabbit.oak.segment.spi.persistence.split.SplitPersistence;
+import org.apache.jackrabbit.oak.spi.blob.BlobStore;
+import org.apache.jackrabbit.oak.spi.cluster.ClusterRepositoryInfo;
 import org.apache.jackrabbit.oak.spi.commit.CommitHook;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.Observable;
@@ -39,17 +52,29 @@ import org.apache.jackrabbit.oak.spi.commit.Observer;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.apache.jackrabbit.oak.spi.whiteboard.DefaultWhiteboard;
 import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.util.StringUtil;
+import org.silverpeas.core.util.logging.SilverLogger;
 import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
 import org.silverpeas.jcr.impl.oak.configuration.SegmentNodeStoreConfiguration;
+import org.silverpeas.jcr.impl.oak.configuration.SegmentNodeStoreConfiguration.StandbyMode;
 import org.silverpeas.jcr.impl.oak.configuration.StorageType;
 
 import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Factory of a {@link org.apache.jackrabbit.oak.segment.SegmentNodeStore} instance. This is for the
@@ -57,10 +82,54 @@ import java.util.Map;
  * segment storage. If two {@link NodeStore} instances are created for the same storage, then an
  * {@link IllegalStateException} is thrown as only one {@link NodeStore} object can access the
  * underlying storage.
+ * <p>
+ * By default, the binaries are stored within the segments. They can be stored out of the segment
+ * storage into a file data store; in this case the binaries that aren't anymore referenced by the
+ * segments are periodically garbage collected.
+ * <p>
+ * The segment storage can be backed up online into a backup directory, either periodically or on
+ * demand through JMX. The backups are incremental: only the TAR files written since the previous
+ * backup are copied.
+ * <p>
+ * A segment storage can also take part in a cold standby topology, either as the primary storage
+ * or as a standby one following the primary storage. A standby storage is read-only.
+ * <p>
+ * The TAR files can be accessed either through memory mapping or through file channels. Once
+ * opened, the storage can be warmed up in background by preloading its newest TAR files into the
+ * page cache of the system and by traversing some given subtrees of the content.
+ * <p>
+ * The concurrent merges into a segment storage can be grouped so that they are committed at once
+ * instead of waiting for each other behind the commit lock. The changes are made durable either
+ * periodically or at each merge according to the configured durability policy.
+ * <p>
+ * Finally, a segment storage can be split: it is then a writable overlay over a read-only base
+ * segment storage, typically a backup or a snapshot of the production storage. The content of the
+ * base is read as is, without any copy, and only the changes are written into the overlay. This
+ * is a way to clone in a few seconds a whole repository for staging or testing purpose. As the
+ * base can be shared, neither the compaction nor the garbage collection of the binaries are run
+ * on a split storage, and it isn't backed up.
+ * <p>
+ * A segment storage can be opened in read-only mode by a secondary process, like a reporting one,
+ * whereas it is yet used by the primary Silverpeas instance: the storage isn't then locked and its
+ * content is read as it was at the last refresh of the storage, either periodic or on demand
+ * through JMX. None of the above services are run on a storage opened in read-only mode.
+ * <p>
+ * The parameters of the compaction, of the group commit, of the durability and the interval of
+ * the garbage collection of the binaries can be changed at runtime, without reopening the storage.
  * @author mmoquillon
  */
 public class SegmentNodeStoreFactory implements NodeStoreFactory {
 
+  private static final List<String> COMPACTION_PARAMETERS = List.of("segment.compaction.pause",
+      "segment.compaction.retryCount", "segment.compaction.forceTimeout",
+      "segment.compaction.sizeDeltaEstimation", "segment.compaction.disableEstimation",
+      "segment.compaction.memoryThreshold", "segment.compaction.progressLog");
+  private static final List<String> GROUP_COMMIT_PARAMETERS =
+      List.of("segment.groupCommit.maxBatchSize", "segment.groupCommit.maxWait");
+  private static final List<String> DURABILITY_PARAMETERS =
+      List.of("segment.durability", "segment.durability.flushIntervalInMillis");
+  private static final String BLOB_GC_INTERVAL = "segment.blobstore.gc.interval";
+
   /**
    * Creates a {@link SegmentNodeStore} instance for the storage on the filesystem defined in the
    * specified configuration. If such a storage doesn't exist, it is created and initialized before
@@ -85,29 +154,126 @@ public class SegmentNodeStoreFactory implements NodeStoreFactory {
     Path storagePath = Path.of(parameters.getStoragePath());
     Path segmentStore =
         storagePath.isAbsolute() ? storagePath : Path.of(jcrHomePath).resolve(storagePath);
+    DataStoreBlobStore blobStore = createBlobStore(jcrHomePath, parameters);
+    SilverLogger.getLogger(this).info("Segment storage caches: segments {0} MB, strings {1} MB, " +
+            "templates {2} MB, off-heap segments {3} MB", parameters.getSegmentCacheSize(),
+        parameters.getStringCacheSize(), parameters.getTemplateCacheSize(),
+        parameters.isReadOnly() ? 0 : parameters.getOffHeapSegmentCacheSize());
+    if (parameters.isReadOnly()) {
+      return openReadOnly(jcrHomePath, segmentStore, blobStore, parameters);
+    }
+    Path splitBase = getSplitBase(jcrHomePath, parameters);
+    OffHeapSegmentCache offHeapCache = createOffHeapCache(parameters);
+    // the compaction is never run on a split storage as its base can be shared
+    SegmentGCOptions gcOptions = tuneGCOptions(SegmentGCOptions.defaultGCOptions(), parameters,
+        splitBase != null);
     FileStore fs;
     try {
-      fs = FileStoreBuilder.fileStoreBuilder(segmentStore.toFile())
-          .withMaxFileSize(parameters.getTarMaxSize())
-          .withSegmentCacheSize(parameters.getSegmentCacheSize())
-          .withStringCacheSize(parameters.getStringCacheSize())
-          .withTemplateCacheSize(parameters.getTemplateCacheSize())
-          .withStringDeduplicationCacheSize(parameters.getStringDeduplicationCacheSize())
-          .withTemplateDeduplicationCacheSize(parameters.getTemplateDeduplicationCacheSize())
-          .withNodeDeduplicationCacheSize(parameters.getNodeDeduplicationCacheSize())
-          .withGCOptions(SegmentGCOptions.defaultGCOptions()
-              .setPaused(parameters.isPauseCompaction())
-              .setRetryCount(parameters.getCompactionRetryCount())
-              .setForceTimeout(parameters.getCompactionForceTimeout())
-              .setGcSizeDeltaEstimation(parameters.getCompactionSizeDeltaEstimation())
-              .setEstimationDisabled(parameters.isCompactionDisableEstimation())
-              .setMemoryThreshold(parameters.getCompactionMemoryThreshold())
-              .setGCLogInterval(parameters.getCompactionProgressLog()))
-          .build();
+      FileStoreBuilder builder = newFileStoreBuilder(segmentStore, blobStore, parameters,
+          gcOptions);
+      SegmentNodeStorePersistence persistence = new TarPersistence(segmentStore.toFile());
+      if (splitBase != null) {
+        // the overlay is initialized from the head state of the base at its first opening
+        Files.createDirectories(segmentStore);
+        persistence = new SplitPersistence(new TarPersistence(splitBase.toFile()), persistence);
+      }
+      if (offHeapCache != null) {
+        persistence = new CachingPersistence(offHeapCache, persistence);
+      }
+      if (splitBase != null || offHeapCache != null) {
+        builder.withCustomPersistence(persistence);
+      }
+      fs = builder.build();
     } catch (InvalidFileStoreVersionException | IOException e) {
       throw new SilverpeasRuntimeException(e);
     }
-    return new SegmentNodeStoreWrapper(SegmentNodeStoreBuilders.builder(fs).build(), fs);
+    SegmentNodeStore sns = SegmentNodeStoreBuilders.builder(fs).build();
+    StandbyMode standbyMode = parameters.getStandbyMode();
+    SegmentNodeStoreWrapper store =
+        new SegmentNodeStoreWrapper(sns, fs, standbyMode == StandbyMode.STANDBY);
+    store.gcOptions = gcOptions;
+    store.compactionDisabled = splitBase != null;
+    if (standbyMode == StandbyMode.PRIMARY) {
+      store.attach(SegmentStoreStandby.primary(fs, parameters));
+    } else if (standbyMode == StandbyMode.STANDBY) {
+      store.attach(
+          SegmentStoreStandby.standby(fs, Path.of(jcrHomePath), segmentStore, parameters));
+    }
+    if (blobStore != null && parameters.getBlobGCInterval() > 0 &&
+        standbyMode != StandbyMode.STANDBY && splitBase == null) {
+      store.blobGC = scheduleBlobGC(sns, fs, blobStore, parameters);
+      store.attach(store.blobGC);
+      store.attach(JmxRegistration.register(store.blobGC, BlobGarbageCollectionMBean.TYPE,
+          BlobGarbageCollection.NAME, jcrHomePath));
+    }
+    if (offHeapCache != null) {
+      store.attach(offHeapCache);
+      store.attach(JmxRegistration.register(offHeapCache.getCacheStats(), CacheStatsMBean.TYPE,
+          OffHeapSegmentCache.NAME, jcrHomePath));
+    }
+    if (StringUtil.isDefined(parameters.getBackupPath()) && splitBase == null) {
+      store.attach(scheduleBackup(jcrHomePath, sns, fs, segmentStore, parameters));
+    }
+    if (standbyMode != StandbyMode.STANDBY) {
+      SegmentStoreDurability durability = SegmentStoreDurability.start(fs::flush,
+          parameters.getDurabilityPolicy(), parameters.getDurabilityFlushInterval());
+      store.durability(durability);
+      store.attach(JmxRegistration.register(durability, SegmentStoreDurabilityMBean.TYPE,
+          SegmentStoreDurability.NAME, jcrHomePath));
+    }
+    if (parameters.isGroupCommit() && standbyMode != StandbyMode.STANDBY) {
+      SegmentGroupCommit groupCommit = SegmentGroupCommit.start(sns,
+          parameters.getGroupCommitMaxBatchSize(), parameters.getGroupCommitMaxWait());
+      store.groupCommits(groupCommit);
+      SilverLogger.getLogger(this).warn("The concurrent merges into the segment storage are " +
+          "grouped: the JCR events of a group of merges are reported as coming from an unknown " +
+          "session and without the user data of the merges");
+      store.attach(JmxRegistration.register(groupCommit, SegmentGroupCommitMBean.TYPE,
+          SegmentGroupCommit.NAME, jcrHomePath));
+    }
+    if (parameters.getWarmUpSize() > 0 || !parameters.getWarmUpSubtrees().isEmpty()) {
+      store.attach(SegmentStoreWarmUp.start(segmentStore, parameters.getWarmUpSize(),
+          parameters.getWarmUpSubtrees(), sns));
+    }
+    return store;
+  }
+
+  /**
+   * Reconfigures live the specified segment storage with the parameters of the compaction, of the
+   * group commit, of the durability and with the interval of the garbage collection of the
+   * binaries. Each of them is applied only if the related service runs on the storage. Nothing
+   * can be changed on a storage opened in read-only mode.
+   * @param store the {@link NodeStore} instance created by this factory.
+   * @param conf the JCR configuration with the new parameters of the segment storage.
+   * @return the names of the parameters applied live to the storage.
+   * @see NodeStoreFactory#reconfigure(NodeStore, OakRepositoryConfiguration)
+   */
+  @Override
+  public Set<String> reconfigure(final NodeStore store, final OakRepositoryConfiguration conf) {
+    if (!(store instanceof SegmentNodeStoreWrapper)) {
+      return Set.of();
+    }
+    SegmentNodeStoreWrapper wrapper = (SegmentNodeStoreWrapper) store;
+    SegmentNodeStoreConfiguration parameters = conf.getSegmentNodeStoreConfiguration();
+    Set<String> applied = new HashSet<>();
+    if (wrapper.groupCommit != null) {
+      wrapper.groupCommit.reconfigure(parameters.getGroupCommitMaxBatchSize(),
+          parameters.getGroupCommitMaxWait());
+      applied.addAll(GROUP_COMMIT_PARAMETERS);
+    }
+    if (wrapper.durability != null) {
+      wrapper.durability.reconfigure(parameters.getDurabilityPolicy(),
+          parameters.getDurabilityFlushInterval());
+      applied.addAll(DURABILITY_PARAMETERS);
+    }
+    if (wrapper.blobGC != null && parameters.getBlobGCInterval() > 0) {
+      wrapper.blobGC.reschedule(parameters.getBlobGCInterval());
+      applied.add(BLOB_GC_INTERVAL);
+    }
+    // the compaction options are read by Oak at each run of the compaction
+    tuneGCOptions(wrapper.gcOptions, parameters, wrapper.compactionDisabled);
+    applied.addAll(COMPACTION_PARAMETERS);
+    return applied;
   }
 
   /**
@@ -115,7 +281,9 @@ public class SegmentNodeStoreFactory implements NodeStoreFactory {
    * can be reused by another {@link SegmentNodeStore} instance. It is mandatory to dispose the
    * storage at application shutdown otherwise the storage couldn't be anymore reused by the
    * application and it is yet locked by a previous, not more existing, {@link SegmentNodeStore}
-   * instance.
+   * instance. The services running on the storage are first stopped, the maintenance ones once
+   * their current run is done, and then the changes are flushed before the storage is closed; so
+   * the storage doesn't require any recovery at its next opening.
    * @param store the {@link NodeStore} instance to dispose.
    * @see NodeStoreFactory#dispose(NodeStore)
    */
@@ -123,12 +291,146 @@ public class SegmentNodeStoreFactory implements NodeStoreFactory {
   public void dispose(final NodeStore store) {
     if (store instanceof SegmentNodeStoreWrapper) {
       ((SegmentNodeStoreWrapper) store).dispose();
+    } else if (store instanceof ReadOnlySegmentStore) {
+      ((ReadOnlySegmentStore) store).close();
     } else {
       throw new IllegalArgumentException(
           "The specified store isn't a SegmentStore managed by Silverpeas");
     }
   }
 
+  private static SegmentGCOptions tuneGCOptions(final SegmentGCOptions gcOptions,
+      final SegmentNodeStoreConfiguration parameters, final boolean pauseCompaction) {
+    return gcOptions.setPaused(pauseCompaction || parameters.isPauseCompaction())
+        .setRetryCount(parameters.getCompactionRetryCount())
+        .setForceTimeout(parameters.getCompactionForceTimeout())
+        .setGcSizeDeltaEstimation(parameters.getCompactionSizeDeltaEstimation())
+        .setEstimationDisabled(parameters.isCompactionDisableEstimation())
+        .setMemoryThreshold(parameters.getCompactionMemoryThreshold())
+        .setGCLogInterval(parameters.getCompactionProgressLog());
+  }
+
+  private FileStoreBuilder newFileStoreBuilder(final Path segmentStore,
+      final DataStoreBlobStore blobStore, final SegmentNodeStoreConfiguration parameters,
+      final SegmentGCOptions gcOptions) {
+    FileStoreBuilder builder = FileStoreBuilder.fileStoreBuilder(segmentStore.toFile())
+        .withMaxFileSize(parameters.getTarMaxSize())
+        .withSegmentCacheSize(parameters.getSegmentCacheSize())
+        .withStringCacheSize(parameters.getStringCacheSize())
+        .withTemplateCacheSize(parameters.getTemplateCacheSize())
+        .withStringDeduplicationCacheSize(parameters.getStringDeduplicationCacheSize())
+        .withTemplateDeduplicationCacheSize(parameters.getTemplateDeduplicationCacheSize())
+        .withNodeDeduplicationCacheSize(parameters.getNodeDeduplicationCacheSize())
+        .withGCOptions(gcOptions);
+    switch (parameters.getMemoryMapping()) {
+      case MMAP:
+        builder.withMemoryMapping(true);
+        break;
+      case FILE:
+        builder.withMemoryMapping(false);
+        break;
+      default:
+        builder.withDefaultMemoryMapping();
+    }
+    if (blobStore != null) {
+      builder.withBlobStore(blobStore);
+    }
+    return builder;
+  }
+
+  private NodeStore openReadOnly(final String jcrHomePath, final Path segmentStore,
+      final DataStoreBlobStore blobStore, final SegmentNodeStoreConfiguration parameters) {
+    ReadOnlySegmentStore store = ReadOnlySegmentStore.open(segmentStore,
+        () -> newFileStoreBuilder(segmentStore, blobStore, parameters,
+            tuneGCOptions(SegmentGCOptions.defaultGCOptions(), parameters, true)));
+    if (blobStore != null) {
+      store.attach(() -> {
+        try {
+          blobStore.close();
+        } catch (DataStoreException e) {
+          throw new IOException(e);
+        }
+      });
+    }
+    if (parameters.getReadOnlyRefreshInterval() > 0) {
+      store.schedule(parameters.getReadOnlyRefreshInterval());
+    }
+    store.attach(JmxRegistration.register(store, ReadOnlySegmentStoreMBean.TYPE,
+        "Read-Only Segment Store", jcrHomePath));
+    return store;
+  }
+
+  private Path getSplitBase(final String jcrHomePath,
+      final SegmentNodeStoreConfiguration parameters) {
+    if (StringUtil.isNotDefined(parameters.getSplitBasePath())) {
+      return null;
+    }
+    Path splitBasePath = Path.of(parameters.getSplitBasePath());
+    Path splitBase =
+        splitBasePath.isAbsolute() ? splitBasePath : Path.of(jcrHomePath).resolve(splitBasePath);
+    if (!Files.isDirectory(splitBase)) {
+      throw new SilverpeasRuntimeException("No base segment storage at " + splitBase);
+    }
+    return splitBase;
+  }
+
+  private DataStoreBlobStore createBlobStore(final String jcrHomePath,
+      final SegmentNodeStoreConfiguration parameters) {
+    if (StringUtil.isNotDefined(parameters.getBlobStorePath())) {
+      return null;
+    }
+    Path blobStorePath = Path.of(parameters.getBlobStorePath());
+    Path blobStore =
+        blobStorePath.isAbsolute() ? blobStorePath : Path.of(jcrHomePath).resolve(blobStorePath);
+    OakFileDataStore dataStore = new OakFileDataStore();
+    dataStore.setPath(blobStore.toString());
+    dataStore.init(null);
+    return new DataStoreBlobStore(dataStore);
+  }
+
+  private OffHeapSegmentCache createOffHeapCache(final SegmentNodeStoreConfiguration parameters) {
+    if (parameters.getOffHeapSegmentCacheSize() <= 0) {
+      return null;
+    }
+    return new OffHeapSegmentCache(parameters.getOffHeapSegmentCacheSize(),
+        parameters.getOffHeapSegmentCachePolicy());
+  }
+
+  private BlobGarbageCollection scheduleBlobGC(final SegmentNodeStore store, final FileStore fs,
+      final DataStoreBlobStore blobStore, final SegmentNodeStoreConfiguration parameters) {
+    // the blob store is registered with the identifier of the repository to be garbage
+    // collected: a data store can be shared among several repositories
+    String repositoryId = ClusterRepositoryInfo.getOrCreateId(store);
+    try {
+      blobStore.addMetadataRecord(new ByteArrayInputStream(new byte[0]),
+          SharedStoreRecordType.REPOSITORY.getNameFromId(repositoryId));
+    } catch (DataStoreException e) {
+      throw new SilverpeasRuntimeException(e);
+    }
+    return BlobGarbageCollection.schedule(
+        statistics -> new MarkSweepGarbageCollector(new SegmentBlobReferenceRetriever(fs),
+            blobStore, Runnable::run, TimeUnit.SECONDS.toMillis(parameters.getBlobGCMaxAge()),
+            repositoryId, new DefaultWhiteboard(), statistics), parameters.getBlobGCInterval());
+  }
+
+  private Closeable scheduleBackup(final String jcrHomePath, final SegmentNodeStore store,
+      final FileStore fs, final Path segmentStore, final SegmentNodeStoreConfiguration parameters) {
+    Path backupPath = Path.of(parameters.getBackupPath());
+    Path backupStore =
+        backupPath.isAbsolute() ? backupPath : Path.of(jcrHomePath).resolve(backupPath);
+    SegmentStoreBackup backup = new SegmentStoreBackup(store, fs, segmentStore, backupStore,
+        parameters.getBackupRetention());
+    if (parameters.getBackupInterval() > 0) {
+      backup.schedule(parameters.getBackupInterval());
+    }
+    JmxRegistration registration = JmxRegistration.register(backup,
+        SegmentStoreBackupMBean.TYPE, "Segment Store Backup", jcrHomePath);
+    return () -> {
+      registration.close();
+      backup.close();
+    };
+  }
+
   /**
    * Wrapper of the {@link SegmentNodeStore} created by Oak over a {@link FileStore} to manage the
    * content of a JCR. This wrapper is to keep in memory both the {@link SegmentNodeStore} and the
@@ -141,14 +443,76 @@ public class SegmentNodeStoreFactory implements NodeStoreFactory {
 
     private final SegmentNodeStore sns;
     private final FileStore fs;
+    private final boolean readOnly;
+    private final Deque<Closeable> services = new ArrayDeque<>();
+    private SegmentGroupCommit groupCommit;
+    private SegmentStoreDurability durability;
+    private BlobGarbageCollection blobGC;
+    private SegmentGCOptions gcOptions;
+    private boolean compactionDisabled;
 
-    public SegmentNodeStoreWrapper(final SegmentNodeStore segmentNodeStore, FileStore fileStore) {
+    public SegmentNodeStoreWrapper(final SegmentNodeStore segmentNodeStore, FileStore fileStore,
+        final boolean readOnly) {
       this.fs = fileStore;
       this.sns = segmentNodeStore;
+      this.readOnly = readOnly;
+    }
+
+    /**
+     * Attaches to this store a service running on it. The attached services are closed in the
+     * reverse order of their attachment before the store is closed.
+     * @param service a service working on the store.
+     */
+    void attach(final Closeable service) {
+      this.services.push(service);
+    }
+
+    /**
+     * Groups the merges into this store with the specified group commit. The group commit is
+     * attached to this store as a service.
+     * @param groupCommit the grouping of the concurrent merges.
+     */
+    void groupCommits(final SegmentGroupCommit groupCommit) {
+      attach(groupCommit);
+      this.groupCommit = groupCommit;
+    }
+
+    /**
+     * Makes durable the changes merged into this store according to the policy of the specified
+     * durability. The durability is attached to this store as a service.
+     * @param durability the durability of the changes.
+     */
+    void durability(final SegmentStoreDurability durability) {
+      attach(durability);
+      this.durability = durability;
     }
 
     public void dispose() {
+      while (!this.services.isEmpty()) {
+        try {
+          this.services.pop().close();
+        } catch (IOException e) {
+          SilverLogger.getLogger(this).error(e.getMessage(), e);
+        }
+      }
+      if (!readOnly) {
+        // the background services are stopped: the last changes are made durable at once
+        try {
+          this.fs.flush();
+        } catch (IOException e) {
+          SilverLogger.getLogger(this)
+              .error("Final flush of the segment storage failed: " + e.getMessage(), e);
+        }
+      }
+      BlobStore blobStore = this.fs.getBlobStore();
       this.fs.close();
+      if (blobStore instanceof DataStoreBlobStore) {
+        try {
+          ((DataStoreBlobStore) blobStore).close();
+        } catch (DataStoreException e) {
+          SilverLogger.getLogger(this).error(e.getMessage(), e);
+        }
+      }
     }
 
     @Override
@@ -168,7 +532,20 @@ public class SegmentNodeStoreFactory implements NodeStoreFactory {
         @Nonnull final NodeBuilder builder,
         @Nonnull final CommitHook commitHook,
         @Nonnull final CommitInfo info) throws CommitFailedException {
-      return sns.merge(builder, commitHook, info);
+      if (readOnly) {
+        // a standby storage is updated only by the synchronization with the primary one
+        if (!builder.getNodeState().equals(builder.getBaseState())) {
+          throw new CommitFailedException(CommitFailedException.UNSUPPORTED, 1,
+              "The segment storage is a standby one: it is read-only");
+        }
+        return sns.getRoot();
+      }
+      NodeState merged = groupCommit != null ? groupCommit.merge(builder, commitHook, info) :
+          sns.merge(builder, commitHook, info);
+      if (durability != null) {
+        durability.committed();
+      }
+      return merged;
     }
 
     @Override
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders;
+import org.apache.jackrabbit.oak.segment.file.FileStore;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.util.logging.SilverLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Online and incremental backup of a segment storage. The backup is performed while the storage is
+ * in use:
+ * <ol>
+ *   <li>a checkpoint is taken and the storage is flushed so that the journal refers a head state
+ *   whose the segments are all written in the TAR files,</li>
+ *   <li>the journal and then the TAR files are saved into a new backup directory. Once written, a
+ *   TAR file is never modified: only the TAR files that aren't in the previous backup with the
+ *   same size are then copied, the others are hard-linked from the previous backup,</li>
+ *   <li>the backup is verified by opening it as a segment storage and by checking the checkpoint
+ *   is in it with the same state as in the backed up storage.</li>
+ * </ol>
+ * Thanks to the hard links, each backup is complete and can be restored on its own by replacing the
+ * segment storage directory with it while the IO are limited to the TAR files written since the
+ * previous backup. The TAR file being written at backup time is copied as is; its index is then
+ * recovered at the verification of the backup.
+ * <p>
+ * The binaries stored in an external blob store aren't part of the backup; such a blob store has
+ * to be backed up on its own.
+ * <p>
+ * Only one backup is performed at a time. The status of the last backup is published once the
+ * backup is done, so it can be read through JMX while another backup is in progress.
+ * @author mmoquillon
+ */
+class SegmentStoreBackup implements SegmentStoreBackupMBean, Closeable {
+
+  private static final String BACKUP_PREFIX = "backup-";
+  private static final String IN_PROGRESS_SUFFIX = ".inprogress";
+  private static final String JOURNAL = "journal.log";
+  private static final String MANIFEST = "manifest";
+  private static final String LOCK = "repo.lock";
+  private static final int MAX_ATTEMPTS = 3;
+  private static final long CHECKPOINT_LIFETIME = TimeUnit.DAYS.toMillis(1);
+  private static final DateTimeFormatter TIMESTAMP =
+      DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+  private final SegmentNodeStore store;
+  private final FileStore fileStore;
+  private final Path segmentStore;
+  private final Path backupStore;
+  private final int retention;
+  private final Object backupLock = new Object();
+  private ScheduledExecutorService scheduler;
+  private volatile Path lastBackup;
+  private volatile long lastBackupCopiedBytes = 0;
+  private volatile long lastBackupDuration = 0;
+
+  /**
+   * Constructs a new backup facility of the specified segment storage.
+   * @param store the node store opened on the segment storage.
+   * @param fileStore the file store of the segment storage.
+   * @param segmentStore the path of the directory of the segment storage.
+   * @param backupStore the path of the directory into which the backups are saved.
+   * @param retention the number of the most recent backups to keep.
+   */
+  SegmentStoreBackup(final SegmentNodeStore store, final FileStore fileStore,
+      final Path segmentStore, final Path backupStore, final int retention) {
+    this.store = store;
+    this.fileStore = fileStore;
+    this.segmentStore = segmentStore;
+    this.backupStore = backupStore;
+    this.retention = Math.max(retention, 1);
+  }
+
+  /**
+   * Schedules a backup of the segment storage at the specified interval. The first backup is
+   * performed once the interval is elapsed.
+   * @param interval the interval in seconds between two backups.
+   * @return itself.
+   */
+  SegmentStoreBackup schedule(final long interval) {
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "silverpeas-jcr-segment-backup");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        backup();
+      } catch (Exception e) {
+        SilverLogger.getLogger(this).error("Segment storage backup failed: " + e.getMessage(), e);
+      }
+    }, interval, interval, TimeUnit.SECONDS);
+    return this;
+  }
+
+  @Override
+  public String startBackup() {
+    return backup().toString();
+  }
+
+  @Override
+  public String getLastBackup() {
+    Path backup = lastBackup;
+    return backup == null ? "" : backup.toString();
+  }
+
+  @Override
+  public long getLastBackupCopiedBytes() {
+    return lastBackupCopiedBytes;
+  }
+
+  @Override
+  public long getLastBackupDuration() {
+    return lastBackupDuration;
+  }
+
+  /**
+   * Backs up the segment storage into a new directory of the backup directory. Once done, the
+   * older backups beyond the retention are deleted. If a backup is already in progress, the new
+   * one is performed once the former is done.
+   * @return the path of the directory of the new backup.
+   * @throws SilverpeasRuntimeException if the backup fails.
+   */
+  Path backup() {
+    synchronized (backupLock) {
+      return backupStorage();
+    }
+  }
+
+  private Path backupStorage() {
+    long start = System.currentTimeMillis();
+    String checkpoint = store.checkpoint(CHECKPOINT_LIFETIME, Map.of("creator",
+        SegmentStoreBackup.class.getSimpleName()));
+    try {
+      fileStore.flush();
+      Files.createDirectories(backupStore);
+      Optional<Path> previous = getBackups().stream().findFirst();
+      Path backup = backupStore.resolve(BACKUP_PREFIX + LocalDateTime.now().format(TIMESTAMP));
+      Path inProgress = backup.resolveSibling(backup.getFileName() + IN_PROGRESS_SUFFIX);
+      long copied = copy(previous.orElse(null), inProgress);
+      verify(inProgress, checkpoint);
+      Files.move(inProgress, backup, StandardCopyOption.ATOMIC_MOVE);
+      long duration = System.currentTimeMillis() - start;
+      lastBackupCopiedBytes = copied;
+      lastBackupDuration = duration;
+      lastBackup = backup;
+      SilverLogger.getLogger(this)
+          .info("Segment storage backed up into {0} in {1} ms: {2} bytes copied", backup,
+              duration, copied);
+      purge();
+      return backup;
+    } catch (IOException | InvalidFileStoreVersionException e) {
+      throw new SilverpeasRuntimeException(e);
+    } finally {
+      store.release(checkpoint);
+    }
+  }
+
+  /**
+   * Copies the journal and the TAR files of the segment storage into the specified directory. The
+   * TAR files of the previous backup with the same name and size are linked instead of being
+   * copied. As the TAR files of old generations can be removed by a cleanup of the storage while
+   * being copied, the copy is retried a few times.
+   */
+  private long copy(final Path previous, final Path target) throws IOException {
+    for (int attempt = 1; ; attempt++) {
+      deleteDirectory(target);
+      Files.createDirectories(target);
+      try {
+        // the journal is copied first: the TAR files are copied after, so with all the segments
+        // of the head state referred by it
+        Files.copy(segmentStore.resolve(JOURNAL), target.resolve(JOURNAL));
+        Files.copy(segmentStore.resolve(MANIFEST), target.resolve(MANIFEST));
+        long copied = 0;
+        for (Path tarFile : listTarFiles(segmentStore)) {
+          copied += copyTarFile(tarFile, previous, target);
+        }
+        return copied;
+      } catch (NoSuchFileException e) {
+        if (attempt >= MAX_ATTEMPTS) {
+          throw e;
+        }
+        SilverLogger.getLogger(this)
+            .warn("Segment storage modified by a cleanup while backed up. Retry the backup");
+      }
+    }
+  }
+
+  private long copyTarFile(final Path tarFile, final Path previous, final Path target)
+      throws IOException {
+    Path copy = target.resolve(tarFile.getFileName());
+    if (previous != null) {
+      Path previousCopy = previous.resolve(tarFile.getFileName());
+      if (Files.exists(previousCopy) && Files.size(previousCopy) == Files.size(tarFile)) {
+        try {
+          Files.createLink(copy, previousCopy);
+          return 0;
+        } catch (UnsupportedOperationException | IOException e) {
+          // hard links not supported by the filesystem: the TAR file is then copied
+          SilverLogger.getLogger(this).silent(e);
+        }
+      }
+    }
+    Files.copy(tarFile, copy);
+    return Files.size(copy);
+  }
+
+  /**
+   * Verifies the backup by opening it as a segment storage: the checkpoint taken for the backup
+   * must be found in it with the same state as in the backed up storage. As the last TAR file was
+   * copied while being written, it is recovered at the opening of the backup.
+   */
+  private void verify(final Path backup, final String checkpoint)
+      throws IOException, InvalidFileStoreVersionException {
+    try (FileStore backupFileStore = FileStoreBuilder.fileStoreBuilder(backup.toFile()).build()) {
+      SegmentNodeStore backupStore = SegmentNodeStoreBuilders.builder(backupFileStore).build();
+      NodeState backedUp = backupStore.retrieve(checkpoint);
+      if (backedUp == null || !backedUp.equals(store.retrieve(checkpoint))) {
+        throw new IOException("Segment storage backup " + backup + " isn't valid");
+      }
+    }
+    // the lock and the original of the recovered TAR file aren't part of the backup
+    try (Stream<Path> files = Files.list(backup)) {
+      for (Path file : files.filter(f -> f.getFileName().toString().endsWith(".bak") ||
+          f.getFileName().toString().equals(LOCK)).collect(Collectors.toList())) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private void purge() throws IOException {
+    List<Path> backups = getBackups();
+    for (Path backup : backups.subList(Math.min(retention, backups.size()), backups.size())) {
+      deleteDirectory(backup);
+    }
+  }
+
+  /**
+   * Gets the successful backups from the most recent to the oldest.
+   */
+  private List<Path> getBackups() throws IOException {
+    try (Stream<Path> files = Files.list(backupStore)) {
+      return files.filter(f -> f.getFileName().toString().startsWith(BACKUP_PREFIX))
+          .filter(f -> !f.getFileName().toString().endsWith(IN_PROGRESS_SUFFIX))
+          .sorted(Comparator.comparing(Path::getFileName).reversed())
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static List<Path> listTarFiles(final Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(f -> f.getFileName().toString().endsWith(".tar"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static void deleteDirectory(final Path directory) throws IOException {
+    if (Files.exists(directory)) {
+      try (Stream<Path> files = Files.walk(directory)) {
+        for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+          Files.delete(file);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    if (scheduler == null) {
+      return;
+    }
+    // a backup in progress is let to complete rather than leaving a partial backup
+    scheduler.shutdown();
+    try {
+      if (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+        scheduler.shutdownNow();
+        SilverLogger.getLogger(this).warn("The segment storage backup isn't yet terminated");
+      }
+    } catch (InterruptedException e) {
+      scheduler.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
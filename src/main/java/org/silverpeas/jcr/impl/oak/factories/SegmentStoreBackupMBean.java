@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+/**
+ * Management interface of the online backup of a segment storage. It allows the sysadmins to
+ * trigger a backup on demand and to get the status of the last one.
+ * @author mmoquillon
+ */
+public interface SegmentStoreBackupMBean {
+
+  String TYPE = "SegmentStoreBackup";
+
+  /**
+   * Backs up the segment storage.
+   * @return the path of the directory of the new backup.
+   */
+  String startBackup();
+
+  /**
+   * Gets the path of the directory of the last successful backup.
+   * @return the path of the last backup or an empty string if no backup was yet done.
+   */
+  String getLastBackup();
+
+  /**
+   * Gets the amount of data in bytes copied by the last successful backup. The unchanged TAR files
+   * linked from the previous backup aren't counted.
+   * @return the amount of bytes copied by the last backup.
+   */
+  long getLastBackupCopiedBytes();
+
+  /**
+   * Gets the duration in milliseconds of the last successful backup.
+   * @return the duration of the last backup.
+   */
+  long getLastBackupDuration();
+}
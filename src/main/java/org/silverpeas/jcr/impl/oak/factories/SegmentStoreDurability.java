@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import com.codahale.metrics.Timer;
+import org.silverpeas.core.util.logging.SilverLogger;
+import org.silverpeas.jcr.impl.oak.configuration.SegmentNodeStoreConfiguration.DurabilityPolicy;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Durability of the changes committed into a segment storage. Oak flushes in background the
+ * changes every 5 seconds: the segments are written and synced on the disk and then the new head
+ * state is appended to the journal. The changes committed since the last flush are lost on a
+ * crash. According to the durability policy, the changes can be flushed before the end of each
+ * merge and, whatever the policy, they can be flushed at a shorter interval or on demand.
+ * </p>
+ * <p>
+ * When the changes are flushed at each merge, the concurrent merges share the same flush: a merge
+ * done before the start of a flush doesn't require another one. Hence, the cost of the flush is
+ * amortized under concurrent writes, above all when the merges are grouped.
+ * </p>
+ * <p>
+ * A flush failing at the end of a merge doesn't fail the merge: the new head state is already
+ * set and visible to the other sessions, so the merge cannot be undone and a caller retrying it
+ * would apply its changes twice. The failure is logged and recorded for JMX, and the changes are
+ * flushed again by the next flush, whatever its cause: the next merge, the background flush of
+ * Silverpeas or of Oak, or a request.
+ * </p>
+ * @author mmoquillon
+ */
+class SegmentStoreDurability implements SegmentStoreDurabilityMBean, Closeable {
+
+  static final String NAME = "Segment Store Durability";
+
+  private final Flushable fileStore;
+  private volatile DurabilityPolicy policy;
+  private final Timer flushes = new Timer();
+  private final AtomicLong flushFailures = new AtomicLong(0);
+  private volatile String lastFlushFailure = null;
+  private final AtomicLong commits = new AtomicLong(0);
+  private final Object flushLock = new Object();
+  private long flushedCommits = 0;
+  private ScheduledExecutorService scheduler;
+  private ScheduledFuture<?> flushTask;
+
+  /**
+   * Starts the durability policy of the changes committed into the specified segment storage.
+   * @param fileStore the file store of the segment storage, by which the changes are flushed.
+   * @param policy the durability policy of the changes.
+   * @param flushInterval the interval in milliseconds between two background flushes. If 0 or
+   * negative, the changes are flushed in background only by Oak.
+   * @return the {@link SegmentStoreDurability} instance. Closing it stops the background flushes.
+   */
+  static SegmentStoreDurability start(final Flushable fileStore, final DurabilityPolicy policy,
+      final long flushInterval) {
+    SegmentStoreDurability durability = new SegmentStoreDurability(fileStore, policy);
+    durability.scheduleFlushes(flushInterval);
+    return durability;
+  }
+
+  private SegmentStoreDurability(final Flushable fileStore, final DurabilityPolicy policy) {
+    this.fileStore = fileStore;
+    this.policy = policy;
+  }
+
+  /**
+   * Changes the durability policy and the interval of the background flushes. The policy is
+   * applied from the next merge.
+   * @param policy the durability policy of the changes.
+   * @param flushInterval the interval in milliseconds between two background flushes. If 0 or
+   * negative, the changes are flushed in background only by Oak.
+   */
+  void reconfigure(final DurabilityPolicy policy, final long flushInterval) {
+    this.policy = policy;
+    scheduleFlushes(flushInterval);
+  }
+
+  private synchronized void scheduleFlushes(final long flushInterval) {
+    if (flushTask != null) {
+      flushTask.cancel(false);
+      flushTask = null;
+    }
+    if (flushInterval <= 0) {
+      return;
+    }
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "silverpeas-jcr-segment-flush");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    flushTask = scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        flush();
+      } catch (Exception e) {
+        SilverLogger.getLogger(this).warn("Segment storage flush failed: " + e.getMessage());
+      }
+    }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Informs a merge was done. According to the durability policy, the changes of the merge are
+   * flushed before returning, unless a flush started after the merge is yet done or in progress.
+   * If the flush fails, the changes of the merge aren't durable yet but the merge is done: the
+   * failure is then only logged and recorded, and the changes are flushed again by the next
+   * flush.
+   */
+  void committed() {
+    if (policy != DurabilityPolicy.COMMIT) {
+      return;
+    }
+    long commit = commits.incrementAndGet();
+    synchronized (flushLock) {
+      if (flushedCommits >= commit) {
+        // a flush started after the merge has been done meanwhile
+        return;
+      }
+      long lastCommit = commits.get();
+      try {
+        timedFlush();
+      } catch (IOException e) {
+        SilverLogger.getLogger(this).warn("The changes merged into the segment storage are not " +
+            "durable yet, they will be flushed again at the next flush: " + e.getMessage());
+        return;
+      }
+      flushedCommits = lastCommit;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    synchronized (flushLock) {
+      long lastCommit = commits.get();
+      timedFlush();
+      flushedCommits = lastCommit;
+    }
+  }
+
+  private void timedFlush() throws IOException {
+    long start = System.nanoTime();
+    try {
+      fileStore.flush();
+      lastFlushFailure = null;
+    } catch (IOException e) {
+      flushFailures.incrementAndGet();
+      lastFlushFailure = String.valueOf(e.getMessage());
+      throw e;
+    } finally {
+      flushes.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public String getDurabilityPolicy() {
+    return policy.name();
+  }
+
+  @Override
+  public long getFlushCount() {
+    return flushes.getCount();
+  }
+
+  @Override
+  public double getFlushMeanLatency() {
+    return toMillis(flushes.getSnapshot().getMean());
+  }
+
+  @Override
+  public double getFlushMedianLatency() {
+    return toMillis(flushes.getSnapshot().getMedian());
+  }
+
+  @Override
+  public double getFlush99thPercentileLatency() {
+    return toMillis(flushes.getSnapshot().get99thPercentile());
+  }
+
+  @Override
+  public double getFlushMaxLatency() {
+    return toMillis(flushes.getSnapshot().getMax());
+  }
+
+  @Override
+  public long getFlushFailureCount() {
+    return flushFailures.get();
+  }
+
+  @Override
+  public String getLastFlushFailure() {
+    return lastFlushFailure;
+  }
+
+  private static double toMillis(final double nanos) {
+    return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public synchronized void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+}
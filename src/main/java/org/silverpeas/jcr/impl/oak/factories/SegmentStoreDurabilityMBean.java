@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import java.io.IOException;
+
+/**
+ * Management interface of the durability of the changes committed into a segment storage. It
+ * allows the sysadmins, and the bulk jobs, to flush on demand the changes on the disk and to see
+ * the latency of the flushes. The latencies, in milliseconds, are computed from a sample of the
+ * flushes biased towards the last five minutes.
+ * @author mmoquillon
+ */
+public interface SegmentStoreDurabilityMBean {
+
+  String TYPE = "SegmentStoreDurability";
+
+  /**
+   * Flushes and syncs on the disk all the changes committed so far into the segment storage. Once
+   * returned, these changes are durable whatever the durability policy.
+   * @throws IOException if the flush fails.
+   */
+  void flush() throws IOException;
+
+  /**
+   * Gets the durability policy of the changes committed into the segment storage.
+   * @return the name of the durability policy.
+   */
+  String getDurabilityPolicy();
+
+  /**
+   * Gets the number of flushes performed by Silverpeas, whatever their cause: a commit, the
+   * background flush at the configured interval or a request. The flushes performed by Oak itself
+   * every 5 seconds aren't counted.
+   * @return the number of flushes.
+   */
+  long getFlushCount();
+
+  /**
+   * Gets the mean latency of the flushes.
+   * @return the mean latency in milliseconds.
+   */
+  double getFlushMeanLatency();
+
+  /**
+   * Gets the median latency of the flushes.
+   * @return the median latency in milliseconds.
+   */
+  double getFlushMedianLatency();
+
+  /**
+   * Gets the latency under which are performed 99% of the flushes.
+   * @return the 99th percentile of the latency in milliseconds.
+   */
+  double getFlush99thPercentileLatency();
+
+  /**
+   * Gets the highest latency of the flushes.
+   * @return the maximum latency in milliseconds.
+   */
+  double getFlushMaxLatency();
+
+  /**
+   * Gets the number of flushes performed by Silverpeas that failed. A failed flush is retried by
+   * the next one.
+   * @return the number of failed flushes.
+   */
+  long getFlushFailureCount();
+
+  /**
+   * Gets the cause of the failure of the last flush performed by Silverpeas. If not null, the
+   * changes committed since the last successful flush may not be durable yet.
+   * @return the message of the failure of the last flush or null if it succeeded.
+   */
+  String getLastFlushFailure();
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.segment.file.FileStore;
+import org.apache.jackrabbit.oak.segment.standby.client.StandbyClientSync;
+import org.apache.jackrabbit.oak.segment.standby.server.StandbyServerSync;
+import org.silverpeas.core.util.logging.SilverLogger;
+import org.silverpeas.jcr.impl.oak.configuration.SegmentNodeStoreConfiguration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cold standby synchronization of a segment storage. In a cold standby topology, a primary segment
+ * storage serves over a socket its segments to one or more standby segment storages that follow it
+ * in near real-time: at a fixed interval, each standby storage fetches the head state of the
+ * primary storage along with the segments it doesn't have yet. A standby storage is then a warm
+ * copy of the primary one, ready to take over in the case of failure of the primary storage.
+ * <p>
+ * The synchronization protocol is the one of Oak: the primary side is a
+ * {@link StandbyServerSync} and the standby side a {@link StandbyClientSync}. Both are exposed
+ * through JMX by Oak itself. As Oak doesn't provide any bandwidth limitation, the bandwidth used by
+ * a standby storage is capped by pacing the synchronizations: once a synchronization is done, the
+ * next one is delayed until the average rate of the transferred data falls under the cap.
+ * @author mmoquillon
+ */
+abstract class SegmentStoreStandby implements Closeable {
+
+  /**
+   * Starts the primary side of the cold standby synchronization: the segments of the specified
+   * file store are served to the standby storages.
+   * @param fs the file store of the primary segment storage.
+   * @param parameters the configuration of the segment storage.
+   * @return the primary side of the synchronization. Closing it stops the synchronization.
+   */
+  static SegmentStoreStandby primary(final FileStore fs,
+      final SegmentNodeStoreConfiguration parameters) {
+    return new Primary(fs, parameters);
+  }
+
+  /**
+   * Starts the standby side of the cold standby synchronization: the specified file store follows
+   * the primary one. A first synchronization is performed before returning.
+   * @param fs the file store of the standby segment storage.
+   * @param spoolFolder the directory into which the big binaries are spooled while fetched.
+   * @param segmentStore the path of the directory of the standby segment storage.
+   * @param parameters the configuration of the segment storage.
+   * @return the standby side of the synchronization. Closing it stops the synchronization.
+   */
+  static SegmentStoreStandby standby(final FileStore fs, final Path spoolFolder,
+      final Path segmentStore, final SegmentNodeStoreConfiguration parameters) {
+    return new Standby(fs, spoolFolder, segmentStore, parameters);
+  }
+
+  /**
+   * The primary side of the synchronization.
+   */
+  private static class Primary extends SegmentStoreStandby {
+
+    private final StandbyServerSync server;
+
+    private Primary(final FileStore fs, final SegmentNodeStoreConfiguration parameters) {
+      this.server = StandbyServerSync.builder()
+          .withPort(parameters.getStandbyPort())
+          .withFileStore(fs)
+          .withBlobChunkSize(1024 * 1024)
+          .withSecureConnection(parameters.isStandbySecure())
+          .withAllowedClientIPRanges(
+              parameters.getStandbyAllowedClients().toArray(new String[0]))
+          .build();
+      this.server.start();
+      SilverLogger.getLogger(this)
+          .info("Primary segment storage listening on port {0}",
+              String.valueOf(parameters.getStandbyPort()));
+    }
+
+    @Override
+    public void close() {
+      server.close();
+    }
+  }
+
+  /**
+   * The standby side of the synchronization.
+   */
+  private static class Standby extends SegmentStoreStandby {
+
+    private final StandbyClientSync client;
+    private final Path segmentStore;
+    private final long interval;
+    private final long bandwidth;
+    private final ScheduledExecutorService scheduler;
+
+    private Standby(final FileStore fs, final Path spoolFolder, final Path segmentStore,
+        final SegmentNodeStoreConfiguration parameters) {
+      this.segmentStore = segmentStore;
+      this.interval = TimeUnit.SECONDS.toMillis(parameters.getStandbySyncInterval());
+      this.bandwidth = parameters.getStandbyBandwidth() * 1024L;
+      this.client = StandbyClientSync.builder()
+          .withHost(parameters.getStandbyPrimaryHost())
+          .withPort(parameters.getStandbyPort())
+          .withFileStore(fs)
+          .withSecureConnection(parameters.isStandbySecure())
+          .withReadTimeoutMs(parameters.getStandbyReadTimeout())
+          .withAutoClean(true)
+          .withSpoolFolder(spoolFolder.toFile())
+          .build();
+      this.client.start();
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "silverpeas-jcr-segment-standby");
+        thread.setDaemon(true);
+        return thread;
+      });
+      long delay = sync();
+      scheduler.schedule(this::syncAndReschedule, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void syncAndReschedule() {
+      long delay = sync();
+      if (!scheduler.isShutdown()) {
+        scheduler.schedule(this::syncAndReschedule, delay, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    /**
+     * Synchronizes the standby storage with the primary one and computes the delay before the next
+     * synchronization so that the bandwidth cap is honored.
+     * @return the delay in milliseconds before the next synchronization.
+     */
+    private long sync() {
+      long sizeBefore = getStorageSize();
+      long start = System.currentTimeMillis();
+      client.run();
+      long duration = System.currentTimeMillis() - start;
+      long transferred = Math.max(getStorageSize() - sizeBefore, 0);
+      if (client.getFailedRequests() > 0) {
+        SilverLogger.getLogger(this)
+            .warn("Standby segment storage synchronization failed ({0} failed requests)",
+                client.getFailedRequests());
+      }
+      if (bandwidth <= 0) {
+        return interval;
+      }
+      long minDuration = TimeUnit.SECONDS.toMillis(transferred) / bandwidth;
+      return Math.max(interval, minDuration - duration);
+    }
+
+    private long getStorageSize() {
+      try (Stream<Path> files = Files.list(segmentStore)) {
+        return files.filter(f -> f.getFileName().toString().endsWith(".tar"))
+            .mapToLong(f -> f.toFile().length())
+            .sum();
+      } catch (IOException e) {
+        SilverLogger.getLogger(this).silent(e);
+        return 0;
+      }
+    }
+
+    @Override
+    public void close() {
+      scheduler.shutdownNow();
+      try {
+        if (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+          SilverLogger.getLogger(this).warn("The standby synchronization isn't yet terminated");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      client.close();
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.silverpeas.core.util.logging.SilverLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Warm-up of a segment storage just after its opening. The warm-up is performed in background in
+ * two steps:
+ * <ol>
+ *   <li>the newest TAR files, up to a given amount of data, are sequentially read in order to load
+ *   them into the page cache of the operating system,</li>
+ *   <li>the content of some given subtrees is traversed in order to load their segments both into
+ *   the page cache and into the segment cache of the store.</li>
+ * </ol>
+ * After a restart, the read latency then approaches quickly the steady state one instead of
+ * paying the cost of a random disk access at each first read of a segment.
+ * <p>
+ * The outcome of the warm-up is published once it is done, so it can be read by any other thread
+ * after {@link #await(long)}.
+ * @author mmoquillon
+ */
+class SegmentStoreWarmUp implements Closeable {
+
+  private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+  private final Path segmentStore;
+  private final long size;
+  private final List<String> subtrees;
+  private final NodeStore nodeStore;
+  private Thread worker;
+  private volatile List<Path> preloadedTarFiles = List.of();
+  private volatile long preloadedBytes = 0;
+  private volatile long traversedNodes = 0;
+
+  /**
+   * Starts the warm-up of the specified segment storage.
+   * @param segmentStore the path of the directory of the segment storage.
+   * @param sizeInMB the amount of data in MB to read from the newest TAR files.
+   * @param subtrees the paths of the subtrees whose the content has to be traversed.
+   * @param nodeStore the node store opened on the segment storage.
+   * @return the {@link SegmentStoreWarmUp} instance. Closing it stops the warm-up.
+   */
+  static SegmentStoreWarmUp start(final Path segmentStore, final int sizeInMB,
+      final List<String> subtrees, final NodeStore nodeStore) {
+    SegmentStoreWarmUp warmUp =
+        new SegmentStoreWarmUp(segmentStore, sizeInMB * 1024L * 1024L, subtrees, nodeStore);
+    warmUp.worker = new Thread(warmUp::run, "silverpeas-jcr-segment-warmup");
+    warmUp.worker.setDaemon(true);
+    warmUp.worker.setPriority(Thread.MIN_PRIORITY);
+    warmUp.worker.start();
+    return warmUp;
+  }
+
+  private SegmentStoreWarmUp(final Path segmentStore, final long size,
+      final List<String> subtrees, final NodeStore nodeStore) {
+    this.segmentStore = segmentStore;
+    this.size = size;
+    this.subtrees = subtrees;
+    this.nodeStore = nodeStore;
+  }
+
+  private void run() {
+    SilverLogger logger = SilverLogger.getLogger(this);
+    long start = System.currentTimeMillis();
+    try {
+      preloadTarFiles();
+      traverseSubtrees();
+      logger.info("Segment storage warm-up done in {0} ms: {1} bytes of TAR files read and {2} " +
+          "nodes traversed", System.currentTimeMillis() - start, preloadedBytes, traversedNodes);
+    } catch (ClosedByInterruptException | InterruptedException e) {
+      // closing the warm-up interrupts the worker and then any read of a TAR file blocked in I/O
+      logger.info("Segment storage warm-up interrupted");
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      logger.warn("Segment storage warm-up failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Waits for the warm-up to be done.
+   * @param timeout the maximum time to wait in milliseconds.
+   * @return true if the warm-up is done, false if the timeout elapsed before.
+   * @throws InterruptedException if the current thread is interrupted while waiting.
+   */
+  boolean await(final long timeout) throws InterruptedException {
+    worker.join(timeout);
+    return !worker.isAlive();
+  }
+
+  /**
+   * Gets the TAR files that were read in order to load them into the page cache of the OS.
+   * @return the TAR files read, from the newest to the oldest one.
+   */
+  List<Path> getPreloadedTarFiles() {
+    return preloadedTarFiles;
+  }
+
+  /**
+   * Gets the amount of data read from the TAR files.
+   * @return the number of bytes read.
+   */
+  long getPreloadedBytes() {
+    return preloadedBytes;
+  }
+
+  /**
+   * Gets the number of nodes traversed in the subtrees to warm up.
+   * @return the number of nodes traversed.
+   */
+  long getTraversedNodeCount() {
+    return traversedNodes;
+  }
+
+  private void preloadTarFiles() throws IOException, InterruptedException {
+    if (size <= 0) {
+      return;
+    }
+    List<Path> tarFiles;
+    try (Stream<Path> files = Files.list(segmentStore)) {
+      // the TAR files are named dataXXXXXY.tar with XXXXX their index and Y their generation: the
+      // newest ones are then the last in the lexicographic order
+      tarFiles = files.filter(f -> f.getFileName().toString().matches("data\\d+[a-z]\\.tar"))
+          .sorted(Comparator.comparing(Path::getFileName).reversed())
+          .collect(Collectors.toList());
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    List<Path> preloaded = new ArrayList<>();
+    long read = 0;
+    for (Path tarFile : tarFiles) {
+      preloaded.add(tarFile);
+      try (FileChannel channel = FileChannel.open(tarFile, StandardOpenOption.READ)) {
+        int count;
+        do {
+          checkInterrupted();
+          buffer.clear();
+          buffer.limit((int) Math.min(buffer.capacity(), size - read));
+          count = channel.read(buffer);
+          read += Math.max(count, 0);
+        } while (count >= 0 && read < size);
+      }
+      if (read >= size) {
+        break;
+      }
+    }
+    preloadedBytes = read;
+    preloadedTarFiles = List.copyOf(preloaded);
+  }
+
+  private void traverseSubtrees() throws InterruptedException {
+    long count = 0;
+    for (String subtree : subtrees) {
+      NodeState node = nodeStore.getRoot();
+      for (String name : subtree.split("/")) {
+        if (!name.isEmpty()) {
+          node = node.getChildNode(name);
+        }
+      }
+      count += traverse(node);
+    }
+    traversedNodes = count;
+  }
+
+  private long traverse(final NodeState node) throws InterruptedException {
+    checkInterrupted();
+    if (!node.exists()) {
+      return 0;
+    }
+    long count = 1;
+    node.getProperties().forEach(PropertyState::getType);
+    for (ChildNodeEntry child : node.getChildNodeEntries()) {
+      count += traverse(child.getNodeState());
+    }
+    return count;
+  }
+
+  private void checkInterrupted() throws InterruptedException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedException();
+    }
+  }
+
+  @Override
+  public void close() {
+    worker.interrupt();
+    try {
+      worker.join(10000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
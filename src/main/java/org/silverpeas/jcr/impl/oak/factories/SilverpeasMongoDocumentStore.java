@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.Document;
+import org.apache.jackrabbit.oak.plugins.document.mongo.MongoDocumentNodeStoreBuilderBase;
+import org.apache.jackrabbit.oak.plugins.document.mongo.MongoDocumentStore;
+
+import java.util.List;
+
+/**
+ * A MongoDB document store tuned for the way Silverpeas accesses the content of the JCR:
+ * <ul>
+ *   <li>the reads of the documents of some given subtrees, tolerant of staleness, are always
+ *   routed to the secondaries according to the read preference set in the MongoDB URI. By
+ *   default, Oak routes a read to the secondaries only if the document or its parent wasn't
+ *   modified since the maximum replication lag, which is rarely the case for the frequently
+ *   updated subtrees. The documents found in the cache are still served from the cache, whatever
+ *   their age, as for any other read in Oak.</li>
+ *   <li>the child documents of a node are prefetched by page when its children are iterated,
+ *   instead of being read one at a time (see {@link ChildDocumentPrefetcher}).</li>
+ * </ul>
+ * @author mmoquillon
+ */
+class SilverpeasMongoDocumentStore extends MongoDocumentStore {
+
+  private final List<String> staleReadSubtrees;
+  private final ChildDocumentPrefetcher prefetcher;
+
+  /**
+   * Constructs a new MongoDB document store.
+   * @param client the client to the MongoDB replica set.
+   * @param db the MongoDB database.
+   * @param builder the builder of the document node store.
+   * @param staleReadSubtrees the paths of the subtrees tolerant of staleness.
+   * @param prefetchSize the number of child documents to prefetch at once.
+   */
+  SilverpeasMongoDocumentStore(final MongoClient client, final MongoDatabase db,
+      final MongoDocumentNodeStoreBuilderBase<?> builder, final List<String> staleReadSubtrees,
+      final int prefetchSize) {
+    super(client, db, builder);
+    this.staleReadSubtrees = staleReadSubtrees;
+    this.prefetcher = new ChildDocumentPrefetcher(this, prefetchSize);
+  }
+
+  @Override
+  public <T extends Document> T find(final Collection<T> collection, final String key) {
+    prefetcher.prefetch(collection, key);
+    if (collection == Collection.NODES && isInStaleReadSubtrees(key)) {
+      // with such a maximum cache age, the read preference is the one of the replica set
+      return find(collection, key, Integer.MAX_VALUE);
+    }
+    return super.find(collection, key);
+  }
+
+  private boolean isInStaleReadSubtrees(final String key) {
+    if (staleReadSubtrees.isEmpty()) {
+      return false;
+    }
+    // the id of a node document is made up of the depth and of the path of the node; for the
+    // long paths, the path is replaced by a hash and then it cannot be matched
+    String path = key.substring(key.indexOf(':') + 1);
+    if (!path.startsWith("/")) {
+      return false;
+    }
+    return staleReadSubtrees.stream()
+        .anyMatch(s -> path.equals(s) || path.startsWith(s.endsWith("/") ? s : s + "/"));
+  }
+}
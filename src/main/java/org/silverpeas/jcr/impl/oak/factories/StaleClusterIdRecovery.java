@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import org.apache.jackrabbit.oak.plugins.document.ClusterNodeInfo;
+import org.apache.jackrabbit.oak.plugins.document.ClusterNodeInfoDocument;
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.Document;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.UpdateOp;
+import org.apache.jackrabbit.oak.plugins.document.rdb.RDBDocumentSerializer;
+import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.util.logging.SilverLogger;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Set;
+
+/**
+ * Recovery of the identifier of a cluster node that is still marked as in use by a previous
+ * instance of this node that has crashed. Without such a recovery, Oak waits at startup for the
+ * lease of the previous instance to expire (120 seconds by default) before being able to take
+ * again the identifier, or it even refuses to start if the previous instance ran in another
+ * working directory.
+ * <p>
+ * The recovery is made in a safe way: the lease of the previous instance is ended only if it
+ * hasn't been renewed during a period longer than the interval at which a live cluster node
+ * renews its lease. The lease is ended through the API of the backend of the document storage,
+ * with an update conditioned on the lease not having been renewed meanwhile: a live cluster node
+ * renewing its lease between the check and the end of the lease isn't then evicted. Once ended,
+ * Oak performs at startup the usual recovery of the last revisions of the crashed node before
+ * taking its identifier.
+ * @author mmoquillon
+ */
+class StaleClusterIdRecovery {
+
+  private static final long DEFAULT_WAIT_TIME =
+      ClusterNodeInfo.DEFAULT_LEASE_UPDATE_INTERVAL_MILLIS + 5000L;
+
+  private final DocumentStore store;
+  private final LeaseTermination termination;
+  private final long waitTime;
+
+  /**
+   * Constructs a new recovery of stale cluster node identifiers in the specified document store.
+   * @param store the document store shared by the cluster nodes.
+   * @param termination the termination of the leases in the backend of the document store.
+   */
+  StaleClusterIdRecovery(final DocumentStore store, final LeaseTermination termination) {
+    this(store, termination, DEFAULT_WAIT_TIME);
+  }
+
+  /**
+   * Constructs a new recovery of stale cluster node identifiers in the specified document store.
+   * @param store the document store shared by the cluster nodes.
+   * @param termination the termination of the leases in the backend of the document store.
+   * @param waitTime the time in milliseconds to wait for a renewal of the lease before
+   * considering the identifier as stale.
+   */
+  StaleClusterIdRecovery(final DocumentStore store, final LeaseTermination termination,
+      final long waitTime) {
+    this.store = store;
+    this.termination = termination;
+    this.waitTime = waitTime;
+  }
+
+  /**
+   * Gets the termination of the leases in the specified MongoDB database: the lease is ended with
+   * a {@code findOneAndUpdate} filtered on the end time of the lease checked.
+   * @param database the MongoDB database of the document store.
+   * @return the termination of the leases in MongoDB.
+   */
+  static LeaseTermination inMongoDB(final MongoDatabase database) {
+    return (info, leaseEnd) -> database.getCollection(Collection.CLUSTER_NODES.toString())
+        .findOneAndUpdate(
+            Filters.and(Filters.eq(Document.ID, info.getId()),
+                Filters.eq(ClusterNodeInfo.LEASE_END_KEY, info.getLeaseEndTime())),
+            Updates.combine(Updates.set(ClusterNodeInfo.LEASE_END_KEY, leaseEnd),
+                Updates.inc(Document.MOD_COUNT, 1L))) != null;
+  }
+
+  /**
+   * Gets the termination of the leases in the specified relational database. The end time of
+   * the lease isn't a column of the table of the cluster nodes but a property of the document
+   * serialized in it; so, as Oak does for its own updates, the change is appended to the
+   * serialized document with an update conditioned on the modification count of the document
+   * checked, which is incremented at each renewal of the lease.
+   * @param dataSource the data source of the relational database.
+   * @param tablePrefix the prefix of the tables of the document store.
+   * @param store the document store in the relational database.
+   * @return the termination of the leases in the relational database.
+   */
+  static LeaseTermination inRDB(final DataSource dataSource, final String tablePrefix,
+      final DocumentStore store) {
+    String table = (tablePrefix.isEmpty() || tablePrefix.endsWith("_") ? tablePrefix :
+        tablePrefix + "_") + "CLUSTERNODES";
+    RDBDocumentSerializer serializer = new RDBDocumentSerializer(store);
+    return (info, leaseEnd) -> {
+      UpdateOp op = new UpdateOp(info.getId(), false);
+      op.set(ClusterNodeInfo.LEASE_END_KEY, leaseEnd);
+      String change = "," + serializer.asString(op, Set.of());
+      try (Connection connection = dataSource.getConnection();
+           PreparedStatement update = connection.prepareStatement("update " + table +
+               " set MODCOUNT = MODCOUNT + 1, DSIZE = DSIZE + ?, DATA = CONCAT(DATA, ?) " +
+               "where ID = ? and MODCOUNT = ?")) {
+        update.setLong(1, change.getBytes(StandardCharsets.UTF_8).length);
+        update.setString(2, change);
+        update.setString(3, info.getId());
+        update.setLong(4, info.getModCount());
+        boolean ended = update.executeUpdate() == 1;
+        if (!connection.getAutoCommit()) {
+          connection.commit();
+        }
+        return ended;
+      } catch (SQLException e) {
+        throw new SilverpeasRuntimeException(e);
+      }
+    };
+  }
+
+  /**
+   * Recovers the specified cluster node identifier if it is stale, that is to say if it is marked
+   * as in use with a lease that isn't renewed anymore. If the identifier is in use by a live
+   * cluster node, nothing is done and Oak will reject the identifier at startup.
+   * @param clusterId the identifier of the cluster node.
+   * @return true if the identifier was stale and then recovered, false otherwise.
+   */
+  boolean recover(final int clusterId) {
+    final String id = String.valueOf(clusterId);
+    ClusterNodeInfoDocument info = store.find(Collection.CLUSTER_NODES, id, 0);
+    if (info == null || !info.isActive() ||
+        info.getLeaseEndTime() <= System.currentTimeMillis()) {
+      return false;
+    }
+
+    SilverLogger logger = SilverLogger.getLogger(this);
+    logger.info("Cluster node id {0} is marked as in use. Checking its lease is renewed...", id);
+    long leaseEnd = info.getLeaseEndTime();
+    try {
+      Thread.sleep(waitTime);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    info = store.find(Collection.CLUSTER_NODES, id, 0);
+    if (info == null || !info.isActive() || info.getLeaseEndTime() != leaseEnd) {
+      logger.warn("Cluster node id {0} is in use by another live cluster node", id);
+      return false;
+    }
+
+    // the lease is ended only if it hasn't been renewed meanwhile
+    if (!termination.end(info, System.currentTimeMillis() - 1)) {
+      logger.warn("Cluster node id {0} is in use by another live cluster node", id);
+      return false;
+    }
+    logger.info("Lease of the stale cluster node id {0} ended", id);
+    return true;
+  }
+
+  /**
+   * The termination of the lease of a cluster node in the backend of the document store.
+   */
+  @FunctionalInterface
+  interface LeaseTermination {
+
+    /**
+     * Ends the lease of the specified cluster node if it hasn't been renewed since the cluster
+     * node info was read.
+     * @param info the info of the cluster node as read when checking its lease.
+     * @param leaseEnd the new end time of the lease.
+     * @return true if the lease is ended, false if it has been renewed meanwhile.
+     */
+    boolean end(final ClusterNodeInfoDocument info, final long leaseEnd);
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.silverpeas.core.util.logging.SilverLogger;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive throttling of the bulk writes into a document storage. Two lags are periodically
+ * measured:
+ * <ul>
+ *   <li>the propagation lag, that is the age of the oldest change of this cluster node not yet
+ *   made visible to the other cluster nodes by the background operations. It grows with the
+ *   backlog of changes to persist and with the duration of the background writes,</li>
+ *   <li>the replication lag of the secondaries of the database.</li>
+ * </ul>
+ * When one of them exceeds the half of its maximum value, the bulk writes, that is to say the
+ * commits of many nodes at once as done by the imports or by the batches, are delayed. The
+ * delay grows linearly with the lag up to a maximum reached when the lag is at its maximum. The
+ * commits of fewer nodes, as done by the interactive sessions, are never delayed. The delay is
+ * applied by a {@link WriteThrottlingHook} before the commit takes its revision so that the other
+ * commits and the background operations of Oak, the ones that reduce the lags, go on meanwhile.
+ * @author mmoquillon
+ */
+class WriteThrottler implements WriteThrottlerMBean, Closeable {
+
+  private static final long SAMPLING_INTERVAL = 1000;
+
+  private volatile long maxPropagationLag;
+  private volatile long maxReplicationLag;
+  private volatile int bulkThreshold;
+  private volatile long maxDelay;
+  private final AtomicLong propagationLag = new AtomicLong(0);
+  private final AtomicLong replicationLag = new AtomicLong(0);
+  private final AtomicLong delay = new AtomicLong(0);
+  private final AtomicLong throttledWrites = new AtomicLong(0);
+  private final AtomicLong throttlingTime = new AtomicLong(0);
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Constructs a new throttler of the bulk writes.
+   * @param maxPropagationLag the maximum propagation lag in milliseconds.
+   * @param maxReplicationLag the maximum replication lag in seconds.
+   * @param bulkThreshold the number of nodes committed at once from which a commit is a bulk one.
+   * @param maxDelay the maximum delay in milliseconds of a bulk write.
+   */
+  WriteThrottler(final long maxPropagationLag, final long maxReplicationLag,
+      final int bulkThreshold, final long maxDelay) {
+    this.maxPropagationLag = maxPropagationLag;
+    this.maxReplicationLag = maxReplicationLag;
+    this.bulkThreshold = bulkThreshold;
+    this.maxDelay = maxDelay;
+  }
+
+  /**
+   * Changes the thresholds of the throttling. They are taken into account from the next
+   * measure of the lags.
+   * @param maxPropagationLag the maximum propagation lag in milliseconds.
+   * @param maxReplicationLag the maximum replication lag in seconds.
+   * @param bulkThreshold the number of nodes committed at once from which a commit is a bulk one.
+   * @param maxDelay the maximum delay in milliseconds of a bulk write.
+   */
+  void reconfigure(final long maxPropagationLag, final long maxReplicationLag,
+      final int bulkThreshold, final long maxDelay) {
+    this.maxPropagationLag = maxPropagationLag;
+    this.maxReplicationLag = maxReplicationLag;
+    this.bulkThreshold = bulkThreshold;
+    this.maxDelay = maxDelay;
+  }
+
+  /**
+   * Starts to watch the lags by measuring them periodically with the specified probes.
+   * @param propagationLagProbe the probe of the propagation lag in milliseconds.
+   * @param replicationLagProbe the probe of the replication lag in seconds.
+   */
+  void start(final LongSupplier propagationLagProbe, final LongSupplier replicationLagProbe) {
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "silverpeas-jcr-write-throttling");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        update(propagationLagProbe.getAsLong(), replicationLagProbe.getAsLong());
+      } catch (Exception e) {
+        SilverLogger.getLogger(this).silent(e);
+      }
+    }, SAMPLING_INTERVAL, SAMPLING_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Updates the lags and then computes the delay to apply to the bulk writes.
+   * @param propagationLag the propagation lag in milliseconds.
+   * @param replicationLag the replication lag in seconds.
+   */
+  void update(final long propagationLag, final long replicationLag) {
+    this.propagationLag.set(propagationLag);
+    this.replicationLag.set(replicationLag);
+    double pressure = Math.max((double) propagationLag / maxPropagationLag,
+        (double) replicationLag / maxReplicationLag);
+    double ratio = Math.min(1.0, Math.max(0.0, (pressure - 0.5) * 2));
+    long newDelay = Math.round(maxDelay * ratio);
+    long oldDelay = delay.getAndSet(newDelay);
+    if (oldDelay == 0 && newDelay > 0) {
+      SilverLogger.getLogger(this)
+          .warn("Bulk writes throttled: propagation lag of {0} ms, replication lag of {1} s",
+              String.valueOf(propagationLag), String.valueOf(replicationLag));
+    } else if (oldDelay > 0 && newDelay == 0) {
+      SilverLogger.getLogger(this).info("Bulk writes no more throttled");
+    }
+  }
+
+  /**
+   * Is the throttling of the bulk writes currently required by the lags?
+   * @return true if the bulk writes are currently delayed, false otherwise.
+   */
+  boolean isThrottling() {
+    return delay.get() > 0;
+  }
+
+  /**
+   * Gets the number of nodes committed at once from which a commit is a bulk one.
+   * @return the bulk threshold.
+   */
+  int getBulkThreshold() {
+    return bulkThreshold;
+  }
+
+  /**
+   * Throttles the commit of the specified number of nodes if it is a bulk write and if the lags
+   * require it.
+   * @param count the number of nodes committed at once.
+   */
+  void throttle(final int count) {
+    long currentDelay = delay.get();
+    if (count < bulkThreshold || currentDelay == 0) {
+      return;
+    }
+    try {
+      Thread.sleep(currentDelay);
+      throttledWrites.incrementAndGet();
+      throttlingTime.addAndGet(currentDelay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public long getPropagationLag() {
+    return propagationLag.get();
+  }
+
+  @Override
+  public long getReplicationLag() {
+    return replicationLag.get();
+  }
+
+  @Override
+  public long getCurrentDelay() {
+    return delay.get();
+  }
+
+  @Override
+  public long getThrottledWriteCount() {
+    return throttledWrites.get();
+  }
+
+  @Override
+  public long getTotalThrottlingTime() {
+    return throttlingTime.get();
+  }
+
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+}
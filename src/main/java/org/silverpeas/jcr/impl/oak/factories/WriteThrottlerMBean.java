@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+/**
+ * Management interface of the throttling of the bulk writes into a document storage. It allows
+ * the sysadmins to see the lags watched by the throttling and how much the writes are slowed down.
+ * @author mmoquillon
+ */
+public interface WriteThrottlerMBean {
+
+  String TYPE = "DocumentStoreWriteThrottling";
+
+  /**
+   * Gets the last measured lag of the propagation of the changes of this cluster node to the
+   * other cluster nodes.
+   * @return the propagation lag in milliseconds.
+   */
+  long getPropagationLag();
+
+  /**
+   * Gets the last measured replication lag of the secondaries of the database.
+   * @return the replication lag in seconds.
+   */
+  long getReplicationLag();
+
+  /**
+   * Gets the delay currently applied to each bulk write.
+   * @return the current delay in milliseconds.
+   */
+  long getCurrentDelay();
+
+  /**
+   * Gets the number of bulk writes that were throttled since the opening of the storage.
+   * @return the number of throttled writes.
+   */
+  long getThrottledWriteCount();
+
+  /**
+   * Gets the total time the bulk writes were delayed since the opening of the storage.
+   * @return the total throttling time in milliseconds.
+   */
+  long getTotalThrottlingTime();
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+import javax.annotation.Nonnull;
+
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+
+/**
+ * Commit hook throttling the bulk commits into a document storage according to the lags watched
+ * by a {@link WriteThrottler}. The hook is run by Oak when a change set is merged, before the
+ * commit takes its revision and enters the commit queue of the storage: a throttled bulk commit
+ * then delays neither the commits of the other sessions nor the background operations. The size
+ * of a change set is the number of nodes it adds, removes or changes; the counting of the nodes
+ * is done only when the bulk commits are currently throttled and it stops at the bulk threshold.
+ * @author mmoquillon
+ */
+class WriteThrottlingHook implements CommitHook {
+
+  private final WriteThrottler throttler;
+
+  /**
+   * Constructs a new hook throttling the bulk commits with the specified throttler.
+   * @param throttler the throttler of the bulk writes.
+   */
+  WriteThrottlingHook(final WriteThrottler throttler) {
+    this.throttler = throttler;
+  }
+
+  @Override
+  @Nonnull
+  public NodeState processCommit(final NodeState before, final NodeState after,
+      final CommitInfo info) {
+    if (throttler.isThrottling()) {
+      ChangeCounter counter = new ChangeCounter(throttler.getBulkThreshold());
+      after.compareAgainstBaseState(before, counter);
+      throttler.throttle(counter.count);
+    }
+    return after;
+  }
+
+  /**
+   * Counter of the nodes added, removed or changed between two node states, up to a given limit.
+   */
+  private static class ChangeCounter extends DefaultNodeStateDiff {
+
+    private final int limit;
+    private int count = 0;
+
+    private ChangeCounter(final int limit) {
+      this.limit = limit;
+    }
+
+    @Override
+    public boolean childNodeAdded(final String name, final NodeState after) {
+      return childNodeChanged(name, EMPTY_NODE, after);
+    }
+
+    @Override
+    public boolean childNodeChanged(final String name, final NodeState before,
+        final NodeState after) {
+      count++;
+      return count < limit && after.compareAgainstBaseState(before, this);
+    }
+
+    @Override
+    public boolean childNodeDeleted(final String name, final NodeState before) {
+      return childNodeChanged(name, before, EMPTY_NODE);
+    }
+  }
+}
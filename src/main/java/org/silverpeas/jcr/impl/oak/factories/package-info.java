@@ -43,8 +43,13 @@
  *   purpose.</li>
  * </ul>
  * <p>
- *   It is possible in Oak to use a composite storage (for instance, a segment storage alongside
- *   a document storage) but this isn't yet addressed by Silverpeas.
+ *   It is also possible to use a composite storage: a writable default storage, either a segment or
+ *   a document one, alongside some read-only segment storages into which the content of the
+ *   archived component instances is moved.
+ * </p>
+ * <p>
+ *   The content of a repository can be migrated from a segment storage to a document storage, or
+ *   the reverse, with the {@link org.silverpeas.jcr.impl.oak.factories.NodeStoreMigrator} tool.
  * </p>
  * @author mmoquillon
  */
@@ -39,6 +39,12 @@
  * between Silverpeas and a given JCR backend and it must satisfy some settings defined in
  * {@link org.silverpeas.jcr.impl.RepositorySettings} object.
  * </p>
+ * <p>
+ * The JCR can be sharded into several repositories, each of them with its own storage. The content
+ * of the component instances is then routed to the repositories by a
+ * {@link org.silverpeas.jcr.JCRSession} according to the routing rules defined in the
+ * {@link org.silverpeas.jcr.impl.RepositorySettings} object.
+ * </p>
  * @author mmoquillon
  */
 package org.silverpeas.jcr;
\ No newline at end of file
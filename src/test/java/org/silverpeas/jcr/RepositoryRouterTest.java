@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test on the routing of the content of the component instances to the shards of the JCR.
+ * @author mmoquillon
+ */
+@UnitTest
+class RepositoryRouterTest {
+
+  private final RepositoryRouter router = new RepositoryRouter()
+      .routeInstances("shard1", List.of("kmelia12", "gallery*"))
+      .routeInstances("shard2", List.of("kmelia13"))
+      .routePaths("shard2", List.of("/forums"))
+      .routePaths("shard1", List.of("/forums/archives/"));
+
+  @Test
+  @DisplayName("A component instance should be routed either by its identifier or by a prefix")
+  void instancesAreRoutedByIdentifierOrPrefix() {
+    assertThat(router.routeInstance("kmelia12"), is("shard1"));
+    assertThat(router.routeInstance("kmelia13"), is("shard2"));
+    assertThat(router.routeInstance("gallery3"), is("shard1"));
+    assertThat(router.routeInstance("kmelia14"), nullValue());
+  }
+
+  @Test
+  @DisplayName("A path should be routed by the component instance of its first node")
+  void pathsAreRoutedByInstance() {
+    assertThat(router.routePath("/kmelia12"), is("shard1"));
+    assertThat(router.routePath("/kmelia13/attachments/simpledoc_1"), is("shard2"));
+    assertThat(router.routePath("/kmelia14/attachments"), nullValue());
+    assertThat(router.routePath("/"), nullValue());
+  }
+
+  @Test
+  @DisplayName("A path should be routed by the longest matching path prefix")
+  void pathsAreRoutedByTheLongestPrefix() {
+    assertThat(router.routePath("/forums"), is("shard2"));
+    assertThat(router.routePath("/forums/messages"), is("shard2"));
+    assertThat(router.routePath("/forums/archives/2020"), is("shard1"));
+    assertThat(router.routePath("/forumsold"), nullValue());
+  }
+
+  @Test
+  @DisplayName("A component instance cannot be routed to two shards")
+  void anInstanceCannotBeRoutedTwice() {
+    List<String> instances = List.of("kmelia12");
+    assertThrows(IllegalArgumentException.class,
+        () -> router.routeInstances("shard2", instances));
+  }
+}
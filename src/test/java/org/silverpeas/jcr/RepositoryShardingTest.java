@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.extention.SystemProperty;
+import org.silverpeas.core.test.extention.TestManagedBeans;
+import org.silverpeas.jcr.impl.RepositorySettings;
+import org.silverpeas.jcr.security.SecurityTest;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+import java.util.ArrayList;
+import java.util.List;
+
+import static javax.jcr.nodetype.NodeType.NT_FOLDER;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.silverpeas.jcr.RepositoryShardingTest.JCR_HOME;
+import static org.silverpeas.jcr.RepositoryShardingTest.OAK_CONFIG;
+
+/**
+ * Unit test about the routing of the content of the component instances to the shards of the
+ * JCR.
+ * @author mmoquillon
+ */
+@SystemProperty(key = RepositorySettings.JCR_HOME, value = JCR_HOME)
+@SystemProperty(key = RepositorySettings.JCR_CONF, value = OAK_CONFIG)
+@SystemProperty(key = RepositorySettings.JCR_SHARDS, value = "galleries")
+@SystemProperty(key = RepositorySettings.JCR_SHARD + "galleries.instances", value = "gallery*")
+@TestManagedBeans({RepositoryProvider.class})
+class RepositoryShardingTest extends SecurityTest {
+
+  public static final String JCR_HOME = "/tmp/jcr";
+  public static final String OAK_CONFIG = "classpath:/silverpeas-oak.properties";
+
+  private static final String KMELIA = "kmelia42";
+  private static final String GALLERY = "gallery42";
+
+  private String galleryFolderId;
+
+  @BeforeEach
+  public void createContent() throws Exception {
+    new SilverpeasJCRSchemaRegister().init();
+    try (JCRSession session = JCRSession.openSystemSession()) {
+      for (String instanceId : new String[]{KMELIA, GALLERY}) {
+        Node root = session.getRootNode(instanceId);
+        if (!root.hasNode(instanceId)) {
+          root.addNode(instanceId, NT_FOLDER).addNode("attachments", NT_FOLDER);
+        }
+      }
+      session.save();
+      galleryFolderId = session.getNode("/" + GALLERY + "/attachments").getIdentifier();
+    }
+  }
+
+  @Test
+  @DisplayName("The content of a routed instance should be stored in its shard")
+  void contentOfARoutedInstanceIsStoredInItsShard() throws RepositoryException {
+    RepositoryProvider provider = RepositoryProvider.get();
+    assertThat(provider.getRepository(GALLERY), not(sameInstance(provider.getRepository())));
+    assertThat(provider.getRepository(KMELIA), sameInstance(provider.getRepository()));
+    try (JCRSession session = JCRSession.openSystemSession()) {
+      assertThat(session.getRootNode(KMELIA).hasNode(KMELIA), is(true));
+      assertThat(session.getRootNode(KMELIA).hasNode(GALLERY), is(false));
+      assertThat(session.getRootNode(GALLERY).hasNode(GALLERY), is(true));
+      assertThat(session.getRootNode(GALLERY).hasNode(KMELIA), is(false));
+    }
+  }
+
+  @Test
+  @DisplayName("The content of a routed instance should be accessed transparently by its path")
+  void contentOfARoutedInstanceIsAccessedByItsPath() throws RepositoryException {
+    try (JCRSession session = JCRSession.openSystemSession()) {
+      assertThat(session.nodeExists("/" + KMELIA + "/attachments"), is(true));
+      assertThat(session.nodeExists("/" + GALLERY + "/attachments"), is(true));
+
+      session.getNode("/" + GALLERY + "/attachments").addNode("photo_1", NT_FOLDER);
+      session.save();
+      assertThat(session.nodeExists("/" + GALLERY + "/attachments/photo_1"), is(true));
+
+      session.removeItem("/" + GALLERY + "/attachments/photo_1");
+      session.save();
+      assertThat(session.nodeExists("/" + GALLERY + "/attachments/photo_1"), is(false));
+    }
+  }
+
+  @Test
+  @DisplayName("The content of a routed instance should be found by its identifier")
+  void contentOfARoutedInstanceIsFoundByItsIdentifier() throws RepositoryException {
+    try (JCRSession session = JCRSession.openSystemSession()) {
+      Node folder = session.getNodeByIdentifier(galleryFolderId);
+      assertThat(folder.getPath(), is("/" + GALLERY + "/attachments"));
+      assertThat(folder.getSession(), sameInstance(session));
+    }
+  }
+
+  @Test
+  @DisplayName("The content of a routed instance created from the root node should be stored " +
+      "in its shard and found by its path and by query")
+  void contentOfARoutedInstanceCreatedFromTheRootNodeIsStoredInItsShard()
+      throws RepositoryException {
+    final String gallery = "gallery43";
+    try (JCRSession session = JCRSession.openSystemSession()) {
+      Node photo = session.getRootNode().addNode(gallery, NT_FOLDER).addNode("photo_1", NT_FOLDER);
+      assertThat(photo.getSession(), sameInstance(session));
+      session.save();
+
+      assertThat(session.getRootNode().hasNode(gallery), is(true));
+      assertThat(session.getRootNode(gallery).hasNode(gallery), is(true));
+      assertThat(session.getRootNode(KMELIA).hasNode(gallery), is(false));
+      assertThat(session.getNode("/" + gallery + "/photo_1").getSession(),
+          sameInstance(session));
+
+      Query query = session.getWorkspace().getQueryManager().createQuery(
+          "SELECT * FROM [nt:folder] AS f WHERE NAME(f) IN ('photo_1', 'attachments')",
+          Query.JCR_SQL2);
+      List<String> paths = new ArrayList<>();
+      NodeIterator nodes = query.execute().getNodes();
+      while (nodes.hasNext()) {
+        paths.add(nodes.nextNode().getPath());
+      }
+      assertThat(paths, containsInAnyOrder("/" + KMELIA + "/attachments",
+          "/" + GALLERY + "/attachments", "/" + gallery + "/photo_1"));
+
+      session.removeItem("/" + gallery);
+      session.save();
+    }
+  }
+
+  @Test
+  @DisplayName("The results of an ordered query with a limit should be the first ones across all " +
+      "the repositories")
+  void orderedQueryResultsAreMergedAcrossTheRepositories() throws RepositoryException {
+    try (JCRSession session = JCRSession.openSystemSession()) {
+      // the documents are interleaved between the default repository and the shard
+      for (int i = 0; i < 6; i++) {
+        String instanceId = i % 2 == 0 ? KMELIA : GALLERY;
+        session.getNode("/" + instanceId + "/attachments").addNode("document_" + i, NT_FOLDER);
+      }
+      session.save();
+
+      Query query = session.getWorkspace().getQueryManager().createQuery(
+          "SELECT * FROM [nt:folder] AS d WHERE NAME(d) LIKE 'document_%' ORDER BY NAME(d) DESC",
+          Query.JCR_SQL2);
+      query.setOffset(1);
+      query.setLimit(3);
+      List<String> names = new ArrayList<>();
+      NodeIterator nodes = query.execute().getNodes();
+      while (nodes.hasNext()) {
+        names.add(nodes.nextNode().getName());
+      }
+      assertThat(names, contains("document_4", "document_3", "document_2"));
+
+      for (int i = 0; i < 6; i++) {
+        String instanceId = i % 2 == 0 ? KMELIA : GALLERY;
+        session.removeItem("/" + instanceId + "/attachments/document_" + i);
+      }
+      session.save();
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.extention.SystemProperty;
+import org.silverpeas.core.test.extention.TestManagedBeans;
+import org.silverpeas.jcr.impl.RepositorySettings;
+import org.silverpeas.jcr.security.JCRUserCredentialsProvider;
+import org.silverpeas.jcr.security.SecurityTest;
+
+import javax.jcr.Credentials;
+import javax.jcr.RepositoryException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.silverpeas.jcr.SessionDrainTest.JCR_HOME;
+import static org.silverpeas.jcr.SessionDrainTest.OAK_CONFIG;
+
+/**
+ * Unit test about the draining of the sessions opened with a repository at the shutdown: once
+ * the logins stopped, no session can be opened and the sessions in progress are waited for.
+ * @author mmoquillon
+ */
+@SystemProperty(key = RepositorySettings.JCR_HOME, value = JCR_HOME)
+@SystemProperty(key = RepositorySettings.JCR_CONF, value = OAK_CONFIG)
+@TestManagedBeans({RepositoryProvider.class})
+class SessionDrainTest extends SecurityTest {
+
+  public static final String JCR_HOME = "/tmp/jcr";
+  public static final String OAK_CONFIG = "classpath:/silverpeas-oak.properties";
+
+  private SilverpeasRepository repository;
+  private Credentials credentials;
+
+  @BeforeEach
+  public void openRepository() {
+    // a repository of its own to not stop the logins on the one used by the other tests
+    repository = SilverpeasRepository.wrap(
+        RepositoryProvider.get().getRepository().getRepository());
+    credentials = JCRUserCredentialsProvider.getJcrSystemCredentials();
+  }
+
+  @Test
+  @DisplayName("No session should be opened once the logins stopped")
+  void noLoginOnceTheLoginsStopped() {
+    repository.stopLogins();
+    assertThrows(RepositoryException.class, () -> repository.login(credentials));
+  }
+
+  @Test
+  @DisplayName("The draining should end at the timeout if a session is still opened")
+  void drainingEndsAtTheTimeout() throws Exception {
+    try (JCRSession ignored = repository.login(credentials)) {
+      repository.stopLogins();
+      assertThat(repository.awaitSessionsClosing(200), is(1));
+    }
+    assertThat(repository.awaitSessionsClosing(200), is(0));
+  }
+
+  @Test
+  @DisplayName("The draining should end as soon as the opened sessions are closed")
+  void drainingEndsOnceTheSessionsAreClosed() throws Exception {
+    CountDownLatch opened = new CountDownLatch(1);
+    CompletableFuture<Void> work = CompletableFuture.runAsync(() -> {
+      try (JCRSession ignored = repository.login(credentials)) {
+        opened.countDown();
+        Thread.sleep(500);
+      } catch (RepositoryException e) {
+        throw new IllegalStateException(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    opened.await();
+    repository.stopLogins();
+    long start = System.currentTimeMillis();
+    assertThat(repository.awaitSessionsClosing(10000), is(0));
+    assertThat(System.currentTimeMillis() - start, lessThan(10000L));
+    work.join();
+  }
+}
@@ -63,6 +63,19 @@ class OakRepositoryConfigurationTest {
     final String confPath = "classpath:/silverpeas-oak.properties";
     OakRepositoryConfiguration configuration = OakRepositoryConfiguration.load(confPath);
     assertThat(configuration.getStorageType(), is(StorageType.MEMORY_NODE_STORE));
+    assertThat(configuration.isNodeStoreInstrumented(),
+        is(OakRepositoryConfiguration.DefaultValues.NODE_STORE_INSTRUMENTATION));
+    assertThat(configuration.getConfigurationWatchInterval(),
+        is(OakRepositoryConfiguration.DefaultValues.CONFIGURATION_WATCH_INTERVAL));
+    assertThat(configuration.getLocation(), is(confPath));
+
+    MemoryNodeStoreConfiguration memoryStoreConf =
+        configuration.getMemoryNodeStoreConfiguration();
+    // default values
+    assertThat(memoryStoreConf.getSnapshotPath(),
+        is(MemoryNodeStoreConfiguration.DefaultValues.SNAPSHOT_PATH));
+    assertThat(memoryStoreConf.isSnapshotSavedOnDispose(),
+        is(MemoryNodeStoreConfiguration.DefaultValues.SNAPSHOT_SAVE_ON_DISPOSE));
   }
 
   @Test
@@ -105,6 +118,60 @@ class OakRepositoryConfigurationTest {
         is(SegmentNodeStoreConfiguration.DefaultValues.COMPACTION_MEMORY_THRESHOLD));
     assertThat(segmentStoreConf.getCompactionProgressLog(),
         is(SegmentNodeStoreConfiguration.DefaultValues.COMPACTION_PROGRESS_LOG));
+    assertThat(segmentStoreConf.getBlobStorePath(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.BLOB_STORE_PATH));
+    assertThat(segmentStoreConf.getBlobGCInterval(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.BLOB_GC_INTERVAL));
+    assertThat(segmentStoreConf.getBlobGCMaxAge(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.BLOB_GC_MAX_AGE));
+    assertThat(segmentStoreConf.getOffHeapSegmentCacheSize(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.OFF_HEAP_CACHE_SIZE));
+    assertThat(segmentStoreConf.getOffHeapSegmentCachePolicy().name(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.OFF_HEAP_CACHE_POLICY));
+    assertThat(segmentStoreConf.getMemoryMapping().name(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.MEMORY_MAPPING));
+    assertThat(segmentStoreConf.getWarmUpSize(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.WARM_UP_SIZE));
+    assertThat(segmentStoreConf.getWarmUpSubtrees(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.WARM_UP_SUBTREES));
+    assertThat(segmentStoreConf.getBackupPath(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.BACKUP_PATH));
+    assertThat(segmentStoreConf.getBackupInterval(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.BACKUP_INTERVAL));
+    assertThat(segmentStoreConf.getBackupRetention(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.BACKUP_RETENTION));
+    assertThat(segmentStoreConf.getStandbyMode().name(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.STANDBY_MODE));
+    assertThat(segmentStoreConf.getStandbyPrimaryHost(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.STANDBY_HOST));
+    assertThat(segmentStoreConf.getStandbyPort(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.STANDBY_PORT));
+    assertThat(segmentStoreConf.isStandbySecure(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.STANDBY_SECURE));
+    assertThat(segmentStoreConf.getStandbyAllowedClients(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.STANDBY_ALLOWED_CLIENTS));
+    assertThat(segmentStoreConf.getStandbySyncInterval(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.STANDBY_INTERVAL));
+    assertThat(segmentStoreConf.getStandbyBandwidth(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.STANDBY_BANDWIDTH));
+    assertThat(segmentStoreConf.getStandbyReadTimeout(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.STANDBY_READ_TIMEOUT));
+    assertThat(segmentStoreConf.getSplitBasePath(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.SPLIT_BASE_PATH));
+    assertThat(segmentStoreConf.isReadOnly(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.READ_ONLY));
+    assertThat(segmentStoreConf.getReadOnlyRefreshInterval(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.READ_ONLY_REFRESH_INTERVAL));
+    assertThat(segmentStoreConf.isGroupCommit(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.GROUP_COMMIT));
+    assertThat(segmentStoreConf.getGroupCommitMaxBatchSize(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.GROUP_COMMIT_MAX_BATCH_SIZE));
+    assertThat(segmentStoreConf.getGroupCommitMaxWait(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.GROUP_COMMIT_MAX_WAIT));
+    assertThat(segmentStoreConf.getDurabilityPolicy().name(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.DURABILITY));
+    assertThat(segmentStoreConf.getDurabilityFlushInterval(),
+        is(SegmentNodeStoreConfiguration.DefaultValues.DURABILITY_FLUSH_INTERVAL));
   }
 
   @Test
@@ -144,6 +211,16 @@ class OakRepositoryConfigurationTest {
         is(DocumentNodeStoreConfiguration.DefaultValues.CHILDREN_CACHE_PERCENTAGE));
     assertThat(nodeStoreConf.getDiffCachePercentage(),
         is(DocumentNodeStoreConfiguration.DefaultValues.DIFF_CACHE_PERCENTAGE));
+    assertThat(nodeStoreConf.isCacheDistributionAdaptive(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.ADAPTIVE_CACHE_DISTRIBUTION));
+    assertThat(nodeStoreConf.getAdaptiveCacheDistributionInterval(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.CACHE_DISTRIBUTION_INTERVAL));
+    assertThat(nodeStoreConf.getAdaptiveCacheDistributionStep(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.CACHE_DISTRIBUTION_STEP));
+    assertThat(nodeStoreConf.getAdaptiveCacheDistributionMinPercentage(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.CACHE_DISTRIBUTION_MIN_PERCENTAGE));
+    assertThat(nodeStoreConf.getAdaptiveCacheDistributionMaxPercentage(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.CACHE_DISTRIBUTION_MAX_PERCENTAGE));
     assertThat(nodeStoreConf.getCacheSegmentCount(),
         is(DocumentNodeStoreConfiguration.DefaultValues.CACHE_SEGMENT_COUNT));
     assertThat(nodeStoreConf.getCacheStackMoveDistance(),
@@ -152,5 +229,96 @@ class OakRepositoryConfigurationTest {
         is(DocumentNodeStoreConfiguration.DefaultValues.UPDATE_COUNT_THRESHOLD));
     assertThat(nodeStoreConf.getLeaseCheckMode(),
         is(DocumentNodeStoreConfiguration.DefaultValues.LEASE_CHECK_MODE));
+    assertThat(nodeStoreConf.getBlobGCInterval(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.BLOB_GC_INTERVAL));
+    assertThat(nodeStoreConf.getBlobGCMaxAge(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.BLOB_GC_MAX_AGE));
+    assertThat(nodeStoreConf.getRDBDataSource(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.RDB_DATASOURCE));
+    assertThat(nodeStoreConf.getRDBUrl(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.RDB_URL));
+    assertThat(nodeStoreConf.getRDBPoolSize(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.RDB_POOL_SIZE));
+    assertThat(nodeStoreConf.getRDBTablePrefix(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.RDB_TABLE_PREFIX));
+    assertThat(nodeStoreConf.getRDBBatchSize(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.RDB_BATCH_SIZE));
+    assertThat(nodeStoreConf.getRDBBlobBlockSize(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.RDB_BLOB_BLOCK_SIZE));
+    assertThat(nodeStoreConf.getMemoryLatency(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.MEMORY_LATENCY));
+    assertThat(nodeStoreConf.getClusterId(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.CLUSTER_ID));
+    assertThat(nodeStoreConf.getLeaseDuration(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.LEASE_DURATION));
+    assertThat(nodeStoreConf.getAsyncDelay(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.ASYNC_DELAY));
+    assertThat(nodeStoreConf.isStaleClusterIdRecovered(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.RECOVER_STALE_CLUSTER_ID));
+    assertThat(nodeStoreConf.getReadPreference(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.READ_PREFERENCE));
+    assertThat(nodeStoreConf.getStaleReadSubtrees(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.STALE_READ_SUBTREES));
+    assertThat(nodeStoreConf.getChildrenPrefetchSize(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.CHILDREN_PREFETCH_SIZE));
+    assertThat(nodeStoreConf.isThrottlingEnabled(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.THROTTLING));
+    assertThat(nodeStoreConf.getThrottlingMaxPropagationLag(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.THROTTLING_MAX_PROPAGATION_LAG));
+    assertThat(nodeStoreConf.getThrottlingMaxReplicationLag(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.THROTTLING_MAX_REPLICATION_LAG));
+    assertThat(nodeStoreConf.getThrottlingBulkThreshold(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.THROTTLING_BULK_THRESHOLD));
+    assertThat(nodeStoreConf.getThrottlingMaxDelay(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.THROTTLING_MAX_DELAY));
+    assertThat(nodeStoreConf.getBundlingPatterns(),
+        is(DocumentNodeStoreConfiguration.DefaultValues.BUNDLING_PATTERNS));
+  }
+
+  @Test
+  @DisplayName("Composite storage configuration should be loaded")
+  void loadConfForCompositeStorage() throws IOException {
+    final String confPath = "classpath:/silverpeas-oak-composite.properties";
+    OakRepositoryConfiguration configuration = OakRepositoryConfiguration.load(confPath);
+    assertThat(configuration.getStorageType(), is(StorageType.COMPOSITE_NODE_STORE));
+
+    CompositeNodeStoreConfiguration nodeStoreConf =
+        configuration.getCompositeNodeStoreConfiguration();
+    // specific settings
+    assertThat(nodeStoreConf.getDefaultStorageType(), is(StorageType.SEGMENT_NODE_STORE));
+    assertThat(nodeStoreConf.getMounts(), contains("archives"));
+    // default values
+    assertThat(nodeStoreConf.getMountStoragePath("archives"), is("mounts/archives"));
+    assertThat(nodeStoreConf.getMountedPaths("archives"),
+        is(CompositeNodeStoreConfiguration.DefaultValues.MOUNTED_PATHS));
+  }
+
+  @Test
+  @DisplayName("Cache sizes given as a percentage of the memory should be resolved in MB")
+  void loadConfWithCacheSizesAsPercentageOfMemory() throws IOException {
+    final String confPath = "classpath:/silverpeas-oak-cache-autosizing.properties";
+    OakRepositoryConfiguration configuration = OakRepositoryConfiguration.load(confPath);
+    long mb = 1024L * 1024L;
+    long heap = MemorySize.getMaxHeapMemory();
+    long offHeap = MemorySize.getMaxOffHeapMemory();
+
+    SegmentNodeStoreConfiguration segmentStoreConf =
+        configuration.getSegmentNodeStoreConfiguration();
+    assertThat(segmentStoreConf.getSegmentCacheSize(),
+        is((int) Math.max(MemorySize.MIN_SIZE, heap / 10 / mb)));
+    // the floor
+    assertThat(segmentStoreConf.getStringCacheSize(), is(MemorySize.MIN_SIZE));
+    // a size in MB is taken as is
+    assertThat(segmentStoreConf.getTemplateCacheSize(), is(64));
+    // the ceiling
+    assertThat(segmentStoreConf.getOffHeapSegmentCacheSize(), is((int) Math.max(MemorySize.MIN_SIZE,
+        offHeap * MemorySize.MAX_PERCENTAGE / 100 / mb)));
+
+    DocumentNodeStoreConfiguration documentStoreConf =
+        configuration.getDocumentNodeStoreConfiguration();
+    assertThat(documentStoreConf.getCacheSize(), is((int) Math.max(MemorySize.MIN_SIZE,
+        heap * MemorySize.MAX_PERCENTAGE / 100 / mb)));
+    assertThat(documentStoreConf.getBlobCacheSize(),
+        is((int) Math.max(MemorySize.MIN_SIZE, heap / 20 / mb)));
   }
-}
\ No newline at end of file
+}
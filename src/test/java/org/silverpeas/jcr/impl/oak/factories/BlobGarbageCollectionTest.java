@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.plugins.blob.MarkSweepGarbageCollector;
+import org.apache.jackrabbit.oak.plugins.blob.datastore.DataStoreBlobStore;
+import org.apache.jackrabbit.oak.plugins.blob.datastore.OakFileDataStore;
+import org.apache.jackrabbit.oak.plugins.blob.datastore.SharedDataStoreUtils.SharedStoreRecordType;
+import org.apache.jackrabbit.oak.segment.SegmentBlobReferenceRetriever;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders;
+import org.apache.jackrabbit.oak.segment.file.FileStore;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.spi.cluster.ClusterRepositoryInfo;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.whiteboard.DefaultWhiteboard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Unit test on the garbage collection of the binaries in the external blob store of a segment
+ * storage.
+ * @author mmoquillon
+ */
+@UnitTest
+class BlobGarbageCollectionTest {
+
+  private static final Path JCR_HOME = Path.of("/tmp/jcr-blobgc");
+  private static final int BLOB_SIZE = 256 * 1024;
+  private static final long NEVER = 86400;
+
+  private DataStoreBlobStore blobStore;
+  private FileStore fs;
+  private SegmentNodeStore store;
+  private BlobGarbageCollection gc;
+
+  @BeforeEach
+  public void openStorage() throws Exception {
+    Files.createDirectories(JCR_HOME);
+    OakFileDataStore dataStore = new OakFileDataStore();
+    dataStore.setPath(JCR_HOME.resolve("blobs").toString());
+    dataStore.init(null);
+    blobStore = new DataStoreBlobStore(dataStore);
+    fs = FileStoreBuilder.fileStoreBuilder(JCR_HOME.resolve("segments").toFile())
+        .withBlobStore(blobStore)
+        .build();
+    store = SegmentNodeStoreBuilders.builder(fs).build();
+    String repositoryId = ClusterRepositoryInfo.getOrCreateId(store);
+    blobStore.addMetadataRecord(new ByteArrayInputStream(new byte[0]),
+        SharedStoreRecordType.REPOSITORY.getNameFromId(repositoryId));
+    // the binaries are eligible to the garbage collection whatever their age
+    gc = BlobGarbageCollection.schedule(
+        statistics -> new MarkSweepGarbageCollector(new SegmentBlobReferenceRetriever(fs),
+            blobStore, Runnable::run, 0, repositoryId, new DefaultWhiteboard(), statistics),
+        NEVER);
+  }
+
+  @AfterEach
+  public void purgeStorage() throws Exception {
+    gc.close();
+    fs.close();
+    blobStore.close();
+    FileUtil.delete(JCR_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("The binaries of a removed node should be deleted and their size reclaimed")
+  void binariesOfARemovedNodeAreCollected() throws Exception {
+    NodeBuilder builder = store.getRoot().builder();
+    byte[] content = new byte[BLOB_SIZE];
+    new Random().nextBytes(content);
+    Blob blob = store.createBlob(new ByteArrayInputStream(content));
+    builder.child("kmelia1").child("attachment").setProperty("jcr:data", blob);
+    store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    assertThat(getStoredBlobs(), hasSize(1));
+
+    builder = store.getRoot().builder();
+    builder.getChildNode("kmelia1").remove();
+    store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    // the removed node is still referenced by the old revisions until they are reclaimed by
+    // the compaction: only the last generations of the segments are retained
+    compact();
+    compact();
+    gc.run();
+
+    assertThat(getStoredBlobs(), is(empty()));
+    assertThat(gc.getRunCount(), is(1L));
+    assertThat(gc.getDeletedBlobCount(), is(1L));
+    assertThat(gc.getReclaimedBytes(), greaterThan(0L));
+  }
+
+  @Test
+  @DisplayName("The binaries still referenced shouldn't be deleted")
+  void referencedBinariesAreKept() throws Exception {
+    NodeBuilder builder = store.getRoot().builder();
+    Blob blob = store.createBlob(new ByteArrayInputStream(new byte[BLOB_SIZE]));
+    builder.child("kmelia1").child("attachment").setProperty("jcr:data", blob);
+    store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    compact();
+    compact();
+    gc.run();
+
+    assertThat(getStoredBlobs(), hasSize(1));
+    assertThat(gc.getRunCount(), is(1L));
+    assertThat(gc.getDeletedBlobCount(), is(0L));
+    assertThat(gc.getReclaimedBytes(), is(0L));
+  }
+
+  private void compact() throws IOException {
+    assertThat(fs.compactFull(), is(true));
+    fs.cleanup();
+  }
+
+  private List<String> getStoredBlobs() throws Exception {
+    List<String> blobs = new ArrayList<>();
+    Iterator<String> ids = blobStore.getAllChunkIds(0);
+    ids.forEachRemaining(blobs::add);
+    return blobs;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.Document;
+import org.apache.jackrabbit.oak.plugins.document.UpdateOp;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.util.Utils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+/**
+ * Unit test on the prefetching of the child documents of a node.
+ * @author mmoquillon
+ */
+@UnitTest
+class ChildDocumentPrefetcherTest {
+
+  private static final int CHILDREN_COUNT = 1000;
+
+  private CachingDocumentStore store;
+
+  @BeforeEach
+  void createChildren() {
+    store = new CachingDocumentStore();
+    List<UpdateOp> children = IntStream.range(0, CHILDREN_COUNT)
+        .mapToObj(i -> new UpdateOp(childId(i), true))
+        .collect(Collectors.toList());
+    store.create(Collection.NODES, children);
+  }
+
+  @Test
+  @DisplayName("Iterating the children of a node should read the child documents by page")
+  void childDocumentsAreReadByPage() {
+    ChildDocumentPrefetcher prefetcher = new ChildDocumentPrefetcher(store, 100);
+    iterateChildren(prefetcher);
+    // the first child is read alone, then the others by pages of 100 documents
+    assertThat(store.roundTrips, is(11));
+  }
+
+  @Test
+  @DisplayName("Without prefetching, the child documents should be read one at a time")
+  void childDocumentsAreReadOneAtATimeWithoutPrefetching() {
+    ChildDocumentPrefetcher prefetcher = new ChildDocumentPrefetcher(store, 0);
+    iterateChildren(prefetcher);
+    assertThat(store.roundTrips, is(CHILDREN_COUNT));
+  }
+
+  private void iterateChildren(final ChildDocumentPrefetcher prefetcher) {
+    for (int i = 0; i < CHILDREN_COUNT; i++) {
+      prefetcher.prefetch(Collection.NODES, childId(i));
+      assertThat(store.find(Collection.NODES, childId(i)), notNullValue());
+    }
+  }
+
+  private static String childId(int i) {
+    return Utils.getIdFromPath(String.format("/kmelia1/topic/child%04d", i));
+  }
+
+  /**
+   * A document store simulating a cache and counting the round trips with the database.
+   */
+  private static class CachingDocumentStore extends MemoryDocumentStore {
+    private final Set<String> cache = new HashSet<>();
+    private int roundTrips = 0;
+
+    @Override
+    public <T extends Document> T getIfCached(final Collection<T> collection, final String key) {
+      return cache.contains(key) ? super.find(collection, key) : null;
+    }
+
+    @Override
+    public <T extends Document> T find(final Collection<T> collection, final String key) {
+      if (cache.add(key)) {
+        roundTrips++;
+      }
+      return super.find(collection, key);
+    }
+
+    @Override
+    public <T extends Document> List<T> query(final Collection<T> collection,
+        final String fromKey, final String toKey, final int limit) {
+      roundTrips++;
+      List<T> documents = super.query(collection, fromKey, toKey, limit);
+      documents.forEach(d -> cache.add(d.getId()));
+      return documents;
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test on the archiving of the content of some component instances into a read-only mount
+ * of a composite storage.
+ * @author mmoquillon
+ */
+@UnitTest
+class CompositeNodeStoreTest {
+
+  private static final Path JCR_HOME = Path.of("/tmp/jcr-composite");
+
+  private OakRepositoryConfiguration conf;
+
+  @BeforeEach
+  public void prepareFileStorages() throws Exception {
+    Files.createDirectories(JCR_HOME);
+    conf = OakRepositoryConfiguration.load("classpath:/silverpeas-oak-composite.properties");
+    CompositeNodeStoreFactory factory = new CompositeNodeStoreFactory();
+    NodeStore store = factory.create(JCR_HOME.toString(), conf);
+    try {
+      NodeBuilder builder = store.getRoot().builder();
+      builder.child("kmelia1").child("attachments").setProperty("title", "Bart Simpson");
+      builder.child("kmelia2").child("attachments").setProperty("title", "Homer Simpson");
+      store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    } finally {
+      factory.dispose(store);
+    }
+  }
+
+  @AfterEach
+  public void purgeFileStorages() throws IOException {
+    FileUtil.delete(JCR_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("The archived content should be still readable but no more writable")
+  void archivedContentIsReadOnly() throws Exception {
+    new CompositeStoreArchiver(JCR_HOME.toString(), conf).archive("archives", List.of("/kmelia1"));
+
+    CompositeNodeStoreFactory factory = new CompositeNodeStoreFactory();
+    NodeStore store = factory.create(JCR_HOME.toString(), conf);
+    try {
+      assertThat(store.getRoot().getChildNode("kmelia1").getChildNode("attachments")
+          .getString("title"), is("Bart Simpson"));
+
+      NodeBuilder builder = store.getRoot().builder();
+      builder.child("kmelia2").child("attachments").setProperty("title", "Lisa Simpson");
+      store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+      assertThat(store.getRoot().getChildNode("kmelia2").getChildNode("attachments")
+          .getString("title"), is("Lisa Simpson"));
+
+      NodeBuilder archiveBuilder = store.getRoot().builder();
+      assertThrows(UnsupportedOperationException.class,
+          () -> archiveBuilder.child("kmelia1").child("attachments")
+              .setProperty("title", "Lisa Simpson"));
+    } finally {
+      factory.dispose(store);
+    }
+  }
+
+  @Test
+  @DisplayName("The archived content should be removed from the default storage")
+  void archivedContentIsRemovedFromTheDefaultStorage() {
+    new CompositeStoreArchiver(JCR_HOME.toString(), conf).archive("archives", List.of("/kmelia1"));
+
+    SegmentNodeStoreFactory factory = new SegmentNodeStoreFactory();
+    NodeStore store = factory.create(JCR_HOME.toString(), conf);
+    try {
+      assertThat(store.getRoot().hasChildNode("kmelia1"), is(false));
+      assertThat(store.getRoot().hasChildNode("kmelia2"), is(true));
+    } finally {
+      factory.dispose(store);
+    }
+  }
+
+  @Test
+  @DisplayName("An already archived content cannot be archived again")
+  void archivedContentCannotBeArchivedAgain() {
+    CompositeStoreArchiver archiver = new CompositeStoreArchiver(JCR_HOME.toString(), conf);
+    archiver.archive("archives", List.of("/kmelia1"));
+    List<String> paths = List.of("/kmelia1/attachments");
+    assertThrows(IllegalArgumentException.class, () -> archiver.archive("archives", paths));
+  }
+}
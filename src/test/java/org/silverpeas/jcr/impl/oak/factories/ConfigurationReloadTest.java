@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Unit test on the reload at runtime of the configuration of the repository. The parameters of
+ * the durability of a segment storage can be changed live whereas its other parameters require a
+ * restart.
+ * @author mmoquillon
+ */
+@UnitTest
+class ConfigurationReloadTest {
+
+  private static final Path JCR_HOME = Path.of("/tmp/jcr-reload");
+  private static final Path CONF_FILE = JCR_HOME.resolve("silverpeas-oak.properties");
+
+  private final SegmentNodeStoreFactory factory = new SegmentNodeStoreFactory();
+  private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+  private ObjectName reload;
+  private ObjectName durability;
+  private NodeStore store;
+  private Closeable watch;
+
+  @BeforeEach
+  public void openStorage() throws Exception {
+    Files.createDirectories(JCR_HOME);
+    writeConf("segment.durability = PERIODIC");
+    OakRepositoryConfiguration conf = OakRepositoryConfiguration.load(CONF_FILE.toString());
+    store = factory.create(JCR_HOME.toString(), conf);
+    watch = factory.watch(store, JCR_HOME.toString(), conf);
+    reload = new ObjectName(JmxRegistration.getObjectName(ConfigurationReloadMBean.TYPE,
+        ConfigurationReload.NAME, JCR_HOME.toString()));
+    durability = new ObjectName(JmxRegistration.getObjectName(SegmentStoreDurabilityMBean.TYPE,
+        SegmentStoreDurability.NAME, JCR_HOME.toString()));
+  }
+
+  @AfterEach
+  public void purgeFileStorage() throws IOException {
+    watch.close();
+    factory.dispose(store);
+    FileUtil.delete(JCR_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("An unchanged configuration should be reloaded without effect")
+  void reloadUnchangedConfiguration() throws Exception {
+    server.invoke(reload, "reload", null, null);
+    assertThat(server.getAttribute(reload, "ReloadCount"), is(0L));
+    assertThat((String[]) server.getAttribute(reload, "PendingRestartParameters"), emptyArray());
+  }
+
+  @Test
+  @DisplayName("A tunable parameter should be applied live on demand")
+  void applyTunableParameterOnDemand() throws Exception {
+    writeConf("segment.durability = COMMIT");
+    server.invoke(reload, "reload", null, null);
+    assertThat(server.getAttribute(reload, "ReloadCount"), is(1L));
+    assertThat(server.getAttribute(durability, "DurabilityPolicy"), is("COMMIT"));
+    assertThat((String[]) server.getAttribute(reload, "PendingRestartParameters"), emptyArray());
+  }
+
+  @Test
+  @DisplayName("A parameter that isn't tunable should be reported as requiring a restart")
+  void reportParameterRequiringRestart() throws Exception {
+    writeConf("segment.durability = COMMIT", "segment.tar.size = 128");
+    server.invoke(reload, "reload", null, null);
+    assertThat(server.getAttribute(durability, "DurabilityPolicy"), is("COMMIT"));
+    assertThat((String[]) server.getAttribute(reload, "PendingRestartParameters"),
+        arrayContaining("segment.tar.size"));
+
+    writeConf("segment.durability = PERIODIC");
+    server.invoke(reload, "reload", null, null);
+    assertThat(server.getAttribute(reload, "ReloadCount"), is(2L));
+    assertThat(server.getAttribute(durability, "DurabilityPolicy"), is("PERIODIC"));
+    assertThat((String[]) server.getAttribute(reload, "PendingRestartParameters"), emptyArray());
+  }
+
+  @Test
+  @DisplayName("A change of the configuration file should be applied once detected")
+  void applyChangeOfTheWatchedFile() throws Exception {
+    writeConf("segment.durability = COMMIT");
+    // the modification time is coarse on some filesystems
+    Files.setLastModifiedTime(CONF_FILE, FileTime.from(Instant.now().plusSeconds(2)));
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!"COMMIT".equals(server.getAttribute(durability, "DurabilityPolicy")) &&
+        System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    assertThat(server.getAttribute(durability, "DurabilityPolicy"), is("COMMIT"));
+    assertThat(server.getAttribute(reload, "ReloadCount"), is(1L));
+  }
+
+  private void writeConf(final String... parameters) throws IOException {
+    String conf = "storage = segment\n" +
+        "storage.configuration.watchIntervalInSecs = 1\n" +
+        String.join("\n", parameters) + "\n";
+    Files.writeString(CONF_FILE, conf);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.InitialContent;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.util.Utils;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import static org.apache.jackrabbit.JcrConstants.JCR_CONTENT;
+import static org.apache.jackrabbit.JcrConstants.JCR_MIMETYPE;
+import static org.apache.jackrabbit.JcrConstants.JCR_PRIMARYTYPE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Unit test on the bundling of the nodes of an attachment into a single document.
+ * @author mmoquillon
+ */
+@UnitTest
+class DocumentBundlingTest {
+
+  private static final String OAK_CONFIG = "classpath:/silverpeas-oak-memory-document.properties";
+  private static final String JCR_HOME = "/tmp/jcr";
+  private static final String DOCUMENT_PATH = "/kmelia1/attachments/simpledoc_1";
+
+  @Test
+  @DisplayName("The nodes of an attachment should be stored into a single document")
+  void attachmentIsStoredIntoOneDocument() throws Exception {
+    OakRepositoryConfiguration conf = OakRepositoryConfiguration.load(OAK_CONFIG);
+    DocumentNodeStoreFactory factory = new DocumentNodeStoreFactory();
+    DocumentNodeStore store = (DocumentNodeStore) factory.create(JCR_HOME, conf);
+    try {
+      NodeBuilder root = store.getRoot().builder();
+      new InitialContent().initialize(root);
+      factory.getRepositoryInitializer(conf).initialize(root);
+      store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+      root = store.getRoot().builder();
+      NodeBuilder document = root.child("kmelia1").child("attachments").child("simpledoc_1");
+      document.setProperty(JCR_PRIMARYTYPE, "slv:simpleDocument", Type.NAME);
+      NodeBuilder attachment = document.child("file_fr");
+      attachment.setProperty(JCR_PRIMARYTYPE, "slv:simpleAttachment", Type.NAME);
+      NodeBuilder file = attachment.child("foo.txt");
+      file.setProperty(JCR_PRIMARYTYPE, "nt:file", Type.NAME);
+      NodeBuilder content = file.child(JCR_CONTENT);
+      content.setProperty(JCR_PRIMARYTYPE, "nt:resource", Type.NAME);
+      content.setProperty(JCR_MIMETYPE, "text/plain");
+      store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+      DocumentStore documents = store.getDocumentStore();
+      assertThat(documents.find(Collection.NODES, Utils.getIdFromPath(DOCUMENT_PATH)),
+          notNullValue());
+      assertThat(documents.find(Collection.NODES, Utils.getIdFromPath(DOCUMENT_PATH + "/file_fr")),
+          nullValue());
+      assertThat(documents.find(Collection.NODES,
+          Utils.getIdFromPath(DOCUMENT_PATH + "/file_fr/foo.txt/" + JCR_CONTENT)), nullValue());
+
+      NodeState actual = store.getRoot().getChildNode("kmelia1").getChildNode("attachments")
+          .getChildNode("simpledoc_1").getChildNode("file_fr").getChildNode("foo.txt")
+          .getChildNode(JCR_CONTENT);
+      assertThat(actual.getString(JCR_MIMETYPE), is("text/plain"));
+    } finally {
+      factory.dispose(store);
+    }
+  }
+}
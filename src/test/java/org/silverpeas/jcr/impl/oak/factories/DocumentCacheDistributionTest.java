@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.jackrabbit.oak.cache.CacheLIRS;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Unit test on the adaptive distribution of the memory among the caches of a document storage.
+ * @author mmoquillon
+ */
+@UnitTest
+class DocumentCacheDistributionTest {
+
+  private static final int PARENTS = 200;
+  private static final int CHILDREN = 50;
+
+  private final DocumentCacheDistribution caches = new DocumentCacheDistribution();
+  private DocumentNodeStore store;
+
+  @BeforeEach
+  void createStore() throws Exception {
+    store = caches.newBuilder()
+        .setDocumentStore(new MemoryDocumentStore())
+        .setExecutor(MoreExecutors.newDirectExecutorService())
+        .memoryCacheSize(4L * 1024L * 1024L)
+        .build();
+    for (int p = 0; p < PARENTS; p++) {
+      NodeBuilder builder = store.getRoot().builder();
+      NodeBuilder parent = builder.child("kmelia").child("folder" + p);
+      for (int c = 0; c < CHILDREN; c++) {
+        parent.child("document" + c).setProperty("title", "Document " + p + "-" + c);
+      }
+      store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    }
+    // the adaptation is triggered explicitly by the tests
+    caches.start(3600, 5, 50, 300);
+    // the activity of the content creation is sampled once for all
+    caches.adapt();
+  }
+
+  @AfterEach
+  void disposeStore() {
+    caches.close();
+    store.dispose();
+  }
+
+  @Test
+  @DisplayName("Without any activity, the distribution of the caches shouldn't change")
+  void distributionUnchangedWithoutActivity() {
+    long nodeCacheSize = getNodeCache().getMaxMemory();
+    long childrenCacheSize = getChildrenCache().getMaxMemory();
+    caches.adapt();
+    assertThat(getNodeCache().getMaxMemory(), is(nodeCacheSize));
+    assertThat(getChildrenCache().getMaxMemory(), is(childrenCacheSize));
+  }
+
+  @Test
+  @DisplayName("With a listing-heavy workload, the thrashing node cache should get more memory")
+  void thrashingCacheGetsMoreMemory() {
+    long nodeCacheSize = getNodeCache().getMaxMemory();
+    listChildren();
+    caches.adapt();
+    assertThat(getNodeCache().getMaxMemory(), greaterThan(nodeCacheSize));
+  }
+
+  private void listChildren() {
+    for (int i = 0; i < 10; i++) {
+      for (int p = 0; p < PARENTS; p++) {
+        for (ChildNodeEntry child : store.getRoot().getChildNode("kmelia")
+            .getChildNode("folder" + p).getChildNodeEntries()) {
+          child.getNodeState().getString("title");
+        }
+      }
+    }
+  }
+
+  private CacheLIRS<?, ?> getNodeCache() {
+    assertThat(store.getNodeCache(), instanceOf(CacheLIRS.class));
+    return (CacheLIRS<?, ?>) store.getNodeCache();
+  }
+
+  private CacheLIRS<?, ?> getChildrenCache() {
+    assertThat(store.getNodeChildrenCache(), instanceOf(CacheLIRS.class));
+    return (CacheLIRS<?, ?>) store.getNodeChildrenCache();
+  }
+}
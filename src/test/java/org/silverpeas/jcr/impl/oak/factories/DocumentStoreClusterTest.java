@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.plugins.document.ClusterNodeInfo;
+import org.apache.jackrabbit.oak.plugins.document.ClusterNodeInfoDocument;
+import org.apache.jackrabbit.oak.plugins.document.Collection;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.UpdateOp;
+import org.apache.jackrabbit.oak.plugins.document.rdb.RDBDocumentNodeStoreBuilder;
+import org.apache.jackrabbit.oak.plugins.document.rdb.RDBDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.rdb.RDBOptions;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test on a cluster of document storages sharing the same in-memory documents.
+ * @author mmoquillon
+ */
+@UnitTest
+class DocumentStoreClusterTest {
+
+  private static final String OAK_CONFIG = "classpath:/silverpeas-oak-memory-document.properties";
+  private static final String CLUSTER_NODE_CONFIG =
+      "classpath:/silverpeas-oak-cluster-node{0}.properties";
+  private static final int CLUSTER_SIZE = 3;
+  private static final String JCR_HOME = "/tmp/jcr";
+  private static final String RDB_TABLE_PREFIX = "SP";
+
+  private JdbcDataSource dataSource;
+
+  @Test
+  @DisplayName("A change done in a cluster node should be visible from the other cluster node")
+  void changesArePropagatedAmongTheClusterNodes() throws Exception {
+    OakRepositoryConfiguration conf = OakRepositoryConfiguration.load(OAK_CONFIG);
+    DocumentNodeStoreFactory factory1 = new DocumentNodeStoreFactory();
+    DocumentNodeStoreFactory factory2 = new DocumentNodeStoreFactory();
+    DocumentNodeStore node1 = (DocumentNodeStore) factory1.create(JCR_HOME, conf);
+    try {
+      DocumentNodeStore node2 = (DocumentNodeStore) factory2.create(JCR_HOME, conf);
+      try {
+        assertThat(node1.getClusterId(), not(node2.getClusterId()));
+
+        NodeBuilder builder = node1.getRoot().builder();
+        builder.child("GED_1").child("files").setProperty("title", "Bart Simpson");
+        node1.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        assertThat(node2.getRoot().hasChildNode("GED_1"), is(false));
+
+        node1.runBackgroundOperations();
+        node2.runBackgroundOperations();
+        assertThat(node2.getRoot().getChildNode("GED_1").getChildNode("files")
+            .getString("title"), is("Bart Simpson"));
+      } finally {
+        factory2.dispose(node2);
+      }
+    } finally {
+      factory1.dispose(node1);
+    }
+  }
+
+  @Test
+  @DisplayName("A change done in any node of a cluster should be visible from all the other nodes")
+  void changesArePropagatedAmongSeveralClusterNodes() throws Exception {
+    List<DocumentNodeStoreFactory> factories = new ArrayList<>();
+    List<DocumentNodeStore> nodes = new ArrayList<>();
+    try {
+      for (int i = 1; i <= CLUSTER_SIZE; i++) {
+        OakRepositoryConfiguration conf = OakRepositoryConfiguration.load(
+            CLUSTER_NODE_CONFIG.replace("{0}", String.valueOf(i)));
+        DocumentNodeStoreFactory factory = new DocumentNodeStoreFactory();
+        factories.add(factory);
+        nodes.add((DocumentNodeStore) factory.create(JCR_HOME, conf));
+        assertThat(nodes.get(i - 1).getClusterId(), is(i));
+      }
+
+      for (DocumentNodeStore node : nodes) {
+        NodeBuilder builder = node.getRoot().builder();
+        builder.child("GED_" + node.getClusterId()).setProperty("owner", node.getClusterId());
+        node.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+      }
+      nodes.forEach(DocumentNodeStore::runBackgroundOperations);
+      nodes.forEach(DocumentNodeStore::runBackgroundOperations);
+
+      for (DocumentNodeStore node : nodes) {
+        for (int i = 1; i <= CLUSTER_SIZE; i++) {
+          assertThat(node.getRoot().getChildNode("GED_" + i).getLong("owner"), is((long) i));
+        }
+      }
+    } finally {
+      for (int i = nodes.size() - 1; i >= 0; i--) {
+        factories.get(i).dispose(nodes.get(i));
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("A lease not longer than its renewal interval plus its failure margin should be " +
+      "rejected")
+  void tooShortLeaseIsRejected() throws Exception {
+    OakRepositoryConfiguration conf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-short-lease.properties");
+    DocumentNodeStoreFactory factory = new DocumentNodeStoreFactory();
+    assertThrows(IllegalArgumentException.class, () -> factory.create(JCR_HOME, conf));
+  }
+
+  @Test
+  @DisplayName("A cluster node id whose the lease isn't renewed anymore should be recovered")
+  void staleClusterIdIsRecovered() {
+    RDBDocumentStore store = createRDBDocumentStore();
+    try {
+      long leaseEnd = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2);
+      store.create(Collection.CLUSTER_NODES, List.of(activeClusterNode(5, leaseEnd)));
+
+      boolean recovered = new StaleClusterIdRecovery(store,
+          StaleClusterIdRecovery.inRDB(dataSource, RDB_TABLE_PREFIX, store), 100).recover(5);
+
+      assertThat(recovered, is(true));
+      ClusterNodeInfoDocument info = store.find(Collection.CLUSTER_NODES, "5", 0);
+      assertThat(info.getLeaseEndTime(), lessThan(System.currentTimeMillis()));
+    } finally {
+      store.dispose();
+    }
+  }
+
+  @Test
+  @DisplayName("A cluster node id whose the lease is renewed shouldn't be recovered")
+  void liveClusterIdIsNotRecovered() {
+    RDBDocumentStore store = createRDBDocumentStore();
+    try {
+      long leaseEnd = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2);
+      store.create(Collection.CLUSTER_NODES, List.of(activeClusterNode(5, leaseEnd)));
+      CompletableFuture.runAsync(() -> renewLease(store, 5, leaseEnd + 10000),
+          CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+
+      boolean recovered = new StaleClusterIdRecovery(store,
+          StaleClusterIdRecovery.inRDB(dataSource, RDB_TABLE_PREFIX, store), 500).recover(5);
+
+      assertThat(recovered, is(false));
+      ClusterNodeInfoDocument info = store.find(Collection.CLUSTER_NODES, "5", 0);
+      assertThat(info.getLeaseEndTime(), is(leaseEnd + 10000));
+    } finally {
+      store.dispose();
+    }
+  }
+
+  @Test
+  @DisplayName("A cluster node id whose the lease is renewed just before its recovery shouldn't be" +
+      " recovered")
+  void clusterIdRenewedWhileRecoveringIsNotRecovered() {
+    RDBDocumentStore store = createRDBDocumentStore();
+    try {
+      long leaseEnd = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2);
+      store.create(Collection.CLUSTER_NODES, List.of(activeClusterNode(5, leaseEnd)));
+      StaleClusterIdRecovery.LeaseTermination termination =
+          StaleClusterIdRecovery.inRDB(dataSource, RDB_TABLE_PREFIX, store);
+
+      // the live cluster node renews its lease between the check and the end of the lease
+      boolean recovered = new StaleClusterIdRecovery(store, (info, end) -> {
+        renewLease(store, 5, leaseEnd + 10000);
+        return termination.end(info, end);
+      }, 100).recover(5);
+
+      assertThat(recovered, is(false));
+      ClusterNodeInfoDocument info = store.find(Collection.CLUSTER_NODES, "5", 0);
+      assertThat(info.getLeaseEndTime(), is(leaseEnd + 10000));
+    } finally {
+      store.dispose();
+    }
+  }
+
+  private RDBDocumentStore createRDBDocumentStore() {
+    dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:clusternodes;DB_CLOSE_DELAY=-1");
+    dataSource.setUser("sa");
+    return new RDBDocumentStore(dataSource, new RDBDocumentNodeStoreBuilder(),
+        new RDBOptions().tablePrefix(RDB_TABLE_PREFIX).dropTablesOnClose(true));
+  }
+
+  private static void renewLease(final DocumentStore store, final int clusterId,
+      final long leaseEnd) {
+    UpdateOp renewal = new UpdateOp(String.valueOf(clusterId), false);
+    renewal.set(ClusterNodeInfo.LEASE_END_KEY, leaseEnd);
+    store.findAndUpdate(Collection.CLUSTER_NODES, renewal);
+  }
+
+  private static UpdateOp activeClusterNode(final int clusterId, final long leaseEnd) {
+    UpdateOp op = new UpdateOp(String.valueOf(clusterId), true);
+    op.set(ClusterNodeInfo.STATE, "ACTIVE");
+    op.set(ClusterNodeInfo.LEASE_END_KEY, leaseEnd);
+    return op;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import java.io.ByteArrayInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test on the recording of the operations performed on a node storage.
+ * @author mmoquillon
+ */
+@UnitTest
+class InstrumentedNodeStoreTest {
+
+  private InstrumentedNodeStore store;
+
+  @BeforeEach
+  public void instrumentStore() {
+    store = InstrumentedNodeStore.decorate(new MemoryNodeStore(), "/tmp/jcr");
+  }
+
+  @AfterEach
+  public void closeStore() {
+    store.close();
+  }
+
+  @Test
+  @DisplayName("The node storage shouldn't be instrumented by default")
+  void storageIsNotInstrumentedByDefault() throws Exception {
+    OakRepositoryConfiguration conf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak.properties");
+    MemoryNodeStoreFactory factory = new MemoryNodeStoreFactory();
+    NodeStore nodeStore = factory.create("/tmp/jcr", conf);
+    try {
+      assertThat(factory.instrument(nodeStore, "/tmp/jcr", conf), is(sameInstance(nodeStore)));
+    } finally {
+      factory.dispose(nodeStore);
+    }
+  }
+
+  @Test
+  @DisplayName("The merges, the blob writes and the checkpoint operations should be recorded")
+  void operationsAreRecorded() throws Exception {
+    NodeBuilder builder = store.getRoot().builder();
+    builder.child("kmelia1").setProperty("title", "Bart Simpson");
+    store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    store.createBlob(new ByteArrayInputStream(new byte[4096]));
+    String checkpoint = store.checkpoint(60000);
+    store.retrieve(checkpoint);
+    store.release(checkpoint);
+
+    assertThat(store.getRoot().getChildNode("kmelia1").getString("title"), is("Bart Simpson"));
+    assertThat(store.getMergeCount(), is(1L));
+    assertThat(store.getMergeFailureCount(), is(0L));
+    assertThat(store.getBlobCreationCount(), is(1L));
+    assertThat(store.getBlobBytesWritten(), is(4096L));
+    assertThat(store.getCheckpointOperationCount(), is(3L));
+  }
+
+  @Test
+  @DisplayName("A merge failing on a conflict should be recorded as such")
+  void conflictingMergeIsRecorded() {
+    NodeBuilder builder = store.getRoot().builder();
+    builder.child("kmelia1").setProperty("title", "Bart Simpson");
+    assertThrows(CommitFailedException.class, () -> store.merge(builder, (before, after, info) -> {
+      throw new CommitFailedException(CommitFailedException.MERGE, 1, "Conflicting changes");
+    }, CommitInfo.EMPTY));
+
+    assertThat(store.getMergeCount(), is(1L));
+    assertThat(store.getMergeFailureCount(), is(1L));
+    assertThat(store.getMergeConflictCount(), is(1L));
+    assertThat(store.getRoot().hasChildNode("kmelia1"), is(false));
+  }
+}
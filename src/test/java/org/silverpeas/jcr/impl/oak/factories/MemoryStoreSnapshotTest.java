@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Unit test on the initialization of a memory storage from a snapshot of its content.
+ * @author mmoquillon
+ */
+@UnitTest
+class MemoryStoreSnapshotTest {
+
+  private static final Path JCR_HOME = Path.of("/tmp/jcr-snapshot");
+  private static final Path SNAPSHOT = JCR_HOME.resolve("snapshot");
+
+  private final MemoryNodeStoreFactory factory = new MemoryNodeStoreFactory();
+  private OakRepositoryConfiguration conf;
+
+  @BeforeEach
+  public void prepareJcrHome() throws Exception {
+    Files.createDirectories(JCR_HOME);
+    conf = OakRepositoryConfiguration.load("classpath:/silverpeas-oak-memory-snapshot.properties");
+  }
+
+  @AfterEach
+  public void purgeJcrHome() throws IOException {
+    FileUtil.delete(JCR_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("A memory storage should be initialized from the snapshot saved at its disposal")
+  void memoryStorageIsInitializedFromItsSnapshot() throws Exception {
+    NodeStore store = factory.create(JCR_HOME.toString(), conf);
+    try {
+      assertThat(store.getRoot().hasChildNode("kmelia1"), is(false));
+      setTitle(store, "Bart Simpson");
+    } finally {
+      factory.dispose(store);
+    }
+    assertThat(Files.isDirectory(SNAPSHOT), is(true));
+
+    store = factory.create(JCR_HOME.toString(), conf);
+    try {
+      assertThat(getTitle(store), is("Bart Simpson"));
+      setTitle(store, "Lisa Simpson");
+    } finally {
+      factory.dispose(store);
+    }
+
+    store = factory.create(JCR_HOME.toString(), conf);
+    try {
+      assertThat(getTitle(store), is("Lisa Simpson"));
+    } finally {
+      factory.dispose(store);
+    }
+  }
+
+  @Test
+  @DisplayName("A snapshot saved on demand should replace the one yet read by the memory storage")
+  void snapshotSavedOnDemandReplacesTheLoadedOne() throws Exception {
+    MemoryStoreSnapshot snapshot = MemoryStoreSnapshot.load(SNAPSHOT);
+    try {
+      setTitle(snapshot.getNodeStore(), "Bart Simpson");
+      snapshot.save();
+    } finally {
+      snapshot.close();
+    }
+
+    snapshot = MemoryStoreSnapshot.load(SNAPSHOT);
+    try {
+      setTitle(snapshot.getNodeStore(), "Lisa Simpson");
+      assertThat(snapshot.saveSnapshot(), is(SNAPSHOT.toString()));
+      assertThat(getTitle(snapshot.getNodeStore()), is("Lisa Simpson"));
+    } finally {
+      snapshot.close();
+    }
+
+    snapshot = MemoryStoreSnapshot.load(SNAPSHOT);
+    try {
+      assertThat(getTitle(snapshot.getNodeStore()), is("Lisa Simpson"));
+    } finally {
+      snapshot.close();
+    }
+    try (var files = Files.list(JCR_HOME)) {
+      assertThat(files.count(), is(1L));
+    }
+  }
+
+  private void setTitle(final NodeStore store, final String title) throws Exception {
+    NodeBuilder builder = store.getRoot().builder();
+    builder.child("kmelia1").child("attachments").setProperty("title", title);
+    store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+  }
+
+  private String getTitle(final NodeStore store) {
+    return store.getRoot().getChildNode("kmelia1").getChildNode("attachments").getString("title");
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.SilverpeasRuntimeException;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test on the migration of the content of a repository between two node storages.
+ * @author mmoquillon
+ */
+@UnitTest
+class NodeStoreMigratorTest {
+
+  private static final Path JCR_HOME = Path.of("/tmp/jcr-migration");
+
+  private final SegmentNodeStoreFactory factory = new SegmentNodeStoreFactory();
+  private OakRepositoryConfiguration sourceConf;
+  private OakRepositoryConfiguration targetConf;
+  private NodeStoreMigrator migrator;
+
+  @BeforeEach
+  public void prepareSourceStorage() throws Exception {
+    Files.createDirectories(JCR_HOME);
+    sourceConf = OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment.properties");
+    targetConf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-migration-target.properties");
+    migrator = new NodeStoreMigrator(JCR_HOME.toString(), sourceConf, targetConf, 2);
+    NodeStore source = factory.create(JCR_HOME.toString(), sourceConf);
+    try {
+      NodeBuilder builder = source.getRoot().builder();
+      for (int i = 0; i < 3; i++) {
+        NodeBuilder instance = builder.child("kmelia" + i);
+        for (int j = 0; j < 1500; j++) {
+          instance.child("document" + j).setProperty("title", "Document " + j);
+        }
+      }
+      source.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    } finally {
+      factory.dispose(source);
+    }
+  }
+
+  @AfterEach
+  public void purgeFileStorages() throws IOException {
+    FileUtil.delete(JCR_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("The content should be copied and then caught up up to the completion of the " +
+      "migration")
+  void migrateContentInSeveralPasses() throws Exception {
+    migrator.copy();
+    NodeStore target = factory.create(JCR_HOME.toString(), targetConf);
+    try {
+      NodeState root = target.getRoot();
+      assertThat(root.getChildNode("kmelia2").getChildNodeCount(Long.MAX_VALUE), is(1500L));
+      assertThat(root.getChildNode("kmelia1").getChildNode("document42").getString("title"),
+          is("Document 42"));
+      assertThat(root.hasProperty(NodeStoreMigrator.MIGRATION_CHECKPOINT), is(true));
+    } finally {
+      factory.dispose(target);
+    }
+
+    NodeStore source = factory.create(JCR_HOME.toString(), sourceConf);
+    try {
+      NodeBuilder builder = source.getRoot().builder();
+      builder.child("kmelia1").child("document42").setProperty("title", "Lisa Simpson");
+      builder.child("kmelia2").remove();
+      builder.child("kmelia3").child("document0").setProperty("title", "Bart Simpson");
+      source.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    } finally {
+      factory.dispose(source);
+    }
+    migrator.complete();
+
+    target = factory.create(JCR_HOME.toString(), targetConf);
+    try {
+      NodeState root = target.getRoot();
+      assertThat(root.getChildNode("kmelia1").getChildNode("document42").getString("title"),
+          is("Lisa Simpson"));
+      assertThat(root.hasChildNode("kmelia2"), is(false));
+      assertThat(root.getChildNode("kmelia3").getChildNode("document0").getString("title"),
+          is("Bart Simpson"));
+      assertThat(root.hasProperty(NodeStoreMigrator.MIGRATION_CHECKPOINT), is(false));
+    } finally {
+      factory.dispose(target);
+    }
+  }
+
+  @Test
+  @DisplayName("The content shouldn't be copied into a target storage that isn't empty")
+  void copyIntoANonEmptyStorageFails() {
+    migrator.copy();
+    assertThrows(SilverpeasRuntimeException.class, () -> migrator.copy());
+  }
+
+  @Test
+  @DisplayName("No catch-up should be done without a previous copy")
+  void catchUpWithoutCopyFails() {
+    assertThrows(SilverpeasRuntimeException.class, () -> migrator.catchUp());
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.oak.cache.AbstractCacheStats;
+import org.apache.jackrabbit.oak.commons.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.SegmentNodeStoreConfiguration.CacheAdmissionPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+/**
+ * Unit test on the off-heap second-level cache of segments and on its admission policies.
+ * @author mmoquillon
+ */
+@UnitTest
+class OffHeapSegmentCacheTest {
+
+  private static final long MAX_SIZE = 1024L * 1024L;
+  private static final int SEGMENT_SIZE = 256 * 1024;
+  // the number of segments filling the cache
+  private static final int CAPACITY = (int) (MAX_SIZE / SEGMENT_SIZE);
+
+  private OffHeapSegmentCache cache;
+
+  @AfterEach
+  void closeCache() {
+    if (cache != null) {
+      cache.close();
+    }
+  }
+
+  @Test
+  @DisplayName("The hits, the misses and the evictions of the cache should be counted")
+  void hitsMissesAndEvictionsAreCounted() {
+    cache = new OffHeapSegmentCache(1, CacheAdmissionPolicy.LRU);
+    for (int i = 0; i < CAPACITY; i++) {
+      read(i, SEGMENT_SIZE);
+    }
+    AbstractCacheStats stats = cache.getCacheStats();
+    assertThat(stats.getMissCount(), is((long) CAPACITY));
+    assertThat(stats.getHitCount(), is(0L));
+    assertThat(stats.getElementCount(), is((long) CAPACITY));
+
+    for (int i = 0; i < CAPACITY; i++) {
+      read(i, SEGMENT_SIZE);
+    }
+    assertThat(stats.getMissCount(), is((long) CAPACITY));
+    assertThat(stats.getHitCount(), is((long) CAPACITY));
+    assertThat(stats.getEvictionCount(), is(0L));
+
+    read(CAPACITY, SEGMENT_SIZE);
+    assertThat(stats.getMissCount(), is(CAPACITY + 1L));
+    assertThat(stats.getEvictionCount(), is(1L));
+    assertThat(stats.getElementCount(), is((long) CAPACITY));
+  }
+
+  @Test
+  @DisplayName("With the LRU policy, a new segment should replace the least recently used one")
+  void lruPolicyEvictsTheLeastRecentlyUsedSegment() {
+    cache = new OffHeapSegmentCache(1, CacheAdmissionPolicy.LRU);
+    fillWithFrequentlyUsedSegments();
+    // segment 0 is now the least recently used
+    for (int i = 1; i < CAPACITY; i++) {
+      read(i, SEGMENT_SIZE);
+    }
+
+    read(CAPACITY, SEGMENT_SIZE);
+    assertThat(contains(CAPACITY), is(true));
+    assertThat(contains(0), is(false));
+    for (int i = 1; i < CAPACITY; i++) {
+      assertThat(contains(i), is(true));
+    }
+  }
+
+  @Test
+  @DisplayName("With the LFU policy, a new segment shouldn't replace more frequently used ones")
+  void lfuPolicyKeepsTheMostFrequentlyUsedSegments() {
+    cache = new OffHeapSegmentCache(1, CacheAdmissionPolicy.LFU);
+    fillWithFrequentlyUsedSegments();
+    for (int i = 1; i < CAPACITY; i++) {
+      read(i, SEGMENT_SIZE);
+    }
+
+    // a scan of segments read once doesn't pollute the cache
+    for (int i = CAPACITY; i < 3 * CAPACITY; i++) {
+      read(i, SEGMENT_SIZE);
+      assertThat(contains(i), is(false));
+    }
+    for (int i = 0; i < CAPACITY; i++) {
+      assertThat(contains(i), is(true));
+    }
+    assertThat(cache.getCacheStats().getEvictionCount(), is(0L));
+
+    // whereas a segment becoming more frequently used than the least recently used one replaces it
+    int hotSegment = 3 * CAPACITY;
+    for (int i = 0; i < 10 && !contains(hotSegment); i++) {
+      read(hotSegment, SEGMENT_SIZE);
+    }
+    assertThat(contains(hotSegment), is(true));
+    assertThat(contains(0), is(false));
+    assertThat(cache.getCacheStats().getEvictionCount(), is(1L));
+  }
+
+  @Test
+  @DisplayName("The size of the cache should never exceed its maximum size")
+  void sizeCapIsRespected() {
+    cache = new OffHeapSegmentCache(1, CacheAdmissionPolicy.LRU);
+    Random random = new Random(42);
+    for (int i = 0; i < 200; i++) {
+      read(i, 1 + random.nextInt(SEGMENT_SIZE));
+      assertThat(cache.getCacheStats().estimateCurrentWeight(), lessThanOrEqualTo(MAX_SIZE));
+    }
+    assertThat(cache.getCacheStats().getMaxTotalWeight(), is(MAX_SIZE));
+
+    // a segment bigger than the cache isn't cached at all
+    read(200, (int) MAX_SIZE + 1);
+    assertThat(contains(200), is(false));
+    assertThat(cache.getCacheStats().estimateCurrentWeight(), lessThanOrEqualTo(MAX_SIZE));
+  }
+
+  @Test
+  @DisplayName("The concurrent reads should get their segment without exceeding the maximum size")
+  void concurrentReadsAreServedWithinTheSizeCap() throws Exception {
+    cache = new OffHeapSegmentCache(1, CacheAdmissionPolicy.LFU);
+    ExecutorService readers = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> tasks = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        Random random = new Random(t);
+        tasks.add(readers.submit(() -> {
+          for (int i = 0; i < 500; i++) {
+            // a few hot segments among many cold ones
+            int segment = random.nextInt(4) == 0 ? random.nextInt(100) : random.nextInt(2);
+            read(segment, SEGMENT_SIZE / 4 + segment);
+          }
+        }));
+      }
+      for (Future<?> task : tasks) {
+        task.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      readers.shutdownNow();
+    }
+    AbstractCacheStats stats = cache.getCacheStats();
+    assertThat(stats.estimateCurrentWeight(), lessThanOrEqualTo(MAX_SIZE));
+    assertThat(stats.getHitCount() + stats.getMissCount(), is(2000L));
+    assertThat(contains(0), is(true));
+    assertThat(contains(1), is(true));
+  }
+
+  /**
+   * Fills the cache with segments read several times each.
+   */
+  private void fillWithFrequentlyUsedSegments() {
+    for (int n = 0; n < 3; n++) {
+      for (int i = 0; i < CAPACITY; i++) {
+        read(i, SEGMENT_SIZE);
+      }
+    }
+  }
+
+  private void read(final int segment, final int size) {
+    Buffer buffer = cache.readSegment(0, segment, () -> Buffer.wrap(new byte[size]));
+    assertThat(buffer, notNullValue());
+    assertThat(buffer.remaining(), is(size));
+  }
+
+  private boolean contains(final int segment) {
+    return cache.containsSegment(0, segment);
+  }
+}
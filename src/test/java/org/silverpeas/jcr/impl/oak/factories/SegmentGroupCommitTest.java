@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.plugins.commit.AnnotatingConflictHandler;
+import org.apache.jackrabbit.oak.plugins.commit.ConflictHook;
+import org.apache.jackrabbit.oak.plugins.commit.ConflictValidatorProvider;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.CompositeHook;
+import org.apache.jackrabbit.oak.spi.commit.EditorHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Unit test on the grouping of the concurrent merges into a segment storage.
+ * @author mmoquillon
+ */
+@UnitTest
+class SegmentGroupCommitTest {
+
+  private static final Path JCR_HOME = Path.of("/tmp/jcr-groupcommit");
+  private static final int WRITERS = 8;
+  private static final int MERGES = 50;
+
+  private final SegmentNodeStoreFactory factory = new SegmentNodeStoreFactory();
+  private final CommitHook conflictDetection =
+      new CompositeHook(ConflictHook.of(new AnnotatingConflictHandler()),
+          new EditorHook(new ConflictValidatorProvider()));
+  private NodeStore store;
+
+  @BeforeEach
+  public void openStorage() throws Exception {
+    Files.createDirectories(JCR_HOME);
+    OakRepositoryConfiguration conf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment-groupcommit.properties");
+    store = factory.create(JCR_HOME.toString(), conf);
+  }
+
+  @AfterEach
+  public void purgeFileStorage() throws IOException {
+    factory.dispose(store);
+    FileUtil.delete(JCR_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("All the concurrent merges on distinct subtrees should be committed")
+  void concurrentMergesAreAllCommitted() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+    try {
+      List<Future<Boolean>> writers = new ArrayList<>();
+      for (int i = 0; i < WRITERS; i++) {
+        String kmelia = "kmelia" + i;
+        writers.add(executor.submit(() -> {
+          boolean builderReset = true;
+          for (int j = 0; j < MERGES; j++) {
+            NodeBuilder builder = store.getRoot().builder();
+            builder.child(kmelia).child("publication" + j).setProperty("title", "Bart Simpson");
+            store.merge(builder, conflictDetection, CommitInfo.EMPTY);
+            // once merged, the builder is reset to the merged state
+            builderReset &=
+                builder.getBaseState().getChildNode(kmelia).hasChildNode("publication" + j);
+          }
+          return builderReset;
+        }));
+      }
+      for (Future<Boolean> writer : writers) {
+        assertThat(writer.get(), is(true));
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    NodeState root = store.getRoot();
+    for (int i = 0; i < WRITERS; i++) {
+      assertThat(root.getChildNode("kmelia" + i).getChildNodeCount(Long.MAX_VALUE),
+          is((long) MERGES));
+    }
+
+    // the concurrent merges have been grouped into fewer commits
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName groupCommit = new ObjectName(JmxRegistration.getObjectName(
+        SegmentGroupCommitMBean.TYPE, SegmentGroupCommit.NAME, JCR_HOME.toString()));
+    long mergeCount = (long) server.getAttribute(groupCommit, "MergeCount");
+    assertThat(mergeCount, is((long) WRITERS * MERGES));
+    assertThat((long) server.getAttribute(groupCommit, "GroupCount"), lessThan(mergeCount));
+    assertThat((double) server.getAttribute(groupCommit, "AverageGroupSize"), greaterThan(1.0));
+  }
+
+  @Test
+  @DisplayName("Among two concurrent merges adding the same node, only one should be committed")
+  void conflictingMergeFailsAlone() throws Exception {
+    NodeState base = store.getRoot();
+    NodeBuilder bart = base.builder();
+    bart.child("kmelia1").setProperty("title", "Bart Simpson");
+    NodeBuilder homer = base.builder();
+    homer.child("kmelia1").setProperty("title", "Homer Simpson");
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<NodeState> bartMerge =
+          executor.submit(() -> store.merge(bart, conflictDetection, CommitInfo.EMPTY));
+      Future<NodeState> homerMerge =
+          executor.submit(() -> store.merge(homer, conflictDetection, CommitInfo.EMPTY));
+      int failures = countFailure(bartMerge) + countFailure(homerMerge);
+      assertThat(failures, is(1));
+    } finally {
+      executor.shutdown();
+    }
+
+    String title = store.getRoot().getChildNode("kmelia1").getString("title");
+    assertThat(title.equals("Bart Simpson") || title.equals("Homer Simpson"), is(true));
+  }
+
+  private static int countFailure(final Future<NodeState> merge) throws InterruptedException {
+    try {
+      merge.get();
+      return 0;
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(CommitFailedException.class));
+      return 1;
+    }
+  }
+}
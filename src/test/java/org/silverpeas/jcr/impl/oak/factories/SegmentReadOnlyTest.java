@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test on the opening of a segment storage in read-only mode whereas it is yet used in
+ * read-write mode.
+ * @author mmoquillon
+ */
+@UnitTest
+class SegmentReadOnlyTest {
+
+  private static final Path JCR_HOME = Path.of("/tmp/jcr-readonly");
+
+  private final SegmentNodeStoreFactory factory = new SegmentNodeStoreFactory();
+  private OakRepositoryConfiguration conf;
+  private OakRepositoryConfiguration readOnlyConf;
+
+  @BeforeEach
+  public void prepareStorage() throws Exception {
+    Files.createDirectories(JCR_HOME);
+    conf = OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment.properties");
+    readOnlyConf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment-readonly.properties");
+    write("Bart Simpson");
+  }
+
+  @AfterEach
+  public void purgeFileStorage() throws IOException {
+    FileUtil.delete(JCR_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("A read-only storage should see the changes committed since its opening only " +
+      "once refreshed")
+  void readOnlyStorageFollowsTheChangesOnRefresh() throws Exception {
+    NodeStore store = factory.create(JCR_HOME.toString(), readOnlyConf);
+    try {
+      assertThat(store, instanceOf(ReadOnlySegmentStore.class));
+      ReadOnlySegmentStore readOnlyStore = (ReadOnlySegmentStore) store;
+      assertThat(getTitle(store), is("Bart Simpson"));
+
+      // the read-only storage doesn't lock the storage
+      write("Lisa Simpson");
+      assertThat(getTitle(store), is("Bart Simpson"));
+
+      assertThat(readOnlyStore.refresh(), is(true));
+      assertThat(getTitle(store), is("Lisa Simpson"));
+      assertThat(readOnlyStore.refresh(), is(false));
+    } finally {
+      factory.dispose(store);
+    }
+  }
+
+  @Test
+  @DisplayName("A read-only storage should reject any commit of changes")
+  void readOnlyStorageRejectsChanges() {
+    NodeStore store = factory.create(JCR_HOME.toString(), readOnlyConf);
+    try {
+      NodeBuilder builder = store.getRoot().builder();
+      builder.child("kmelia1").child("attachments").setProperty("title", "Homer Simpson");
+      assertThrows(CommitFailedException.class,
+          () -> store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY));
+      assertThat(getTitle(store), is("Bart Simpson"));
+    } finally {
+      factory.dispose(store);
+    }
+  }
+
+  private void write(final String title) throws CommitFailedException {
+    NodeStore store = factory.create(JCR_HOME.toString(), conf);
+    try {
+      NodeBuilder builder = store.getRoot().builder();
+      builder.child("kmelia1").child("attachments").setProperty("title", title);
+      store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    } finally {
+      factory.dispose(store);
+    }
+  }
+
+  private String getTitle(final NodeStore store) {
+    return store.getRoot().getChildNode("kmelia1").getChildNode("attachments").getString("title");
+  }
+}
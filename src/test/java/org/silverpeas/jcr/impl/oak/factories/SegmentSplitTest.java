@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Unit test on the cloning of a segment storage by a split segment storage over it.
+ * @author mmoquillon
+ */
+@UnitTest
+class SegmentSplitTest {
+
+  private static final Path BASE_HOME = Path.of("/tmp/jcr-base");
+  private static final Path CLONE_HOME = Path.of("/tmp/jcr-clone");
+
+  private final SegmentNodeStoreFactory factory = new SegmentNodeStoreFactory();
+
+  @BeforeEach
+  public void prepareBaseStorage() throws Exception {
+    Files.createDirectories(BASE_HOME);
+    Files.createDirectories(CLONE_HOME);
+    OakRepositoryConfiguration conf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment.properties");
+    NodeStore base = factory.create(BASE_HOME.toString(), conf);
+    try {
+      NodeBuilder builder = base.getRoot().builder();
+      builder.child("kmelia1").child("attachments").setProperty("title", "Bart Simpson");
+      base.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    } finally {
+      factory.dispose(base);
+    }
+  }
+
+  @AfterEach
+  public void purgeFileStorages() throws IOException {
+    FileUtil.delete(BASE_HOME.toFile());
+    FileUtil.delete(CLONE_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("A split storage should read the base content and keep its changes for itself")
+  void splitStorageWritesOnlyIntoItsOverlay() throws Exception {
+    OakRepositoryConfiguration cloneConf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment-split.properties");
+    NodeStore clone = factory.create(CLONE_HOME.toString(), cloneConf);
+    try {
+      assertThat(clone.getRoot().getChildNode("kmelia1").getChildNode("attachments")
+          .getString("title"), is("Bart Simpson"));
+      NodeBuilder builder = clone.getRoot().builder();
+      builder.child("kmelia1").child("attachments").setProperty("title", "Lisa Simpson");
+      clone.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    } finally {
+      factory.dispose(clone);
+    }
+
+    clone = factory.create(CLONE_HOME.toString(), cloneConf);
+    try {
+      assertThat(clone.getRoot().getChildNode("kmelia1").getChildNode("attachments")
+          .getString("title"), is("Lisa Simpson"));
+    } finally {
+      factory.dispose(clone);
+    }
+
+    OakRepositoryConfiguration baseConf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment.properties");
+    NodeStore base = factory.create(BASE_HOME.toString(), baseConf);
+    try {
+      assertThat(base.getRoot().getChildNode("kmelia1").getChildNode("attachments")
+          .getString("title"), is("Bart Simpson"));
+    } finally {
+      factory.dispose(base);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test on the cold standby synchronization between two segment storages, both running on
+ * the localhost.
+ * @author mmoquillon
+ */
+@UnitTest
+class SegmentStandbyTest {
+
+  private static final Path PRIMARY_HOME = Path.of("/tmp/jcr-primary");
+  private static final Path STANDBY_HOME = Path.of("/tmp/jcr-standby");
+  private static final long TIMEOUT = 30000;
+
+  @BeforeEach
+  public void prepareFileStorages() throws IOException {
+    Files.createDirectories(PRIMARY_HOME);
+    Files.createDirectories(STANDBY_HOME);
+  }
+
+  @AfterEach
+  public void purgeFileStorages() throws IOException {
+    FileUtil.delete(PRIMARY_HOME.toFile());
+    FileUtil.delete(STANDBY_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("A standby segment storage should follow the primary one")
+  void standbyStorageFollowsThePrimaryOne() throws Exception {
+    OakRepositoryConfiguration primaryConf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment-primary.properties");
+    OakRepositoryConfiguration standbyConf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment-standby.properties");
+    SegmentNodeStoreFactory factory = new SegmentNodeStoreFactory();
+    NodeStore primary = factory.create(PRIMARY_HOME.toString(), primaryConf);
+    try {
+      NodeBuilder builder = primary.getRoot().builder();
+      builder.child("GED_1").child("files").setProperty("title", "Bart Simpson");
+      primary.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+      NodeStore standby = factory.create(STANDBY_HOME.toString(), standbyConf);
+      try {
+        long start = System.currentTimeMillis();
+        while (!standby.getRoot().hasChildNode("GED_1") &&
+            System.currentTimeMillis() - start < TIMEOUT) {
+          Thread.sleep(100);
+        }
+        assertThat(standby.getRoot().getChildNode("GED_1").getChildNode("files")
+            .getString("title"), is("Bart Simpson"));
+
+        NodeBuilder standbyBuilder = standby.getRoot().builder();
+        standbyBuilder.child("GED_2");
+        assertThrows(CommitFailedException.class,
+            () -> standby.merge(standbyBuilder, EmptyHook.INSTANCE, CommitInfo.EMPTY));
+      } finally {
+        factory.dispose(standby);
+      }
+    } finally {
+      factory.dispose(primary);
+    }
+  }
+}
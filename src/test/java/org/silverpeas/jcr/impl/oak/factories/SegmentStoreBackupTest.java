@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders;
+import org.apache.jackrabbit.oak.segment.file.FileStore;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Unit test on the online and incremental backup of a segment storage.
+ * @author mmoquillon
+ */
+@UnitTest
+class SegmentStoreBackupTest {
+
+  private static final Path JCR_HOME = Path.of("/tmp/jcr-backup");
+  private static final Path SEGMENT_STORE = JCR_HOME.resolve("segmentstore");
+  private static final Path BACKUP_STORE = JCR_HOME.resolve("backups");
+  private static final int RETENTION = 2;
+  // bigger than the maximum size of a TAR file so that each attachment fills at least one
+  private static final int ATTACHMENT_SIZE = 3 * 1024 * 1024 / 2;
+
+  private FileStore fs;
+  private SegmentNodeStore store;
+  private SegmentStoreBackup backup;
+
+  @BeforeEach
+  public void openStorage() throws Exception {
+    Files.createDirectories(SEGMENT_STORE);
+    fs = FileStoreBuilder.fileStoreBuilder(SEGMENT_STORE.toFile())
+        .withMaxFileSize(1)
+        .build();
+    store = SegmentNodeStoreBuilders.builder(fs).build();
+    backup = new SegmentStoreBackup(store, fs, SEGMENT_STORE, BACKUP_STORE, RETENTION);
+  }
+
+  @AfterEach
+  public void purgeStorage() throws IOException {
+    backup.close();
+    fs.close();
+    FileUtil.delete(JCR_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("The TAR files unchanged since the previous backup should be linked, not copied")
+  void unchangedTarFilesAreLinked() throws Exception {
+    addAttachment("kmelia1");
+    Path first = backup.backup();
+    addAttachment("kmelia2");
+    Path second = backup.backup();
+
+    List<Path> firstTarFiles = listTarFiles(first);
+    assertThat(firstTarFiles.size(), greaterThan(1));
+    // the TAR file being written at the first backup has been modified since
+    for (Path tarFile : firstTarFiles.subList(0, firstTarFiles.size() - 1)) {
+      assertThat(Files.isSameFile(tarFile, second.resolve(tarFile.getFileName())), is(true));
+    }
+    Path lastTarFile = firstTarFiles.get(firstTarFiles.size() - 1);
+    assertThat(Files.isSameFile(lastTarFile, second.resolve(lastTarFile.getFileName())),
+        is(false));
+    assertThat(backup.getLastBackup(), is(second.toString()));
+    assertThat(backup.getLastBackupCopiedBytes(), greaterThan(0L));
+    assertThat(backup.getLastBackupCopiedBytes(), lessThan(getSize(listTarFiles(second))));
+  }
+
+  @Test
+  @DisplayName("Only the most recent backups within the retention should be kept")
+  void oldBackupsBeyondTheRetentionArePurged() throws Exception {
+    addAttachment("kmelia1");
+    Path first = backup.backup();
+    addAttachment("kmelia2");
+    Path second = backup.backup();
+    addAttachment("kmelia3");
+    Path third = backup.backup();
+
+    assertThat(listBackups(), contains(second, third));
+    assertThat(Files.exists(first), is(false));
+  }
+
+  @Test
+  @DisplayName("Each backup should be a standalone segment storage with the content backed up")
+  void eachBackupIsAStandaloneStorage() throws Exception {
+    addAttachment("kmelia1");
+    NodeState firstState = store.getRoot();
+    Path first = backup.backup();
+    addAttachment("kmelia2");
+    NodeState secondState = store.getRoot();
+    Path second = backup.backup();
+
+    assertThat(isBackupOf(first, firstState), is(true));
+    assertThat(isBackupOf(second, secondState), is(true));
+    assertThat(isBackupOf(first, secondState), is(false));
+  }
+
+  private void addAttachment(final String instanceId) throws Exception {
+    byte[] content = new byte[ATTACHMENT_SIZE];
+    new Random().nextBytes(content);
+    NodeBuilder builder = store.getRoot().builder();
+    builder.child(instanceId)
+        .child("attachment")
+        .setProperty("jcr:data", store.createBlob(new ByteArrayInputStream(content)));
+    store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+  }
+
+  private boolean isBackupOf(final Path backupDir, final NodeState state) throws Exception {
+    try (ReadOnlyFileStore backupFileStore =
+             FileStoreBuilder.fileStoreBuilder(backupDir.toFile()).buildReadOnly()) {
+      NodeState backedUp = SegmentNodeStoreBuilders.builder(backupFileStore).build().getRoot();
+      return backedUp.equals(state);
+    }
+  }
+
+  private static List<Path> listBackups() throws IOException {
+    try (Stream<Path> files = Files.list(BACKUP_STORE)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static List<Path> listTarFiles(final Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(f -> f.getFileName().toString().endsWith(".tar"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static long getSize(final List<Path> files) throws IOException {
+    long size = 0;
+    for (Path file : files) {
+      size += Files.size(file);
+    }
+    return size;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+import org.silverpeas.jcr.impl.oak.configuration.OakRepositoryConfiguration;
+import org.silverpeas.jcr.impl.oak.configuration.SegmentNodeStoreConfiguration.DurabilityPolicy;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Unit test on the durability policy of the changes committed into a segment storage. A change
+ * is seen by a storage opened in read-only mode only once it is durable.
+ * @author mmoquillon
+ */
+@UnitTest
+class SegmentStoreDurabilityTest {
+
+  private static final Path JCR_HOME = Path.of("/tmp/jcr-durability");
+
+  private final SegmentNodeStoreFactory factory = new SegmentNodeStoreFactory();
+  private OakRepositoryConfiguration readOnlyConf;
+
+  @BeforeEach
+  public void prepareJcrHome() throws Exception {
+    Files.createDirectories(JCR_HOME);
+    readOnlyConf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment-readonly.properties");
+  }
+
+  @AfterEach
+  public void purgeFileStorage() throws IOException {
+    FileUtil.delete(JCR_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("With the commit durability policy, a change should be durable once merged")
+  void changeIsDurableOnceMerged() throws Exception {
+    OakRepositoryConfiguration conf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment-durability.properties");
+    NodeStore store = factory.create(JCR_HOME.toString(), conf);
+    try {
+      setTitle(store, "Bart Simpson");
+      assertThat(getDurableTitle(), is("Bart Simpson"));
+    } finally {
+      factory.dispose(store);
+    }
+  }
+
+  @Test
+  @DisplayName("Whatever the durability policy, a change should be durable once flushed on demand")
+  void changeIsDurableOnceFlushed() throws Exception {
+    OakRepositoryConfiguration conf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment.properties");
+    NodeStore store = factory.create(JCR_HOME.toString(), conf);
+    try {
+      setTitle(store, "Bart Simpson");
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName durability = new ObjectName(JmxRegistration.getObjectName(
+          SegmentStoreDurabilityMBean.TYPE, SegmentStoreDurability.NAME, JCR_HOME.toString()));
+      server.invoke(durability, "flush", null, null);
+      assertThat(getDurableTitle(), is("Bart Simpson"));
+      assertThat(server.getAttribute(durability, "FlushCount"), is(1L));
+    } finally {
+      factory.dispose(store);
+    }
+  }
+
+  @Test
+  @DisplayName("Each segment storage should expose its own durability through JMX")
+  void eachStorageHasItsOwnDurabilityMBean() throws Exception {
+    OakRepositoryConfiguration conf =
+        OakRepositoryConfiguration.load("classpath:/silverpeas-oak-segment.properties");
+    Path otherJcrHome = JCR_HOME.resolve("shard");
+    NodeStore store = factory.create(JCR_HOME.toString(), conf);
+    NodeStore otherStore = factory.create(otherJcrHome.toString(), conf);
+    try {
+      setTitle(store, "Bart Simpson");
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName durability = new ObjectName(JmxRegistration.getObjectName(
+          SegmentStoreDurabilityMBean.TYPE, SegmentStoreDurability.NAME, JCR_HOME.toString()));
+      ObjectName otherDurability = new ObjectName(JmxRegistration.getObjectName(
+          SegmentStoreDurabilityMBean.TYPE, SegmentStoreDurability.NAME,
+          otherJcrHome.toString()));
+      server.invoke(durability, "flush", null, null);
+      assertThat(server.getAttribute(durability, "FlushCount"), is(1L));
+      assertThat(server.getAttribute(otherDurability, "FlushCount"), is(0L));
+    } finally {
+      factory.dispose(otherStore);
+      factory.dispose(store);
+    }
+    assertThat(ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName(
+        "org.apache.jackrabbit.oak:type=" + SegmentStoreDurabilityMBean.TYPE + ",*"), null),
+        is(empty()));
+  }
+
+  @Test
+  @DisplayName("A flush failing at the end of a merge should be recorded and then retried")
+  void failedFlushIsRecordedAndRetried() {
+    AtomicInteger failures = new AtomicInteger(1);
+    AtomicInteger flushes = new AtomicInteger(0);
+    SegmentStoreDurability durability = SegmentStoreDurability.start(() -> {
+      if (failures.getAndDecrement() > 0) {
+        throw new IOException("No space left on device");
+      }
+      flushes.incrementAndGet();
+    }, DurabilityPolicy.COMMIT, 0);
+    try {
+      durability.committed();
+      assertThat(flushes.get(), is(0));
+      assertThat(durability.getFlushFailureCount(), is(1L));
+      assertThat(durability.getLastFlushFailure(), is("No space left on device"));
+
+      durability.committed();
+      assertThat(flushes.get(), is(1));
+      assertThat(durability.getFlushFailureCount(), is(1L));
+      assertThat(durability.getLastFlushFailure(), is(nullValue()));
+      assertThat(durability.getFlushCount(), is(2L));
+    } finally {
+      durability.close();
+    }
+  }
+
+  private void setTitle(final NodeStore store, final String title) throws Exception {
+    NodeBuilder builder = store.getRoot().builder();
+    builder.child("kmelia1").setProperty("title", title);
+    store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+  }
+
+  private String getDurableTitle() {
+    NodeStore readOnlyStore = factory.create(JCR_HOME.toString(), readOnlyConf);
+    try {
+      return readOnlyStore.getRoot().getChildNode("kmelia1").getString("title");
+    } finally {
+      factory.dispose(readOnlyStore);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.apache.jackrabbit.core.fs.local.FileUtil;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Unit test on the warm-up of a segment storage just after its opening.
+ * @author mmoquillon
+ */
+@UnitTest
+class SegmentStoreWarmUpTest {
+
+  private static final Path JCR_HOME = Path.of("/tmp/jcr-warmup");
+  private static final Path SEGMENT_STORE = JCR_HOME.resolve("segmentstore");
+  private static final int MB = 1024 * 1024;
+  private static final long TIMEOUT = 10000;
+
+  private final NodeStore nodeStore = new MemoryNodeStore();
+  private SegmentStoreWarmUp warmUp;
+
+  @BeforeEach
+  public void createStorage() throws Exception {
+    Files.createDirectories(SEGMENT_STORE);
+    // two generations of TAR files: the files of the newest one have the highest indexes
+    createFile("data00000a.tar", 3 * MB / 2);
+    createFile("data00001a.tar", 3 * MB / 2);
+    createFile("data00002b.tar", 3 * MB / 2);
+    createFile("data00003b.tar", 3 * MB / 2);
+    createFile("journal.log", MB);
+    createFile("manifest", MB);
+
+    NodeBuilder root = nodeStore.getRoot().builder();
+    root.child("kmelia1").child("attachments").child("file1");
+    root.child("kmelia1").child("attachments").child("file2");
+    root.child("gallery2").child("photos").child("photo1");
+    root.child("gallery3").child("photos").child("photo1");
+    nodeStore.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+  }
+
+  @AfterEach
+  public void purgeStorage() throws IOException {
+    if (warmUp != null) {
+      warmUp.close();
+    }
+    FileUtil.delete(JCR_HOME.toFile());
+  }
+
+  @Test
+  @DisplayName("The preload of the TAR files should stop once the size budget is read")
+  void preloadStopsAtTheSizeBudget() throws Exception {
+    warmUp = SegmentStoreWarmUp.start(SEGMENT_STORE, 2, List.of(), nodeStore);
+    assertThat(warmUp.await(TIMEOUT), is(true));
+    assertThat(warmUp.getPreloadedBytes(), is(2L * MB));
+    assertThat(warmUp.getPreloadedTarFiles().size(), is(2));
+    assertThat(warmUp.getTraversedNodeCount(), is(0L));
+  }
+
+  @Test
+  @DisplayName("The TAR files of the newest generation should be preloaded first")
+  void newestTarFilesArePreloadedFirst() throws Exception {
+    warmUp = SegmentStoreWarmUp.start(SEGMENT_STORE, 4, List.of(), nodeStore);
+    assertThat(warmUp.await(TIMEOUT), is(true));
+    assertThat(warmUp.getPreloadedBytes(), is(4L * MB));
+    assertThat(warmUp.getPreloadedTarFiles(), contains(SEGMENT_STORE.resolve("data00003b.tar"),
+        SEGMENT_STORE.resolve("data00002b.tar"), SEGMENT_STORE.resolve("data00001a.tar")));
+  }
+
+  @Test
+  @DisplayName("Only the TAR files should be preloaded and no more than their own size")
+  void onlyTarFilesArePreloaded() throws Exception {
+    warmUp = SegmentStoreWarmUp.start(SEGMENT_STORE, 100, List.of(), nodeStore);
+    assertThat(warmUp.await(TIMEOUT), is(true));
+    assertThat(warmUp.getPreloadedBytes(), is(4L * 3 * MB / 2));
+    assertThat(warmUp.getPreloadedTarFiles().size(), is(4));
+  }
+
+  @Test
+  @DisplayName("The content of the configured subtrees only should be traversed")
+  void configuredSubtreesAreTraversed() throws Exception {
+    warmUp = SegmentStoreWarmUp.start(SEGMENT_STORE, 0,
+        List.of("/kmelia1", "/gallery2/photos", "/unknown"), nodeStore);
+    assertThat(warmUp.await(TIMEOUT), is(true));
+    // kmelia1, attachments, file1, file2, then photos and photo1
+    assertThat(warmUp.getTraversedNodeCount(), is(6L));
+    assertThat(warmUp.getPreloadedTarFiles(), is(empty()));
+    assertThat(warmUp.getPreloadedBytes(), is(0L));
+  }
+
+  private static void createFile(final String name, final int size) throws IOException {
+    Files.write(SEGMENT_STORE.resolve(name), new byte[size]);
+  }
+}
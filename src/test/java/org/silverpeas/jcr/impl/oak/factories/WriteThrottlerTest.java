@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Unit test on the throttling of the bulk writes according to the lags of the node storage.
+ * @author mmoquillon
+ */
+@UnitTest
+class WriteThrottlerTest {
+
+  private static final long MAX_DELAY = 200;
+
+  private WriteThrottler throttler;
+
+  @BeforeEach
+  void createThrottler() {
+    throttler = new WriteThrottler(10000, 10, 50, MAX_DELAY);
+  }
+
+  @AfterEach
+  void closeThrottler() {
+    throttler.close();
+  }
+
+  @Test
+  @DisplayName("Without lag, the bulk writes shouldn't be delayed")
+  void bulkWritesAreNotDelayedWithoutLag() {
+    throttler.update(1000, 2);
+    assertThat(throttler.getCurrentDelay(), is(0L));
+    assertThat(timeToThrottle(100), lessThan(MAX_DELAY / 2));
+    assertThat(throttler.getThrottledWriteCount(), is(0L));
+  }
+
+  @Test
+  @DisplayName("The delay should grow with the lag once it exceeds half of its maximum")
+  void delayGrowsWithTheLag() {
+    throttler.update(7500, 0);
+    assertThat(throttler.getCurrentDelay(), is(MAX_DELAY / 2));
+    throttler.update(0, 20);
+    assertThat(throttler.getCurrentDelay(), is(MAX_DELAY));
+  }
+
+  @Test
+  @DisplayName("Under a high lag, the bulk writes should be delayed")
+  void bulkWritesAreDelayedUnderHighLag() {
+    throttler.update(20000, 0);
+    assertThat(timeToThrottle(100), greaterThanOrEqualTo(MAX_DELAY / 2));
+    assertThat(throttler.getThrottledWriteCount(), is(1L));
+    assertThat(throttler.getTotalThrottlingTime(), is(MAX_DELAY));
+  }
+
+  @Test
+  @DisplayName("Under a high lag, the small writes shouldn't be delayed")
+  void smallWritesAreNotDelayedUnderHighLag() {
+    throttler.update(20000, 20);
+    assertThat(timeToThrottle(10), lessThan(MAX_DELAY / 2));
+    assertThat(throttler.getThrottledWriteCount(), is(0L));
+  }
+
+  @Test
+  @DisplayName("The bulk writes shouldn't be delayed anymore once the lag is resorbed")
+  void bulkWritesAreNoMoreDelayedOnceTheLagIsResorbed() {
+    throttler.update(20000, 0);
+    throttler.update(0, 0);
+    assertThat(timeToThrottle(100), lessThan(MAX_DELAY / 2));
+  }
+
+  private long timeToThrottle(final int count) {
+    long start = System.currentTimeMillis();
+    throttler.throttle(count);
+    return System.currentTimeMillis() - start;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2000 - 2023 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/licensing"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.jcr.impl.oak.factories;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStoreBuilder;
+import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.CompositeHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.test.UnitTest;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Unit test on the throttling of the bulk commits into a document storage by a commit hook.
+ * @author mmoquillon
+ */
+@UnitTest
+class WriteThrottlingHookTest {
+
+  private static final long MAX_DELAY = 1000;
+  private static final int BULK_THRESHOLD = 50;
+
+  private WriteThrottler throttler;
+  private DocumentNodeStore store;
+
+  @BeforeEach
+  void createStore() {
+    throttler = new WriteThrottler(10000, 10, BULK_THRESHOLD, MAX_DELAY);
+    store = DocumentNodeStoreBuilder.newDocumentNodeStoreBuilder()
+        .setDocumentStore(new MemoryDocumentStore())
+        .setExecutor(MoreExecutors.newDirectExecutorService())
+        .setAsyncDelay(0)
+        .build();
+  }
+
+  @AfterEach
+  void disposeStore() {
+    store.dispose();
+    throttler.close();
+  }
+
+  @Test
+  @DisplayName("Without lag, a bulk commit shouldn't be delayed")
+  void bulkCommitIsNotDelayedWithoutLag() throws Exception {
+    throttler.update(1000, 2);
+    assertThat(timeToCommit(BULK_THRESHOLD * 2, new WriteThrottlingHook(throttler)),
+        lessThan(MAX_DELAY / 2));
+    assertThat(throttler.getThrottledWriteCount(), is(0L));
+  }
+
+  @Test
+  @DisplayName("Under a high lag, a bulk commit should be delayed")
+  void bulkCommitIsDelayedUnderHighLag() throws Exception {
+    throttler.update(20000, 0);
+    assertThat(timeToCommit(BULK_THRESHOLD * 2, new WriteThrottlingHook(throttler)),
+        greaterThanOrEqualTo(MAX_DELAY));
+    assertThat(throttler.getThrottledWriteCount(), is(1L));
+  }
+
+  @Test
+  @DisplayName("A small commit shouldn't be delayed while a bulk commit is being throttled")
+  void smallCommitIsNotDelayedByAThrottledBulkCommit() throws Exception {
+    throttler.update(20000, 0);
+    CountDownLatch throttling = new CountDownLatch(1);
+    CommitHook bulkHook = CompositeHook.compose(List.of((before, after, info) -> {
+      throttling.countDown();
+      return after;
+    }, new WriteThrottlingHook(throttler)));
+    CompletableFuture<Long> bulkCommit =
+        CompletableFuture.supplyAsync(() -> timeToCommit(BULK_THRESHOLD * 2, bulkHook));
+    assertThat(throttling.await(5, TimeUnit.SECONDS), is(true));
+
+    long smallCommitTime = timeToCommit(1, new WriteThrottlingHook(throttler));
+    assertThat(smallCommitTime, lessThan(MAX_DELAY / 2));
+    assertThat(bulkCommit.isDone(), is(false));
+    assertThat(bulkCommit.get(5, TimeUnit.SECONDS), greaterThanOrEqualTo(MAX_DELAY));
+    assertThat(throttler.getThrottledWriteCount(), is(1L));
+  }
+
+  private long timeToCommit(final int nodeCount, final CommitHook hook) {
+    long start = System.currentTimeMillis();
+    NodeBuilder builder = store.getRoot().builder();
+    NodeBuilder parent = builder.child("test-" + System.nanoTime());
+    for (int i = 0; i < nodeCount; i++) {
+      parent.child("node" + i).setProperty("index", i);
+    }
+    try {
+      store.merge(builder, hook, CommitInfo.EMPTY);
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+    return System.currentTimeMillis() - start;
+  }
+}